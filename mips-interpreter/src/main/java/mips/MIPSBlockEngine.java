@@ -0,0 +1,294 @@
+package main.java.mips;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import main.java.exceptions.*;
+
+/**
+ * Runs the program of a MIPSInterpreter a basic block at a time.
+ *
+ * The first time execution reaches an address in .text, the instructions from there up to
+ * the next branch, jump or syscall, or up to the next labeled instruction, are translated
+ * into a Block: a Step per instruction, bound to its decoded operands, and an Exit that
+ * executes the final branch, jump or syscall, if any, and returns the next pc. Blocks are
+ * cached by their start address, so afterwards a block costs a single dispatch.
+ *
+ * Registers, memory, syscalls and error messages are those of the interpreter. Each block
+ * counts its complete executions, which are added to the interpreter's instruction counts
+ * when the run ends. When an instruction fails, pc is set to it and the instructions of its
+ * block up to and including it are counted, so errors and counts are reported exactly as
+ * when the interpreter steps through the program.
+ */
+class MIPSBlockEngine {
+
+    private interface Step {
+        void run();
+    }
+
+    private interface Exit {
+        int run();
+    }
+
+    private static class Block {
+        final int start;
+        // opcodes of the steps and then of the exit, if it executes an instruction
+        final MIPSOp[] ops;
+        final Step[] steps;
+        final Exit exit;
+        long count;
+
+        Block(int start, MIPSOp[] ops, Step[] steps, Exit exit) {
+            this.start = start;
+            this.ops = ops;
+            this.steps = steps;
+            this.exit = exit;
+        }
+    }
+
+    private final MIPSInterpreter interpreter;
+
+    private final MIPSProgram program;
+
+    // translated blocks, indexed like MIPSProgram.code by their start address
+    private final Block[] blocks;
+
+    private final List<Block> translated = new ArrayList<>();
+
+    MIPSBlockEngine(MIPSInterpreter interpreter) {
+        this.interpreter = interpreter;
+        this.program = interpreter.program;
+        this.blocks = new Block[program.code.length];
+    }
+
+    // runs the program until it exits or an instruction fails
+    void run() {
+        try {
+            while (!interpreter.finished) {
+                int pc = interpreter.pc;
+                Block block = blockAt(pc);
+                if (block == null) {
+                    // no instruction at pc in .text; step like the interpreter does
+                    interpreter.execute(program.fetch(pc));
+                } else {
+                    interpreter.pc = execute(block);
+                }
+            }
+        } finally {
+            for (Block block : translated) {
+                for (MIPSOp op : block.ops) {
+                    interpreter.instructionCounts[op.ordinal()] += block.count;
+                }
+                block.count = 0;
+            }
+        }
+    }
+
+    private int execute(Block block) {
+        Step[] steps = block.steps;
+        int i = 0;
+        try {
+            for (; i < steps.length; i++) {
+                steps[i].run();
+            }
+            int next = block.exit.run();
+            block.count++;
+            return next;
+        } catch (IllegalReadException | IllegalWriteException e) {
+            interpreter.pc = block.start + i * MIPSInstruction.WORD_SIZE;
+            for (int j = 0; j <= i && j < block.ops.length; j++) {
+                interpreter.instructionCounts[block.ops[j].ordinal()]++;
+            }
+            throw e;
+        }
+    }
+
+    private Block blockAt(int pc) {
+        int index = (pc - MemLayout.TEXT) >> 2;
+        if ((pc & 3) != 0 || index < 0 || index >= blocks.length) {
+            return null;
+        }
+
+        Block block = blocks[index];
+        if (block == null) {
+            block = translate(pc);
+            blocks[index] = block;
+        }
+        return block;
+    }
+
+    private Block translate(int start) {
+        List<MIPSOp> ops = new ArrayList<>();
+        List<Step> steps = new ArrayList<>();
+        Exit exit;
+
+        int addr = start;
+        while (true) {
+            MIPSInstruction inst = program.fetch(addr);
+            if (inst == null || (addr != start && inst.label != null)) {
+                int next = addr;
+                exit = () -> next;
+                break;
+            }
+
+            ops.add(inst.op);
+            if (inst.endsBlock()) {
+                exit = exit(inst, addr);
+                break;
+            }
+            steps.add(step(inst));
+            addr += MIPSInstruction.WORD_SIZE;
+        }
+
+        if (ops.isEmpty()) {
+            return null;
+        }
+
+        Block block = new Block(start, ops.toArray(new MIPSOp[0]), steps.toArray(new Step[0]), exit);
+        translated.add(block);
+        return block;
+    }
+
+    // the same as MIPSInterpreter.execute for instructions that continue at pc + 4
+    private Step step(MIPSInstruction inst) {
+        MIPSInterpreter in = interpreter;
+        int rd = inst.rd;
+        int rs = inst.rs;
+        int rt = inst.rt;
+        int imm = inst.imm;
+        float immSingle = inst.immSingle;
+        double immDouble = inst.immDouble;
+
+        switch (inst.op) {
+            case ADD:
+                return () -> in.writeRegister(rd, in.readIntRegister(rs) + in.readIntRegister(rt));
+            case ADDI:
+                return () -> in.writeRegister(rd, in.readIntRegister(rs) + imm);
+            case SUB:
+                return () -> in.writeRegister(rd, in.readIntRegister(rs) - in.readIntRegister(rt));
+            case MUL:
+                return () -> in.writeRegister(rd, in.readIntRegister(rs) * in.readIntRegister(rt));
+            case DIV:
+                return () -> in.writeRegister(rd, in.readIntRegister(rs) / in.readIntRegister(rt));
+            case AND:
+                return () -> in.writeRegister(rd, in.readIntRegister(rs) & in.readIntRegister(rt));
+            case ANDI:
+                return () -> in.writeRegister(rd, in.readIntRegister(rs) & imm);
+            case OR:
+                return () -> in.writeRegister(rd, in.readIntRegister(rs) | in.readIntRegister(rt));
+            case ORI:
+                return () -> in.writeRegister(rd, in.readIntRegister(rs) | imm);
+            case SLL:
+                return () -> in.writeRegister(rd, in.readIntRegister(rs) << imm);
+            case LI:
+                return () -> in.writeRegister(rd, imm);
+            case LA:
+                return () -> in.writeRegister(rd, in.address(inst));
+            case LW:
+                return () -> in.writeRegister(rd, in.readMemInt(in.address(inst)));
+            case MOVE:
+                return () -> in.writeRegister(rd, in.readIntRegister(rs));
+            case SW:
+                return () -> in.writeMemInt(in.address(inst), in.readIntRegister(rs));
+            case ADD_S:
+                return () -> in.writeRegister(rd, in.readSingleRegister(rs) + in.readSingleRegister(rt));
+            case ADDI_S:
+                return () -> in.writeRegister(rd, in.readSingleRegister(rs) + immSingle);
+            case SUB_S:
+                return () -> in.writeRegister(rd, in.readSingleRegister(rs) - in.readSingleRegister(rt));
+            case MUL_S:
+                return () -> in.writeRegister(rd, in.readSingleRegister(rs) * in.readSingleRegister(rt));
+            case DIV_S:
+                return () -> in.writeRegister(rd, in.readSingleRegister(rs) / in.readSingleRegister(rt));
+            case LI_S:
+                return () -> in.writeRegister(rd, immSingle);
+            case MOV_S:
+                return () -> in.writeRegister(rd, in.readSingleRegister(rs));
+            case L_S:
+                return () -> in.writeRegister(rd, in.readMemSingle(in.address(inst)));
+            case S_S:
+                return () -> in.writeMemSingle(in.address(inst), in.readSingleRegister(rs));
+            case C_EQ_S:
+                return () -> in.control = in.readSingleRegister(rs) == in.readSingleRegister(rt);
+            case C_NE_S:
+                return () -> in.control = in.readSingleRegister(rs) != in.readSingleRegister(rt);
+            case C_LT_S:
+                return () -> in.control = in.readSingleRegister(rs) < in.readSingleRegister(rt);
+            case C_GT_S:
+                return () -> in.control = in.readSingleRegister(rs) > in.readSingleRegister(rt);
+            case C_GE_S:
+                return () -> in.control = in.readSingleRegister(rs) >= in.readSingleRegister(rt);
+            case ADD_D:
+                return () -> in.writeRegister(rd, in.readDoubleRegister(rs) + in.readDoubleRegister(rt));
+            case ADDI_D:
+                return () -> in.writeRegister(rd, in.readDoubleRegister(rs) + immDouble);
+            case SUB_D:
+                return () -> in.writeRegister(rd, in.readDoubleRegister(rs) - in.readDoubleRegister(rt));
+            case MUL_D:
+                return () -> in.writeRegister(rd, in.readDoubleRegister(rs) * in.readDoubleRegister(rt));
+            case DIV_D:
+                return () -> in.writeRegister(rd, in.readDoubleRegister(rs) / in.readDoubleRegister(rt));
+            case LI_D:
+                return () -> in.writeRegister(rd, immDouble);
+            case MOV_D:
+                return () -> in.writeRegister(rd, in.readDoubleRegister(rs));
+            case L_D:
+                return () -> in.writeRegister(rd, in.readMemDouble(in.address(inst)));
+            case S_D:
+                return () -> in.writeMemDouble(in.address(inst), in.readDoubleRegister(rs));
+            case C_EQ_D:
+                return () -> in.control = in.readDoubleRegister(rs) == in.readDoubleRegister(rt);
+            case C_NE_D:
+                return () -> in.control = in.readDoubleRegister(rs) != in.readDoubleRegister(rt);
+            case C_LT_D:
+                return () -> in.control = in.readDoubleRegister(rs) < in.readDoubleRegister(rt);
+            case C_GT_D:
+                return () -> in.control = in.readDoubleRegister(rs) > in.readDoubleRegister(rt);
+            case C_GE_D:
+                return () -> in.control = in.readDoubleRegister(rs) >= in.readDoubleRegister(rt);
+            default:
+                return () -> { };
+        }
+    }
+
+    // the same as MIPSInterpreter.execute for the instruction that ends a block at addr
+    private Exit exit(MIPSInstruction inst, int addr) {
+        MIPSInterpreter in = interpreter;
+        int rs = inst.rs;
+        int rt = inst.rt;
+        int next = addr + MIPSInstruction.WORD_SIZE;
+
+        switch (inst.op) {
+            case BEQ:
+                return () -> in.readIntRegister(rs) == in.readIntRegister(rt) ? in.address(inst) : next;
+            case BNE:
+                return () -> in.readIntRegister(rs) != in.readIntRegister(rt) ? in.address(inst) : next;
+            case BLT:
+                return () -> in.readIntRegister(rs) < in.readIntRegister(rt) ? in.address(inst) : next;
+            case BGT:
+                return () -> in.readIntRegister(rs) > in.readIntRegister(rt) ? in.address(inst) : next;
+            case BGE:
+                return () -> in.readIntRegister(rs) >= in.readIntRegister(rt) ? in.address(inst) : next;
+            case J:
+                return () -> in.address(inst);
+            case JAL:
+                return () -> {
+                    in.writeRegister(in.ra, next);
+                    return in.address(inst);
+                };
+            case JR:
+                return () -> in.readIntRegister(rs);
+            case BC1T:
+                return () -> in.control ? in.address(inst) : next;
+            case BC1F:
+                return () -> !in.control ? in.address(inst) : next;
+            case SYSCALL:
+                return () -> {
+                    in.syscall();
+                    return next;
+                };
+            default:
+                throw new IllegalStateException("not a control instruction: " + inst);
+        }
+    }
+}
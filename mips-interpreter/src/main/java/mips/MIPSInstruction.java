@@ -2,10 +2,13 @@ package main.java.mips;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 import main.java.mips.operand.MIPSOperand;
 import main.java.mips.operand.Register;
 import main.java.mips.operand.Addr;
+import main.java.mips.operand.Imm;
+import main.java.exceptions.ParseException;
 
 public class MIPSInstruction {
 
@@ -48,6 +51,22 @@ public class MIPSInstruction {
     public String label;
     public List<MIPSOperand> operands;
 
+    // base of an address operand that is a label
+    public static final int NO_BASE = -1;
+    // base of an address operand whose label is not defined; reported when executed
+    public static final int UNKNOWN_LABEL = -2;
+
+    // operands resolved by decode: register indices of the write and the reads, the address
+    // operand as a base register (or one of the above) plus an offset, and the immediate
+    public int rd = -1;
+    public int rs = -1;
+    public int rt = -1;
+    public int base = NO_BASE;
+    public int offset;
+    public int imm;
+    public float immSingle;
+    public double immDouble;
+
 
     public MIPSInstruction(MIPSOp op, String label, MIPSOperand... operands) {
         this.op = op;
@@ -55,6 +74,69 @@ public class MIPSInstruction {
         this.operands = Arrays.asList(operands);
     }
 
+    /**
+     * Resolves the operands of this instruction into its decoded fields, with labels bound to
+     * their addresses. Registers must have been given their indices by MIPSReader.
+     */
+    public void decode(Map<String, Integer> labels) {
+        try {
+            Register write = getWrite();
+            if (write != null) {
+                rd = write.index;
+            }
+
+            // the base register of a label address is null
+            Register[] reads = getReads();
+            if (reads.length > 0 && reads[0] != null) {
+                rs = reads[0].index;
+            }
+            if (reads.length > 1 && reads[1] != null) {
+                rt = reads[1].index;
+            }
+
+            for (MIPSOperand operand : operands) {
+                if (operand instanceof Addr) {
+                    decodeAddr((Addr)operand, labels);
+                } else if (operand instanceof Imm) {
+                    decodeImm((Imm)operand);
+                }
+            }
+        } catch (ClassCastException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new ParseException("malformed instruction: " + this);
+        }
+    }
+
+    private void decodeAddr(Addr addr, Map<String, Integer> labels) {
+        switch (addr.mode) {
+            case PC_RELATIVE:
+                Integer target = labels.get(addr.label);
+                if (target == null) {
+                    base = UNKNOWN_LABEL;
+                } else {
+                    offset = target;
+                }
+                return;
+            case REGISTER:
+                base = addr.register.index;
+                offset = 0;
+                return;
+            case BASE_OFFSET:
+                base = addr.register.index;
+                offset = addr.constant.getInt();
+                return;
+        }
+    }
+
+    private void decodeImm(Imm constant) {
+        if (!op.floatOp) {
+            imm = constant.getInt();
+        } else if (op.precision.equals("s")) {
+            immSingle = constant.getSingle();
+        } else {
+            immDouble = constant.getDouble();
+        }
+    }
+
     public boolean isBranch() {
         switch (op) {
             case BEQ:
@@ -68,6 +150,21 @@ public class MIPSInstruction {
         }
     }
 
+    // whether the instruction can transfer control or end the program
+    public boolean endsBlock() {
+        switch (op) {
+            case J:
+            case JAL:
+            case JR:
+            case BC1T:
+            case BC1F:
+            case SYSCALL:
+                return true;
+            default:
+                return isBranch();
+        }
+    }
+
     @Override
     public String toString() {
         StringBuilder builder = new StringBuilder();
@@ -183,10 +280,12 @@ public class MIPSInstruction {
             case ORI:
             case SLL:
             case ADD_S:
+            case ADDI_S:
             case SUB_S:
             case MUL_S:
             case DIV_S:
             case ADD_D:
+            case ADDI_D:
             case SUB_D:
             case MUL_D:
             case DIV_D:
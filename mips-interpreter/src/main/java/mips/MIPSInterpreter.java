@@ -1,15 +1,11 @@
 package main.java.mips;
 
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Scanner;
 
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
 
-import java.nio.ByteBuffer;
-
 import main.java.mips.operand.*;
 import main.java.exceptions.*;
 
@@ -30,8 +26,8 @@ public class MIPSInterpreter {
     private static final int BYTE = 1;
 
     // for parsing user commands in debug mode
-    private static String printRegPat = "p \\$[a-z0-9]+|zero";
-    private static String examineMemPat = "x(/-?[0-9]+)? (0x[a-fA-F0-9]+|-?[0-9]+)\\((\\$[a-z0-9]+|zero)\\)";
+    private static String printRegPat = "p \\$[a-z0-9_]+|zero";
+    private static String examineMemPat = "x(/-?[0-9]+)? (0x[a-fA-F0-9]+|-?[0-9]+)\\((\\$[a-z0-9_]+|zero)\\)";
     private static String gotoPat = "g [a-zA-Z_]\\w*";
     private static String immHexPat = "0x[a-fA-F0-9]+";
 
@@ -39,20 +35,33 @@ public class MIPSInterpreter {
 
     private MIPSReader reader;
 
-    private int pc;
-    private Map<String, Integer> regSet;
-    private Map<Integer, Integer> mem;
+    int pc;
+    private MIPSRegisterFile registers;
+    private MIPSMemory mem;
     private int next_heap_addr = 0x10040000; // Assume heap starts at this address
 
-    private Map<String, String> regTypes;
+    // registers used by jal and syscall
+    private int sp;
+    private int fp;
+    int ra;
+    private int v0;
+    private int a0;
+    private int f0;
+    private int f12;
 
-    private boolean finished;
-    private boolean control;
+    boolean finished;
+    boolean control;
 
     private Scanner input;
     private BufferedReader inputReader;
     private boolean debug;
 
+    // run the program a basic block at a time, see MIPSBlockEngine; ignored in debug mode
+    private boolean blockTranslation;
+
+    // executed instructions, indexed by MIPSOp ordinal
+    long[] instructionCounts = new long[MIPSOp.values().length];
+
     public MIPSInterpreter() {
         this(false);
     }
@@ -61,30 +70,37 @@ public class MIPSInterpreter {
         reader = new MIPSReader();
 
         pc = MemLayout.TEXT;
-        regSet = new HashMap<>();
-        mem = new HashMap<>();
-        regTypes = new HashMap<>();
+        registers = new MIPSRegisterFile();
+        mem = new MIPSMemory();
+
+        sp = registers.indexOf("$sp");
+        fp = registers.indexOf("$fp");
+        ra = registers.indexOf("$ra");
+        v0 = registers.indexOf("$v0");
+        a0 = registers.indexOf("$a0");
+        f0 = registers.indexOf("$f0");
+        f12 = registers.indexOf("$f12");
 
         // populate reg set
-        writeRegister("$sp", MemLayout.STACK);
-        writeRegister("$a0", 0);
-        writeRegister("$a1", 0);
-        writeRegister("$a2", 0);
-        writeRegister("$a3", 0);
+        writeRegister(sp, MemLayout.STACK);
+        writeRegister(a0, 0);
+        writeRegister(registers.indexOf("$a1"), 0);
+        writeRegister(registers.indexOf("$a2"), 0);
+        writeRegister(registers.indexOf("$a3"), 0);
 
-        writeRegister("$ra", 0);
-        writeRegister("$v0", 0);
+        writeRegister(ra, 0);
+        writeRegister(v0, 0);
 
-        writeRegister("$fp", 0);
-        writeRegister("$s0", 0);
+        writeRegister(fp, 0);
+        writeRegister(registers.indexOf("$s0"), 0);
 
-        writeRegister("zero", 0);
-        writeRegister("$zero", 0);
-        writeRegister("$0", 0);
+        writeRegister(registers.indexOf("zero"), 0);
+        writeRegister(registers.indexOf("$zero"), 0);
+        writeRegister(registers.indexOf("$0"), 0);
 
         // populate floating point regs
         for (int i = 0; i < 32; i++) {
-            writeRegister("$f" + i, 0.0f);
+            writeRegister(registers.indexOf("$f" + i), 0.0f);
         }
 
         input = new Scanner(System.in);
@@ -99,10 +115,26 @@ public class MIPSInterpreter {
         this.inputReader = reader;
     }
 
+    public void setBlockTranslation(boolean val) {
+        this.blockTranslation = val;
+    }
+
+    public long getInstructionCount(MIPSOp op) {
+        return instructionCounts[op.ordinal()];
+    }
+
+    public long getTotalInstructionCount() {
+        long total = 0;
+        for (long count : instructionCounts) {
+            total += count;
+        }
+        return total;
+    }
+
     public void run(String filename) {
         try {
-            program = reader.parseMIPSFile(filename);
-            mem = program.data;
+            program = reader.parseMIPSFile(filename, registers);
+            mem = new MIPSMemory(program.data);
         } catch (IOException e) {
             System.out.println(e.getMessage());
             finished = true;
@@ -115,38 +147,48 @@ public class MIPSInterpreter {
         boolean go = false;
         String stopLabel = null;
 
+        MIPSBlockEngine engine = null;
+        if (!finished && blockTranslation && !debug) {
+            engine = new MIPSBlockEngine(this);
+        }
+
         while (!finished) {
             if (go || !debug) {
                 try {
-                    MIPSInstruction inst = program.instructions.get(pc);
-                    if (go && stopLabel.equals(inst.label)) {
-                        go = false;
+                    if (engine != null) {
+                        engine.run();
                     } else {
-                        execute(inst);
+                        MIPSInstruction inst = program.fetch(pc);
+                        if (go && stopLabel.equals(inst.label)) {
+                            go = false;
+                        } else {
+                            execute(inst);
+                        }
                     }
                 } catch (IllegalReadException e) {
                     System.out.println(e.getMessage());
-                    System.out.println("    " + program.instructions.get(pc));
+                    System.out.println("    " + program.fetch(pc));
                     finished = true;
                 } catch (IllegalWriteException e) {
                     System.out.println(e.getMessage());
-                    System.out.println("    " + program.instructions.get(pc));
+                    System.out.println("    " + program.fetch(pc));
                     finished = true;
                 }
             } else if (debug) {
-                System.out.println("next -> " + program.instructions.get(pc));
+                System.out.println("next -> " + program.fetch(pc));
                 System.out.print("> ");
                 command = input.nextLine();
 
                 if (command.matches(printRegPat)) {
                     String reg = command.substring(2);
-                    if (regSet.containsKey(reg)) {
-                        if (regTypes.get(reg).equals("INT")) {
+                    int index = registers.find(reg);
+                    if (index != -1 && registers.types[index] != MIPSRegisterFile.UNSET) {
+                        if (registers.types[index] == MIPSRegisterFile.INT) {
                             System.out.println("\n  " + reg + ": "
-                                + String.format("0x%08X", readIntRegister(reg)) + "\n");
-                        } else if (regTypes.get(reg).equals("FP")) {
+                                + String.format("0x%08X", readIntRegister(index)) + "\n");
+                        } else if (registers.types[index] == MIPSRegisterFile.FP) {
                             System.out.println("\n  " + reg + ": "
-                                + String.format("%.7f", readDoubleRegister(reg)) + "\n");
+                                + String.format("%.7f", readDoubleRegister(index)) + "\n");
                         }
                     } else {
                         System.out.println("\n  tried to read unknown register\n");
@@ -175,7 +217,9 @@ public class MIPSInterpreter {
                     }
 
                     String base = addr.substring(i);
-                    Addr address = new Addr(imm, new Register(base.replaceAll("\\(|\\)", "")));
+                    Register register = new Register(base.replaceAll("\\(|\\)", ""));
+                    register.index = registers.indexOf(register.name);
+                    Addr address = new Addr(imm, register);
                     int addrVal = addrVal(address);
 
                     System.out.println();
@@ -187,10 +231,10 @@ public class MIPSInterpreter {
                     for (i = 0; i < Math.abs(n); i++) {
                         String pointers = "";
                         addrVal = start + (i * WORD_SIZE);
-                        if (readIntRegister("$sp") == addrVal) {
+                        if (readIntRegister(sp) == addrVal) {
                             pointers += " <-- $sp";
                         }
-                        if (readIntRegister("$fp") == addrVal) {
+                        if (readIntRegister(fp) == addrVal) {
                             pointers += " <-- $fp";
                         }
 
@@ -208,503 +252,280 @@ public class MIPSInterpreter {
                 } else if (command.length() != 0) {
                     System.out.println("\n  command not recognized; try again.\n");
                 } else {
-                    execute(program.instructions.get(pc));
+                    execute(program.fetch(pc));
                 }
             }
         }
     }
 
-    private void execute(MIPSInstruction inst) {
-        Register dest;
-        Register rs;
-        Register rt;
-        Imm imm;
-        Addr addr;
-
+    void execute(MIPSInstruction inst) {
         int memData;
         float memDataSingle;
         double memDataDouble;
 
+        instructionCounts[inst.op.ordinal()]++;
+
         switch (inst.op) {
             case ADD:
-                dest = inst.getWrite();
-                rs = inst.getReads()[0];
-                rt = inst.getReads()[1];
-
-                writeRegister(dest.name,
-                        readIntRegister(rs.name) + readIntRegister(rt.name));
+                writeRegister(inst.rd,
+                        readIntRegister(inst.rs) + readIntRegister(inst.rt));
                 pc += 4;
                 return;
             case ADDI:
-                dest = inst.getWrite();
-                rs = inst.getReads()[0];
-                imm = (Imm)inst.operands.get(2);
-
-                writeRegister(dest.name,
-                        readIntRegister(rs.name) + imm.getInt());
+                writeRegister(inst.rd,
+                        readIntRegister(inst.rs) + inst.imm);
                 pc += 4;
                 return;
             case SUB:
-                dest = inst.getWrite();
-                rs = inst.getReads()[0];
-                rt = inst.getReads()[1];
-
-                writeRegister(dest.name,
-                        readIntRegister(rs.name) - readIntRegister(rt.name));
+                writeRegister(inst.rd,
+                        readIntRegister(inst.rs) - readIntRegister(inst.rt));
                 pc += 4;
                 return;
             case MUL:
-                dest = inst.getWrite();
-                rs = inst.getReads()[0];
-                rt = inst.getReads()[1];
-
-                writeRegister(dest.name,
-                        readIntRegister(rs.name) * readIntRegister(rt.name));
+                writeRegister(inst.rd,
+                        readIntRegister(inst.rs) * readIntRegister(inst.rt));
                 pc += 4;
                 return;
             case DIV:
-                dest = inst.getWrite();
-                rs = inst.getReads()[0];
-                rt = inst.getReads()[1];
-
-                writeRegister(dest.name,
-                        readIntRegister(rs.name) / readIntRegister(rt.name));
+                writeRegister(inst.rd,
+                        readIntRegister(inst.rs) / readIntRegister(inst.rt));
                 pc += 4;
                 return;
             case AND:
-                dest = inst.getWrite();
-                rs = inst.getReads()[0];
-                rt = inst.getReads()[1];
-
-                writeRegister(dest.name,
-                        readIntRegister(rs.name) & readIntRegister(rt.name));
+                writeRegister(inst.rd,
+                        readIntRegister(inst.rs) & readIntRegister(inst.rt));
                 pc += 4;
                 return;
             case ANDI:
-                dest = inst.getWrite();
-                rs = inst.getReads()[0];
-                imm = (Imm)inst.operands.get(2);
-
-                writeRegister(dest.name,
-                        readIntRegister(rs.name) & imm.getInt());
+                writeRegister(inst.rd,
+                        readIntRegister(inst.rs) & inst.imm);
                 pc += 4;
                 return;
             case OR:
-                dest = inst.getWrite();
-                rs = inst.getReads()[0];
-                rt = inst.getReads()[1];
-
-                writeRegister(dest.name,
-                        readIntRegister(rs.name) | readIntRegister(rt.name));
+                writeRegister(inst.rd,
+                        readIntRegister(inst.rs) | readIntRegister(inst.rt));
                 pc += 4;
                 return;
             case ORI:
-                dest = inst.getWrite();
-                rs = inst.getReads()[0];
-                imm = (Imm)inst.operands.get(2);
-
-                writeRegister(dest.name,
-                        readIntRegister(rs.name) | imm.getInt());
+                writeRegister(inst.rd,
+                        readIntRegister(inst.rs) | inst.imm);
                 pc += 4;
                 return;
             case SLL:
-                dest = inst.getWrite();
-                rs = inst.getReads()[0];
-                imm = (Imm)inst.operands.get(2);
-
-                writeRegister(dest.name,
-                        readIntRegister(rs.name) << imm.getInt());
+                writeRegister(inst.rd,
+                        readIntRegister(inst.rs) << inst.imm);
                 pc += 4;
                 return;
             case LI:
-                dest = inst.getWrite();
-                imm = (Imm)inst.operands.get(1);
-                writeRegister(dest.name, imm.getInt());
+                writeRegister(inst.rd, inst.imm);
                 pc += 4;
                 return;
             case LA:
-                dest = inst.getWrite();
-                addr = (Addr)inst.operands.get(1);
-                writeRegister(dest.name, addrVal(addr));
+                writeRegister(inst.rd, address(inst));
                 pc += 4;
                 return;
             case LW:
-                dest = inst.getWrite();
-                addr = (Addr)inst.operands.get(1);
-
-                memData = readMemInt(addrVal(addr));
-                writeRegister(dest.name, memData);
+                memData = readMemInt(address(inst));
+                writeRegister(inst.rd, memData);
                 pc += 4;
                 return;
             case MOVE:
-                dest = inst.getWrite();
-                rs = inst.getReads()[0];
-
-                writeRegister(dest.name, readIntRegister(rs.name));
+                writeRegister(inst.rd, readIntRegister(inst.rs));
                 pc += 4;
                 return;
             case SW:
-                addr = (Addr)inst.operands.get(1);
-                rs = inst.getReads()[0];
-
-                writeMemInt(addrVal(addr), readIntRegister(rs.name));
+                writeMemInt(address(inst), readIntRegister(inst.rs));
                 pc += 4;
                 return;
             case BEQ:
-                rs = inst.getReads()[0];
-                rt = inst.getReads()[1];
-
-                if (readIntRegister(rs.name) == readIntRegister(rt.name)) {
-                    addr = (Addr)inst.operands.get(2);
-                    pc = addrVal(addr);
+                if (readIntRegister(inst.rs) == readIntRegister(inst.rt)) {
+                    pc = address(inst);
                 } else {
                     pc += 4;
                 }
 
                 return;
             case BNE:
-                rs = inst.getReads()[0];
-                rt = inst.getReads()[1];
-
-                if (readIntRegister(rs.name) != readIntRegister(rt.name)) {
-                    addr = (Addr)inst.operands.get(2);
-                    pc = addrVal(addr);
+                if (readIntRegister(inst.rs) != readIntRegister(inst.rt)) {
+                    pc = address(inst);
                 } else {
                     pc += 4;
                 }
 
                 return;
             case BLT:
-                rs = inst.getReads()[0];
-                rt = inst.getReads()[1];
-
-                if (readIntRegister(rs.name) < readIntRegister(rt.name)) {
-                    addr = (Addr)inst.operands.get(2);
-                    pc = addrVal(addr);
+                if (readIntRegister(inst.rs) < readIntRegister(inst.rt)) {
+                    pc = address(inst);
                 } else {
                     pc += 4;
                 }
 
                 return;
             case BGT:
-                rs = inst.getReads()[0];
-                rt = inst.getReads()[1];
-
-                if (readIntRegister(rs.name) > readIntRegister(rt.name)) {
-                    addr = (Addr)inst.operands.get(2);
-                    pc = addrVal(addr);
+                if (readIntRegister(inst.rs) > readIntRegister(inst.rt)) {
+                    pc = address(inst);
                 } else {
                     pc += 4;
                 }
 
                 return;
             case BGE:
-                rs = inst.getReads()[0];
-                rt = inst.getReads()[1];
-
-                if (readIntRegister(rs.name) >= readIntRegister(rt.name)) {
-                    addr = (Addr)inst.operands.get(2);
-                    pc = addrVal(addr);
+                if (readIntRegister(inst.rs) >= readIntRegister(inst.rt)) {
+                    pc = address(inst);
                 } else {
                     pc += 4;
                 }
 
                 return;
             case J:
-                addr = (Addr)inst.operands.get(0);
-                pc = addrVal(addr);
+                pc = address(inst);
                 return;
             case JAL:
-                writeRegister("$ra", (int)pc + 4);
-                addr = (Addr)inst.operands.get(0);
-                pc = addrVal(addr);
+                writeRegister(ra, (int)pc + 4);
+                pc = address(inst);
                 return;
             case JR:
-                rs = inst.getReads()[0];
-                pc = readIntRegister(rs.name);
+                pc = readIntRegister(inst.rs);
 
                 return;
             case SYSCALL:
-                switch (readIntRegister("$v0")) {
-                    case PRINT_INT:
-                        System.out.print(readIntRegister("$a0"));
-                        break;
-                    case PRINT_FLOAT:
-                        System.out.print(readSingleRegister("$f12"));
-                        if (debug) {
-                            System.out.println();
-                        }
-                        break;
-                    case PRINT_DOUBLE:
-                        System.out.print(readDoubleRegister("$f12"));
-                        if (debug) {
-                            System.out.println();
-                        }
-                        break;
-                    case READ_INT:
-                        writeRegister("$v0", readInt());
-                        break;
-                    case READ_FLOAT:
-                        writeRegister("$f0", readSingle());
-                        break;
-                    case READ_DOUBLE:
-                        writeRegister("$f0", readDouble());
-                        break;
-                    case SBRK:
-                        int n_bytes = readIntRegister("$a0");
-                        
-                        // Return address to heap allocated buffer
-                        writeRegister("$v0", next_heap_addr);
-
-                        // Zero-initialize heap allocated buffer
-                        for(int i = 0; i < n_bytes; i++) {
-                            writeMemH(next_heap_addr, 0, BYTE);
-                            next_heap_addr += 1;
-                        }
-                        break;
-                    case EXIT:
-                        finished = true;
-                        break;
-                    case PRINT_CHAR:
-                        int val = readIntRegister("$a0");
-                        char c = (char)val;
-                        System.out.print(c);
-                        if (debug && c != 10) {
-                            System.out.println();
-                        }
-                        break;
-                }
-
+                syscall();
                 pc += 4;
                 return;
             case ADD_S:
-                dest = inst.getWrite();
-                rs = inst.getReads()[0];
-                rt = inst.getReads()[1];
-
-                writeRegister(dest.name,
-                        readSingleRegister(rs.name) + readSingleRegister(rt.name));
+                writeRegister(inst.rd,
+                        readSingleRegister(inst.rs) + readSingleRegister(inst.rt));
                 pc += 4;
                 return;
             case ADDI_S:
-                dest = inst.getWrite();
-                rs = inst.getReads()[0];
-                imm = (Imm)inst.operands.get(2);
-
-                writeRegister(dest.name,
-                        readSingleRegister(rs.name) + imm.getSingle());
+                writeRegister(inst.rd,
+                        readSingleRegister(inst.rs) + inst.immSingle);
                 pc += 4;
                 return;
             case SUB_S:
-                dest = inst.getWrite();
-                rs = inst.getReads()[0];
-                rt = inst.getReads()[1];
-
-                writeRegister(dest.name,
-                        readSingleRegister(rs.name) - readSingleRegister(rt.name));
+                writeRegister(inst.rd,
+                        readSingleRegister(inst.rs) - readSingleRegister(inst.rt));
                 pc += 4;
                 return;
             case MUL_S:
-                dest = inst.getWrite();
-                rs = inst.getReads()[0];
-                rt = inst.getReads()[1];
-
-                writeRegister(dest.name,
-                        readSingleRegister(rs.name) * readSingleRegister(rt.name));
+                writeRegister(inst.rd,
+                        readSingleRegister(inst.rs) * readSingleRegister(inst.rt));
                 pc += 4;
                 return;
             case DIV_S:
-                dest = inst.getWrite();
-                rs = inst.getReads()[0];
-                rt = inst.getReads()[1];
-
-                writeRegister(dest.name,
-                        readSingleRegister(rs.name) / readSingleRegister(rt.name));
+                writeRegister(inst.rd,
+                        readSingleRegister(inst.rs) / readSingleRegister(inst.rt));
                 pc += 4;
                 return;
             case LI_S:
-                dest = inst.getWrite();
-                imm = (Imm)inst.operands.get(1);
-                writeRegister(dest.name, imm.getSingle());
+                writeRegister(inst.rd, inst.immSingle);
                 pc += 4;
                 return;
             case MOV_S:
-                dest = inst.getWrite();
-                rs = inst.getReads()[0];
-
-                writeRegister(dest.name, readSingleRegister(rs.name));
+                writeRegister(inst.rd, readSingleRegister(inst.rs));
                 pc += 4;
                 return;
             case L_S:
-                dest = inst.getWrite();
-                addr = (Addr)inst.operands.get(1);
-
-                memDataSingle = readMemSingle(addrVal(addr));
-                writeRegister(dest.name, memDataSingle);
+                memDataSingle = readMemSingle(address(inst));
+                writeRegister(inst.rd, memDataSingle);
                 pc += 4;
                 return;
             case S_S:
-                addr = (Addr)inst.operands.get(1);
-                rs = inst.getReads()[0];
-
-                writeMemSingle(addrVal(addr), readSingleRegister(rs.name));
+                writeMemSingle(address(inst), readSingleRegister(inst.rs));
                 pc += 4;
                 return;
             case C_EQ_S:
-                rs = inst.getReads()[0];
-                rt = inst.getReads()[1];
-
-                control = (readSingleRegister(rs.name) == readSingleRegister(rt.name));
+                control = (readSingleRegister(inst.rs) == readSingleRegister(inst.rt));
                 pc += 4;
                 return;
             case C_NE_S:
-                rs = inst.getReads()[0];
-                rt = inst.getReads()[1];
-
-                control = (readSingleRegister(rs.name) != readSingleRegister(rt.name));
+                control = (readSingleRegister(inst.rs) != readSingleRegister(inst.rt));
                 pc += 4;
                 return;
             case C_LT_S:
-                rs = inst.getReads()[0];
-                rt = inst.getReads()[1];
-
-                control = (readSingleRegister(rs.name) < readSingleRegister(rt.name));
+                control = (readSingleRegister(inst.rs) < readSingleRegister(inst.rt));
                 pc += 4;
                 return;
             case C_GT_S:
-                rs = inst.getReads()[0];
-                rt = inst.getReads()[1];
-
-                control = (readSingleRegister(rs.name) > readSingleRegister(rt.name));
+                control = (readSingleRegister(inst.rs) > readSingleRegister(inst.rt));
                 pc += 4;
                 return;
             case C_GE_S:
-                rs = inst.getReads()[0];
-                rt = inst.getReads()[1];
-
-                control = (readSingleRegister(rs.name) >= readSingleRegister(rt.name));
+                control = (readSingleRegister(inst.rs) >= readSingleRegister(inst.rt));
                 pc += 4;
                 return;
             case ADD_D:
-                dest = inst.getWrite();
-                rs = inst.getReads()[0];
-                rt = inst.getReads()[1];
-
-                writeRegister(dest.name,
-                        readDoubleRegister(rs.name) + readDoubleRegister(rt.name));
+                writeRegister(inst.rd,
+                        readDoubleRegister(inst.rs) + readDoubleRegister(inst.rt));
                 pc += 4;
                 return;
             case ADDI_D:
-                dest = inst.getWrite();
-                rs = inst.getReads()[0];
-                imm = (Imm)inst.operands.get(2);
-
-                writeRegister(dest.name,
-                        readDoubleRegister(rs.name) + imm.getDouble());
+                writeRegister(inst.rd,
+                        readDoubleRegister(inst.rs) + inst.immDouble);
                 pc += 4;
                 return;
             case SUB_D:
-                dest = inst.getWrite();
-                rs = inst.getReads()[0];
-                rt = inst.getReads()[1];
-
-                writeRegister(dest.name,
-                        readDoubleRegister(rs.name) - readDoubleRegister(rt.name));
+                writeRegister(inst.rd,
+                        readDoubleRegister(inst.rs) - readDoubleRegister(inst.rt));
                 pc += 4;
                 return;
             case MUL_D:
-                dest = inst.getWrite();
-                rs = inst.getReads()[0];
-                rt = inst.getReads()[1];
-
-                writeRegister(dest.name,
-                        readDoubleRegister(rs.name) * readDoubleRegister(rt.name));
+                writeRegister(inst.rd,
+                        readDoubleRegister(inst.rs) * readDoubleRegister(inst.rt));
                 pc += 4;
                 return;
             case DIV_D:
-                dest = inst.getWrite();
-                rs = inst.getReads()[0];
-                rt = inst.getReads()[1];
-
-                writeRegister(dest.name,
-                        readDoubleRegister(rs.name) / readDoubleRegister(rt.name));
+                writeRegister(inst.rd,
+                        readDoubleRegister(inst.rs) / readDoubleRegister(inst.rt));
                 pc += 4;
                 return;
             case LI_D:
-                dest = inst.getWrite();
-                imm = (Imm)inst.operands.get(1);
-                writeRegister(dest.name, imm.getDouble());
+                writeRegister(inst.rd, inst.immDouble);
                 pc += 4;
                 return;
             case MOV_D:
-                dest = inst.getWrite();
-                rs = inst.getReads()[0];
-
-                writeRegister(dest.name, readDoubleRegister(rs.name));
+                writeRegister(inst.rd, readDoubleRegister(inst.rs));
                 pc += 4;
                 return;
             case L_D:
-                dest = inst.getWrite();
-                addr = (Addr)inst.operands.get(1);
-
-                memDataDouble = readMemDouble(addrVal(addr));
-                writeRegister(dest.name, memDataDouble);
+                memDataDouble = readMemDouble(address(inst));
+                writeRegister(inst.rd, memDataDouble);
                 pc += 4;
                 return;
             case S_D:
-                addr = (Addr)inst.operands.get(1);
-                rs = inst.getReads()[0];
-
-                writeMemDouble(addrVal(addr), readDoubleRegister(rs.name));
+                writeMemDouble(address(inst), readDoubleRegister(inst.rs));
                 pc += 4;
                 return;
             case C_EQ_D:
-                rs = inst.getReads()[0];
-                rt = inst.getReads()[1];
-
-                control = (readDoubleRegister(rs.name) == readDoubleRegister(rt.name));
+                control = (readDoubleRegister(inst.rs) == readDoubleRegister(inst.rt));
                 pc += 4;
                 return;
             case C_NE_D:
-                rs = inst.getReads()[0];
-                rt = inst.getReads()[1];
-
-                control = (readDoubleRegister(rs.name) != readDoubleRegister(rt.name));
+                control = (readDoubleRegister(inst.rs) != readDoubleRegister(inst.rt));
                 pc += 4;
                 return;
             case C_LT_D:
-                rs = inst.getReads()[0];
-                rt = inst.getReads()[1];
-
-                control = (readDoubleRegister(rs.name) < readDoubleRegister(rt.name));
+                control = (readDoubleRegister(inst.rs) < readDoubleRegister(inst.rt));
                 pc += 4;
                 return;
             case C_GT_D:
-                rs = inst.getReads()[0];
-                rt = inst.getReads()[1];
-
-                control = (readDoubleRegister(rs.name) > readDoubleRegister(rt.name));
+                control = (readDoubleRegister(inst.rs) > readDoubleRegister(inst.rt));
                 pc += 4;
                 return;
             case C_GE_D:
-                rs = inst.getReads()[0];
-                rt = inst.getReads()[1];
-
-                control = (readDoubleRegister(rs.name) >= readDoubleRegister(rt.name));
+                control = (readDoubleRegister(inst.rs) >= readDoubleRegister(inst.rt));
                 pc += 4;
                 return;
             case BC1T:
-                addr = (Addr)inst.operands.get(0);
                 if (control) {
-                    pc = addrVal(addr);
+                    pc = address(inst);
                 } else {
                     pc += 4;
                 }
                 return;
             case BC1F:
-                addr = (Addr)inst.operands.get(0);
                 if (!control) {
-                    pc = addrVal(addr);
+                    pc = address(inst);
                 } else {
                     pc += 4;
                 }
@@ -714,6 +535,58 @@ public class MIPSInterpreter {
         }
     }
 
+    void syscall() {
+        switch (readIntRegister(v0)) {
+            case PRINT_INT:
+                System.out.print(readIntRegister(a0));
+                break;
+            case PRINT_FLOAT:
+                System.out.print(readSingleRegister(f12));
+                if (debug) {
+                    System.out.println();
+                }
+                break;
+            case PRINT_DOUBLE:
+                System.out.print(readDoubleRegister(f12));
+                if (debug) {
+                    System.out.println();
+                }
+                break;
+            case READ_INT:
+                writeRegister(v0, readInt());
+                break;
+            case READ_FLOAT:
+                writeRegister(f0, readSingle());
+                break;
+            case READ_DOUBLE:
+                writeRegister(f0, readDouble());
+                break;
+            case SBRK:
+                int n_bytes = readIntRegister(a0);
+                
+                // Return address to heap allocated buffer
+                writeRegister(v0, next_heap_addr);
+
+                // Zero-initialize heap allocated buffer
+                for(int i = 0; i < n_bytes; i++) {
+                    writeMemH(next_heap_addr, 0, BYTE);
+                    next_heap_addr += 1;
+                }
+                break;
+            case EXIT:
+                finished = true;
+                break;
+            case PRINT_CHAR:
+                int val = readIntRegister(a0);
+                char c = (char)val;
+                System.out.print(c);
+                if (debug && c != 10) {
+                    System.out.println();
+                }
+                break;
+        }
+    }
+
     private int readInt() {
         if (inputReader != null) {
             try {
@@ -768,112 +641,104 @@ public class MIPSInterpreter {
         return ans;
     }
 
-    private int readIntRegister(String name) {
-        if (!regSet.containsKey(name)) {
-            throw new IllegalReadException("tried to read uninitialized register: " + name);
-        } else if (!regTypes.get(name).equals("INT")) {
-            throw new IllegalReadException("tried to read floating-point register as an int: " + name);
+    int readIntRegister(int index) {
+        if (registers.types[index] == MIPSRegisterFile.UNSET) {
+            throw new IllegalReadException("tried to read uninitialized register: " + registers.name(index));
+        } else if (registers.types[index] != MIPSRegisterFile.INT) {
+            throw new IllegalReadException("tried to read floating-point register as an int: " + registers.name(index));
         }
 
-        return regSet.get(name);
+        return registers.values[index];
     }
 
-    private float readSingleRegister(String name) {
-        if (!regSet.containsKey(name)) {
-            throw new IllegalReadException("tried to read uninitialized register: " + name);
-        } else if (!regTypes.get(name).equals("FP")) {
-            throw new IllegalReadException("tried to read int register as floating point:" + name);
+    float readSingleRegister(int index) {
+        if (registers.types[index] == MIPSRegisterFile.UNSET) {
+            throw new IllegalReadException("tried to read uninitialized register: " + registers.name(index));
+        } else if (registers.types[index] != MIPSRegisterFile.FP) {
+            throw new IllegalReadException("tried to read int register as floating point:" + registers.name(index));
         }
 
-        int word = regSet.get(name);
-        ByteBuffer bytes = ByteBuffer.allocate(WORD_SIZE).putInt(0, word);
-        return bytes.getFloat();
+        return Float.intBitsToFloat(registers.values[index]);
     }
 
-    private double readDoubleRegister(String name) {
-        if (!regSet.containsKey(name)) {
-            throw new IllegalReadException("tried to read uninitialized register: " + name);
-        } else if (!regTypes.get(name).equals("FP")) {
-            throw new IllegalReadException("tried to read int register as floating point:" + name);
+    double readDoubleRegister(int index) {
+        if (registers.types[index] == MIPSRegisterFile.UNSET) {
+            throw new IllegalReadException("tried to read uninitialized register: " + registers.name(index));
+        } else if (registers.types[index] != MIPSRegisterFile.FP) {
+            throw new IllegalReadException("tried to read int register as floating point:" + registers.name(index));
         }
 
-        String regLetter = name.substring(1, 2);
-        int regNum = Integer.parseInt(name.substring(2, name.length()));
-
-        if (regNum % 2 != 0) {
+        int pair = registers.pairs[index];
+        if (pair == MIPSRegisterFile.ODD) {
             throw new IllegalWriteException("attempted to read double-precision value to single-precision register");
+        } else if (pair == MIPSRegisterFile.NO_PAIR) {
+            throw new IllegalReadException("tried to read double from a register without a pair: " + registers.name(index));
+        } else if (registers.types[pair] == MIPSRegisterFile.UNSET) {
+            throw new IllegalReadException("tried to read uninitialized register: " + registers.name(pair));
         }
 
-        int word = regSet.get(name);
-        ByteBuffer bytes = ByteBuffer.allocate(WORD_SIZE * 2);
-        bytes.putInt(0, word);
-        
-        word = regSet.get("$" + regLetter + (regNum + 1));
-        bytes.putInt(WORD_SIZE, word);
-        return bytes.getDouble();
+        // high word in the even register, as in memory
+        return Double.longBitsToDouble(toLong(registers.values[index], registers.values[pair]));
     }
 
-    private void writeRegister(String name, int data) {
-        if (regSet.containsKey(name)) {
-            if (!regTypes.get(name).equals("INT")) {
+    void writeRegister(int index, int data) {
+        if (registers.types[index] != MIPSRegisterFile.UNSET) {
+            if (registers.types[index] != MIPSRegisterFile.INT) {
                 throw new IllegalWriteException("attempted to write int to a floating-point register");
             }
         }
 
-        regSet.put(name, data);
-        regTypes.put(name, "INT");
+        registers.values[index] = data;
+        registers.types[index] = MIPSRegisterFile.INT;
     }
 
-    private void writeRegister(String name, float data) {
-        if (regSet.containsKey(name)) {
-            if (!regTypes.get(name).equals("FP")) {
+    void writeRegister(int index, float data) {
+        if (registers.types[index] != MIPSRegisterFile.UNSET) {
+            if (registers.types[index] != MIPSRegisterFile.FP) {
                 throw new IllegalWriteException("attempted to write floatin point to an int register");
             }
         }
 
-        ByteBuffer bytes = ByteBuffer.allocate(WORD_SIZE).putFloat(0, data);
-        regSet.put(name, bytes.getInt());
-        regTypes.put(name, "FP");
+        registers.values[index] = Float.floatToRawIntBits(data);
+        registers.types[index] = MIPSRegisterFile.FP;
     }
 
-    private void writeRegister(String name, double data) {
-        if (regSet.containsKey(name)) {
-            if (!regTypes.get(name).equals("FP")) {
+    void writeRegister(int index, double data) {
+        if (registers.types[index] != MIPSRegisterFile.UNSET) {
+            if (registers.types[index] != MIPSRegisterFile.FP) {
                 throw new IllegalWriteException("attempted to write floating point to an int register");
             }
         }
 
-        String regLetter = name.substring(1, 2);
-        int regNum = Integer.parseInt(name.substring(2, name.length()));
-
-        if (regNum % 2 != 0) {
+        int pair = registers.pairs[index];
+        if (pair == MIPSRegisterFile.ODD) {
             throw new IllegalWriteException("attempted to write floating point to an int register");
+        } else if (pair == MIPSRegisterFile.NO_PAIR) {
+            throw new IllegalWriteException("attempted to write double to a register without a pair: " + registers.name(index));
         }
 
-        ByteBuffer bytes = ByteBuffer.allocate(WORD_SIZE * 2).putDouble(0, data);
-        regSet.put(name, bytes.getInt());
-        // System.out.print(name + ": " + regSet.get(name));
-        name = "$" + regLetter + (regNum + 1);
-        regSet.put(name, bytes.getInt());
-        // System.out.print(" " + name + ": " + regSet.get(name) + "\n");
-        regTypes.put(name, "FP");
+        long bits = Double.doubleToRawLongBits(data);
+        registers.values[index] = (int)(bits >>> 32);
+        registers.types[index] = MIPSRegisterFile.FP;
+        registers.values[pair] = (int)bits;
+        registers.types[pair] = MIPSRegisterFile.FP;
     }
 
-    private int readMemInt(int addr) {
+    int readMemInt(int addr) {
         return readMemH(addr, WORD_SIZE);
     }
 
-    private float readMemSingle(int addr) {
-        ByteBuffer bytes = ByteBuffer.allocate(WORD_SIZE);
-        bytes.putInt(0, readMemH(addr, WORD_SIZE));
-        return bytes.getFloat();
+    float readMemSingle(int addr) {
+        return Float.intBitsToFloat(readMemH(addr, WORD_SIZE));
     }
 
-    private double readMemDouble(int addr) {
-        ByteBuffer bytes = ByteBuffer.allocate(WORD_SIZE * 2);
-        bytes.putInt(0, readMemH(addr, WORD_SIZE));
-        bytes.putInt(WORD_SIZE, readMemH(addr + 4, WORD_SIZE));
-        return bytes.getDouble();
+    double readMemDouble(int addr) {
+        int high = readMemH(addr, WORD_SIZE);
+        return Double.longBitsToDouble(toLong(high, readMemH(addr + WORD_SIZE, WORD_SIZE)));
+    }
+
+    private static long toLong(int high, int low) {
+        return ((long)high << 32) | (low & 0xFFFFFFFFL);
     }
 
     private int readMemH(int addr, int size) {
@@ -883,54 +748,45 @@ public class MIPSInterpreter {
             throw new IllegalReadException("Memory read above .ktext: " + String.format("0x%08X", addr));
         }
 
-        // if address is byte-aligned
-        if (addr % 4 == 0) {
+        // if address is word-aligned
+        if ((addr & 3) == 0) {
             switch (size) {
                 case WORD_SIZE:
-                    return mem.getOrDefault(addr, 0);
+                    return mem.readWord(addr);
                 case BYTE:
-                    return mem.getOrDefault(addr, 0) & 0xFF;
+                    return mem.readWord(addr) & 0xFF;
                 default:
                     throw new IllegalReadException("memory read illegal size: " + size);
             }
         } else {
-            int offset = (int)addr % 4;
+            int offset = addr & 3;
             int aligned = addr - offset;
 
-            if (mem.containsKey(aligned)) {
-                switch (size) {
-                    case WORD_SIZE:
-                        int data = (mem.get(aligned) >> (offset * 8)) & (0xFFFFFFFF >>> (offset * 8));
-                        int next = aligned + 4;
-
-                        for (int i = 0; i < offset; i++) {
-                            data |= ((mem.getOrDefault(next, 0) >> (i * 8)) & 0xFF) << ((4 - offset + i) * 8);
-                        }
-                        return data;
-                    case BYTE:
-                        return (mem.get(aligned) >> (offset * 8)) & 0xFF;
-                    default:
-                        throw new IllegalReadException("memory read illegal size: " + size);
-                }
-            } else {
-                return 0;
+            switch (size) {
+                case WORD_SIZE:
+                    // little-endian: the low bytes come from the aligned word, the rest from the next one
+                    return (mem.readWord(aligned) >>> (offset * 8))
+                        | (mem.readWord(aligned + WORD_SIZE) << ((WORD_SIZE - offset) * 8));
+                case BYTE:
+                    return (mem.readWord(aligned) >> (offset * 8)) & 0xFF;
+                default:
+                    throw new IllegalReadException("memory read illegal size: " + size);
             }
         }
     }
 
-    private void writeMemInt(int addr, int data) {
+    void writeMemInt(int addr, int data) {
         writeMemH(addr, data, WORD_SIZE);
     }
 
-    private void writeMemSingle(int addr, float data) {
-        ByteBuffer bytes = ByteBuffer.allocate(WORD_SIZE).putFloat(0, data);
-        writeMemH(addr, bytes.getInt(), WORD_SIZE);
+    void writeMemSingle(int addr, float data) {
+        writeMemH(addr, Float.floatToRawIntBits(data), WORD_SIZE);
     }
 
-    private void writeMemDouble(int addr, double data) {
-        ByteBuffer bytes = ByteBuffer.allocate(WORD_SIZE * 2).putDouble(0, data);
-        writeMemH(addr, bytes.getInt(), WORD_SIZE);
-        writeMemH(addr + WORD_SIZE, bytes.getInt(), WORD_SIZE);
+    void writeMemDouble(int addr, double data) {
+        long bits = Double.doubleToRawLongBits(data);
+        writeMemH(addr, (int)(bits >>> 32), WORD_SIZE);
+        writeMemH(addr + WORD_SIZE, (int)bits, WORD_SIZE);
     }
 
     private void writeMemH(int addr, int data, int size) {
@@ -940,40 +796,49 @@ public class MIPSInterpreter {
             throw new IllegalWriteException("memory write above .ktext: " + String.format("0x%08X", addr));
         }
 
-        // if address is byte-aligned
-        if (addr % 4 == 0) {
+        // if address is word-aligned
+        if ((addr & 3) == 0) {
             switch (size) {
                 case WORD_SIZE:
-                    mem.put(addr, data);
+                    mem.writeWord(addr, data);
                     return;
                 case BYTE:
-                    int val = mem.getOrDefault(addr, 0);
-                    mem.put(addr, val | (data & 0xFF));
+                    mem.writeWord(addr, (mem.readWord(addr) & ~0xFF) | (data & 0xFF));
                     return;
                 default:
                     throw new IllegalWriteException("Memory write illegal size: " + size);
             }
         } else {
-            int offset = (int)addr % 4;
+            int offset = addr & 3;
             int aligned = addr - offset;
+            int shift = offset * 8;
 
-            int val;
             switch (size) {
                 case WORD_SIZE:
-                    int low = data & (0xFFFFFFFF >>> ((4 - offset) * 8));
-                    int high = (data >> ((4 - offset) * 8)) & (0xFFFFFFFF >>> ((4 - offset) * 8));
-
-                    mem.put(aligned, mem.getOrDefault(aligned, 0) | (low << (offset * 8)));
-                    mem.put(aligned + 4, mem.getOrDefault(aligned + 4, 0) | high);
+                    // inverse of the unaligned read in readMemH
+                    int next = aligned + WORD_SIZE;
+                    int highMask = 0xFFFFFFFF << shift;
+                    mem.writeWord(aligned, (mem.readWord(aligned) & ~highMask) | (data << shift));
+                    mem.writeWord(next, (mem.readWord(next) & highMask) | (data >>> (32 - shift)));
                     return;
                 case BYTE:
-                    val = mem.getOrDefault(aligned, 0);
-                    mem.put(addr, val | ((data & 0xFF) << (offset * 8)));
+                    mem.writeWord(aligned, (mem.readWord(aligned) & ~(0xFF << shift)) | ((data & 0xFF) << shift));
                     return;
                 default:
-                    throw new IllegalReadException("Memory write illegal size: " + size);
+                    throw new IllegalWriteException("Memory write illegal size: " + size);
+            }
+        }
+    }
+
+    // address operand of a decoded load, store, la, branch or jump
+    int address(MIPSInstruction inst) {
+        if (inst.base < 0) {
+            if (inst.base == MIPSInstruction.UNKNOWN_LABEL) {
+                throw new IllegalReadException("tried to use unknown label");
             }
+            return inst.offset;
         }
+        return readIntRegister(inst.base) + inst.offset;
     }
 
     private int addrVal(Addr addr) {
@@ -981,9 +846,9 @@ public class MIPSInterpreter {
             case PC_RELATIVE:
                 return program.labels.get(addr.label);
             case REGISTER:
-                return readIntRegister(addr.register.name);
+                return readIntRegister(addr.register.index);
             case BASE_OFFSET:
-                return readIntRegister(addr.register.name) + addr.constant.getInt();
+                return readIntRegister(addr.register.index) + addr.constant.getInt();
             default:
                 return 0;
         }
@@ -991,12 +856,17 @@ public class MIPSInterpreter {
 
     public static void main(String[] args) {
         MIPSInterpreter interpreter = new MIPSInterpreter();
+        boolean stats = false;
         // parse arguments
         for (int i = 0; i < args.length - 1; i++) {
             String arg = args[i];
 
             if (arg.equals("--debug")) {
                 interpreter.setDebug(true);
+            } else if (arg.equals("--blocks")) {
+                interpreter.setBlockTranslation(true);
+            } else if (arg.equals("--stats")) {
+                stats = true;
             } else if (arg.equals("--in")) {
                 try {
                     String filename = args[++i];
@@ -1016,5 +886,14 @@ public class MIPSInterpreter {
         }
 
         interpreter.run(args[args.length - 1]);
+
+        if (stats) {
+            System.err.println("Number of instructions executed: " + interpreter.getTotalInstructionCount());
+            for (MIPSOp op : MIPSOp.values()) {
+                if (interpreter.getInstructionCount(op) != 0) {
+                    System.err.println("  " + op + ": " + interpreter.getInstructionCount(op));
+                }
+            }
+        }
     }
 }
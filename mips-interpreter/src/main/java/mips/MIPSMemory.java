@@ -0,0 +1,71 @@
+package main.java.mips;
+
+import java.util.Map;
+
+/**
+ * Word-addressed memory of MIPSInterpreter, made of 4 KiB pages of ints.
+ *
+ * Pages are found through a two-level table on the address and allocated on the first write
+ * to them, so the stack, .data and the sbrk heap only cost memory for the pages they touch.
+ * Memory that was never written reads as 0. Addresses passed here must be word-aligned.
+ */
+public class MIPSMemory {
+
+    private static final int PAGE_BITS = 12;
+    private static final int WORD_BITS = PAGE_BITS - 2;
+    private static final int TABLE_BITS = 10;
+    private static final int DIRECTORY_BITS = 32 - PAGE_BITS - TABLE_BITS;
+
+    private static final int WORD_MASK = (1 << WORD_BITS) - 1;
+    private static final int TABLE_MASK = (1 << TABLE_BITS) - 1;
+
+    private int[][][] directory = new int[1 << DIRECTORY_BITS][][];
+
+    private int pageCount;
+
+    public MIPSMemory() {
+    }
+
+    // memory holding the words of data, as read by MIPSReader
+    public MIPSMemory(Map<Integer, Integer> data) {
+        for (Map.Entry<Integer, Integer> word : data.entrySet()) {
+            writeWord(word.getKey(), word.getValue());
+        }
+    }
+
+    public int readWord(int addr) {
+        int[][] table = directory[addr >>> (PAGE_BITS + TABLE_BITS)];
+        if (table == null) {
+            return 0;
+        }
+        int[] page = table[(addr >>> PAGE_BITS) & TABLE_MASK];
+        if (page == null) {
+            return 0;
+        }
+        return page[(addr >>> 2) & WORD_MASK];
+    }
+
+    public void writeWord(int addr, int data) {
+        page(addr)[(addr >>> 2) & WORD_MASK] = data;
+    }
+
+    // number of pages allocated so far
+    public int pageCount() {
+        return pageCount;
+    }
+
+    private int[] page(int addr) {
+        int[][] table = directory[addr >>> (PAGE_BITS + TABLE_BITS)];
+        if (table == null) {
+            table = new int[1 << TABLE_BITS][];
+            directory[addr >>> (PAGE_BITS + TABLE_BITS)] = table;
+        }
+        int[] page = table[(addr >>> PAGE_BITS) & TABLE_MASK];
+        if (page == null) {
+            page = new int[1 << WORD_BITS];
+            table[(addr >>> PAGE_BITS) & TABLE_MASK] = page;
+            pageCount++;
+        }
+        return page;
+    }
+}
@@ -1,6 +1,5 @@
 package main.java.mips;
 
-import java.util.List;
 import java.util.Map;
 
 public class MIPSProgram {
@@ -9,11 +8,48 @@ public class MIPSProgram {
    public Map<Integer, Integer> data;
    public Map<String, Integer> labels;
 
+   // decoded instructions of .text, indexed by (pc - MemLayout.TEXT) >> 2
+   public MIPSInstruction[] code;
+
    public MIPSProgram(Map<Integer, MIPSInstruction> instructions,
                       Map<Integer, Integer> data, Map<String, Integer> labels) {
        this.instructions = instructions;
        this.data = data;
        this.labels = labels;
+
+       int length = 0;
+       for (Map.Entry<Integer, MIPSInstruction> entry : instructions.entrySet()) {
+           entry.getValue().decode(labels);
+           if (isText(entry.getKey())) {
+               length = Math.max(length, indexOf(entry.getKey()) + 1);
+           }
+       }
+
+       code = new MIPSInstruction[length];
+       for (Map.Entry<Integer, MIPSInstruction> entry : instructions.entrySet()) {
+           if (isText(entry.getKey())) {
+               code[indexOf(entry.getKey())] = entry.getValue();
+           }
+       }
+   }
+
+   // instruction at pc, or null if there is none
+   public MIPSInstruction fetch(int pc) {
+       int index = indexOf(pc);
+       if ((pc & 3) == 0 && index >= 0 && index < code.length) {
+           return code[index];
+       }
+       return instructions.get(pc);
+   }
+
+   private static boolean isText(int addr) {
+       return (addr & 3) == 0
+           && Integer.compareUnsigned(addr, MemLayout.TEXT) >= 0
+           && Integer.compareUnsigned(addr, MemLayout.DATA) < 0;
+   }
+
+   private static int indexOf(int pc) {
+       return (pc - MemLayout.TEXT) >> 2;
    }
 
    public void printLabels() {
@@ -22,15 +22,15 @@ public class MIPSReader {
     private static String labelPat = "[a-zA-Z_]\\w*:";
 
     // operands
-    private static String registerPat = "\\$[a-zA-Z0-9]+|zero";
+    private static String registerPat = "\\$[a-zA-Z0-9_]+|zero";
     private static String immHexPat = "0x[a-fA-F0-9]+";
     private static String immDecPat = "-?[0-9]+";
     private static String immFloatingPointPat = "-?[0-9]+\\.[0-9]*";
 
     // addressing modes
     private static String addrPCRelativePat = "[a-zA-Z_]\\w*";
-    private static String addrRegisterPat = "\\((\\$[a-zA-Z0-9]+|zero)\\)";
-    private static String addrBaseOffPat = "(0x[a-fA-F0-9]+|-?[0-9]+)\\((\\$[a-zA-Z0-9]+|zero)\\)";
+    private static String addrRegisterPat = "\\((\\$[a-zA-Z0-9_]+|zero)\\)";
+    private static String addrBaseOffPat = "(0x[a-fA-F0-9]+|-?[0-9]+)\\((\\$[a-zA-Z0-9_]+|zero)\\)";
 
     private static Map<String, MIPSOp> opcodes;
 
@@ -53,6 +53,11 @@ public class MIPSReader {
     }
 
     public MIPSProgram parseMIPSFile(String filename) throws IOException {
+        return parseMIPSFile(filename, new MIPSRegisterFile());
+    }
+
+    // resolves every register operand to its index in registers
+    public MIPSProgram parseMIPSFile(String filename, MIPSRegisterFile registers) throws IOException {
         BufferedReader reader;
 
         Map<Integer, MIPSInstruction> instructions = new HashMap<>();
@@ -129,7 +134,7 @@ public class MIPSReader {
                     }
                     labels.put(label, nextAddr);
                 } else if (token.matches(registerPat)) {
-                    operands.add(new Register(token));
+                    operands.add(register(token, registers));
                 } else if (token.matches(immHexPat)) {
                     if (isWord) {
                         data.put(nextAddr, Integer.decode(token));
@@ -151,7 +156,7 @@ public class MIPSReader {
                 } else if (token.matches(addrPCRelativePat)) {
                     operands.add(new Addr(token));
                 } else if (token.matches(addrRegisterPat)) {
-                    Register reg = new Register(token.replaceAll("\\(|\\)", ""));
+                    Register reg = register(token.replaceAll("\\(|\\)", ""), registers);
                     operands.add(new Addr(reg));
                 } else if (token.matches(addrBaseOffPat)) {
                     int i = token.indexOf('(');
@@ -165,7 +170,7 @@ public class MIPSReader {
 
                     String base = token.substring(i);
                     operands.add(new Addr(imm,
-                            new Register(base.replaceAll("\\(|\\)", ""))));
+                            register(base.replaceAll("\\(|\\)", ""), registers)));
                 } else {
                     throw new ParseException("unknown token: " + token + " (@ line " + lineNum + ")");
                 }
@@ -191,4 +196,10 @@ public class MIPSReader {
 
         return new MIPSProgram(instructions, data, labels);
     }
+
+    private static Register register(String name, MIPSRegisterFile registers) {
+        Register reg = new Register(name);
+        reg.index = registers.indexOf(name);
+        return reg;
+    }
 }
@@ -0,0 +1,87 @@
+package main.java.mips;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Register values and type tags of MIPSInterpreter, kept in primitive arrays.
+ *
+ * Every register name, physical or virtual, is given a dense index the first time it is seen,
+ * so MIPSReader can resolve each Register operand to its index while parsing and execution
+ * never hashes a register name. A register named like $f12, a letter and an even number, also
+ * gets the index of the register holding the second word of a double, $f13 here.
+ */
+public class MIPSRegisterFile {
+
+    // type tags
+    public static final byte UNSET = 0;
+    public static final byte INT = 1;
+    public static final byte FP = 2;
+
+    // pairs of registers that cannot hold a double
+    public static final int ODD = -1;
+    public static final int NO_PAIR = -2;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    public int[] values = new int[INITIAL_CAPACITY];
+    public byte[] types = new byte[INITIAL_CAPACITY];
+    public int[] pairs = new int[INITIAL_CAPACITY];
+
+    private Map<String, Integer> indices = new HashMap<>();
+    private List<String> names = new ArrayList<>();
+
+    // index of the named register, adding it if it is new
+    public int indexOf(String name) {
+        Integer index = indices.get(name);
+        if (index != null) {
+            return index;
+        }
+
+        index = names.size();
+        if (index == values.length) {
+            int capacity = values.length * 2;
+            values = Arrays.copyOf(values, capacity);
+            types = Arrays.copyOf(types, capacity);
+            pairs = Arrays.copyOf(pairs, capacity);
+        }
+        indices.put(name, index);
+        names.add(name);
+
+        // may add the pair and grow the arrays, so pairs is read after
+        int pair = pairOf(name);
+        pairs[index] = pair;
+        return index;
+    }
+
+    // index of the named register, or -1 if it has never been seen
+    public int find(String name) {
+        Integer index = indices.get(name);
+        return index == null ? -1 : index;
+    }
+
+    private int pairOf(String name) {
+        int regNum;
+        try {
+            regNum = Integer.parseInt(name.substring(2, name.length()));
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            return NO_PAIR;
+        }
+
+        if (regNum % 2 != 0) {
+            return ODD;
+        }
+        return indexOf("$" + name.substring(1, 2) + (regNum + 1));
+    }
+
+    public String name(int index) {
+        return names.get(index);
+    }
+
+    public int size() {
+        return names.size();
+    }
+}
@@ -10,7 +10,7 @@ public class MIPSBasicBlock {
     public List<MIPSBasicBlock> predecessors;
     public int startLine;
     public int endLine;
-    public Map<String, Set<Integer>> inSet;
+    public Map<IRSymbol, Set<Integer>> inSet;
     
     private Set<String> liveIn;
     private Set<String> liveOut;
@@ -17,9 +17,10 @@ public class MIPSGreedyAllocator {
     private static final String TEMP_REG_1 = "$t8"; // Use for op1, results, spilled values
     private static final String TEMP_REG_2 = "$t9"; // Use for op2, addresses
 
-    // --- NEW: Map to store allocation for the current block ---
-    private Map<String, Integer> operandToRegisterMap = null;
-    private Map<String, Integer> stackOffsets = null; // Store globally for the function
+    // --- NEW: Allocation for the current block, by IRSymbol.id (-1 if not allocated) ---
+    private int[] operandToRegisterMap = null;
+    private int[] stackOffsets = null; // Store globally for the function, by IRSymbol.id
+    private IRSymbolTable symbols = null;
 
     public MIPSGreedyAllocator(PrintStream output) {
         this.output = output;
@@ -50,7 +51,8 @@ public class MIPSGreedyAllocator {
 
     private void generateFunction(IRFunction func) {
         // --- Reset state for the new function ---
-        this.stackOffsets = new HashMap<>();
+        this.symbols = func.symbols;
+        this.stackOffsets = new int[symbols.size()];
         this.operandToRegisterMap = null; // Will be set per block
         // ---
 
@@ -58,7 +60,6 @@ public class MIPSGreedyAllocator {
         String funcPrefix = func.name + "_";
         int fp_offset = 4;
 
-        Set<String> paramNames = new HashSet<>();
         int local_size = 0;
         int arg_size = 0;
 
@@ -72,17 +73,16 @@ public class MIPSGreedyAllocator {
 
         // Set up parameter offsets
         for (IRVariableOperand param : func.parameters) {
-            paramNames.add(param.getName());
-            stackOffsets.put(param.getName(), fp_offset);
+            stackOffsets[param.symbol.id] = fp_offset;
             fp_offset += 4;
             arg_size += 4;
         }
 
         // Set up variable offsets
         for (IRVariableOperand var : func.variables) {
-            if (paramNames.contains(var.getName())) continue;
+            if (symbols.isParameter(var.symbol)) continue;
             local_size += 4;
-            stackOffsets.put(var.getName(), fp_offset);
+            stackOffsets[var.symbol.id] = fp_offset;
             fp_offset += 4;
         }
 
@@ -90,19 +90,14 @@ public class MIPSGreedyAllocator {
 
         // --- Basic Block Identification and Allocation ---
         List<MIPSBasicBlock> basicBlocks = buildBasicBlocks(func, labelMap);
-        Map<MIPSBasicBlock, Map<String, Integer>> blockRegisterMaps = new HashMap<>();
+        Map<MIPSBasicBlock, int[]> blockRegisterMaps = new HashMap<>();
 
         for (MIPSBasicBlock block : basicBlocks) {
-            Map<String, Integer> usageCounts = countUsesInBlock(block);
-            Map<String, Integer> regMap = allocateRegistersGreedy(usageCounts);
+            int[] usageCounts = countUsesInBlock(block);
+            int[] regMap = allocateRegistersGreedy(usageCounts);
             blockRegisterMaps.put(block, regMap);
-            // Add any variables used/defined in the block to stackOffsets if not already there
-            // (This handles temp variables implicitly defined by IR but not in func.variables)
-            addAllVarsToStackMap(block, stackOffsets, fp_offset);
-            fp_offset = stackOffsets.size() * 4 + 4; // Update fp_offset based on current size
         }
-        // Recalculate final local_size based on potentially added temp variables
-        local_size = (stackOffsets.size() - func.parameters.size()) * 4 + arg_size;
+        // Every variable used in a block is declared, so it already has a stack offset
 
 
         // --- Function prologue ---
@@ -114,7 +109,7 @@ public class MIPSGreedyAllocator {
         // Store parameters
         int argOffset = (func.parameters.size() - 4) * 4;
         for (int i = 0; i < func.parameters.size(); i++) {
-            int offset = stackOffsets.get(func.parameters.get(i).getName());
+            int offset = stackOffsets[func.parameters.get(i).symbol.id];
             if (i < 4) {
                 output.println("    sw $a" + i + ", -" + offset + "($fp)");
             } else {
@@ -133,12 +128,12 @@ public class MIPSGreedyAllocator {
 
         // Allocate arrays on heap
         for (IRVariableOperand var : func.variables) {
-            if (var.type instanceof IRArrayType && !paramNames.contains(var.getName())) {
+            if (var.type instanceof IRArrayType && !symbols.isParameter(var.symbol)) {
                 IRArrayType arr = (IRArrayType) var.type;
                 output.println("    li $v0, 9");
                 output.println("    li $a0, " + (arr.getSize() * 4));
                 output.println("    syscall");
-                output.println("    sw $v0, -" + stackOffsets.get(var.getName()) + "($fp)");
+                output.println("    sw $v0, -" + stackOffsets[var.symbol.id] + "($fp)");
             }
         }
 
@@ -148,17 +143,12 @@ public class MIPSGreedyAllocator {
 
             // Generate Block Entry Loads (Load allocated registers)
             output.println("    # Block Entry: Load registers for Block starting line " + block.startLine);
-            for (Map.Entry<String, Integer> entry : operandToRegisterMap.entrySet()) {
-                String varName = entry.getKey();
-                int regNum = entry.getValue();
+            for (int id = 0; id < operandToRegisterMap.length; id++) {
+                String varName = symbols.get(id).name;
+                int regNum = operandToRegisterMap[id];
                 if (regNum >= 0 && regNum < ALLOCATABLE_REGS.length) { // Check if allocated (not spilled)
                     String physReg = ALLOCATABLE_REGS[regNum];
-                    Integer offset = stackOffsets.get(varName);
-                    if (offset != null) {
-                        output.println("    lw " + physReg + ", -" + offset + "($fp)  # Load " + varName + " into " + physReg);
-                    } else {
-                         output.println("    # WARNING: No stack offset found for allocated register " + varName + " in block entry");
-                    }
+                    output.println("    lw " + physReg + ", -" + stackOffsets[id] + "($fp)  # Load " + varName + " into " + physReg);
                 }
             }
 
@@ -182,17 +172,12 @@ public class MIPSGreedyAllocator {
             // Only skip if the block ended with an unconditional GOTO or RETURN
              if (!endedWithUnconditionalJump) {
                  output.println("    # Block Exit: Store registers for Block ending line " + block.endLine);
-                 for (Map.Entry<String, Integer> entry : operandToRegisterMap.entrySet()) {
-                     String varName = entry.getKey();
-                     int regNum = entry.getValue();
+                 for (int id = 0; id < operandToRegisterMap.length; id++) {
+                     String varName = symbols.get(id).name;
+                     int regNum = operandToRegisterMap[id];
                      if (regNum >= 0 && regNum < ALLOCATABLE_REGS.length) { // Check if allocated (not spilled)
                          String physReg = ALLOCATABLE_REGS[regNum];
-                         Integer offset = stackOffsets.get(varName);
-                         if (offset != null) {
-                             output.println("    sw " + physReg + ", -" + offset + "($fp)  # Store " + varName + " from " + physReg);
-                         } else {
-                              output.println("    # WARNING: No stack offset found for allocated register " + varName + " in block exit");
-                         }
+                         output.println("    sw " + physReg + ", -" + stackOffsets[id] + "($fp)  # Store " + varName + " from " + physReg);
                      }
                  }
              } else {
@@ -216,28 +201,6 @@ public class MIPSGreedyAllocator {
     }
 
 
-     // --- NEW: Helper to ensure all variables touched in a block have a stack slot ---
-     private void addAllVarsToStackMap(MIPSBasicBlock block, Map<String, Integer> stackMap, int currentFpOffset) {
-         Set<String> blockVars = new HashSet<>();
-         for (IRInstruction instr : block.instructions) {
-             for (IROperand op : instr.operands) {
-                 if (op instanceof IRVariableOperand) {
-                     blockVars.add(op.toString());
-                 }
-             }
-         }
-
-         int nextOffset = currentFpOffset;
-          // Ensure every variable mentioned in the block gets a stack offset if it doesn't have one
-         for (String varName : blockVars) {
-             if (!stackMap.containsKey(varName)) {
-                 stackMap.put(varName, nextOffset);
-                 nextOffset += 4;
-             }
-         }
-     }
-
-
     // --- NEW: Replaces generateInstructionInBlock and its helpers ---
     // This function closely follows the logic of GreedyAllocator.java::printInstruction
     private void printInstruction(IRInstruction instruction, IRFunction func, Map<String, String> labelMap) {
@@ -255,8 +218,8 @@ public class MIPSGreedyAllocator {
 
         switch (instruction.opCode) {
             case ASSIGN:
-                String destVar = operands[0].toString();
-                String srcVal = operands[1].toString();
+                IROperand destVar = operands[0];
+                IROperand srcVal = operands[1];
                 String destReg = getRegister(destVar); // Returns e.g., "$t0" or "" if spilled
                 String srcReg = getRegister(srcVal);
 
@@ -289,9 +252,9 @@ public class MIPSGreedyAllocator {
             case DIV:
             case AND:
             case OR:
-                String resVar = operands[0].toString();
-                String op1Var = operands[1].toString();
-                String op2Var = operands[2].toString();
+                IROperand resVar = operands[0];
+                IROperand op1Var = operands[1];
+                IROperand op2Var = operands[2];
                 String resReg = getRegister(resVar);
                 String op1Reg = getRegister(op1Var);
                 String op2Reg = getRegister(op2Var);
@@ -367,8 +330,8 @@ public class MIPSGreedyAllocator {
             case BRGEQ:
                 // Note: BRLEQ is not a standard IR op, handle if needed
                 String lbl = operands[0].toString();
-                String cmp1Var = operands[1].toString();
-                String cmp2Var = operands[2].toString();
+                IROperand cmp1Var = operands[1];
+                IROperand cmp2Var = operands[2];
                 String cmp1Reg = getRegister(cmp1Var);
                 String cmp2Reg = getRegister(cmp2Var);
 
@@ -400,7 +363,7 @@ public class MIPSGreedyAllocator {
                 break;
 
             case RETURN:
-                 String retValue = operands[0].toString();
+                 IROperand retValue = operands[0];
                  if (isNumeric(retValue)) {
                      output.println("    li $v0, " + retValue);
                  } else {
@@ -418,13 +381,13 @@ public class MIPSGreedyAllocator {
             case CALL:
             case CALLR:
                 boolean isCallr = instruction.opCode == IRInstruction.OpCode.CALLR;
-                String destCallrVar = isCallr ? operands[0].toString() : null;
+                IROperand destCallrVar = isCallr ? operands[0] : null;
                 String funcName = isCallr ? operands[1].toString() : operands[0].toString();
 
-                List<String> argVars = new ArrayList<>();
+                List<IROperand> argVars = new ArrayList<>();
                 int argStartIdx = isCallr ? 2 : 1;
                 for (int i = argStartIdx; i < operands.length; i++) {
-                    argVars.add(operands[i].toString());
+                    argVars.add(operands[i]);
                 }
 
                 // Handle intrinsics first (no caller save needed)
@@ -436,22 +399,18 @@ public class MIPSGreedyAllocator {
                  // --- General Function Call ---
                  // 1. Caller-Save (Save ALL registers allocated in this block)
                  output.println("    # Caller-save registers for call to " + funcName);
-                 for (Map.Entry<String, Integer> entry : operandToRegisterMap.entrySet()) {
-                     int regNum = entry.getValue();
+                 for (int id = 0; id < operandToRegisterMap.length; id++) {
+                     int regNum = operandToRegisterMap[id];
                      if (regNum >= 0 && regNum < ALLOCATABLE_REGS.length) {
-                         String varName = entry.getKey();
                          String pReg = ALLOCATABLE_REGS[regNum];
-                         Integer offset = stackOffsets.get(varName);
-                         if (offset != null) {
-                             output.println("    sw " + pReg + ", -" + offset + "($fp)");
-                         }
+                         output.println("    sw " + pReg + ", -" + stackOffsets[id] + "($fp)");
                      }
                  }
 
                  // 2. Pass Arguments ($a0-$a3 and stack)
                  int stackArgBytes = 0;
                  for (int i = 0; i < argVars.size(); i++) {
-                     String argVar = argVars.get(i);
+                     IROperand argVar = argVars.get(i);
                      String argReg = getRegister(argVar);
                      String sourceReg; // Register holding the value to pass
 
@@ -505,31 +464,28 @@ public class MIPSGreedyAllocator {
                  // 6. Caller-Restore (Restore ALL registers saved before)
                  output.println("    # Caller-restore registers after call to " + funcName);
                  // Iterate in reverse order of allocation might be slightly better cache-wise, but not critical
-                 for (Map.Entry<String, Integer> entry : operandToRegisterMap.entrySet()) {
-                     int regNum = entry.getValue();
+                 for (int id = 0; id < operandToRegisterMap.length; id++) {
+                     int regNum = operandToRegisterMap[id];
                      if (regNum >= 0 && regNum < ALLOCATABLE_REGS.length) {
-                         String varName = entry.getKey();
+                         IRSymbol var = symbols.get(id);
                          String pReg = ALLOCATABLE_REGS[regNum];
-                         Integer offset = stackOffsets.get(varName);
 
                          // *** The crucial fix from previous attempts: Check if the restored register was the destination ***
-                         if (isCallr && varName.equals(destCallrVar)) {
-                              output.println("    # Skip restore for destination " + varName + " in " + pReg);
+                         if (isCallr && var == symbolOf(destCallrVar)) {
+                              output.println("    # Skip restore for destination " + var + " in " + pReg);
                               continue; // Don't restore if it was the destination
                          }
 
-                         if (offset != null) {
-                             output.println("    lw " + pReg + ", -" + offset + "($fp)");
-                         }
+                         output.println("    lw " + pReg + ", -" + stackOffsets[id] + "($fp)");
                      }
                  }
                 break;
 
             case ARRAY_STORE:
                 // array_store, value, arr, index -> sw value, offset(arr_base)
-                String valVar = operands[0].toString();
-                String arrVar = operands[1].toString();
-                String indexVar = operands[2].toString();
+                IROperand valVar = operands[0];
+                IROperand arrVar = operands[1];
+                IROperand indexVar = operands[2];
                 String valReg = getRegister(valVar);
                 String arrReg = getRegister(arrVar);
                 String indexReg = getRegister(indexVar);
@@ -572,9 +528,9 @@ public class MIPSGreedyAllocator {
 
             case ARRAY_LOAD:
                  // array_load, dest, arr, index -> lw dest, offset(arr_base)
-                 String loadDestVar = operands[0].toString();
-                 String loadArrVar = operands[1].toString();
-                 String loadIndexVar = operands[2].toString();
+                 IROperand loadDestVar = operands[0];
+                 IROperand loadArrVar = operands[1];
+                 IROperand loadIndexVar = operands[2];
                  String loadDestReg = getRegister(loadDestVar);
                  String loadArrReg = getRegister(loadArrVar);
                  String loadIndexReg = getRegister(loadIndexVar);
@@ -619,7 +575,7 @@ public class MIPSGreedyAllocator {
 
 
      // --- NEW: Handle Intrinsics (returns true if handled, false otherwise) ---
-     private boolean handleIntrinsic(String funcName, List<String> args, String destVar) {
+     private boolean handleIntrinsic(String funcName, List<IROperand> args, IROperand destVar) {
          switch (funcName) {
              case "geti":
                  output.println("    li $v0, 5");
@@ -646,7 +602,7 @@ public class MIPSGreedyAllocator {
                  }
                  return true;
              case "puti":
-                 String argVar = args.get(0);
+                 IROperand argVar = args.get(0);
                  String argReg = getRegister(argVar);
                  if (isNumeric(argVar)) {
                      output.println("    li $a0, " + argVar);
@@ -659,7 +615,7 @@ public class MIPSGreedyAllocator {
                  output.println("    syscall");
                  return true;
              case "putc":
-                 String charArgVar = args.get(0);
+                 IROperand charArgVar = args.get(0);
                  String charArgReg = getRegister(charArgVar);
                  if (isNumeric(charArgVar)) {
                      output.println("    li $a0, " + charArgVar);
@@ -678,9 +634,10 @@ public class MIPSGreedyAllocator {
 
     // --- NEW: Helper to get register string or "" if spilled ---
     // Mimics logic from GreedyAllocator.java::getRegister
-    private String getRegister(String operand) {
-        if (operandToRegisterMap == null) return ""; // Should not happen if called correctly
-        Integer regNum = operandToRegisterMap.getOrDefault(operand, -1); // Use -1 to indicate not mapped
+    private String getRegister(IROperand operand) {
+        IRSymbol symbol = symbolOf(operand);
+        if (operandToRegisterMap == null || symbol == null) return ""; // Not a variable, or no block
+        int regNum = operandToRegisterMap[symbol.id]; // -1 indicates not mapped
 
         if (regNum >= 0 && regNum < ALLOCATABLE_REGS.length) {
             return ALLOCATABLE_REGS[regNum]; // e.g., "$t0"
@@ -691,14 +648,19 @@ public class MIPSGreedyAllocator {
 
     // --- NEW: Helper to get stack offset ---
     // Mimics logic from GreedyAllocator.java::getOff
-    private int getOff(String virtReg) {
-         Integer offset = this.stackOffsets.get(virtReg);
-         if (offset == null) {
-              // This case should ideally be handled by addAllVarsToStackMap ensuring all vars have slots
+    private int getOff(IROperand virtReg) {
+         IRSymbol symbol = symbolOf(virtReg);
+         if (symbol == null) {
+              // Every declared variable has a slot, so this is a constant that is not an int
              output.println("    # ERROR: Stack offset requested for unknown variable: " + virtReg);
              return -1; // Or throw an error
          }
-        return offset;
+        return stackOffsets[symbol.id];
+    }
+
+    // The symbol of a variable operand, or null for constants
+    private IRSymbol symbolOf(IROperand operand) {
+        return operand instanceof IRVariableOperand ? ((IRVariableOperand) operand).symbol : null;
     }
 
 
@@ -730,11 +692,11 @@ public class MIPSGreedyAllocator {
         return branchMap.getOrDefault(irOp, "nop"); // Default to nop if mapping not found
     }
 
-    private boolean isNumeric(String str) {
-        if (str == null || str.isEmpty()) {
+    private boolean isNumeric(IROperand operand) {
+        if (!(operand instanceof IRConstantOperand)) {
             return false;
         }
-        return str.matches("-?\\d+");
+        return operand.toString().matches("-?\\d+");
     }
 
      private boolean isBranch(IRInstruction.OpCode opCode) {
@@ -872,26 +834,19 @@ public class MIPSGreedyAllocator {
     /**
      * Counts the number of times each virtual register is USED in a block.
      */
-    private Map<String, Integer> countUsesInBlock(MIPSBasicBlock block) {
-        Map<String, Integer> counts = new HashMap<>();
-        Set<String> definedInBlock = new HashSet<>();
+    private int[] countUsesInBlock(MIPSBasicBlock block) {
+        int[] counts = new int[symbols.size()]; // By IRSymbol.id
 
         for (IRInstruction instr : block.instructions) {
             IROperand[] operands = instr.operands;
-             IROperand definedOperand = getDefinedOperand(instr);
-             if (definedOperand instanceof IRVariableOperand) {
-                  definedInBlock.add(definedOperand.toString());
-             }
-
 
              // Iterate through operands to find uses
              for (int i = 0; i < operands.length; i++) {
                  IROperand op = operands[i];
                  if (op instanceof IRVariableOperand) {
-                     String varName = op.toString();
                       // Check if this operand is a use based on instruction type and position
                      if (isUseOperand(instr.opCode, i, operands.length)) {
-                         incrementUsage(counts, varName);
+                         counts[((IRVariableOperand) op).symbol.id]++;
                      }
                  }
              }
@@ -930,51 +885,33 @@ public class MIPSGreedyAllocator {
          }
      }
 
-     // Helper to get the operand defined by an instruction (if any)
-     private IROperand getDefinedOperand(IRInstruction instruction) {
-         if (instruction.operands == null || instruction.operands.length == 0) {
-             return null;
-         }
-         switch (instruction.opCode) {
-             case ADD: case SUB: case MULT: case DIV: case AND: case OR:
-             case ASSIGN: // Covers both simple and array assignments for the destination variable/array
-             case CALLR: // First operand is the destination
-             case ARRAY_LOAD: // First operand is the destination
-                 return instruction.operands[0];
-             // Other instructions like GOTO, branches, RETURN, CALL, ARRAY_STORE, LABEL don't define a simple variable result in operand[0]
-             default:
-                 return null;
-         }
-     }
-
-
-    private void incrementUsage(Map<String, Integer> counts, String varName) {
-        counts.put(varName, counts.getOrDefault(varName, 0) + 1);
-    }
 
     /**
      * Performs greedy register allocation for a block based on usage counts.
-     * Returns Map<String, Integer> where Integer is register number (0-7) or >=8 for spill.
+     * Returns, by IRSymbol.id, the register number (0-7), >=8 for spill, or -1 for unused variables.
      */
-    private Map<String, Integer> allocateRegistersGreedy(Map<String, Integer> usageCounts) {
-        Map<String, Integer> result = new HashMap<>();
+    private int[] allocateRegistersGreedy(int[] usageCounts) {
+        int[] result = new int[usageCounts.length];
+        Arrays.fill(result, -1);
         int availableRegCount = ALLOCATABLE_REGS.length; // Number of registers like $t0-$t7
         int currentReg = 0; // Index for ALLOCATABLE_REGS
         int spillIndex = availableRegCount; // Spill indices start after allocatable regs
 
-        // Create a list of variables sorted by usage count (descending)
-        List<Map.Entry<String, Integer>> sortedVars = new ArrayList<>(usageCounts.entrySet());
-        // Sort by value (usage count) descending
-        sortedVars.sort((e1, e2) -> e2.getValue().compareTo(e1.getValue()));
+        // Create a list of used variables sorted by usage count (descending)
+        List<Integer> sortedVars = new ArrayList<>();
+        for (int id = 0; id < usageCounts.length; id++) {
+            if (usageCounts[id] > 0) sortedVars.add(id);
+        }
+        // Sort by usage count descending; ties keep declaration order
+        sortedVars.sort((v1, v2) -> Integer.compare(usageCounts[v2], usageCounts[v1]));
 
-        for (Map.Entry<String, Integer> entry : sortedVars) {
-            String virtualReg = entry.getKey();
+        for (int virtualReg : sortedVars) {
             if (currentReg < availableRegCount) {
                 // Allocate a register (store its index 0-7)
-                result.put(virtualReg, currentReg++);
+                result[virtualReg] = currentReg++;
             } else {
                 // No registers left, spill (assign spill index >= 8)
-                result.put(virtualReg, spillIndex++);
+                result[virtualReg] = spillIndex++;
             }
         }
         return result;
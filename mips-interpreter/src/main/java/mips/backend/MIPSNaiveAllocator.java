@@ -36,12 +36,12 @@ public class MIPSNaiveAllocator {
     }
     
     private void generateFunction(IRFunction func) {
-        Map<String, Integer> stackOffsets = new HashMap<>();
+        // Stack offset of each variable by IRSymbol.id
+        int[] stackOffsets = new int[func.symbols.size()];
         Map<String, String> labelMap = new HashMap<>();
         String funcPrefix = func.name + "_";
         int fp_offset = 4;
         
-        Set<String> paramNames = new HashSet<>();
         int local_size = 0;
         int arg_size = 0;
         
@@ -55,17 +55,16 @@ public class MIPSNaiveAllocator {
         
         // Set up parameter offsets
         for (IRVariableOperand param : func.parameters) {
-            paramNames.add(param.getName());
-            stackOffsets.put(param.getName(), fp_offset);
+            stackOffsets[param.symbol.id] = fp_offset;
             fp_offset += 4;
             arg_size += 4;
         }
         
         // Set up variable offsets
         for (IRVariableOperand var : func.variables) {
-            if (paramNames.contains(var.getName())) continue;
+            if (func.symbols.isParameter(var.symbol)) continue;
             local_size += 4;
-            stackOffsets.put(var.getName(), fp_offset);
+            stackOffsets[var.symbol.id] = fp_offset;
             fp_offset += 4;
         }
         
@@ -80,7 +79,7 @@ public class MIPSNaiveAllocator {
         // Store parameters
         int argOffset = (func.parameters.size() - 4) * 4;
         for (int i = 0; i < func.parameters.size(); i++) {
-            int offset = stackOffsets.get(func.parameters.get(i).getName());
+            int offset = stackOffsets[func.parameters.get(i).symbol.id];
             if (i < 4) {
                 output.println("    sw $a" + i + ", -" + offset + "($fp)");
             } else {
@@ -96,12 +95,12 @@ public class MIPSNaiveAllocator {
         
         // Allocate arrays on heap
         for (IRVariableOperand var : func.variables) {
-            if (var.type instanceof IRArrayType && !paramNames.contains(var.getName())) {
+            if (var.type instanceof IRArrayType && !func.symbols.isParameter(var.symbol)) {
                 IRArrayType arr = (IRArrayType) var.type;
                 output.println("    li $v0, 9");
                 output.println("    li $a0, " + (arr.getSize() * 4));
                 output.println("    syscall");
-                output.println("    sw $v0, -" + stackOffsets.get(var.getName()) + "($fp)");
+                output.println("    sw $v0, -" + stackOffsets[var.symbol.id] + "($fp)");
             }
         }
         
@@ -120,7 +119,7 @@ public class MIPSNaiveAllocator {
     }
     
     private void generateInstruction(IRFunction func, IRInstruction instr, 
-                                     Map<String, Integer> stackOffsets, 
+                                     int[] stackOffsets, 
                                      Map<String, String> labelMap) {
         switch (instr.opCode) {
             case LABEL:
@@ -169,28 +168,25 @@ public class MIPSNaiveAllocator {
         }
     }
     
-    private void generateAssign(IRInstruction instr, Map<String, Integer> stackOffsets) {
+    private void generateAssign(IRInstruction instr, int[] stackOffsets) {
         IROperand dest = instr.operands[0];
         IROperand src = instr.operands[1];
         
-        String destName = dest.toString();
-        int destOff = stackOffsets.get(destName);
+        int destOff = offsetOf(stackOffsets, dest);
         String srcValue = src.toString();
         
         if (isNumeric(srcValue)) {
             output.println("    li $t1, " + srcValue);
         } else {
-            int srcOff = stackOffsets.get(srcValue);
+            int srcOff = offsetOf(stackOffsets, src);
             output.println("    lw $t1, -" + srcOff + "($fp)");
         }
         output.println("    sw $t1, -" + destOff + "($fp)");
     }
     
-    private void generateBinaryOp(IRInstruction instr, Map<String, Integer> stackOffsets) {
-        String res = instr.operands[0].toString();
-        int resOff = stackOffsets.get(res);
-        String op1 = instr.operands[1].toString();
-        int op1Off = stackOffsets.get(op1);
+    private void generateBinaryOp(IRInstruction instr, int[] stackOffsets) {
+        int resOff = offsetOf(stackOffsets, instr.operands[0]);
+        int op1Off = offsetOf(stackOffsets, instr.operands[1]);
         String op2 = instr.operands[2].toString();
         
         output.println("    lw $t1, -" + op1Off + "($fp)");
@@ -198,7 +194,7 @@ public class MIPSNaiveAllocator {
         if (isNumeric(op2)) {
             output.println("    li $t2, " + op2);
         } else {
-            int op2Off = stackOffsets.get(op2);
+            int op2Off = offsetOf(stackOffsets, instr.operands[2]);
             output.println("    lw $t2, -" + op2Off + "($fp)");
         }
         
@@ -207,7 +203,7 @@ public class MIPSNaiveAllocator {
         output.println("    sw $t0, -" + resOff + "($fp)");
     }
     
-    private void generateBranch(IRInstruction instr, Map<String, Integer> stackOffsets, 
+    private void generateBranch(IRInstruction instr, int[] stackOffsets, 
                                 Map<String, String> labelMap) {
         String lbl = instr.operands[0].toString();
         String cmp1 = instr.operands[1].toString();
@@ -216,14 +212,14 @@ public class MIPSNaiveAllocator {
         if (isNumeric(cmp1)) {
             output.println("    li $t0, " + cmp1);
         } else {
-            int cmp1Off = stackOffsets.get(cmp1);
+            int cmp1Off = offsetOf(stackOffsets, instr.operands[1]);
             output.println("    lw $t0, -" + cmp1Off + "($fp)");
         }
         
         if (isNumeric(cmp2)) {
             output.println("    li $t1, " + cmp2);
         } else {
-            int cmp2Off = stackOffsets.get(cmp2);
+            int cmp2Off = offsetOf(stackOffsets, instr.operands[2]);
             output.println("    lw $t1, -" + cmp2Off + "($fp)");
         }
         
@@ -231,28 +227,28 @@ public class MIPSNaiveAllocator {
         output.println("    " + branchOp + " $t0, $t1, " + labelMap.get(lbl));
     }
     
-    private void generateReturn(IRFunction func, IRInstruction instr, Map<String, Integer> stackOffsets) {
+    private void generateReturn(IRFunction func, IRInstruction instr, int[] stackOffsets) {
         String retValue = instr.operands[0].toString();
         
         if (isNumeric(retValue)) {
             output.println("    li $v0, " + retValue);
         } else {
-            int retOff = stackOffsets.get(retValue);
+            int retOff = offsetOf(stackOffsets, instr.operands[0]);
             output.println("    lw $v0, -" + retOff + "($fp)");
         }
         output.println("    j " + func.name + "_epilogue");
     }
     
-    private void generateCall(IRInstruction instr, Map<String, Integer> stackOffsets) {
+    private void generateCall(IRInstruction instr, int[] stackOffsets) {
         boolean isCallr = instr.opCode == IRInstruction.OpCode.CALLR;
-        String dest = isCallr ? instr.operands[0].toString() : null;
+        IROperand dest = isCallr ? instr.operands[0] : null;
         String funcName = isCallr ? ((IRFunctionOperand)instr.operands[1]).getName() 
                                   : ((IRFunctionOperand)instr.operands[0]).getName();
         
-        List<String> args = new ArrayList<>();
+        List<IROperand> args = new ArrayList<>();
         int startIdx = isCallr ? 2 : 1;
         for (int i = startIdx; i < instr.operands.length; i++) {
-            args.add(instr.operands[i].toString());
+            args.add(instr.operands[i]);
         }
         
         // Handle intrinsics
@@ -261,7 +257,7 @@ public class MIPSNaiveAllocator {
             output.println("    syscall");
             if (dest != null) {
                 output.println("    move $t0, $v0");
-                output.println("    sw $t0, -" + stackOffsets.get(dest) + "($fp)");
+                output.println("    sw $t0, -" + offsetOf(stackOffsets, dest) + "($fp)");
             }
             return;
         }
@@ -271,16 +267,16 @@ public class MIPSNaiveAllocator {
             output.println("    syscall");
             if (dest != null) {
                 output.println("    move $t0, $v0");
-                output.println("    sw $t0, -" + stackOffsets.get(dest) + "($fp)");
+                output.println("    sw $t0, -" + offsetOf(stackOffsets, dest) + "($fp)");
             }
             return;
         }
         
         if (funcName.equals("puti")) {
-            if (isNumeric(args.get(0))) {
+            if (isNumeric(args.get(0).toString())) {
                 output.println("    li $a0, " + args.get(0));
             } else {
-                output.println("    lw $a0, -" + stackOffsets.get(args.get(0)) + "($fp)");
+                output.println("    lw $a0, -" + offsetOf(stackOffsets, args.get(0)) + "($fp)");
             }
             output.println("    li $v0, 1");
             output.println("    syscall");
@@ -288,10 +284,10 @@ public class MIPSNaiveAllocator {
         }
         
         if (funcName.equals("putc")) {
-            if (isNumeric(args.get(0))) {
+            if (isNumeric(args.get(0).toString())) {
                 output.println("    li $a0, " + args.get(0));
             } else {
-                output.println("    lw $a0, -" + stackOffsets.get(args.get(0)) + "($fp)");
+                output.println("    lw $a0, -" + offsetOf(stackOffsets, args.get(0)) + "($fp)");
             }
             output.println("    li $v0, 11");
             output.println("    syscall");
@@ -301,7 +297,7 @@ public class MIPSNaiveAllocator {
         // Regular function call
         int stackArgOffset = 0;
         for (int i = 0; i < args.size(); i++) {
-            Integer offset = stackOffsets.getOrDefault(args.get(i), null);
+            Integer offset = args.get(i) instanceof IRVariableOperand ? offsetOf(stackOffsets, args.get(i)) : null;
             if (i < 4) {
                 if (offset == null) {
                     output.println("    li $a" + i + ", " + args.get(i));
@@ -329,7 +325,7 @@ public class MIPSNaiveAllocator {
         
         if (dest != null) {
             output.println("    move $t0, $v0");
-            output.println("    sw $t0, -" + stackOffsets.get(dest) + "($fp)");
+            output.println("    sw $t0, -" + offsetOf(stackOffsets, dest) + "($fp)");
         }
         
         if (stackArgOffset > 0) {
@@ -337,17 +333,15 @@ public class MIPSNaiveAllocator {
         }
     }
     
-    private void generateArrayLoad(IRInstruction instr, Map<String, Integer> stackOffsets) {
-        String loadDest = instr.operands[0].toString();
-        int arrDestOff = stackOffsets.get(loadDest);
-        String loadArr = instr.operands[1].toString();
-        int arrAddrOff = stackOffsets.get(loadArr);
+    private void generateArrayLoad(IRInstruction instr, int[] stackOffsets) {
+        int arrDestOff = offsetOf(stackOffsets, instr.operands[0]);
+        int arrAddrOff = offsetOf(stackOffsets, instr.operands[1]);
         String loadIdx = instr.operands[2].toString();
         
         if (isNumeric(loadIdx)) {
             output.println("    li $t2, " + loadIdx);
         } else {
-            int loadIdxOff = stackOffsets.get(loadIdx);
+            int loadIdxOff = offsetOf(stackOffsets, instr.operands[2]);
             output.println("    lw $t2, -" + loadIdxOff + "($fp)");
         }
         output.println("    sll $t2, $t2, 2");
@@ -357,23 +351,22 @@ public class MIPSNaiveAllocator {
         output.println("    sw $t1, -" + arrDestOff + "($fp)");
     }
     
-    private void generateArrayStore(IRInstruction instr, Map<String, Integer> stackOffsets) {
+    private void generateArrayStore(IRInstruction instr, int[] stackOffsets) {
         String val = instr.operands[0].toString();
-        String arr = instr.operands[1].toString();
-        int arrAddrOff = stackOffsets.get(arr);
+        int arrAddrOff = offsetOf(stackOffsets, instr.operands[1]);
         String index = instr.operands[2].toString();
         
         if (isNumeric(index)) {
             output.println("    li $t2, " + index);
         } else {
-            int idxOff = stackOffsets.get(index);
+            int idxOff = offsetOf(stackOffsets, instr.operands[2]);
             output.println("    lw $t2, -" + idxOff + "($fp)");
         }
         
         if (isNumeric(val)) {
             output.println("    li $t0, " + val);
         } else {
-            int valOff = stackOffsets.get(val);
+            int valOff = offsetOf(stackOffsets, instr.operands[0]);
             output.println("    lw $t0, -" + valOff + "($fp)");
         }
         
@@ -406,6 +399,10 @@ public class MIPSNaiveAllocator {
         }
     }
     
+    private int offsetOf(int[] stackOffsets, IROperand variable) {
+        return stackOffsets[((IRVariableOperand) variable).symbol.id];
+    }
+    
     private boolean isNumeric(String str) {
         return str.matches("-?\\d+");
     }
@@ -52,11 +52,11 @@ public class MIPSReachingDefinitions {
                 MIPSInstructionWrapper wrapper = defMap.computeIfAbsent(
                     instr.irLineNumber, k -> new MIPSInstructionWrapper(instr));
                 
-                IROperand defOperand = wrapper.getDefOperand();
-                String definedVar = (defOperand != null) ? defOperand.toString() : "";
-                
                 for (int opIdx = 0; opIdx < instr.operands.length; opIdx++) {
-                    String operandName = instr.operands[opIdx].toString();
+                    if (!(instr.operands[opIdx] instanceof IRVariableOperand)) {
+                        continue;
+                    }
+                    IRSymbol operandSymbol = ((IRVariableOperand) instr.operands[opIdx]).symbol;
                     
                     if (opIdx == 0 && instr.opCode != IRInstruction.OpCode.RETURN 
                                    && instr.opCode != IRInstruction.OpCode.ARRAY_STORE) {
@@ -65,29 +65,27 @@ public class MIPSReachingDefinitions {
                         continue;
                     }
                     
-                    if (block.inSet.containsKey(operandName)) {
-                        ArrayList<Integer> reachingDefs = new ArrayList<>(block.inSet.get(operandName));
+                    if (block.inSet.containsKey(operandSymbol)) {
+                        ArrayList<Integer> reachingDefs = new ArrayList<>(block.inSet.get(operandSymbol));
                         Integer closestDefLine = null;
                         
                         for (int j = 0; j < i; j++) {
                             IRInstruction prevInstr = block.instructions.get(j);
                             MIPSInstructionWrapper prevWrapper = defMap.get(prevInstr.irLineNumber);
-                            if (prevWrapper != null && prevWrapper.getDefOperand() != null &&
-                                prevWrapper.getDefOperand().toString().equals(operandName)) {
+                            if (prevWrapper != null && definesSymbol(prevWrapper, operandSymbol)) {
                                 closestDefLine = prevInstr.irLineNumber;
                             }
                         }
                         
                         if (closestDefLine != null) {
                             MIPSInstructionWrapper defWrapper = defMap.get(closestDefLine);
-                            if (defWrapper != null && defWrapper.getDefOperand().toString().equals(operandName)) {
+                            if (defWrapper != null && definesSymbol(defWrapper, operandSymbol)) {
                                 wrapper.addUse(defWrapper.getDefID() + '(' + defWrapper.getDefOperand() + ')');
                             }
                         } else {
                             for (Integer defLine : reachingDefs) {
                                 MIPSInstructionWrapper defWrapper = defMap.get(defLine);
-                                if (defWrapper != null && defWrapper.getDefOperand() != null &&
-                                    defWrapper.getDefOperand().toString().equals(operandName)) {
+                                if (defWrapper != null && definesSymbol(defWrapper, operandSymbol)) {
                                     wrapper.addUse(defWrapper.getDefID() + '(' + defWrapper.getDefOperand() + ')');
                                 }
                             }
@@ -97,15 +95,14 @@ public class MIPSReachingDefinitions {
                         for (int j = 0; j < i; j++) {
                             IRInstruction prevInstr = block.instructions.get(j);
                             MIPSInstructionWrapper prevWrapper = defMap.get(prevInstr.irLineNumber);
-                            if (prevWrapper != null && prevWrapper.getDefOperand() != null &&
-                                prevWrapper.getDefOperand().toString().equals(operandName)) {
+                            if (prevWrapper != null && definesSymbol(prevWrapper, operandSymbol)) {
                                 closestDefLine = prevInstr.irLineNumber;
                             }
                         }
                         
                         if (closestDefLine != null) {
                             MIPSInstructionWrapper defWrapper = defMap.get(closestDefLine);
-                            if (defWrapper != null && defWrapper.getDefOperand().toString().equals(operandName)) {
+                            if (defWrapper != null && definesSymbol(defWrapper, operandSymbol)) {
                                 wrapper.addUse(defWrapper.getDefID() + '(' + defWrapper.getDefOperand() + ')');
                             }
                         }
@@ -115,6 +112,11 @@ public class MIPSReachingDefinitions {
         }
     }
     
+    private static boolean definesSymbol(MIPSInstructionWrapper wrapper, IRSymbol symbol) {
+        IROperand defOperand = wrapper.getDefOperand();
+        return defOperand instanceof IRVariableOperand && ((IRVariableOperand) defOperand).symbol == symbol;
+    }
+    
     private static boolean isDefinitionOp(IRInstruction.OpCode opCode) {
         return opCode == IRInstruction.OpCode.ADD || 
                opCode == IRInstruction.OpCode.SUB ||
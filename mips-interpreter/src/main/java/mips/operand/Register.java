@@ -5,6 +5,9 @@ public class Register extends MIPSOperand {
     public String name;
     public boolean isVirtual;
 
+    // index in the interpreter's register file, assigned by MIPSReader; -1 if not resolved
+    public int index = -1;
+
     public Register(String name) {
         this(name, true);
     }
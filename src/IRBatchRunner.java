@@ -0,0 +1,119 @@
+import ir.*;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Runs one IR program against every N.in input of a test case directory in parallel.
+ *
+ * The program is parsed once. Each input runs in its own IRInterpreter created with
+ * IRInterpreter(IRInterpreter), so the runs share the parsed program and its compiled code
+ * but not their execution state, and read their input from and write their output to memory.
+ * A case passes if it runs without error and its output equals the matching N.out. Every
+ * case is reported with PASS or FAIL and its executed non-label instruction count, in input
+ * order.
+ */
+public class IRBatchRunner {
+
+    private static class Result {
+        boolean passed;
+        String detail;
+        long instructionCount;
+    }
+
+    private final IRInterpreter prototype;
+
+    private final int threads;
+
+    public IRBatchRunner(IRInterpreter prototype, int threads) {
+        this.prototype = prototype;
+        this.threads = threads;
+    }
+
+    // Runs every input of dir, prints a line per case and a summary to report, and returns
+    // whether all cases passed
+    public boolean run(File dir, PrintStream report) throws InterruptedException {
+        File[] inFiles = dir.listFiles((d, name) -> name.endsWith(".in"));
+        if (inFiles == null || inFiles.length == 0)
+            throw new IllegalArgumentException("No .in files in " + dir);
+        Arrays.sort(inFiles, IRBatchRunner::compareCaseNames);
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<Result>> futures = new ArrayList<>();
+        try {
+            for (File inFile : inFiles)
+                futures.add(pool.submit(() -> runCase(inFile)));
+
+            int passed = 0;
+            for (int i = 0; i < inFiles.length; i++) {
+                Result result;
+                try {
+                    result = futures.get(i).get();
+                } catch (ExecutionException e) {
+                    result = new Result();
+                    result.detail = "internal error: " + e.getCause();
+                }
+                if (result.passed)
+                    passed++;
+                report.println(String.format("%-4s %-12s %14d%s", result.passed ? "PASS" : "FAIL",
+                        inFiles[i].getName(), result.instructionCount,
+                        result.detail != null ? "  " + result.detail : ""));
+            }
+            report.println(passed + "/" + inFiles.length + " passed");
+            return passed == inFiles.length;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private Result runCase(File inFile) throws IOException {
+        Result result = new Result();
+        String name = inFile.getName();
+        File outFile = new File(inFile.getParentFile(), name.substring(0, name.length() - 3) + ".out");
+
+        IRInterpreter interpreter = new IRInterpreter(prototype);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        interpreter.setStreams(new ByteArrayInputStream(Files.readAllBytes(inFile.toPath())), out,
+                new PrintStream(err, true));
+        try {
+            interpreter.run();
+        } catch (IRException e) {
+            // The interpreter has written the error to err
+            result.detail = firstLine(err.toString());
+        } catch (RuntimeException | StackOverflowError e) {
+            result.detail = e.toString();
+        }
+        if (interpreter.getStats() != null)
+            result.instructionCount = interpreter.getStats().getNonLabelInstructionCount();
+
+        if (result.detail != null)
+            return result;
+        if (!outFile.exists()) {
+            result.detail = "missing " + outFile.getName();
+            return result;
+        }
+        result.passed = Arrays.equals(out.toByteArray(), Files.readAllBytes(outFile.toPath()));
+        if (!result.passed)
+            result.detail = "output differs from " + outFile.getName();
+        return result;
+    }
+
+    private static String firstLine(String s) {
+        int end = s.indexOf('\n');
+        return end < 0 ? s : s.substring(0, end);
+    }
+
+    // Orders 2.in before 10.in
+    private static int compareCaseNames(File a, File b) {
+        String x = a.getName();
+        String y = b.getName();
+        String xNumber = x.substring(0, x.length() - 3);
+        String yNumber = y.substring(0, y.length() - 3);
+        if (xNumber.matches("\\d+") && yNumber.matches("\\d+") && xNumber.length() != yNumber.length())
+            return Integer.compare(xNumber.length(), yNumber.length());
+        return x.compareTo(y);
+    }
+}
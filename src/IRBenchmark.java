@@ -0,0 +1,131 @@
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Measures IR interpreter throughput in nanoseconds per executed (non-label) instruction.
+ *
+ * Usage: java -cp build IRBenchmark [--rounds n] [--engine name] [--pairs n] public_test_cases/quicksort ...
+ *
+ * Every test case directory must contain one .ir file and a set of N.in inputs. Each input is
+ * run repeatedly in the same JVM so that the numbers reflect the warmed-up interpreter; program
+ * output is discarded and parsing is not included in the timings. The measured rounds are split
+ * into batches and the median batch is reported, which keeps GC and JIT noise out of the result.
+ *
+ * With --pairs n, every input is additionally run once on the bytecode engine with the opcode
+ * pair profile enabled, and the n most frequently dispatched opcode pairs are listed. These
+ * are the candidates for superinstructions (see IRBytecodeFuser).
+ */
+public class IRBenchmark {
+
+    private static final int WARMUP_ROUNDS = 200;
+
+    private static final int BATCHES = 10;
+
+    public static void main(String[] args) throws Exception {
+        int rounds = 1000;
+        int pairs = 0;
+        IRInterpreter.Engine engine = IRInterpreter.Engine.REFERENCE;
+        List<File> dirs = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--rounds"))
+                rounds = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--engine"))
+                engine = IRInterpreter.Engine.valueOf(args[++i].toUpperCase());
+            else if (args[i].equals("--pairs"))
+                pairs = Integer.parseInt(args[++i]);
+            else
+                dirs.add(new File(args[i]));
+        }
+
+        PrintStream stdout = System.out;
+        InputStream stdin = System.in;
+        PrintStream sink = new PrintStream(OutputStream.nullOutputStream());
+
+        stdout.println("engine: " + engine.name().toLowerCase());
+        stdout.println(String.format("%-12s %6s %14s %10s", "case", "inputs", "instructions", "ns/inst"));
+        for (File dir : dirs) {
+            File[] irFiles = dir.listFiles((d, name) -> name.endsWith(".ir"));
+            File[] inFiles = dir.listFiles((d, name) -> name.endsWith(".in"));
+            if (irFiles == null || irFiles.length != 1 || inFiles == null)
+                throw new IllegalArgumentException("Not a test case directory: " + dir);
+            Arrays.sort(inFiles);
+
+            List<byte[]> inputs = new ArrayList<>();
+            for (File in : inFiles)
+                inputs.add(Files.readAllBytes(in.toPath()));
+
+            long totalInstructions = 0;
+            double[] batchNs = new double[BATCHES];
+            System.setOut(sink);
+            try {
+                runRounds(irFiles[0].getPath(), engine, inputs, WARMUP_ROUNDS);
+                for (int batch = 0; batch < BATCHES; batch++) {
+                    long[] result = runRounds(irFiles[0].getPath(), engine, inputs, Math.max(1, rounds / BATCHES));
+                    batchNs[batch] = (double) result[0] / result[1];
+                    totalInstructions += result[1];
+                }
+            } finally {
+                System.setOut(stdout);
+                System.setIn(stdin);
+            }
+            Arrays.sort(batchNs);
+
+            stdout.println(String.format("%-12s %6d %14d %10.2f",
+                    dir.getName(), inputs.size(), totalInstructions, batchNs[BATCHES / 2]));
+            if (pairs > 0)
+                printPairProfile(irFiles[0].getPath(), inputs, pairs, sink, stdout);
+        }
+    }
+
+    private static void printPairProfile(String irFile, List<byte[]> inputs, int pairs,
+                                         PrintStream sink, PrintStream stdout) throws Exception {
+        int n = IRBytecode.OPCODE_COUNT;
+        long[] pairCounts = new long[n * n];
+        System.setOut(sink);
+        try {
+            for (byte[] input : inputs) {
+                IRInterpreter interpreter = new IRInterpreter(irFile);
+                interpreter.setEngine(IRInterpreter.Engine.BYTECODE);
+                interpreter.setPairProfile(pairCounts);
+                System.setIn(new ByteArrayInputStream(input));
+                interpreter.run();
+            }
+        } finally {
+            System.setOut(stdout);
+        }
+
+        long total = 0;
+        Integer[] order = new Integer[pairCounts.length];
+        for (int i = 0; i < pairCounts.length; i++) {
+            order[i] = i;
+            total += pairCounts[i];
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(pairCounts[b], pairCounts[a]));
+        for (int i = 0; i < pairs && pairCounts[order[i]] > 0; i++) {
+            int pair = order[i];
+            stdout.println(String.format("  %-22s %-22s %12d %6.2f%%",
+                    IRBytecode.NAMES[pair / n], IRBytecode.NAMES[pair % n],
+                    pairCounts[pair], 100.0 * pairCounts[pair] / total));
+        }
+    }
+
+    // Returns {elapsed nanoseconds, executed non-label instructions}
+    private static long[] runRounds(String irFile, IRInterpreter.Engine engine, List<byte[]> inputs,
+                                    int rounds) throws Exception {
+        long elapsed = 0;
+        long instructions = 0;
+        for (int round = 0; round < rounds; round++) {
+            for (byte[] input : inputs) {
+                IRInterpreter interpreter = new IRInterpreter(irFile);
+                interpreter.setEngine(engine);
+                System.setIn(new ByteArrayInputStream(input));
+                long start = System.nanoTime();
+                interpreter.run();
+                elapsed += System.nanoTime() - start;
+                instructions += interpreter.getStats().getNonLabelInstructionCount();
+            }
+        }
+        return new long[]{elapsed, instructions};
+    }
+}
@@ -0,0 +1,296 @@
+import ir.*;
+
+/**
+ * An IRFunction compiled into a flat int[] code array.
+ *
+ * Each instruction is an opcode followed by its operands. Value operands are encoded as
+ * (index << KIND_BITS) | kind, where the index is a frame slot for variables or an index
+ * into the constant pools for constants. Branch targets are the absolute code index just
+ * past the target LABEL, so a taken branch accounts for the label without dispatching it.
+ * Callees are indices into the program's function table.
+ *
+ * Instruction formats:
+ *   ASSIGN        dst, src
+ *   ASSIGN_ARRAY  arraySlot, size, src
+ *   ADD..OR       dst, y, z
+ *   GOTO          target
+ *   BREQ..BRGEQ   target, a, b
+ *   RETURN        val
+ *   CALL          callee, argc, args...
+ *   CALLR         callee, dst, argc, args...
+ *   GETI..GETC    dst
+ *   PUTI..PUTC    val
+ *   ARRAY_STORE   val, arraySlot, index
+ *   ARRAY_LOAD    dst, arraySlot, index
+ *   LABEL
+ *   END           (falling off the end of the function)
+ *   LOOP          loop
+ *
+ * LOOP follows the LABEL of every loop header when the bytecode is compiled for tiered
+ * execution; backward branches land on it. It is not an IR instruction and counts the
+ * iterations of loop number loop of the function for on-stack replacement.
+ */
+public class IRBytecode {
+
+    // Opcodes
+    public static final int ASSIGN = 0;
+    public static final int ASSIGN_ARRAY = 1;
+    public static final int ADD = 2;
+    public static final int SUB = 3;
+    public static final int MULT = 4;
+    public static final int DIV = 5;
+    public static final int AND = 6;
+    public static final int OR = 7;
+    public static final int GOTO = 8;
+    public static final int BREQ = 9;
+    public static final int BRNEQ = 10;
+    public static final int BRLT = 11;
+    public static final int BRGT = 12;
+    public static final int BRGEQ = 13;
+    public static final int RETURN = 14;
+    public static final int CALL = 15;
+    public static final int CALLR = 16;
+    public static final int GETI = 17;
+    public static final int GETF = 18;
+    public static final int GETC = 19;
+    public static final int PUTI = 20;
+    public static final int PUTF = 21;
+    public static final int PUTC = 22;
+    public static final int ARRAY_STORE = 23;
+    public static final int ARRAY_LOAD = 24;
+    public static final int LABEL = 25;
+    public static final int END = 26;
+
+    // Quickened opcodes: type-specialized forms of the generic opcodes above, with plain
+    // slot indices (V) or inline constant values (C) as operands. See IRBytecodeQuickener.
+    public static final int ADD_IVV = 27;
+    public static final int ADD_IVC = 28;
+    public static final int ADD_ICV = 29;
+    public static final int SUB_IVV = 30;
+    public static final int SUB_IVC = 31;
+    public static final int SUB_ICV = 32;
+    public static final int MULT_IVV = 33;
+    public static final int MULT_IVC = 34;
+    public static final int MULT_ICV = 35;
+    public static final int DIV_IVV = 36;
+    public static final int DIV_IVC = 37;
+    public static final int DIV_ICV = 38;
+    public static final int AND_IVV = 39;
+    public static final int AND_IVC = 40;
+    public static final int AND_ICV = 41;
+    public static final int OR_IVV = 42;
+    public static final int OR_IVC = 43;
+    public static final int OR_ICV = 44;
+    public static final int ADD_FVV = 45;
+    public static final int SUB_FVV = 46;
+    public static final int MULT_FVV = 47;
+    public static final int DIV_FVV = 48;
+    public static final int BREQ_IVV = 49;
+    public static final int BREQ_IVC = 50;
+    public static final int BREQ_ICV = 51;
+    public static final int BRNEQ_IVV = 52;
+    public static final int BRNEQ_IVC = 53;
+    public static final int BRNEQ_ICV = 54;
+    public static final int BRLT_IVV = 55;
+    public static final int BRLT_IVC = 56;
+    public static final int BRLT_ICV = 57;
+    public static final int BRGT_IVV = 58;
+    public static final int BRGT_IVC = 59;
+    public static final int BRGT_ICV = 60;
+    public static final int BRGEQ_IVV = 61;
+    public static final int BRGEQ_IVC = 62;
+    public static final int BRGEQ_ICV = 63;
+    public static final int BREQ_FVV = 64;
+    public static final int BRNEQ_FVV = 65;
+    public static final int BRLT_FVV = 66;
+    public static final int BRGT_FVV = 67;
+    public static final int BRGEQ_FVV = 68;
+    public static final int ASSIGN_IV = 69;
+    public static final int ASSIGN_IC = 70;
+    public static final int ASSIGN_FV = 71;
+    public static final int ASSIGN_FC = 72;
+
+    // Superinstructions: a quickened instruction fused with the one that follows it. Only the
+    // opcode of the first instruction is replaced; the second keeps its opcode and operands,
+    // so branches to it still work. A fused instruction executes both and continues after
+    // the second. The pairs were picked from IRBenchmark --pairs profiles. See IRBytecodeFuser.
+    public static final int ARRAY_LOAD_ASSIGN_IV = 73;
+    public static final int ASSIGN_IV_BRLT_IVV = 74;
+    public static final int ASSIGN_IV_BRGT_IVV = 75;
+    public static final int ASSIGN_IV_BREQ_IVC = 76;
+    public static final int ASSIGN_IV_ASSIGN_IV = 77;
+    public static final int ASSIGN_IC_ASSIGN_IC = 78;
+    public static final int ADD_IVC_ARRAY_LOAD = 79;
+    public static final int SUB_IVC_ARRAY_LOAD = 80;
+    public static final int ADD_IVC_GOTO = 81;
+    public static final int ADD_IVC_BRLT_IVV = 82;
+    public static final int ADD_IVC_BRLT_IVC = 83;
+
+    // Loop header marker for tiered execution
+    public static final int LOOP = 84;
+
+    public static final int OPCODE_COUNT = 85;
+
+    // Operand kinds
+    public static final int KIND_BITS = 3;
+    public static final int KIND_MASK = (1 << KIND_BITS) - 1;
+    public static final int INT_VAR = 0;
+    public static final int FLOAT_VAR = 1;
+    public static final int INT_CONST = 2;
+    public static final int FLOAT_CONST = 3;
+    public static final int ARRAY_VAR = 4;
+
+    // The generic opcode each opcode was derived from
+    public static final int[] GENERIC_OPCODES = new int[OPCODE_COUNT];
+
+    // The two opcodes each superinstruction was fused from (the opcode itself and -1 otherwise)
+    public static final int[] FIRST_OPCODES = new int[OPCODE_COUNT];
+    public static final int[] SECOND_OPCODES = new int[OPCODE_COUNT];
+
+    // The IR instruction each opcode is accounted as in the interpreter stats (null if none).
+    // Superinstructions are accounted as the IR instructions of both their opcodes.
+    public static final IRInstruction.OpCode[] IR_OPCODES = new IRInstruction.OpCode[OPCODE_COUNT];
+
+    public static final String[] NAMES = new String[OPCODE_COUNT];
+
+    private static final String[] GENERIC_NAMES = {
+            "ASSIGN", "ASSIGN_ARRAY", "ADD", "SUB", "MULT", "DIV", "AND", "OR", "GOTO",
+            "BREQ", "BRNEQ", "BRLT", "BRGT", "BRGEQ", "RETURN", "CALL", "CALLR",
+            "GETI", "GETF", "GETC", "PUTI", "PUTF", "PUTC", "ARRAY_STORE", "ARRAY_LOAD",
+            "LABEL", "END"
+    };
+
+    private static final IRInstruction.OpCode[] GENERIC_IR_OPCODES = {
+            IRInstruction.OpCode.ASSIGN, IRInstruction.OpCode.ASSIGN,
+            IRInstruction.OpCode.ADD, IRInstruction.OpCode.SUB, IRInstruction.OpCode.MULT,
+            IRInstruction.OpCode.DIV, IRInstruction.OpCode.AND, IRInstruction.OpCode.OR,
+            IRInstruction.OpCode.GOTO,
+            IRInstruction.OpCode.BREQ, IRInstruction.OpCode.BRNEQ, IRInstruction.OpCode.BRLT,
+            IRInstruction.OpCode.BRGT, IRInstruction.OpCode.BRGEQ,
+            IRInstruction.OpCode.RETURN,
+            IRInstruction.OpCode.CALL, IRInstruction.OpCode.CALLR,
+            IRInstruction.OpCode.CALLR, IRInstruction.OpCode.CALLR, IRInstruction.OpCode.CALLR,
+            IRInstruction.OpCode.CALL, IRInstruction.OpCode.CALL, IRInstruction.OpCode.CALL,
+            IRInstruction.OpCode.ARRAY_STORE, IRInstruction.OpCode.ARRAY_LOAD,
+            IRInstruction.OpCode.LABEL,
+            null
+    };
+
+    static {
+        for (int op = 0; op <= END; op++)
+            quick(op, op, "");
+        for (int i = 0; i <= OR - ADD; i++) {
+            quick(ADD_IVV + 3 * i, ADD + i, "_IVV");
+            quick(ADD_IVC + 3 * i, ADD + i, "_IVC");
+            quick(ADD_ICV + 3 * i, ADD + i, "_ICV");
+        }
+        for (int i = 0; i <= DIV - ADD; i++)
+            quick(ADD_FVV + i, ADD + i, "_FVV");
+        for (int i = 0; i <= BRGEQ - BREQ; i++) {
+            quick(BREQ_IVV + 3 * i, BREQ + i, "_IVV");
+            quick(BREQ_IVC + 3 * i, BREQ + i, "_IVC");
+            quick(BREQ_ICV + 3 * i, BREQ + i, "_ICV");
+            quick(BREQ_FVV + i, BREQ + i, "_FVV");
+        }
+        quick(ASSIGN_IV, ASSIGN, "_IV");
+        quick(ASSIGN_IC, ASSIGN, "_IC");
+        quick(ASSIGN_FV, ASSIGN, "_FV");
+        quick(ASSIGN_FC, ASSIGN, "_FC");
+
+        fused(ARRAY_LOAD_ASSIGN_IV, ARRAY_LOAD, ASSIGN_IV);
+        fused(ASSIGN_IV_BRLT_IVV, ASSIGN_IV, BRLT_IVV);
+        fused(ASSIGN_IV_BRGT_IVV, ASSIGN_IV, BRGT_IVV);
+        fused(ASSIGN_IV_BREQ_IVC, ASSIGN_IV, BREQ_IVC);
+        fused(ASSIGN_IV_ASSIGN_IV, ASSIGN_IV, ASSIGN_IV);
+        fused(ASSIGN_IC_ASSIGN_IC, ASSIGN_IC, ASSIGN_IC);
+        fused(ADD_IVC_ARRAY_LOAD, ADD_IVC, ARRAY_LOAD);
+        fused(SUB_IVC_ARRAY_LOAD, SUB_IVC, ARRAY_LOAD);
+        fused(ADD_IVC_GOTO, ADD_IVC, GOTO);
+        fused(ADD_IVC_BRLT_IVV, ADD_IVC, BRLT_IVV);
+        fused(ADD_IVC_BRLT_IVC, ADD_IVC, BRLT_IVC);
+
+        GENERIC_OPCODES[LOOP] = LOOP;
+        FIRST_OPCODES[LOOP] = LOOP;
+        SECOND_OPCODES[LOOP] = -1;
+        NAMES[LOOP] = "LOOP";
+    }
+
+    private static void quick(int op, int generic, String suffix) {
+        GENERIC_OPCODES[op] = generic;
+        FIRST_OPCODES[op] = op;
+        SECOND_OPCODES[op] = -1;
+        IR_OPCODES[op] = GENERIC_IR_OPCODES[generic];
+        NAMES[op] = GENERIC_NAMES[generic] + suffix;
+    }
+
+    private static void fused(int op, int first, int second) {
+        GENERIC_OPCODES[op] = GENERIC_OPCODES[first];
+        FIRST_OPCODES[op] = first;
+        SECOND_OPCODES[op] = second;
+        IR_OPCODES[op] = IR_OPCODES[first];
+        NAMES[op] = NAMES[first] + "+" + NAMES[second];
+    }
+
+    public final IRFunction function;
+
+    public final IRFrameLayout layout;
+
+    // Index of the function in the program's function table
+    public int index;
+
+    // Label names of the loops numbered by LOOP instructions (empty unless compiled for tiering)
+    public String[] loopHeaders;
+
+    public int[] code;
+
+    // IR line number of the instruction starting at each code index
+    public int[] lineNumbers;
+
+    public int[] intConstants;
+
+    public float[] floatConstants;
+
+    public IRBytecode(IRFunction function, IRFrameLayout layout) {
+        this.function = function;
+        this.layout = layout;
+    }
+
+    // Number of code words taken by the instruction at pc (the first half of a superinstruction)
+    public static int length(int[] code, int pc) {
+        switch (GENERIC_OPCODES[code[pc]]) {
+            case LABEL:
+            case END:
+                return 1;
+            case GOTO:
+            case RETURN:
+            case LOOP:
+            case GETI:
+            case GETF:
+            case GETC:
+            case PUTI:
+            case PUTF:
+            case PUTC:
+                return 2;
+            case ASSIGN:
+                return 3;
+            case CALL:
+                return 3 + code[pc + 2];
+            case CALLR:
+                return 4 + code[pc + 3];
+            default:
+                return 4;
+        }
+    }
+
+    public static int encode(int index, int kind) {
+        return (index << KIND_BITS) | kind;
+    }
+
+    public static int kindOf(int operand) {
+        return operand & KIND_MASK;
+    }
+
+    public static int indexOf(int operand) {
+        return operand >> KIND_BITS;
+    }
+}
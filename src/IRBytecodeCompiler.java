@@ -0,0 +1,279 @@
+import ir.*;
+import ir.datatype.IRArrayType;
+import ir.datatype.IRIntType;
+import ir.datatype.IRType;
+import ir.operand.*;
+
+import java.util.*;
+
+/**
+ * Compiles the functions of an IRProgram into IRBytecode.
+ *
+ * Constants are parsed once, operand kinds are resolved, labels become absolute code
+ * indices and callees become indices into the compiled function table, so nothing is
+ * looked up by name while the bytecode runs.
+ */
+public class IRBytecodeCompiler {
+
+    private Map<String, Integer> functionIndices;
+
+    private Map<IRFunction, IRFrameLayout> layouts;
+
+    private boolean loopMarkers;
+
+    public IRBytecodeCompiler(List<IRFunction> functions, Map<IRFunction, IRFrameLayout> layouts) {
+        this.layouts = layouts;
+        functionIndices = new HashMap<>();
+        for (int i = 0; i < functions.size(); i++)
+            functionIndices.put(functions.get(i).name, i);
+    }
+
+    // Emits a LOOP after the label of every loop header, for tiered execution
+    public void setLoopMarkers(boolean loopMarkers) {
+        this.loopMarkers = loopMarkers;
+    }
+
+    public IRBytecode[] compileAll(List<IRFunction> functions) throws IRException {
+        IRBytecode[] compiled = new IRBytecode[functions.size()];
+        for (int i = 0; i < compiled.length; i++)
+            compiled[i] = compile(functions.get(i));
+        return compiled;
+    }
+
+    private IRBytecode bytecode;
+    private int[] code;
+    private int[] lineNumbers;
+    private int size;
+    private List<Integer> intConstants;
+    private List<Float> floatConstants;
+
+    public IRBytecode compile(IRFunction function) throws IRException {
+        IRFrameLayout layout = layouts.get(function);
+        bytecode = new IRBytecode(function, layout);
+        bytecode.index = functionIndices.get(function.name);
+        List<String> loopHeaders = loopMarkers ? findLoopHeaders(function) : Collections.emptyList();
+        bytecode.loopHeaders = loopHeaders.toArray(new String[0]);
+        code = new int[function.instructions.size() * 4 + 1];
+        lineNumbers = new int[code.length];
+        size = 0;
+        intConstants = new ArrayList<>();
+        floatConstants = new ArrayList<>();
+
+        Map<String, Integer> labelIndices = new HashMap<>();
+        // Code indices of branch target operands, patched once all labels are placed
+        List<Integer> fixups = new ArrayList<>();
+        List<String> fixupLabels = new ArrayList<>();
+
+        for (int i = 0; i < function.instructions.size(); i++) {
+            IRInstruction instruction = function.instructions.get(i);
+            IROperand[] operands = instruction.operands;
+            int[] slots = layout.operandSlots[i];
+            int start = size;
+
+            switch (instruction.opCode) {
+                case ASSIGN:
+                    if (operands.length > 2) {
+                        emit(IRBytecode.ASSIGN_ARRAY);
+                        emit(slots[0]);
+                        emitValue(operands[1], slots[1]);
+                        emitValue(operands[2], slots[2]);
+                    } else {
+                        emit(IRBytecode.ASSIGN);
+                        emitValue(operands[0], slots[0]);
+                        emitValue(operands[1], slots[1]);
+                    }
+                    break;
+                case ADD:
+                case SUB:
+                case MULT:
+                case DIV:
+                case AND:
+                case OR:
+                    emit(IRBytecode.ADD + instruction.opCode.ordinal() - IRInstruction.OpCode.ADD.ordinal());
+                    emitValue(operands[0], slots[0]);
+                    emitValue(operands[1], slots[1]);
+                    emitValue(operands[2], slots[2]);
+                    break;
+                case GOTO:
+                    emit(IRBytecode.GOTO);
+                    fixups.add(size);
+                    fixupLabels.add(((IRLabelOperand) operands[0]).getName());
+                    emit(-1);
+                    break;
+                case BREQ:
+                case BRNEQ:
+                case BRLT:
+                case BRGT:
+                case BRGEQ:
+                    emit(IRBytecode.BREQ + instruction.opCode.ordinal() - IRInstruction.OpCode.BREQ.ordinal());
+                    fixups.add(size);
+                    fixupLabels.add(((IRLabelOperand) operands[0]).getName());
+                    emit(-1);
+                    emitValue(operands[1], slots[1]);
+                    emitValue(operands[2], slots[2]);
+                    break;
+                case RETURN:
+                    emit(IRBytecode.RETURN);
+                    emitValue(operands[0], slots[0]);
+                    break;
+                case CALL:
+                    emitCall(instruction, operands, slots, 1, -1);
+                    break;
+                case CALLR:
+                    emitCall(instruction, operands, slots, 2, encodeValue(operands[0], slots[0]));
+                    break;
+                case ARRAY_STORE:
+                    emit(IRBytecode.ARRAY_STORE);
+                    emitValue(operands[0], slots[0]);
+                    emit(slots[1]);
+                    emitValue(operands[2], slots[2]);
+                    break;
+                case ARRAY_LOAD:
+                    emit(IRBytecode.ARRAY_LOAD);
+                    emitValue(operands[0], slots[0]);
+                    emit(slots[1]);
+                    emitValue(operands[2], slots[2]);
+                    break;
+                case LABEL:
+                    String label = ((IRLabelOperand) operands[0]).getName();
+                    labelIndices.put(label, size);
+                    emit(IRBytecode.LABEL);
+                    if (loopHeaders.contains(label)) {
+                        emit(IRBytecode.LOOP);
+                        emit(loopHeaders.indexOf(label));
+                    }
+                    break;
+                default:
+                    throw new IRException("Cannot compile instruction", instruction.irLineNumber);
+            }
+            lineNumbers[start] = instruction.irLineNumber;
+        }
+
+        int endLine = function.instructions.isEmpty()
+                ? -1 : function.instructions.get(function.instructions.size() - 1).irLineNumber;
+        emit(IRBytecode.END);
+        lineNumbers[size - 1] = endLine;
+
+        // Jump past the target LABEL; taken branches count the label themselves
+        for (int i = 0; i < fixups.size(); i++)
+            code[fixups.get(i)] = labelIndices.get(fixupLabels.get(i)) + 1;
+
+        bytecode.code = Arrays.copyOf(code, size);
+        bytecode.lineNumbers = Arrays.copyOf(lineNumbers, size);
+        bytecode.intConstants = new int[intConstants.size()];
+        for (int i = 0; i < intConstants.size(); i++)
+            bytecode.intConstants[i] = intConstants.get(i);
+        bytecode.floatConstants = new float[floatConstants.size()];
+        for (int i = 0; i < floatConstants.size(); i++)
+            bytecode.floatConstants[i] = floatConstants.get(i);
+        return bytecode;
+    }
+
+    // Labels that are the target of a branch at or after them, in order of appearance
+    public static List<String> findLoopHeaders(IRFunction function) {
+        Map<String, Integer> labelIndices = new HashMap<>();
+        for (int i = 0; i < function.instructions.size(); i++) {
+            IRInstruction instruction = function.instructions.get(i);
+            if (instruction.opCode == IRInstruction.OpCode.LABEL)
+                labelIndices.put(((IRLabelOperand) instruction.operands[0]).getName(), i);
+        }
+
+        boolean[] headers = new boolean[function.instructions.size()];
+        for (int i = 0; i < function.instructions.size(); i++) {
+            IRInstruction instruction = function.instructions.get(i);
+            switch (instruction.opCode) {
+                case GOTO:
+                case BREQ:
+                case BRNEQ:
+                case BRLT:
+                case BRGT:
+                case BRGEQ:
+                    Integer target = labelIndices.get(((IRLabelOperand) instruction.operands[0]).getName());
+                    if (target != null && target <= i)
+                        headers[target] = true;
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        List<String> loopHeaders = new ArrayList<>();
+        for (int i = 0; i < headers.length; i++)
+            if (headers[i])
+                loopHeaders.add(((IRLabelOperand) function.instructions.get(i).operands[0]).getName());
+        return loopHeaders;
+    }
+
+    private void emitCall(IRInstruction instruction, IROperand[] operands, int[] slots,
+                          int argIdx, int dst) throws IRException {
+        String calleeName = ((IRFunctionOperand) operands[argIdx - 1]).getName();
+        Integer calleeIndex = functionIndices.get(calleeName);
+        if (calleeIndex == null) {
+            emit(intrinsicOpCode(calleeName, instruction));
+            if (dst != -1)
+                emit(dst);
+            else
+                emitValue(operands[argIdx], slots[argIdx]);
+            return;
+        }
+
+        boolean hasResult = dst != -1;
+        emit(hasResult ? IRBytecode.CALLR : IRBytecode.CALL);
+        emit(calleeIndex);
+        if (hasResult)
+            emit(dst);
+        emit(operands.length - argIdx);
+        for (int i = argIdx; i < operands.length; i++)
+            emitValue(operands[i], slots[i]);
+    }
+
+    private int intrinsicOpCode(String name, IRInstruction instruction) throws IRException {
+        switch (name) {
+            case "geti":
+                return IRBytecode.GETI;
+            case "getf":
+                return IRBytecode.GETF;
+            case "getc":
+                return IRBytecode.GETC;
+            case "puti":
+                return IRBytecode.PUTI;
+            case "putf":
+                return IRBytecode.PUTF;
+            case "putc":
+                return IRBytecode.PUTC;
+            default:
+                throw new IRException(String.format("Undefined reference to function '%s'", name),
+                        instruction.irLineNumber);
+        }
+    }
+
+    private int encodeValue(IROperand operand, int slot) {
+        if (operand instanceof IRVariableOperand) {
+            IRType type = ((IRVariableOperand) operand).type;
+            if (type instanceof IRArrayType)
+                return IRBytecode.encode(slot, IRBytecode.ARRAY_VAR);
+            if (type == IRIntType.get())
+                return IRBytecode.encode(slot, IRBytecode.INT_VAR);
+            return IRBytecode.encode(slot, IRBytecode.FLOAT_VAR);
+        }
+        IRConstantOperand constant = (IRConstantOperand) operand;
+        if (constant.type == IRIntType.get()) {
+            intConstants.add(Integer.parseInt(constant.getValueString()));
+            return IRBytecode.encode(intConstants.size() - 1, IRBytecode.INT_CONST);
+        }
+        floatConstants.add(Float.parseFloat(constant.getValueString()));
+        return IRBytecode.encode(floatConstants.size() - 1, IRBytecode.FLOAT_CONST);
+    }
+
+    private void emitValue(IROperand operand, int slot) {
+        emit(encodeValue(operand, slot));
+    }
+
+    private void emit(int word) {
+        if (size == code.length) {
+            code = Arrays.copyOf(code, size * 2);
+            lineNumbers = Arrays.copyOf(lineNumbers, size * 2);
+        }
+        code[size++] = word;
+    }
+}
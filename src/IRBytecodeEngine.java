@@ -0,0 +1,858 @@
+import ir.*;
+import ir.datatype.IRIntType;
+
+import java.util.*;
+
+/**
+ * Executes IRBytecode from a single dispatch loop.
+ *
+ * The engine shares stack frames, intrinsics, stats and error reporting with the
+ * IRInterpreter it belongs to. Quickened opcodes come first in the dispatch switch, then
+ * superinstructions; the generic ones only run for instructions IRBytecodeQuickener could
+ * not specialize. Instruction counts are kept per bytecode opcode in a long[] and folded
+ * into the interpreter stats when the program exits, with superinstructions counted as
+ * both of their instructions and taken branches counting their target label.
+ *
+ * With a JIT (setJit, or setTiered to compile hot functions as they are found), calls to
+ * compiled functions run them through IRJitRuntime and continue once they return.
+ */
+public class IRBytecodeEngine {
+
+    private IRInterpreter interpreter;
+
+    private IRBytecode[] functions;
+
+    private long[] opCounts;
+
+    // Dispatch counts of opcode pairs [previous * OPCODE_COUNT + next], or null
+    private long[] pairCounts;
+
+    // Calls from interpreted code before a function is compiled, and loop iterations before the
+    // function containing the loop is compiled, in tiered execution
+    private static final int INVOCATION_THRESHOLD = 1000;
+    private static final int LOOP_THRESHOLD = 2000;
+
+    // Compiled code of each function (null while interpreted), or null without a JIT
+    private IRJitRuntime[] compiledCode;
+
+    private List<IRJitRuntime> runtimes = new ArrayList<>();
+
+    // Tiered execution counters per function and per function and loop, or null
+    private int[] invocationCounts;
+    private int[][] loopCounts;
+
+    public IRBytecodeEngine(IRInterpreter interpreter, IRBytecode[] functions) {
+        this.interpreter = interpreter;
+        this.functions = functions;
+    }
+
+    // Accumulates into pairCounts how often each opcode is dispatched right after each
+    // other opcode. This is the profile superinstructions are chosen from.
+    public void setPairProfile(long[] pairCounts) {
+        this.pairCounts = pairCounts;
+    }
+
+    // Runs the functions that were compiled by the JIT as compiled code. Calls from interpreted
+    // code enter them with the arguments stored in a pushed frame, as for interpreted callees.
+    public void setJit(IRJitRuntime jit) {
+        compiledCode = new IRJitRuntime[functions.length];
+        boolean[] compiled = jit.getCompiled();
+        for (int i = 0; i < functions.length; i++)
+            if (compiled[i])
+                compiledCode[i] = jit;
+        runtimes.add(jit);
+    }
+
+    // Starts every function interpreted and compiles it once it is called or loops often
+    // enough; interpreted frames of compiled functions move to compiled code at their next
+    // loop header. Requires bytecode with loop markers, see IRBytecodeCompiler.setLoopMarkers.
+    public void setTiered() {
+        compiledCode = new IRJitRuntime[functions.length];
+        invocationCounts = new int[functions.length];
+        loopCounts = new int[functions.length][];
+        for (int i = 0; i < functions.length; i++)
+            loopCounts[i] = new int[functions[i].loopHeaders.length];
+    }
+
+    public void run() throws IRException {
+        opCounts = new long[IRBytecode.OPCODE_COUNT];
+        try {
+            execute();
+        } finally {
+            IRInterpreter.Stats stats = interpreter.stats;
+            for (int op = 0; op < IRBytecode.OPCODE_COUNT; op++) {
+                if (IRBytecode.IR_OPCODES[op] != null)
+                    stats.add(IRBytecode.IR_OPCODES[op], opCounts[op]);
+                if (IRBytecode.SECOND_OPCODES[op] != -1)
+                    stats.add(IRBytecode.IR_OPCODES[IRBytecode.SECOND_OPCODES[op]], opCounts[op]);
+            }
+            for (IRJitRuntime runtime : runtimes)
+                runtime.addStats(stats);
+        }
+    }
+
+    // Compiles the function with the given index together with its callees, recording them as
+    // promoted in the stats
+    private void promote(int function, String reason) {
+        boolean[] roots = new boolean[functions.length];
+        roots[function] = true;
+        IRJitCompiler compiler = new IRJitCompiler(interpreter.program.functions, interpreter.functionLayoutMap);
+        compiler.compile(roots);
+        if (!compiler.compiled[function])
+            return;
+
+        IRJitRuntime runtime = new IRJitRuntime(interpreter, compiler);
+        runtimes.add(runtime);
+        long instructionCount = getNonLabelInstructionCount();
+        String name = functions[function].function.name;
+        for (int i = 0; i < functions.length; i++) {
+            if (!compiler.compiled[i] || compiledCode[i] != null)
+                continue;
+            compiledCode[i] = runtime;
+            interpreter.stats.addPromotion(functions[i].function.name,
+                    i == function ? reason : "callee of " + name, instructionCount);
+        }
+    }
+
+    private long getNonLabelInstructionCount() {
+        long count = 0;
+        for (int op = 0; op < IRBytecode.OPCODE_COUNT; op++) {
+            if (IRBytecode.IR_OPCODES[op] != null && IRBytecode.IR_OPCODES[op] != IRInstruction.OpCode.LABEL)
+                count += opCounts[op];
+            if (IRBytecode.SECOND_OPCODES[op] != -1)
+                count += opCounts[op];
+        }
+        for (IRJitRuntime runtime : runtimes)
+            count += runtime.getNonLabelInstructionCount();
+        return count;
+    }
+
+    private int findMain() throws IRException {
+        for (int i = 0; i < functions.length; i++)
+            if (functions[i].function.name.equals("main"))
+                return i;
+        throw new IRException("Undefined reference to function 'main'");
+    }
+
+    // Pushes and initializes the frame for a call to callee
+    private IRInterpreter.StackFrame enter(IRBytecode callee, IRFunction caller, int callLineNumber,
+                                           int returnPc, int retSlot) {
+        IRInterpreter.StackFrame sf = interpreter.stack.push();
+        sf.caller = caller;
+        sf.callLineNumber = callLineNumber;
+        sf.returnInstIdx = returnPc;
+        sf.retSlot = retSlot;
+        sf.function = callee.function;
+        sf.code = callee;
+        interpreter.allocateFrame(sf, callee.layout);
+        return sf;
+    }
+
+    private void execute() throws IRException {
+        IRInterpreter.CallStack stack = interpreter.stack;
+        long[] opCounts = this.opCounts;
+        long[] pairCounts = this.pairCounts;
+        int prevOp = IRBytecode.END;
+
+        IRJitRuntime[] compiledCode = this.compiledCode;
+        int[] invocationCounts = this.invocationCounts;
+        int[][] loopCounts = this.loopCounts;
+
+        IRInterpreter.StackFrame entrySF = stack.push();
+        int main = findMain();
+        IRInterpreter.StackFrame sf = enter(functions[main], null, -1, -1, -1);
+        if (compiledCode != null && compiledCode[main] != null) {
+            compiledCode[main].invoke(main, sf);
+            return;
+        }
+
+        IRBytecode bytecode = sf.code;
+        int[] code = bytecode.code;
+        int[] intConstants = bytecode.intConstants;
+        float[] floatConstants = bytecode.floatConstants;
+        int[] ints = sf.ints;
+        float[] floats = sf.floats;
+        int pc = 0;
+
+        while (true) {
+            int op = code[pc];
+            opCounts[op]++;
+            if (pairCounts != null) {
+                pairCounts[prevOp * IRBytecode.OPCODE_COUNT + op]++;
+                prevOp = op;
+            }
+            switch (op) {
+                case IRBytecode.ADD_IVV:
+                    ints[code[pc + 1]] = ints[code[pc + 2]] + ints[code[pc + 3]];
+                    pc += 4;
+                    break;
+                case IRBytecode.ADD_IVC:
+                    ints[code[pc + 1]] = ints[code[pc + 2]] + code[pc + 3];
+                    pc += 4;
+                    break;
+                case IRBytecode.ADD_ICV:
+                    ints[code[pc + 1]] = code[pc + 2] + ints[code[pc + 3]];
+                    pc += 4;
+                    break;
+                case IRBytecode.SUB_IVV:
+                    ints[code[pc + 1]] = ints[code[pc + 2]] - ints[code[pc + 3]];
+                    pc += 4;
+                    break;
+                case IRBytecode.SUB_IVC:
+                    ints[code[pc + 1]] = ints[code[pc + 2]] - code[pc + 3];
+                    pc += 4;
+                    break;
+                case IRBytecode.SUB_ICV:
+                    ints[code[pc + 1]] = code[pc + 2] - ints[code[pc + 3]];
+                    pc += 4;
+                    break;
+                case IRBytecode.MULT_IVV:
+                    ints[code[pc + 1]] = ints[code[pc + 2]] * ints[code[pc + 3]];
+                    pc += 4;
+                    break;
+                case IRBytecode.MULT_IVC:
+                    ints[code[pc + 1]] = ints[code[pc + 2]] * code[pc + 3];
+                    pc += 4;
+                    break;
+                case IRBytecode.MULT_ICV:
+                    ints[code[pc + 1]] = code[pc + 2] * ints[code[pc + 3]];
+                    pc += 4;
+                    break;
+                case IRBytecode.DIV_IVV:
+                    ints[code[pc + 1]] = ints[code[pc + 2]] / ints[code[pc + 3]];
+                    pc += 4;
+                    break;
+                case IRBytecode.DIV_IVC:
+                    ints[code[pc + 1]] = ints[code[pc + 2]] / code[pc + 3];
+                    pc += 4;
+                    break;
+                case IRBytecode.DIV_ICV:
+                    ints[code[pc + 1]] = code[pc + 2] / ints[code[pc + 3]];
+                    pc += 4;
+                    break;
+                case IRBytecode.AND_IVV:
+                    ints[code[pc + 1]] = ints[code[pc + 2]] & ints[code[pc + 3]];
+                    pc += 4;
+                    break;
+                case IRBytecode.AND_IVC:
+                    ints[code[pc + 1]] = ints[code[pc + 2]] & code[pc + 3];
+                    pc += 4;
+                    break;
+                case IRBytecode.AND_ICV:
+                    ints[code[pc + 1]] = code[pc + 2] & ints[code[pc + 3]];
+                    pc += 4;
+                    break;
+                case IRBytecode.OR_IVV:
+                    ints[code[pc + 1]] = ints[code[pc + 2]] | ints[code[pc + 3]];
+                    pc += 4;
+                    break;
+                case IRBytecode.OR_IVC:
+                    ints[code[pc + 1]] = ints[code[pc + 2]] | code[pc + 3];
+                    pc += 4;
+                    break;
+                case IRBytecode.OR_ICV:
+                    ints[code[pc + 1]] = code[pc + 2] | ints[code[pc + 3]];
+                    pc += 4;
+                    break;
+                case IRBytecode.ADD_FVV:
+                    floats[code[pc + 1]] = floats[code[pc + 2]] + floats[code[pc + 3]];
+                    pc += 4;
+                    break;
+                case IRBytecode.SUB_FVV:
+                    floats[code[pc + 1]] = floats[code[pc + 2]] - floats[code[pc + 3]];
+                    pc += 4;
+                    break;
+                case IRBytecode.MULT_FVV:
+                    floats[code[pc + 1]] = floats[code[pc + 2]] * floats[code[pc + 3]];
+                    pc += 4;
+                    break;
+                case IRBytecode.DIV_FVV:
+                    floats[code[pc + 1]] = floats[code[pc + 2]] / floats[code[pc + 3]];
+                    pc += 4;
+                    break;
+                case IRBytecode.BREQ_IVV:
+                    if (ints[code[pc + 2]] == ints[code[pc + 3]]) {
+                        pc = code[pc + 1];
+                        opCounts[IRBytecode.LABEL]++;
+                    } else {
+                        pc += 4;
+                    }
+                    break;
+                case IRBytecode.BREQ_IVC:
+                    if (ints[code[pc + 2]] == code[pc + 3]) {
+                        pc = code[pc + 1];
+                        opCounts[IRBytecode.LABEL]++;
+                    } else {
+                        pc += 4;
+                    }
+                    break;
+                case IRBytecode.BREQ_ICV:
+                    if (code[pc + 2] == ints[code[pc + 3]]) {
+                        pc = code[pc + 1];
+                        opCounts[IRBytecode.LABEL]++;
+                    } else {
+                        pc += 4;
+                    }
+                    break;
+                case IRBytecode.BRNEQ_IVV:
+                    if (ints[code[pc + 2]] != ints[code[pc + 3]]) {
+                        pc = code[pc + 1];
+                        opCounts[IRBytecode.LABEL]++;
+                    } else {
+                        pc += 4;
+                    }
+                    break;
+                case IRBytecode.BRNEQ_IVC:
+                    if (ints[code[pc + 2]] != code[pc + 3]) {
+                        pc = code[pc + 1];
+                        opCounts[IRBytecode.LABEL]++;
+                    } else {
+                        pc += 4;
+                    }
+                    break;
+                case IRBytecode.BRNEQ_ICV:
+                    if (code[pc + 2] != ints[code[pc + 3]]) {
+                        pc = code[pc + 1];
+                        opCounts[IRBytecode.LABEL]++;
+                    } else {
+                        pc += 4;
+                    }
+                    break;
+                case IRBytecode.BRLT_IVV:
+                    if (ints[code[pc + 2]] < ints[code[pc + 3]]) {
+                        pc = code[pc + 1];
+                        opCounts[IRBytecode.LABEL]++;
+                    } else {
+                        pc += 4;
+                    }
+                    break;
+                case IRBytecode.BRLT_IVC:
+                    if (ints[code[pc + 2]] < code[pc + 3]) {
+                        pc = code[pc + 1];
+                        opCounts[IRBytecode.LABEL]++;
+                    } else {
+                        pc += 4;
+                    }
+                    break;
+                case IRBytecode.BRLT_ICV:
+                    if (code[pc + 2] < ints[code[pc + 3]]) {
+                        pc = code[pc + 1];
+                        opCounts[IRBytecode.LABEL]++;
+                    } else {
+                        pc += 4;
+                    }
+                    break;
+                case IRBytecode.BRGT_IVV:
+                    if (ints[code[pc + 2]] > ints[code[pc + 3]]) {
+                        pc = code[pc + 1];
+                        opCounts[IRBytecode.LABEL]++;
+                    } else {
+                        pc += 4;
+                    }
+                    break;
+                case IRBytecode.BRGT_IVC:
+                    if (ints[code[pc + 2]] > code[pc + 3]) {
+                        pc = code[pc + 1];
+                        opCounts[IRBytecode.LABEL]++;
+                    } else {
+                        pc += 4;
+                    }
+                    break;
+                case IRBytecode.BRGT_ICV:
+                    if (code[pc + 2] > ints[code[pc + 3]]) {
+                        pc = code[pc + 1];
+                        opCounts[IRBytecode.LABEL]++;
+                    } else {
+                        pc += 4;
+                    }
+                    break;
+                case IRBytecode.BRGEQ_IVV:
+                    if (ints[code[pc + 2]] >= ints[code[pc + 3]]) {
+                        pc = code[pc + 1];
+                        opCounts[IRBytecode.LABEL]++;
+                    } else {
+                        pc += 4;
+                    }
+                    break;
+                case IRBytecode.BRGEQ_IVC:
+                    if (ints[code[pc + 2]] >= code[pc + 3]) {
+                        pc = code[pc + 1];
+                        opCounts[IRBytecode.LABEL]++;
+                    } else {
+                        pc += 4;
+                    }
+                    break;
+                case IRBytecode.BRGEQ_ICV:
+                    if (code[pc + 2] >= ints[code[pc + 3]]) {
+                        pc = code[pc + 1];
+                        opCounts[IRBytecode.LABEL]++;
+                    } else {
+                        pc += 4;
+                    }
+                    break;
+                case IRBytecode.BREQ_FVV:
+                    if (floats[code[pc + 2]] == floats[code[pc + 3]]) {
+                        pc = code[pc + 1];
+                        opCounts[IRBytecode.LABEL]++;
+                    } else {
+                        pc += 4;
+                    }
+                    break;
+                case IRBytecode.BRNEQ_FVV:
+                    if (floats[code[pc + 2]] != floats[code[pc + 3]]) {
+                        pc = code[pc + 1];
+                        opCounts[IRBytecode.LABEL]++;
+                    } else {
+                        pc += 4;
+                    }
+                    break;
+                case IRBytecode.BRLT_FVV:
+                    if (floats[code[pc + 2]] < floats[code[pc + 3]]) {
+                        pc = code[pc + 1];
+                        opCounts[IRBytecode.LABEL]++;
+                    } else {
+                        pc += 4;
+                    }
+                    break;
+                case IRBytecode.BRGT_FVV:
+                    if (floats[code[pc + 2]] > floats[code[pc + 3]]) {
+                        pc = code[pc + 1];
+                        opCounts[IRBytecode.LABEL]++;
+                    } else {
+                        pc += 4;
+                    }
+                    break;
+                case IRBytecode.BRGEQ_FVV:
+                    if (floats[code[pc + 2]] >= floats[code[pc + 3]]) {
+                        pc = code[pc + 1];
+                        opCounts[IRBytecode.LABEL]++;
+                    } else {
+                        pc += 4;
+                    }
+                    break;
+                case IRBytecode.ASSIGN_IV:
+                    ints[code[pc + 1]] = ints[code[pc + 2]];
+                    pc += 3;
+                    break;
+                case IRBytecode.ASSIGN_IC:
+                    ints[code[pc + 1]] = code[pc + 2];
+                    pc += 3;
+                    break;
+                case IRBytecode.ASSIGN_FV:
+                    floats[code[pc + 1]] = floats[code[pc + 2]];
+                    pc += 3;
+                    break;
+                case IRBytecode.ASSIGN_FC:
+                    floats[code[pc + 1]] = Float.intBitsToFloat(code[pc + 2]);
+                    pc += 3;
+                    break;
+                case IRBytecode.ARRAY_LOAD_ASSIGN_IV: {
+                    int[] arr = IRInterpreter.intArray(sf, code[pc + 2]);
+                    int offset = intValue(code[pc + 3], ints, intConstants);
+                    if (offset < 0 || offset >= arr.length)
+                        interpreter.throwRuntimeException(bytecode.lineNumbers[pc], "Out-of-bounds array access");
+                    ints[code[pc + 1] >> IRBytecode.KIND_BITS] = arr[offset];
+                    ints[code[pc + 5]] = ints[code[pc + 6]];
+                    pc += 7;
+                    break;
+                }
+                case IRBytecode.ASSIGN_IV_BRLT_IVV:
+                    ints[code[pc + 1]] = ints[code[pc + 2]];
+                    if (ints[code[pc + 5]] < ints[code[pc + 6]]) {
+                        pc = code[pc + 4];
+                        opCounts[IRBytecode.LABEL]++;
+                    } else {
+                        pc += 7;
+                    }
+                    break;
+                case IRBytecode.ASSIGN_IV_BRGT_IVV:
+                    ints[code[pc + 1]] = ints[code[pc + 2]];
+                    if (ints[code[pc + 5]] > ints[code[pc + 6]]) {
+                        pc = code[pc + 4];
+                        opCounts[IRBytecode.LABEL]++;
+                    } else {
+                        pc += 7;
+                    }
+                    break;
+                case IRBytecode.ASSIGN_IV_BREQ_IVC:
+                    ints[code[pc + 1]] = ints[code[pc + 2]];
+                    if (ints[code[pc + 5]] == code[pc + 6]) {
+                        pc = code[pc + 4];
+                        opCounts[IRBytecode.LABEL]++;
+                    } else {
+                        pc += 7;
+                    }
+                    break;
+                case IRBytecode.ASSIGN_IV_ASSIGN_IV:
+                    ints[code[pc + 1]] = ints[code[pc + 2]];
+                    ints[code[pc + 4]] = ints[code[pc + 5]];
+                    pc += 6;
+                    break;
+                case IRBytecode.ASSIGN_IC_ASSIGN_IC:
+                    ints[code[pc + 1]] = code[pc + 2];
+                    ints[code[pc + 4]] = code[pc + 5];
+                    pc += 6;
+                    break;
+                case IRBytecode.ADD_IVC_ARRAY_LOAD:
+                case IRBytecode.SUB_IVC_ARRAY_LOAD: {
+                    int y = ints[code[pc + 2]];
+                    ints[code[pc + 1]] = op == IRBytecode.ADD_IVC_ARRAY_LOAD ? y + code[pc + 3] : y - code[pc + 3];
+                    int[] arr = IRInterpreter.intArray(sf, code[pc + 6]);
+                    int offset = intValue(code[pc + 7], ints, intConstants);
+                    if (offset < 0 || offset >= arr.length)
+                        interpreter.throwRuntimeException(bytecode.lineNumbers[pc + 4], "Out-of-bounds array access");
+                    ints[code[pc + 5] >> IRBytecode.KIND_BITS] = arr[offset];
+                    pc += 8;
+                    break;
+                }
+                case IRBytecode.ADD_IVC_GOTO:
+                    ints[code[pc + 1]] = ints[code[pc + 2]] + code[pc + 3];
+                    pc = code[pc + 5];
+                    opCounts[IRBytecode.LABEL]++;
+                    break;
+                case IRBytecode.ADD_IVC_BRLT_IVV:
+                    ints[code[pc + 1]] = ints[code[pc + 2]] + code[pc + 3];
+                    if (ints[code[pc + 6]] < ints[code[pc + 7]]) {
+                        pc = code[pc + 5];
+                        opCounts[IRBytecode.LABEL]++;
+                    } else {
+                        pc += 8;
+                    }
+                    break;
+                case IRBytecode.ADD_IVC_BRLT_IVC:
+                    ints[code[pc + 1]] = ints[code[pc + 2]] + code[pc + 3];
+                    if (ints[code[pc + 6]] < code[pc + 7]) {
+                        pc = code[pc + 5];
+                        opCounts[IRBytecode.LABEL]++;
+                    } else {
+                        pc += 8;
+                    }
+                    break;
+                case IRBytecode.ASSIGN: {
+                    int dst = code[pc + 1];
+                    int src = code[pc + 2];
+                    if (IRBytecode.kindOf(dst) == IRBytecode.INT_VAR)
+                        ints[dst >> IRBytecode.KIND_BITS] = intValue(src, ints, intConstants);
+                    else
+                        floats[dst >> IRBytecode.KIND_BITS] = floatValue(src, floats, floatConstants);
+                    pc += 3;
+                    break;
+                }
+                case IRBytecode.ASSIGN_ARRAY: {
+                    int slot = code[pc + 1];
+                    int assignSize = intValue(code[pc + 2], ints, intConstants);
+                    int src = code[pc + 3];
+                    if (assignSize < 0 || assignSize > bytecode.layout.arraySizes[slot])
+                        interpreter.throwRuntimeException(bytecode.lineNumbers[pc], "Out-of-bounds array access");
+                    if (isInt(src))
+                        Arrays.fill(IRInterpreter.intArray(sf, slot), 0, assignSize, intValue(src, ints, intConstants));
+                    else
+                        Arrays.fill(IRInterpreter.floatArray(sf, slot), 0, assignSize,
+                                floatValue(src, floats, floatConstants));
+                    pc += 4;
+                    break;
+                }
+                case IRBytecode.ADD:
+                case IRBytecode.SUB:
+                case IRBytecode.MULT:
+                case IRBytecode.DIV:
+                case IRBytecode.AND:
+                case IRBytecode.OR: {
+                    int dst = code[pc + 1];
+                    int y = code[pc + 2];
+                    int z = code[pc + 3];
+                    if (IRBytecode.kindOf(dst) == IRBytecode.INT_VAR)
+                        ints[dst >> IRBytecode.KIND_BITS] = intBinaryOperation(op,
+                                intValue(y, ints, intConstants), intValue(z, ints, intConstants));
+                    else
+                        floats[dst >> IRBytecode.KIND_BITS] = floatBinaryOperation(op,
+                                floatValue(y, floats, floatConstants), floatValue(z, floats, floatConstants));
+                    pc += 4;
+                    break;
+                }
+                case IRBytecode.GOTO:
+                    pc = code[pc + 1];
+                    opCounts[IRBytecode.LABEL]++;
+                    break;
+                case IRBytecode.BREQ:
+                case IRBytecode.BRNEQ:
+                case IRBytecode.BRLT:
+                case IRBytecode.BRGT:
+                case IRBytecode.BRGEQ: {
+                    int a = code[pc + 2];
+                    int b = code[pc + 3];
+                    boolean result = isInt(a)
+                            ? intComparison(op, intValue(a, ints, intConstants), intValue(b, ints, intConstants))
+                            : floatComparison(op, floatValue(a, floats, floatConstants),
+                                    floatValue(b, floats, floatConstants));
+                    if (result) {
+                        pc = code[pc + 1];
+                        opCounts[IRBytecode.LABEL]++;
+                    } else {
+                        pc += 4;
+                    }
+                    break;
+                }
+                case IRBytecode.RETURN:
+                case IRBytecode.END: {
+                    IRInterpreter.StackFrame calleeSF = sf;
+                    if (op == IRBytecode.END && calleeSF.function.returnType != null)
+                        interpreter.throwRuntimeException(bytecode.lineNumbers[pc],
+                                "Missing return for a function with return value");
+                    stack.pop();
+                    sf = stack.peek();
+                    if (sf == entrySF) // Exit main
+                        return;
+                    if (op == IRBytecode.RETURN) {
+                        int val = code[pc + 1];
+                        if (calleeSF.function.returnType == IRIntType.get())
+                            sf.ints[calleeSF.retSlot] = intValue(val, ints, intConstants);
+                        else
+                            sf.floats[calleeSF.retSlot] = floatValue(val, floats, floatConstants);
+                    }
+
+                    bytecode = sf.code;
+                    code = bytecode.code;
+                    intConstants = bytecode.intConstants;
+                    floatConstants = bytecode.floatConstants;
+                    ints = sf.ints;
+                    floats = sf.floats;
+                    pc = calleeSF.returnInstIdx;
+                    break;
+                }
+                case IRBytecode.LOOP: {
+                    int function = bytecode.index;
+                    int loop = code[pc + 1];
+                    if (loopCounts != null && ++loopCounts[function][loop] == LOOP_THRESHOLD
+                            && compiledCode[function] == null)
+                        promote(function, LOOP_THRESHOLD + " iterations of loop " + bytecode.loopHeaders[loop]);
+                    IRJitRuntime jit = compiledCode == null ? null : compiledCode[function];
+                    if (jit == null) {
+                        pc += 2;
+                        break;
+                    }
+
+                    // On-stack replacement: the function continues in compiled code from the loop
+                    // header, whose block counts the label again, and returns from there
+                    opCounts[IRBytecode.LABEL]--;
+                    jit.osr(function, loop, sf);
+                    IRInterpreter.StackFrame calleeSF = sf;
+                    stack.pop();
+                    sf = stack.peek();
+                    if (sf == entrySF) // Exit main
+                        return;
+                    if (calleeSF.retSlot != -1) {
+                        if (calleeSF.function.returnType == IRIntType.get())
+                            sf.ints[calleeSF.retSlot] = jit.intResult;
+                        else
+                            sf.floats[calleeSF.retSlot] = jit.floatResult;
+                    }
+
+                    bytecode = sf.code;
+                    code = bytecode.code;
+                    intConstants = bytecode.intConstants;
+                    floatConstants = bytecode.floatConstants;
+                    ints = sf.ints;
+                    floats = sf.floats;
+                    pc = calleeSF.returnInstIdx;
+                    break;
+                }
+                case IRBytecode.CALL:
+                case IRBytecode.CALLR: {
+                    int calleeIndex = code[pc + 1];
+                    IRBytecode callee = functions[calleeIndex];
+                    if (invocationCounts != null && ++invocationCounts[calleeIndex] == INVOCATION_THRESHOLD
+                            && compiledCode[calleeIndex] == null)
+                        promote(calleeIndex, INVOCATION_THRESHOLD + " invocations");
+                    int argStart;
+                    int retSlot;
+                    if (op == IRBytecode.CALLR) {
+                        retSlot = code[pc + 2] >> IRBytecode.KIND_BITS;
+                        argStart = pc + 4;
+                    } else {
+                        retSlot = -1;
+                        argStart = pc + 3;
+                    }
+                    int argc = code[argStart - 1];
+                    IRInterpreter.StackFrame calleeSF = enter(callee, bytecode.function,
+                            bytecode.lineNumbers[pc], argStart + argc, retSlot);
+                    int[] paramSlots = callee.layout.paramSlots;
+                    for (int i = 0; i < argc; i++) {
+                        int arg = code[argStart + i];
+                        switch (IRBytecode.kindOf(arg)) {
+                            case IRBytecode.INT_VAR:
+                            case IRBytecode.INT_CONST:
+                                calleeSF.ints[paramSlots[i]] = intValue(arg, ints, intConstants);
+                                break;
+                            case IRBytecode.FLOAT_VAR:
+                            case IRBytecode.FLOAT_CONST:
+                                calleeSF.floats[paramSlots[i]] = floatValue(arg, floats, floatConstants);
+                                break;
+                            default:
+                                calleeSF.arrays[paramSlots[i]] = IRInterpreter.array(sf, arg >> IRBytecode.KIND_BITS);
+                        }
+                    }
+
+                    if (compiledCode != null && compiledCode[calleeIndex] != null) {
+                        IRJitRuntime jit = compiledCode[calleeIndex];
+                        jit.invoke(calleeIndex, calleeSF);
+                        stack.pop();
+                        if (retSlot != -1) {
+                            if (IRBytecode.kindOf(code[pc + 2]) == IRBytecode.INT_VAR)
+                                ints[retSlot] = jit.intResult;
+                            else
+                                floats[retSlot] = jit.floatResult;
+                        }
+                        pc = argStart + argc;
+                        break;
+                    }
+
+                    sf = calleeSF;
+                    bytecode = callee;
+                    code = bytecode.code;
+                    intConstants = bytecode.intConstants;
+                    floatConstants = bytecode.floatConstants;
+                    ints = sf.ints;
+                    floats = sf.floats;
+                    pc = 0;
+                    break;
+                }
+                case IRBytecode.GETI:
+                    ints[code[pc + 1] >> IRBytecode.KIND_BITS] = interpreter.geti();
+                    pc += 2;
+                    break;
+                case IRBytecode.GETF:
+                    floats[code[pc + 1] >> IRBytecode.KIND_BITS] = interpreter.getf();
+                    pc += 2;
+                    break;
+                case IRBytecode.GETC:
+                    ints[code[pc + 1] >> IRBytecode.KIND_BITS] = interpreter.getc();
+                    pc += 2;
+                    break;
+                case IRBytecode.PUTI:
+                    interpreter.puti(intValue(code[pc + 1], ints, intConstants));
+                    pc += 2;
+                    break;
+                case IRBytecode.PUTF:
+                    interpreter.putf(floatValue(code[pc + 1], floats, floatConstants));
+                    pc += 2;
+                    break;
+                case IRBytecode.PUTC:
+                    interpreter.putc(intValue(code[pc + 1], ints, intConstants));
+                    pc += 2;
+                    break;
+                case IRBytecode.ARRAY_STORE: {
+                    int val = code[pc + 1];
+                    int slot = code[pc + 2];
+                    int offset = intValue(code[pc + 3], ints, intConstants);
+                    if (offset < 0 || offset >= bytecode.layout.arraySizes[slot])
+                        interpreter.throwRuntimeException(bytecode.lineNumbers[pc], "Out-of-bounds array access");
+                    if (isInt(val))
+                        IRInterpreter.intArray(sf, slot)[offset] = intValue(val, ints, intConstants);
+                    else
+                        IRInterpreter.floatArray(sf, slot)[offset] = floatValue(val, floats, floatConstants);
+                    pc += 4;
+                    break;
+                }
+                case IRBytecode.ARRAY_LOAD: {
+                    int dst = code[pc + 1];
+                    int slot = code[pc + 2];
+                    int offset = intValue(code[pc + 3], ints, intConstants);
+                    if (offset < 0 || offset >= bytecode.layout.arraySizes[slot])
+                        interpreter.throwRuntimeException(bytecode.lineNumbers[pc], "Out-of-bounds array access");
+                    if (IRBytecode.kindOf(dst) == IRBytecode.INT_VAR)
+                        ints[dst >> IRBytecode.KIND_BITS] = IRInterpreter.intArray(sf, slot)[offset];
+                    else
+                        floats[dst >> IRBytecode.KIND_BITS] = IRInterpreter.floatArray(sf, slot)[offset];
+                    pc += 4;
+                    break;
+                }
+                case IRBytecode.LABEL:
+                    pc += 1;
+                    break;
+                default:
+                    throw new IllegalStateException("Invalid bytecode " + op + " at " + pc);
+            }
+        }
+    }
+
+    private static boolean isInt(int operand) {
+        int kind = IRBytecode.kindOf(operand);
+        return kind == IRBytecode.INT_VAR || kind == IRBytecode.INT_CONST;
+    }
+
+    private static int intValue(int operand, int[] ints, int[] intConstants) {
+        if (IRBytecode.kindOf(operand) == IRBytecode.INT_VAR)
+            return ints[operand >> IRBytecode.KIND_BITS];
+        return intConstants[operand >> IRBytecode.KIND_BITS];
+    }
+
+    private static float floatValue(int operand, float[] floats, float[] floatConstants) {
+        if (IRBytecode.kindOf(operand) == IRBytecode.FLOAT_VAR)
+            return floats[operand >> IRBytecode.KIND_BITS];
+        return floatConstants[operand >> IRBytecode.KIND_BITS];
+    }
+
+    private static int intBinaryOperation(int op, int y, int z) {
+        switch (op) {
+            case IRBytecode.ADD:
+                return y + z;
+            case IRBytecode.SUB:
+                return y - z;
+            case IRBytecode.MULT:
+                return y * z;
+            case IRBytecode.DIV:
+                return y / z;
+            case IRBytecode.AND:
+                return y & z;
+            default:
+                return y | z;
+        }
+    }
+
+    private static float floatBinaryOperation(int op, float y, float z) {
+        switch (op) {
+            case IRBytecode.ADD:
+                return y + z;
+            case IRBytecode.SUB:
+                return y - z;
+            case IRBytecode.MULT:
+                return y * z;
+            case IRBytecode.DIV:
+                return y / z;
+            default:
+                // Like the reference engine, AND and OR yield 0 for floats
+                return 0;
+        }
+    }
+
+    private static boolean intComparison(int op, int a, int b) {
+        switch (op) {
+            case IRBytecode.BREQ:
+                return a == b;
+            case IRBytecode.BRNEQ:
+                return a != b;
+            case IRBytecode.BRLT:
+                return a < b;
+            case IRBytecode.BRGT:
+                return a > b;
+            default:
+                return a >= b;
+        }
+    }
+
+    private static boolean floatComparison(int op, float a, float b) {
+        switch (op) {
+            case IRBytecode.BREQ:
+                return a == b;
+            case IRBytecode.BRNEQ:
+                return a != b;
+            case IRBytecode.BRLT:
+                return a < b;
+            case IRBytecode.BRGT:
+                return a > b;
+            default:
+                return a >= b;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+import java.util.*;
+
+/**
+ * Fuses adjacent pairs of quickened IRBytecode instructions into superinstructions.
+ *
+ * Runs after IRBytecodeQuickener. Every instruction whose opcode and the opcode of the
+ * instruction after it form one of the superinstructions in IRBytecode gets its opcode
+ * replaced; operands are left in place. Since the second instruction is never modified
+ * beyond its own opcode, it can be fused with its successor as well, and jumps into the
+ * middle of a pair run the second instruction on its own.
+ */
+public class IRBytecodeFuser {
+
+    public static void fuse(IRBytecode bytecode) {
+        int[] code = bytecode.code;
+
+        // Instruction starts and their opcodes before any of them is fused
+        List<Integer> starts = new ArrayList<>();
+        for (int pc = 0; pc < code.length; pc += IRBytecode.length(code, pc))
+            starts.add(pc);
+        int[] ops = new int[starts.size()];
+        for (int i = 0; i < ops.length; i++)
+            ops[i] = code[starts.get(i)];
+
+        for (int i = 0; i + 1 < ops.length; i++) {
+            int fused = findFused(ops[i], ops[i + 1]);
+            if (fused != -1 && canFuse(code, starts.get(i), starts.get(i + 1)))
+                code[starts.get(i)] = fused;
+        }
+    }
+
+    private static int findFused(int first, int second) {
+        for (int op = IRBytecode.ARRAY_LOAD_ASSIGN_IV; op < IRBytecode.OPCODE_COUNT; op++)
+            if (IRBytecode.FIRST_OPCODES[op] == first && IRBytecode.SECOND_OPCODES[op] == second)
+                return op;
+        return -1;
+    }
+
+    // Generic array loads are only fused when they load into an int variable
+    private static boolean canFuse(int[] code, int first, int second) {
+        if (code[first] == IRBytecode.ARRAY_LOAD && IRBytecode.kindOf(code[first + 1]) != IRBytecode.INT_VAR)
+            return false;
+        if (code[second] == IRBytecode.ARRAY_LOAD && IRBytecode.kindOf(code[second + 1]) != IRBytecode.INT_VAR)
+            return false;
+        return true;
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ * Rewrites generic IRBytecode instructions into type-specialized (quickened) ones.
+ *
+ * The operand kinds of every arithmetic, branch and scalar assign instruction are checked
+ * once, and the instruction is replaced in place by a variant whose operands are plain slot
+ * indices or inline constant values. The quickened form has the same length as the generic
+ * one, so branch targets stay valid. Instructions whose operands do not fit any variant
+ * (for example two constant operands) are left generic.
+ */
+public class IRBytecodeQuickener {
+
+    public static void quicken(IRBytecode bytecode) {
+        int[] code = bytecode.code;
+        int pc = 0;
+        while (pc < code.length) {
+            int op = code[pc];
+            if (op >= IRBytecode.ADD && op <= IRBytecode.OR)
+                quickenArithmetic(bytecode, pc);
+            else if (op >= IRBytecode.BREQ && op <= IRBytecode.BRGEQ)
+                quickenBranch(bytecode, pc);
+            else if (op == IRBytecode.ASSIGN)
+                quickenAssign(bytecode, pc);
+            pc += IRBytecode.length(code, pc);
+        }
+    }
+
+    private static void quickenArithmetic(IRBytecode bytecode, int pc) {
+        int[] code = bytecode.code;
+        int op = code[pc];
+        int dst = code[pc + 1];
+        int y = code[pc + 2];
+        int z = code[pc + 3];
+        if (IRBytecode.kindOf(dst) == IRBytecode.INT_VAR) {
+            int base = IRBytecode.ADD_IVV + 3 * (op - IRBytecode.ADD);
+            if (!quickenIntOperands(bytecode, pc + 2, base))
+                return;
+        } else {
+            if (op > IRBytecode.DIV || !isVar(y, IRBytecode.FLOAT_VAR) || !isVar(z, IRBytecode.FLOAT_VAR))
+                return;
+            code[pc] = IRBytecode.ADD_FVV + (op - IRBytecode.ADD);
+            code[pc + 2] = IRBytecode.indexOf(y);
+            code[pc + 3] = IRBytecode.indexOf(z);
+        }
+        code[pc + 1] = IRBytecode.indexOf(dst);
+    }
+
+    private static void quickenBranch(IRBytecode bytecode, int pc) {
+        int[] code = bytecode.code;
+        int op = code[pc];
+        int a = code[pc + 2];
+        int b = code[pc + 3];
+        int kind = IRBytecode.kindOf(a);
+        if (kind == IRBytecode.INT_VAR || kind == IRBytecode.INT_CONST) {
+            quickenIntOperands(bytecode, pc + 2, IRBytecode.BREQ_IVV + 3 * (op - IRBytecode.BREQ));
+        } else if (isVar(a, IRBytecode.FLOAT_VAR) && isVar(b, IRBytecode.FLOAT_VAR)) {
+            code[pc] = IRBytecode.BREQ_FVV + (op - IRBytecode.BREQ);
+            code[pc + 2] = IRBytecode.indexOf(a);
+            code[pc + 3] = IRBytecode.indexOf(b);
+        }
+    }
+
+    private static void quickenAssign(IRBytecode bytecode, int pc) {
+        int[] code = bytecode.code;
+        int dst = code[pc + 1];
+        int src = code[pc + 2];
+        boolean intDst = IRBytecode.kindOf(dst) == IRBytecode.INT_VAR;
+        if (intDst != isInt(src))
+            return;
+        switch (IRBytecode.kindOf(src)) {
+            case IRBytecode.INT_VAR:
+                code[pc] = IRBytecode.ASSIGN_IV;
+                code[pc + 2] = IRBytecode.indexOf(src);
+                break;
+            case IRBytecode.INT_CONST:
+                code[pc] = IRBytecode.ASSIGN_IC;
+                code[pc + 2] = bytecode.intConstants[IRBytecode.indexOf(src)];
+                break;
+            case IRBytecode.FLOAT_VAR:
+                code[pc] = IRBytecode.ASSIGN_FV;
+                code[pc + 2] = IRBytecode.indexOf(src);
+                break;
+            case IRBytecode.FLOAT_CONST:
+                code[pc] = IRBytecode.ASSIGN_FC;
+                code[pc + 2] = Float.floatToRawIntBits(bytecode.floatConstants[IRBytecode.indexOf(src)]);
+                break;
+            default:
+                return;
+        }
+        code[pc + 1] = IRBytecode.indexOf(dst);
+    }
+
+    // Rewrites the two int operands at code[at], code[at + 1] for the VV/VC/CV variant
+    // starting at opcode base. Returns false if both operands are constants.
+    private static boolean quickenIntOperands(IRBytecode bytecode, int at, int base) {
+        int[] code = bytecode.code;
+        int y = code[at];
+        int z = code[at + 1];
+        if (!isInt(y) || !isInt(z))
+            return false;
+        boolean yVar = isVar(y, IRBytecode.INT_VAR);
+        boolean zVar = isVar(z, IRBytecode.INT_VAR);
+        if (yVar && zVar)
+            code[at - 2] = base;
+        else if (yVar)
+            code[at - 2] = base + 1;
+        else if (zVar)
+            code[at - 2] = base + 2;
+        else
+            return false;
+        code[at] = yVar ? IRBytecode.indexOf(y) : bytecode.intConstants[IRBytecode.indexOf(y)];
+        code[at + 1] = zVar ? IRBytecode.indexOf(z) : bytecode.intConstants[IRBytecode.indexOf(z)];
+        return true;
+    }
+
+    private static boolean isInt(int operand) {
+        int kind = IRBytecode.kindOf(operand);
+        return kind == IRBytecode.INT_VAR || kind == IRBytecode.INT_CONST;
+    }
+
+    private static boolean isVar(int operand, int kind) {
+        return IRBytecode.kindOf(operand) == kind;
+    }
+}
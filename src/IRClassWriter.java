@@ -0,0 +1,435 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * A minimal JVM class file writer, covering what IRJitCompiler needs: a constant pool,
+ * static methods, forward and backward jumps and exception handlers.
+ *
+ * Classes are written with class file version 49, which the JVM checks with the type
+ * inferencing verifier, so no StackMapTable has to be computed. Jump offsets are 16 bits;
+ * methods whose code does not fit cause an IllegalStateException.
+ */
+public class IRClassWriter {
+
+    // Opcodes used by IRJitCompiler
+    public static final int ACONST_NULL = 0x01;
+    public static final int ICONST_0 = 0x03;
+    public static final int LCONST_1 = 0x0a;
+    public static final int FCONST_0 = 0x0b;
+    public static final int BIPUSH = 0x10;
+    public static final int SIPUSH = 0x11;
+    public static final int LDC = 0x12;
+    public static final int LDC_W = 0x13;
+    public static final int ILOAD = 0x15;
+    public static final int FLOAD = 0x17;
+    public static final int ALOAD = 0x19;
+    public static final int IALOAD = 0x2e;
+    public static final int LALOAD = 0x2f;
+    public static final int FALOAD = 0x30;
+    public static final int AALOAD = 0x32;
+    public static final int ISTORE = 0x36;
+    public static final int FSTORE = 0x38;
+    public static final int ASTORE = 0x3a;
+    public static final int IASTORE = 0x4f;
+    public static final int LASTORE = 0x50;
+    public static final int FASTORE = 0x51;
+    public static final int POP = 0x57;
+    public static final int POP2 = 0x58;
+    public static final int DUP = 0x59;
+    public static final int DUP2 = 0x5c;
+    public static final int SWAP = 0x5f;
+    public static final int IADD = 0x60;
+    public static final int LADD = 0x61;
+    public static final int FADD = 0x62;
+    public static final int ISUB = 0x64;
+    public static final int FSUB = 0x66;
+    public static final int IMUL = 0x68;
+    public static final int FMUL = 0x6a;
+    public static final int IDIV = 0x6c;
+    public static final int FDIV = 0x6e;
+    public static final int IAND = 0x7e;
+    public static final int IOR = 0x80;
+    public static final int FCMPL = 0x95;
+    public static final int FCMPG = 0x96;
+    public static final int IFEQ = 0x99;
+    public static final int IFNE = 0x9a;
+    public static final int IFLT = 0x9b;
+    public static final int IFGE = 0x9c;
+    public static final int IFGT = 0x9d;
+    public static final int IFLE = 0x9e;
+    public static final int IF_ICMPEQ = 0x9f;
+    public static final int IF_ICMPNE = 0xa0;
+    public static final int IF_ICMPLT = 0xa1;
+    public static final int IF_ICMPGE = 0xa2;
+    public static final int IF_ICMPGT = 0xa3;
+    public static final int IF_ICMPLE = 0xa4;
+    public static final int GOTO = 0xa7;
+    public static final int TABLESWITCH = 0xaa;
+    public static final int IRETURN = 0xac;
+    public static final int FRETURN = 0xae;
+    public static final int RETURN = 0xb1;
+    public static final int GETFIELD = 0xb4;
+    public static final int PUTFIELD = 0xb5;
+    public static final int INVOKEVIRTUAL = 0xb6;
+    public static final int INVOKESTATIC = 0xb8;
+    public static final int NEWARRAY = 0xbc;
+    public static final int ARRAYLENGTH = 0xbe;
+    public static final int ATHROW = 0xbf;
+    public static final int CHECKCAST = 0xc0;
+    public static final int WIDE = 0xc4;
+
+    // newarray element types
+    public static final int T_FLOAT = 6;
+    public static final int T_INT = 10;
+
+    public static final int ACC_PUBLIC = 0x0001;
+    public static final int ACC_STATIC = 0x0008;
+    public static final int ACC_FINAL = 0x0010;
+    public static final int ACC_SUPER = 0x0020;
+
+    private static final int CLASS_VERSION = 49;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_FLOAT = 4;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    private ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private DataOutputStream pool = new DataOutputStream(poolBytes);
+    private Map<String, Integer> poolIndices = new HashMap<>();
+    private int poolCount = 1;
+
+    private ByteArrayOutputStream methodBytes = new ByteArrayOutputStream();
+    private DataOutputStream methods = new DataOutputStream(methodBytes);
+    private int methodCount;
+
+    private final String className;
+
+    public IRClassWriter(String className) {
+        this.className = className;
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    public MethodWriter method(int access, String name, String descriptor, int maxLocals) {
+        return new MethodWriter(access, name, descriptor, maxLocals);
+    }
+
+    public byte[] toByteArray() {
+        int thisClass = classRef(className);
+        int superClass = classRef("java/lang/Object");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(CLASS_VERSION);
+            out.writeShort(poolCount);
+            poolBytes.writeTo(out);
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0); // interfaces
+            out.writeShort(0); // fields
+            out.writeShort(methodCount);
+            methodBytes.writeTo(out);
+            out.writeShort(0); // attributes
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    // Constant pool
+
+    private int constant(String key, int tag, int... refs) {
+        Integer index = poolIndices.get(key);
+        if (index != null)
+            return index;
+        try {
+            pool.writeByte(tag);
+            for (int ref : refs)
+                pool.writeShort(ref);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        poolIndices.put(key, poolCount);
+        return poolCount++;
+    }
+
+    public int utf8(String value) {
+        Integer index = poolIndices.get("U" + value);
+        if (index != null)
+            return index;
+        try {
+            pool.writeByte(CONSTANT_UTF8);
+            pool.writeUTF(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        poolIndices.put("U" + value, poolCount);
+        return poolCount++;
+    }
+
+    public int classRef(String internalName) {
+        return constant("C" + internalName, CONSTANT_CLASS, utf8(internalName));
+    }
+
+    public int stringRef(String value) {
+        return constant("S" + value, CONSTANT_STRING, utf8(value));
+    }
+
+    public int intConstant(int value) {
+        Integer index = poolIndices.get("I" + value);
+        if (index != null)
+            return index;
+        try {
+            pool.writeByte(CONSTANT_INTEGER);
+            pool.writeInt(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        poolIndices.put("I" + value, poolCount);
+        return poolCount++;
+    }
+
+    public int floatConstant(float value) {
+        int bits = Float.floatToRawIntBits(value);
+        Integer index = poolIndices.get("F" + bits);
+        if (index != null)
+            return index;
+        try {
+            pool.writeByte(CONSTANT_FLOAT);
+            pool.writeInt(bits);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        poolIndices.put("F" + bits, poolCount);
+        return poolCount++;
+    }
+
+    private int nameAndType(String name, String descriptor) {
+        return constant("N" + name + " " + descriptor, CONSTANT_NAME_AND_TYPE, utf8(name), utf8(descriptor));
+    }
+
+    public int methodRef(String owner, String name, String descriptor) {
+        return constant("M" + owner + "." + name + descriptor, CONSTANT_METHODREF,
+                classRef(owner), nameAndType(name, descriptor));
+    }
+
+    public int fieldRef(String owner, String name, String descriptor) {
+        return constant("D" + owner + "." + name + ":" + descriptor, CONSTANT_FIELDREF,
+                classRef(owner), nameAndType(name, descriptor));
+    }
+
+    public static class Label {
+        private int position = -1;
+
+        // Instructions jumping here before the label was placed: {instruction position,
+        // offset operand position, offset width}
+        private List<int[]> fixups = new ArrayList<>();
+    }
+
+    /**
+     * Writes the Code of a single method. Call end() once all code is emitted.
+     */
+    public class MethodWriter {
+
+        private final int access;
+        private final String name;
+        private final String descriptor;
+        private final int maxLocals;
+        private int maxStack;
+
+        private byte[] code = new byte[256];
+        private int size;
+
+        // Exception table entries: {start, end, handler} labels and the catch type
+        private List<Label[]> handlerLabels = new ArrayList<>();
+        private List<Integer> handlerTypes = new ArrayList<>();
+
+        private MethodWriter(int access, String name, String descriptor, int maxLocals) {
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.maxLocals = maxLocals;
+        }
+
+        public void setMaxStack(int maxStack) {
+            this.maxStack = maxStack;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        private void put(int b) {
+            if (size == code.length)
+                code = Arrays.copyOf(code, size * 2);
+            code[size++] = (byte) b;
+        }
+
+        private void put2(int s) {
+            put(s >> 8);
+            put(s);
+        }
+
+        private void put4(int i) {
+            put2(i >> 16);
+            put2(i);
+        }
+
+        public void op(int opcode) {
+            put(opcode);
+        }
+
+        public void iconst(int value) {
+            if (value >= -1 && value <= 5) {
+                put(ICONST_0 + value);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                put(BIPUSH);
+                put(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                put(SIPUSH);
+                put2(value);
+            } else {
+                ldc(intConstant(value));
+            }
+        }
+
+        public void fconst(float value) {
+            if (Float.floatToRawIntBits(value) == 0 || value == 1.0f || value == 2.0f)
+                put(FCONST_0 + (int) value);
+            else
+                ldc(floatConstant(value));
+        }
+
+        public void sconst(String value) {
+            ldc(stringRef(value));
+        }
+
+        private void ldc(int index) {
+            if (index < 256) {
+                put(LDC);
+                put(index);
+            } else {
+                put(LDC_W);
+                put2(index);
+            }
+        }
+
+        // ILOAD, FLOAD, ALOAD, ISTORE, FSTORE or ASTORE of a local variable
+        public void local(int opcode, int index) {
+            if (index < 256) {
+                put(opcode);
+                put(index);
+            } else {
+                put(WIDE);
+                put(opcode);
+                put2(index);
+            }
+        }
+
+        public void newArray(int elementType) {
+            put(NEWARRAY);
+            put(elementType);
+        }
+
+        public void typeOp(int opcode, String internalName) {
+            put(opcode);
+            put2(classRef(internalName));
+        }
+
+        public void invoke(int opcode, String owner, String name, String descriptor) {
+            put(opcode);
+            put2(methodRef(owner, name, descriptor));
+        }
+
+        public void field(int opcode, String owner, String name, String descriptor) {
+            put(opcode);
+            put2(fieldRef(owner, name, descriptor));
+        }
+
+        public void mark(Label label) {
+            label.position = size;
+            for (int[] fixup : label.fixups)
+                patch(fixup[0], fixup[1], fixup[2], size);
+        }
+
+        public void jump(int opcode, Label target) {
+            int at = size;
+            put(opcode);
+            offset(at, target, 2);
+        }
+
+        // TABLESWITCH over low..low + targets.length - 1
+        public void tableSwitch(int low, Label defaultTarget, Label[] targets) {
+            int at = size;
+            put(TABLESWITCH);
+            while (size % 4 != 0)
+                put(0);
+            offset(at, defaultTarget, 4);
+            put4(low);
+            put4(low + targets.length - 1);
+            for (Label target : targets)
+                offset(at, target, 4);
+        }
+
+        // Emits the offset from the instruction at position at to target
+        private void offset(int at, Label target, int width) {
+            int offsetAt = size;
+            for (int i = 0; i < width; i++)
+                put(0);
+            if (target.position >= 0)
+                patch(at, offsetAt, width, target.position);
+            else
+                target.fixups.add(new int[]{at, offsetAt, width});
+        }
+
+        private void patch(int at, int offsetAt, int width, int target) {
+            int offset = target - at;
+            if (width == 2 && (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE))
+                throw new IllegalStateException("Jump offset out of range in " + name);
+            for (int i = 0; i < width; i++)
+                code[offsetAt + i] = (byte) (offset >> (8 * (width - 1 - i)));
+        }
+
+        public void tryCatch(Label start, Label end, Label handler, String catchType) {
+            handlerLabels.add(new Label[]{start, end, handler});
+            handlerTypes.add(classRef(catchType));
+        }
+
+        public void end() {
+            if (size > 65535)
+                throw new IllegalStateException("Method too large: " + name);
+            try {
+                methods.writeShort(access);
+                methods.writeShort(utf8(name));
+                methods.writeShort(utf8(descriptor));
+                methods.writeShort(1);
+                methods.writeShort(utf8("Code"));
+                methods.writeInt(12 + size + 8 * handlerTypes.size());
+                methods.writeShort(maxStack);
+                methods.writeShort(maxLocals);
+                methods.writeInt(size);
+                methods.write(code, 0, size);
+                methods.writeShort(handlerTypes.size());
+                for (int i = 0; i < handlerTypes.size(); i++) {
+                    for (Label label : handlerLabels.get(i))
+                        methods.writeShort(label.position);
+                    methods.writeShort(handlerTypes.get(i));
+                }
+                methods.writeShort(0); // attributes
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            methodCount++;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+import ir.*;
+import ir.datatype.IRArrayType;
+import ir.datatype.IRIntType;
+import ir.datatype.IRType;
+import ir.operand.*;
+
+import java.util.*;
+
+/**
+ * Dense slot numbering for the variables of an IRFunction.
+ *
+ * Every int scalar, float scalar and array of a function gets an index into
+ * the int, float or array bank of a stack frame. The numbering is computed once
+ * when the program is loaded, from the function's IRSymbolTable, so the interpreter
+ * never looks variables up by name.
+ */
+public class IRFrameLayout {
+
+    public final IRFunction function;
+
+    public int intCount;
+    public int floatCount;
+    public int arrayCount;
+
+    // Slot of each parameter, in declaration order
+    public int[] paramSlots;
+
+    // Size and element type of each array slot
+    public int[] arraySizes;
+    public IRType[] arrayElementTypes;
+
+    // Slot of each operand, parallel to IRInstruction.operands (-1 for non-variables)
+    public int[][] operandSlots;
+
+    // Slot of each variable by IRSymbol.id
+    private int[] symbolSlots;
+
+    public IRFrameLayout(IRFunction function) {
+        this.function = function;
+
+        List<IRType> elementTypes = new ArrayList<>();
+        List<Integer> sizes = new ArrayList<>();
+        IRSymbolTable symbols = function.symbols;
+        symbolSlots = new int[symbols.size()];
+        for (int id = 0; id < symbols.size(); id++) {
+            IRType type = symbols.get(id).type;
+            if (type instanceof IRArrayType) {
+                IRArrayType arrayType = (IRArrayType) type;
+                elementTypes.add(arrayType.getElementType());
+                sizes.add(arrayType.getSize());
+                symbolSlots[id] = arrayCount++;
+            } else if (type == IRIntType.get()) {
+                symbolSlots[id] = intCount++;
+            } else {
+                symbolSlots[id] = floatCount++;
+            }
+        }
+
+        arraySizes = new int[arrayCount];
+        arrayElementTypes = new IRType[arrayCount];
+        for (int i = 0; i < arrayCount; i++) {
+            arraySizes[i] = sizes.get(i);
+            arrayElementTypes[i] = elementTypes.get(i);
+        }
+
+        paramSlots = new int[function.parameters.size()];
+        for (int i = 0; i < paramSlots.length; i++)
+            paramSlots[i] = slotOf(function.parameters.get(i));
+
+        operandSlots = new int[function.instructions.size()][];
+        for (int i = 0; i < operandSlots.length; i++) {
+            IROperand[] operands = function.instructions.get(i).operands;
+            int[] slots = new int[operands.length];
+            for (int j = 0; j < operands.length; j++)
+                slots[j] = operands[j] instanceof IRVariableOperand
+                        ? slotOf((IRVariableOperand) operands[j]) : -1;
+            operandSlots[i] = slots;
+        }
+    }
+
+    public int slotOf(IRVariableOperand variable) {
+        return symbolSlots[variable.symbol.id];
+    }
+
+    public int slotOf(IRSymbol symbol) {
+        return symbolSlots[symbol.id];
+    }
+}
@@ -0,0 +1,279 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+
+/**
+ * Buffered byte-level input and output for the IR intrinsics.
+ *
+ * Integers and floats are parsed straight from an input byte buffer and formatted into an
+ * output byte buffer that is written in chunks. Reading follows the Scanner-based behavior
+ * the intrinsics always had: a number is the next whitespace-separated token, the rest of its
+ * line is skipped, a token that is not a number reads as 0, and running out of input throws
+ * NoSuchElementException. getc reads the next byte from the same buffer.
+ *
+ * Output is flushed when the buffer fills, before the input buffer is refilled (so prompts
+ * show up before a read blocks) and by flush.
+ */
+public class IRIO {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final InputStream in;
+    private final OutputStream out;
+
+    private final byte[] inBuffer = new byte[BUFFER_SIZE];
+    private int inPos;
+    private int inLimit;
+
+    private final byte[] outBuffer = new byte[BUFFER_SIZE];
+    private int outPos;
+
+    // Characters of the token being parsed
+    private final StringBuilder token = new StringBuilder();
+
+    private final Charset charset = Charset.defaultCharset();
+
+    private final char groupingSeparator;
+    private final char decimalSeparator;
+
+    public IRIO(InputStream in, OutputStream out) {
+        this.in = in;
+        this.out = out;
+        DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(Locale.getDefault(Locale.Category.FORMAT));
+        groupingSeparator = symbols.getGroupingSeparator();
+        decimalSeparator = symbols.getDecimalSeparator();
+    }
+
+    // Input
+
+    public int readInt() {
+        readToken();
+        int value = parseInt(token);
+        skipLine();
+        return value;
+    }
+
+    public float readFloat() {
+        readToken();
+        float value = parseFloat(token);
+        skipLine();
+        return value;
+    }
+
+    // The next byte, or -1 at the end of the input
+    public int readChar() {
+        if (inPos == inLimit && !fill())
+            return -1;
+        return inBuffer[inPos++] & 0xff;
+    }
+
+    private boolean fill() {
+        flush();
+        try {
+            int n = in.read(inBuffer, 0, inBuffer.length);
+            if (n <= 0)
+                return false;
+            inPos = 0;
+            inLimit = n;
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private int peek() {
+        if (inPos == inLimit && !fill())
+            return -1;
+        return inBuffer[inPos] & 0xff;
+    }
+
+    private void readToken() {
+        int c = peek();
+        while (c != -1 && Character.isWhitespace(c)) {
+            inPos++;
+            c = peek();
+        }
+        if (c == -1)
+            throw new NoSuchElementException();
+        token.setLength(0);
+        while (c != -1 && !Character.isWhitespace(c)) {
+            token.append((char) c);
+            inPos++;
+            c = peek();
+        }
+    }
+
+    // Skips the rest of the line after a token, including the line terminator
+    private void skipLine() {
+        int c = peek();
+        if (c == -1)
+            throw new NoSuchElementException("No line found");
+        while (c != -1) {
+            inPos++;
+            if (c == '\n')
+                return;
+            if (c == '\r') {
+                if (peek() == '\n')
+                    inPos++;
+                return;
+            }
+            c = peek();
+        }
+    }
+
+    // Numbers are parsed like Scanner does in the default locale: [+-]? numeral, where the
+    // digits of a numeral may be grouped in threes by the locale's grouping separator
+    private int parseInt(CharSequence s) {
+        int i = 0;
+        int n = s.length();
+        boolean negative = false;
+        if (i < n && (s.charAt(i) == '-' || s.charAt(i) == '+'))
+            negative = s.charAt(i++) == '-';
+        int end = numeralEnd(s, i);
+        if (end <= i || end != n)
+            return 0;
+        long value = 0;
+        for (; i < n; i++) {
+            char c = s.charAt(i);
+            if (c == groupingSeparator)
+                continue;
+            value = value * 10 + Character.digit(c, 10);
+            if (value > (long) Integer.MAX_VALUE + 1)
+                return 0;
+        }
+        value = negative ? -value : value;
+        if (value > Integer.MAX_VALUE)
+            return 0;
+        return (int) value;
+    }
+
+    // [+-]? (NaN | Infinity | (numeral [. digits?] | . digits) ([eE] [+-]? digits)?), with the
+    // locale's decimal separator
+    private float parseFloat(CharSequence s) {
+        int i = 0;
+        int n = s.length();
+        StringBuilder sb = new StringBuilder();
+        if (i < n && (s.charAt(i) == '-' || s.charAt(i) == '+'))
+            sb.append(s.charAt(i++));
+        String rest = s.subSequence(i, n).toString();
+        if (rest.equals("NaN") || rest.equals("Infinity"))
+            return Float.parseFloat(sb + rest);
+
+        int end = numeralEnd(s, i);
+        if (end < 0)
+            return 0;
+        boolean hasDigits = end > i;
+        for (; i < end; i++)
+            if (s.charAt(i) != groupingSeparator)
+                sb.append((char) ('0' + Character.digit(s.charAt(i), 10)));
+        if (i < n && s.charAt(i) == decimalSeparator) {
+            sb.append('.');
+            i++;
+            while (i < n && Character.isDigit(s.charAt(i))) {
+                sb.append((char) ('0' + Character.digit(s.charAt(i++), 10)));
+                hasDigits = true;
+            }
+        }
+        if (!hasDigits)
+            return 0;
+        if (i < n && (s.charAt(i) == 'e' || s.charAt(i) == 'E')) {
+            sb.append('e');
+            i++;
+            if (i < n && (s.charAt(i) == '-' || s.charAt(i) == '+'))
+                sb.append(s.charAt(i++));
+            int exponentStart = i;
+            while (i < n && Character.isDigit(s.charAt(i)))
+                sb.append((char) ('0' + Character.digit(s.charAt(i++), 10)));
+            if (i == exponentStart)
+                return 0;
+        }
+        if (i != n)
+            return 0;
+        return Float.parseFloat(sb.toString());
+    }
+
+    // End of the numeral starting at i (i if there is none), or -1 if its digit groups are
+    // malformed
+    private int numeralEnd(CharSequence s, int i) {
+        int n = s.length();
+        int start = i;
+        while (i < n && Character.isDigit(s.charAt(i)))
+            i++;
+        if (i == n || s.charAt(i) != groupingSeparator || i == start)
+            return i;
+        if (i - start > 3)
+            return -1;
+        while (i < n && s.charAt(i) == groupingSeparator) {
+            for (int k = 1; k <= 3; k++)
+                if (i + k >= n || !Character.isDigit(s.charAt(i + k)))
+                    return -1;
+            i += 4;
+            if (i < n && Character.isDigit(s.charAt(i)))
+                return -1;
+        }
+        return i;
+    }
+
+    // Output
+
+    public void writeInt(int value) {
+        if (outBuffer.length - outPos < 11)
+            flush();
+        if (value < 0) {
+            outBuffer[outPos++] = '-';
+        } else {
+            value = -value;
+        }
+        // Digits of the non-positive value, so that Integer.MIN_VALUE needs no special case
+        int start = outPos;
+        do {
+            outBuffer[outPos++] = (byte) ('0' - value % 10);
+            value /= 10;
+        } while (value != 0);
+        for (int i = start, j = outPos - 1; i < j; i++, j--) {
+            byte b = outBuffer[i];
+            outBuffer[i] = outBuffer[j];
+            outBuffer[j] = b;
+        }
+    }
+
+    public void writeFloat(float value) {
+        String s = Float.toString(value);
+        if (outBuffer.length - outPos < s.length())
+            flush();
+        for (int i = 0; i < s.length(); i++)
+            outBuffer[outPos++] = (byte) s.charAt(i);
+    }
+
+    public void writeChar(int c) {
+        char ch = (char) c;
+        if (ch < 0x80) {
+            if (outPos == outBuffer.length)
+                flush();
+            outBuffer[outPos++] = (byte) ch;
+            return;
+        }
+        byte[] bytes = String.valueOf(ch).getBytes(charset);
+        if (outBuffer.length - outPos < bytes.length)
+            flush();
+        System.arraycopy(bytes, 0, outBuffer, outPos, bytes.length);
+        outPos += bytes.length;
+    }
+
+    public void flush() {
+        if (outPos == 0)
+            return;
+        try {
+            out.write(outBuffer, 0, outPos);
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        outPos = 0;
+    }
+}
@@ -1,479 +1,1305 @@
-import ir.*;
-import ir.datatype.IRArrayType;
-import ir.datatype.IRIntType;
-import ir.datatype.IRType;
-import ir.operand.*;
-
-import java.io.FileNotFoundException;
-import java.io.IOException;
-import java.util.*;
-
-public class IRInterpreter {
-
-    public static void main(String[] args) throws Exception {
-        IRInterpreter irInterpreter = new IRInterpreter(args[0]);
-
-        irInterpreter.run();
-
-        Stats stats = irInterpreter.getStats();
-        System.err.println("Number of non-label instructions executed: " + stats.getNonLabelInstructionCount());
-    }
-
-    private class StackFrame {
-        public IRFunction caller;
-        public IRInstruction callInst;
-        public int returnInstIdx;
-        public IRFunction function;
-        public Map<String, Object> varMap;
-
-        public Object getVal(IRVariableOperand variable) {
-            return varMap.get(variable.getName());
-        }
-
-        public void setVal(IRVariableOperand variable, Object val) {
-            varMap.put(variable.getName(), val);
-        }
-    }
-
-    private class ProgramCounter {
-        private ArrayList<IRInstruction> currentInstList;
-        private int nextIdx;
-
-        public void set(ArrayList<IRInstruction> instList, int nextIdx) {
-            this.currentInstList = instList;
-            this.nextIdx = nextIdx;
-        }
-
-        public void setNextIdx(int nextIdx) {
-            this.nextIdx = nextIdx;
-        }
-
-        public int getNextIdx() {
-            return nextIdx;
-        }
-
-        private IRInstruction next() {
-            IRInstruction inst = currentInstList.get(nextIdx);
-            nextIdx++;
-            return inst;
-        }
-
-        private boolean hasNext() {
-            return nextIdx < currentInstList.size();
-        }
-    }
-
-    public class Stats {
-        public int totalInstructionCount;
-        public Map<IRInstruction.OpCode, Integer> instructionCounts;
-
-        public Stats() {
-            totalInstructionCount = 0;
-            instructionCounts = new HashMap<>();
-            for (IRInstruction.OpCode opCode : IRInstruction.OpCode.values())
-                instructionCounts.put(opCode, 0);
-        }
-
-        public void update(IRInstruction instruction) {
-            totalInstructionCount += 1;
-            int current = instructionCounts.get(instruction.opCode);
-            instructionCounts.put(instruction.opCode, current + 1);
-        }
-
-        public int getNonLabelInstructionCount() {
-            return totalInstructionCount - instructionCounts.get(IRInstruction.OpCode.LABEL);
-        }
-    }
-
-    // Program information
-    private IRProgram program;
-    private Map<String, IRFunction> functionMap;
-    private Map<IRFunction, Map<String, Integer>> functionLabelMap;
-
-    // Execution state
-    private Stack<StackFrame> stack;
-    private ProgramCounter pc;
-    private Map<String, Integer> currentLabelMap;
-
-    private Scanner stdinScanner;
-
-    private Stats stats;
-
-    public IRInterpreter(String filename) throws FileNotFoundException, IRException {
-        IRReader irReader = new IRReader();
-        program = irReader.parseIRFile(filename);
-        initProgram();
-    }
-
-    private void initProgram() {
-        functionMap = new HashMap<>();
-        functionLabelMap = new HashMap<>();
-        for (IRFunction function : program.functions) {
-            functionMap.put(function.name, function);
-
-            // For better efficiency
-            if (!(function.instructions instanceof ArrayList))
-                function.instructions = new ArrayList<>(function.instructions);
-
-            Map<String, Integer> labelMap = new HashMap<>();
-            for (int i = 0; i < function.instructions.size(); i++) {
-                IRInstruction instruction = function.instructions.get(i);
-                if (instruction.opCode == IRInstruction.OpCode.LABEL)
-                    labelMap.put(((IRLabelOperand) instruction.operands[0]).getName(), i);
-            }
-            functionLabelMap.put(function, labelMap);
-        }
-    }
-
-    public void run() throws IRException {
-        // Add an entry call to main
-        IRFunctionOperand mainFunctionOperand = new IRFunctionOperand("main", null);
-        IRInstruction entryCall = new IRInstruction(IRInstruction.OpCode.CALL, new IROperand[]{mainFunctionOperand}, -1);
-        ArrayList<IRInstruction> entryInstList = new ArrayList<>();
-        entryInstList.add(entryCall);
-        pc = new ProgramCounter();
-        pc.set(entryInstList, 0);
-
-        stack = new Stack<>();
-        StackFrame entrySF = new StackFrame();
-        stack.push(entrySF);
-
-        // Do not count the entry call
-        stats = new Stats();
-        stats.totalInstructionCount = -1;
-        stats.instructionCounts.put(IRInstruction.OpCode.CALL, -1);
-
-        stdinScanner = new Scanner(System.in);
-
-        while (true) {
-            IRInstruction instruction = pc.next();
-            executeInstruction(instruction);
-
-            if (!pc.hasNext()) {
-                // Return from a procedure
-                StackFrame sf = stack.pop();
-                if (stack.peek() == entrySF) // Exit main
-                    break;
-                IRFunction caller = sf.caller;
-
-                if (caller.returnType != null)
-                    throwRuntimeException(
-                            caller.instructions.get(caller.instructions.size() - 1),
-                            "Missing return for a function with return value");
-
-                pc.set((ArrayList<IRInstruction>) caller.instructions, sf.returnInstIdx);
-                currentLabelMap = functionLabelMap.get(caller);
-            }
-        }
-
-        stdinScanner.close();
-    }
-
-    public Stats getStats() {
-        return stats;
-    }
-
-    private Object getConstVal(IRConstantOperand constOperand) {
-        if (constOperand.type == IRIntType.get())
-            return Integer.parseInt(constOperand.getValueString());
-        return Float.parseFloat(constOperand.getValueString());
-    }
-
-    private Object getValFromVarOrConst(IROperand operand, StackFrame sf) {
-        if (operand instanceof IRVariableOperand)
-            return sf.getVal((IRVariableOperand) operand);
-        return getConstVal((IRConstantOperand) operand);
-    }
-
-    private Object binaryOperation(IRInstruction.OpCode opCode, IRType type, Object y, Object z) {
-        if (type == IRIntType.get()) {
-            int iy = (Integer) y;
-            int iz = (Integer) z;
-            switch (opCode) {
-                case ADD:
-                    return iy + iz;
-                case SUB:
-                    return iy - iz;
-                case MULT:
-                    return iy * iz;
-                case DIV:
-                    return iy / iz;
-                case AND:
-                    return iy & iz;
-                case OR:
-                    return iy | iz;
-
-                case BREQ:
-                    return iy == iz;
-                case BRNEQ:
-                    return iy != iz;
-                case BRLT:
-                    return iy < iz;
-                case BRGT:
-                    return iy > iz;
-                case BRGEQ:
-                    return iy >= iz;
-
-                default:
-                    assert false;
-            }
-        } else {
-            float fy = (Float) y;
-            float fz = (Float) z;
-            switch (opCode) {
-                case ADD:
-                    return fy + fz;
-                case SUB:
-                    return fy - fz;
-                case MULT:
-                    return fy * fz;
-                case DIV:
-                    return fy / fz;
-
-                case BREQ:
-                    return fy == fz;
-                case BRNEQ:
-                    return fy != fz;
-                case BRLT:
-                    return fy < fz;
-                case BRGT:
-                    return fy > fz;
-                case BRGEQ:
-                    return fy >= fz;
-
-                default:
-                    assert false;
-            }
-        }
-        return null;
-    }
-
-    private void executeInstruction(IRInstruction instruction) throws IRException {
-        stats.update(instruction);
-
-        StackFrame sf = stack.peek();
-        switch (instruction.opCode) {
-            case ASSIGN: {
-                if (instruction.operands.length > 2) { // Array assignment
-                    Object[] arr = (Object[]) getValFromVarOrConst(instruction.operands[0], sf);
-                    int assignSize = (Integer) getValFromVarOrConst(instruction.operands[1], sf);
-                    Object src = getValFromVarOrConst(instruction.operands[2], sf);
-                    if (assignSize < 0 || assignSize > arr.length)
-                        throwRuntimeException(instruction, "Out-of-bounds array access");
-                    for (int i = 0; i < assignSize; i++)
-                        arr[i] = src;
-                } else {
-                    IRVariableOperand dest = (IRVariableOperand) instruction.operands[0];
-                    Object src = getValFromVarOrConst(instruction.operands[1], sf);
-                    sf.setVal(dest, src);
-                }
-                break;
-            }
-            case ADD:
-            case SUB:
-            case MULT:
-            case DIV:
-            case AND:
-            case OR: {
-                IRVariableOperand dest = (IRVariableOperand) instruction.operands[0];
-                Object y = getValFromVarOrConst(instruction.operands[1], sf);
-                Object z = getValFromVarOrConst(instruction.operands[2], sf);
-                Object x = binaryOperation(instruction.opCode, dest.type, y, z);
-                sf.setVal(dest, x);
-                break;
-            }
-            case GOTO: {
-                int targetIdx = currentLabelMap.get(((IRLabelOperand) instruction.operands[0]).getName());
-                pc.setNextIdx(targetIdx);
-                break;
-            }
-            case BREQ:
-            case BRNEQ:
-            case BRLT:
-            case BRGT:
-            case BRGEQ: {
-                int targetIdx = currentLabelMap.get(((IRLabelOperand) instruction.operands[0]).getName());
-                Object a = getValFromVarOrConst(instruction.operands[1], sf);
-                Object b = getValFromVarOrConst(instruction.operands[2], sf);
-                IRType type = ((IRVariableOperand) instruction.operands[1]).type;
-                boolean result = (Boolean) binaryOperation(instruction.opCode, type, a, b);
-                if (result)
-                    pc.setNextIdx(targetIdx);
-                break;
-            }
-            case RETURN: {
-                Object retVal = getValFromVarOrConst(instruction.operands[0], sf);
-                IRFunction caller = sf.caller;
-                IRInstruction callInst = sf.callInst;
-                assert callInst.opCode == IRInstruction.OpCode.CALLR;
-                stack.pop();
-                StackFrame callerSF = stack.peek();
-                IRVariableOperand retVar = (IRVariableOperand) callInst.operands[0];
-                callerSF.setVal(retVar, retVal);
-                pc.set((ArrayList<IRInstruction>) caller.instructions, sf.returnInstIdx);
-                currentLabelMap = functionLabelMap.get(caller);
-                break;
-            }
-            case CALL: {
-                ArrayList<Object> arguments = new ArrayList<>();
-                for (int i = 1; i < instruction.operands.length; i++)
-                    arguments.add(getValFromVarOrConst(instruction.operands[i], sf));
-                String calleeName = ((IRFunctionOperand) instruction.operands[0]).getName();
-                if (functionMap.containsKey(calleeName))
-                    executeCall(instruction, functionMap.get(calleeName), arguments);
-                else
-                    handleIntrinsicFunction(instruction, calleeName, arguments);
-                break;
-            }
-            case CALLR: {
-                ArrayList<Object> arguments = new ArrayList<>();
-                for (int i = 2; i < instruction.operands.length; i++)
-                    arguments.add(getValFromVarOrConst(instruction.operands[i], sf));
-                String calleeName = ((IRFunctionOperand) instruction.operands[1]).getName();
-                if (functionMap.containsKey(calleeName))
-                    executeCall(instruction, functionMap.get(calleeName), arguments);
-                else
-                    handleIntrinsicFunction(instruction, calleeName, arguments);
-                break;
-            }
-            case ARRAY_STORE: {
-                Object val = getValFromVarOrConst(instruction.operands[0], sf);
-                Object[] arr = (Object[]) getValFromVarOrConst(instruction.operands[1], sf);
-                int offset = (Integer) getValFromVarOrConst(instruction.operands[2], sf);
-                if (offset < 0 || offset >= arr.length)
-                    throwRuntimeException(instruction, "Out-of-bounds array access");
-                arr[offset] = val;
-                break;
-            }
-            case ARRAY_LOAD: {
-                IRVariableOperand dest = (IRVariableOperand) instruction.operands[0];
-                Object[] arr = (Object[]) getValFromVarOrConst(instruction.operands[1], sf);
-                int offset = (Integer) getValFromVarOrConst(instruction.operands[2], sf);
-                if (offset < 0 || offset >= arr.length)
-                    throwRuntimeException(instruction, "Out-of-bounds array access");
-                sf.setVal(dest, arr[offset]);
-                break;
-            }
-            case LABEL:
-                break;
-            default:
-                assert false;
-        }
-    }
-
-    private void executeCall(IRInstruction callInst, IRFunction function, ArrayList<Object> arguments) {
-        StackFrame sf = stack.peek();
-        StackFrame calleeSF = new StackFrame();
-        calleeSF.caller = sf.function;
-        calleeSF.callInst = callInst;
-        calleeSF.returnInstIdx = pc.getNextIdx();
-        calleeSF.function = function;
-        calleeSF.varMap = buildVarMap(function, arguments);
-        stack.push(calleeSF);
-        pc.set((ArrayList<IRInstruction>) function.instructions, 0);
-        currentLabelMap = functionLabelMap.get(function);
-    }
-
-    private Map<String, Object> buildVarMap(IRFunction function, ArrayList<Object> arguments) {
-        Map<String, Object> varMap = new HashMap<>();
-
-        for (IRVariableOperand variable: function.variables) {
-            if (variable.type instanceof IRArrayType) {
-                IRArrayType arrayType = (IRArrayType) variable.type;
-                Object[] arr = new Object[arrayType.getSize()];
-                varMap.put(variable.getName(), arr);
-                if (arrayType.getElementType() == IRIntType.get())
-                    for (int i = 0; i < arr.length; i++)
-                        arr[i] = new Integer(0);
-                else
-                    for (int i = 0; i < arr.length; i++)
-                        arr[i] = new Float(0);
-            } else {
-                if (variable.type == IRIntType.get())
-                    varMap.put(variable.getName(), new Integer(0));
-                else
-                    varMap.put(variable.getName(), new Float(0));
-            }
-        }
-
-        Iterator<IRVariableOperand> pit = function.parameters.iterator();
-        Iterator<Object> ait = arguments.iterator();
-        while (pit.hasNext()) {
-            IRVariableOperand param = pit.next();
-            Object arg = ait.next();
-            varMap.put(param.getName(), arg);
-        }
-
-        return varMap;
-    }
-
-    private void handleIntrinsicFunction(IRInstruction callInst, String functionName, ArrayList<Object> arguments)
-            throws IRException {
-        switch (functionName) {
-            case "geti": {
-                int i;
-                try {
-                    i = stdinScanner.nextInt();
-                } catch (InputMismatchException e) {
-                    i = 0;
-                }
-                stdinScanner.nextLine();
-                IRVariableOperand retVar = (IRVariableOperand) callInst.operands[0];
-                stack.peek().setVal(retVar, i);
-                break;
-            }
-            case "getf": {
-                float f;
-                try {
-                    f = stdinScanner.nextFloat();
-                } catch (InputMismatchException e) {
-                    f = 0;
-                }
-                stdinScanner.nextLine();
-                IRVariableOperand retVar = (IRVariableOperand) callInst.operands[0];
-                stack.peek().setVal(retVar, f);
-                break;
-            }
-            case "getc": {
-                int c;
-                try {
-                    c = (int) System.in.read();
-                } catch (IOException e) {
-                    c = 0;
-                }
-                IRVariableOperand retVar = (IRVariableOperand) callInst.operands[0];
-                stack.peek().setVal(retVar, c);
-                break;
-            }
-            case "puti": {
-                System.out.print((Integer) arguments.get(0));
-                break;
-            }
-            case "putf": {
-                System.out.print((Float) arguments.get(0));
-                break;
-            }
-            case "putc": {
-                int c = (Integer) arguments.get(0);
-                System.out.print((char) c);
-                break;
-            }
-            default:
-                throwRuntimeException(callInst, String.format("Undefined reference to function '%s'", functionName));
-        }
-    }
-
-    private void throwRuntimeException(IRInstruction instruction, String message) throws IRException {
-        System.err.println("IR interpreter runtime exception: " + message);
-        System.err.println("Stack trace:");
-        ListIterator<StackFrame> sit = stack.listIterator(stack.size());
-        System.err.println("\t" + stack.peek().function.name + ":" + instruction.irLineNumber);
-        while (sit.hasPrevious()) {
-            StackFrame sf = sit.previous();
-            if (sf.caller == null)
-                break;
-            System.err.println("\t" + sf.caller.name + ":" + sf.caller.instructions.get(sf.returnInstIdx - 1).irLineNumber);
-        }
-        throw new IRException();
-    }
-}
+import ir.*;
+import ir.datatype.IRArrayType;
+import ir.datatype.IRIntType;
+import ir.datatype.IRType;
+import ir.operand.*;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+public class IRInterpreter {
+
+    public enum Engine {
+        REFERENCE, BYTECODE, JIT, TIERED, TREE;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Engine engine = Engine.REFERENCE;
+        String profileFile = null;
+        String flameGraphFile = null;
+        String batchDir = null;
+        int jobs = Runtime.getRuntime().availableProcessors();
+        int parseJobs = Runtime.getRuntime().availableProcessors();
+        boolean memoize = false;
+        boolean lazy = false;
+        // parse arguments
+        for (int i = 0; i < args.length - 1; i++) {
+            String arg = args[i];
+
+            if (arg.equals("--engine") && i + 1 < args.length - 1) {
+                try {
+                    engine = Engine.valueOf(args[++i].toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    System.err.println("unknown engine: " + args[i]);
+                    System.exit(1);
+                }
+            } else if (arg.equals("--profile") && i + 1 < args.length - 1) {
+                profileFile = args[++i];
+            } else if (arg.equals("--flame-graph") && i + 1 < args.length - 1) {
+                flameGraphFile = args[++i];
+            } else if (arg.equals("--memoize")) {
+                memoize = true;
+            } else if (arg.equals("--lazy")) {
+                lazy = true;
+            } else if (arg.equals("--batch") && i + 1 < args.length - 1) {
+                batchDir = args[++i];
+            } else if (arg.equals("--jobs") && i + 1 < args.length - 1) {
+                jobs = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--parse-jobs") && i + 1 < args.length - 1) {
+                parseJobs = Integer.parseInt(args[++i]);
+            } else {
+                System.err.println("unrecognized argument: " + arg);
+                System.exit(1);
+            }
+        }
+
+        if ((profileFile != null || flameGraphFile != null) && engine != Engine.REFERENCE) {
+            System.err.println("profiling requires the reference engine");
+            System.exit(1);
+        }
+        if (memoize && engine != Engine.REFERENCE) {
+            System.err.println("memoization requires the reference engine");
+            System.exit(1);
+        }
+        if ((profileFile != null || flameGraphFile != null) && batchDir != null) {
+            System.err.println("profiling is not supported in batch mode");
+            System.exit(1);
+        }
+
+        if ((profileFile != null || flameGraphFile != null) && lazy) {
+            System.err.println("profiling is not supported with lazy loading");
+            System.exit(1);
+        }
+
+        // With --lazy, only the function signatures are read before the program starts
+        IRInterpreter irInterpreter = lazy
+                ? new IRInterpreter(new IRReader().indexIRFile(args[args.length - 1]))
+                : new IRInterpreter(args[args.length - 1], parseJobs);
+        irInterpreter.setEngine(engine);
+        if (memoize)
+            irInterpreter.setMemoization(IRMemoizer.DEFAULT_CAPACITY);
+        if (batchDir != null) {
+            // Runs the program against every N.in of the directory, see IRBatchRunner
+            boolean passed = new IRBatchRunner(irInterpreter, jobs).run(new File(batchDir), System.out);
+            System.exit(passed ? 0 : 1);
+        }
+        IRProfiler profiler = null;
+        if (profileFile != null || flameGraphFile != null) {
+            profiler = new IRProfiler(irInterpreter.program.functions);
+            irInterpreter.setProfiler(profiler);
+        }
+
+        try {
+            irInterpreter.run();
+        } finally {
+            // Programs that fail at runtime are profiled up to the failure
+            if (profileFile != null) {
+                try (PrintWriter out = new PrintWriter(profileFile)) {
+                    profiler.writeJson(out);
+                }
+            }
+            if (flameGraphFile != null) {
+                try (PrintWriter out = new PrintWriter(flameGraphFile)) {
+                    profiler.writeCollapsedStacks(out);
+                }
+            }
+        }
+
+        Stats stats = irInterpreter.getStats();
+        System.err.println("Number of non-label instructions executed: " + stats.getNonLabelInstructionCount());
+        if (memoize) {
+            System.err.println("Number of non-label instructions executed with memoization: "
+                    + stats.getExecutedNonLabelInstructionCount());
+            for (String line : irInterpreter.getMemoizer().getReport())
+                System.err.println("Memoized " + line);
+        }
+        if (engine == Engine.JIT || engine == Engine.TIERED)
+            System.err.println("Number of eliminated bounds checks: " + stats.getEliminatedBoundsChecks());
+        for (Promotion promotion : stats.promotions)
+            System.err.println("Promoted " + promotion);
+    }
+
+    static class StackFrame {
+        public IRFunction caller;
+        public IRFrameLayout callerLayout;
+        public int callLineNumber;
+        public int returnInstIdx;
+        public int retSlot;
+        public IRFunction function;
+        public IRFrameLayout layout;
+        public IRBytecode code;
+
+        // Variable storage, indexed by the slots of the function's IRFrameLayout. Array slots
+        // hold an int[] or float[], or null for a local array that has not been touched yet.
+        // The banks are reused by later calls at the same depth and may be larger than needed.
+        public int[] ints;
+        public float[] floats;
+        public Object[] arrays;
+
+        // Local arrays allocated by earlier calls at this depth, reused on first touch
+        public Object[] ownArrays;
+
+        // Labels and returns skipped by tail calls that reused this frame in the reference
+        // engine, counted when the frame returns as if the callers had executed them
+        public long tailCallLabels;
+        public long tailCallReturns;
+
+        // The call sites of those tail calls for stack traces, oldest first. Repeated calls from
+        // the same site (as in tail recursion) are kept as one site and a count. A run of
+        // entries that repeats (as in mutual tail recursion) is kept once, followed by a cycle
+        // entry with a positive tailCallPeriods giving the number of entries it repeats, so the
+        // record stays bounded for any cycle of at most MAX_TAIL_CALL_CYCLE entries
+        public int tailCallSites;
+        public IRFunction[] tailCallFunctions = new IRFunction[0];
+        public int[] tailCallLineNumbers = new int[0];
+        public long[] tailCallRepeats = new long[0];
+        public int[] tailCallPeriods = new int[0];
+
+        private static final int MAX_TAIL_CALL_CYCLE = 8;
+
+        void addTailCallSite(IRFunction function, int lineNumber) {
+            int last = tailCallSites - 1;
+            if (last >= 0 && tailCallPeriods[last] == 0
+                    && tailCallFunctions[last] == function && tailCallLineNumbers[last] == lineNumber) {
+                tailCallRepeats[last]++;
+                return;
+            }
+            // The last entry cannot grow any more, so the entries are complete and may be folded
+            while (foldTailCallCycle())
+                ;
+            addTailCallEntry(function, lineNumber, 0);
+        }
+
+        private void addTailCallEntry(IRFunction function, int lineNumber, int period) {
+            if (tailCallSites == tailCallFunctions.length) {
+                int size = Math.max(4, tailCallSites * 2);
+                tailCallFunctions = Arrays.copyOf(tailCallFunctions, size);
+                tailCallLineNumbers = Arrays.copyOf(tailCallLineNumbers, size);
+                tailCallRepeats = Arrays.copyOf(tailCallRepeats, size);
+                tailCallPeriods = Arrays.copyOf(tailCallPeriods, size);
+            }
+            tailCallFunctions[tailCallSites] = function;
+            tailCallLineNumbers[tailCallSites] = lineNumber;
+            tailCallRepeats[tailCallSites] = 1;
+            tailCallPeriods[tailCallSites] = period;
+            tailCallSites++;
+        }
+
+        // Folds the entries at the top into one more repeat of the cycle before them, or into a
+        // new cycle if they equal the entries before them. Returns whether anything was folded.
+        private boolean foldTailCallCycle() {
+            for (int period = 1; period <= MAX_TAIL_CALL_CYCLE; period++) {
+                int start = tailCallSites - period;
+                if (start < 1 || !isTailCallBlock(start, tailCallSites))
+                    continue;
+                int cycle = start - 1;
+                if (tailCallPeriods[cycle] == period && sameTailCallEntries(cycle - period, start, period)) {
+                    tailCallRepeats[cycle]++;
+                    tailCallSites = start;
+                    return true;
+                }
+                if (start >= period && isTailCallBlock(start - period, start)
+                        && sameTailCallEntries(start - period, start, period)) {
+                    tailCallSites = start;
+                    addTailCallEntry(null, 0, period);
+                    tailCallRepeats[start] = 2;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // Whether the entries [from, to) contain every entry repeated by the cycles among them
+        private boolean isTailCallBlock(int from, int to) {
+            for (int i = from; i < to; i++)
+                if (i - tailCallPeriods[i] < from)
+                    return false;
+            return true;
+        }
+
+        private boolean sameTailCallEntries(int a, int b, int length) {
+            for (int i = 0; i < length; i++)
+                if (tailCallFunctions[a + i] != tailCallFunctions[b + i]
+                        || tailCallLineNumbers[a + i] != tailCallLineNumbers[b + i]
+                        || tailCallRepeats[a + i] != tailCallRepeats[b + i]
+                        || tailCallPeriods[a + i] != tailCallPeriods[b + i])
+                    return false;
+            return true;
+        }
+    }
+
+    // Array-backed call stack. Each depth owns one StackFrame that is reused by every call made
+    // at that depth, so once the stack has reached its maximum depth calls do not allocate.
+    static class CallStack {
+        private StackFrame[] frames = new StackFrame[16];
+        private int size;
+
+        // Returns the frame for the next depth; the caller has to initialize it
+        public StackFrame push() {
+            if (size == frames.length)
+                frames = Arrays.copyOf(frames, size * 2);
+            StackFrame sf = frames[size];
+            if (sf == null)
+                frames[size] = sf = new StackFrame();
+            size++;
+            return sf;
+        }
+
+        public void pop() {
+            size--;
+        }
+
+        public StackFrame peek() {
+            return frames[size - 1];
+        }
+
+        public StackFrame get(int depth) {
+            return frames[depth];
+        }
+
+        public int size() {
+            return size;
+        }
+    }
+
+    private class ProgramCounter {
+        private ArrayList<IRInstruction> currentInstList;
+        private int[][] currentOperandSlots;
+        private int nextIdx;
+
+        public void set(IRFrameLayout layout, int nextIdx) {
+            this.currentInstList = (ArrayList<IRInstruction>) layout.function.instructions;
+            this.currentOperandSlots = layout.operandSlots;
+            this.nextIdx = nextIdx;
+        }
+
+        public void set(ArrayList<IRInstruction> instList, int[][] operandSlots, int nextIdx) {
+            this.currentInstList = instList;
+            this.currentOperandSlots = operandSlots;
+            this.nextIdx = nextIdx;
+        }
+
+        // Operand slots of the instruction most recently returned by next()
+        public int[] currentSlots() {
+            return currentOperandSlots[nextIdx - 1];
+        }
+
+        public void setNextIdx(int nextIdx) {
+            this.nextIdx = nextIdx;
+        }
+
+        public int getNextIdx() {
+            return nextIdx;
+        }
+
+        private IRInstruction next() {
+            IRInstruction inst = currentInstList.get(nextIdx);
+            nextIdx++;
+            return inst;
+        }
+
+        private boolean hasNext() {
+            return nextIdx < currentInstList.size();
+        }
+    }
+
+    // A function moved from the interpreter to compiled code in tiered execution
+    public static class Promotion {
+        public final String function;
+        public final String reason;
+        // Non-label instructions executed before the promotion
+        public final long instructionCount;
+
+        public Promotion(String function, String reason, long instructionCount) {
+            this.function = function;
+            this.reason = reason;
+            this.instructionCount = instructionCount;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("function '%s' after %d instructions (%s)", function, instructionCount, reason);
+        }
+    }
+
+    public class Stats {
+        // Executed instructions, indexed by IRInstruction.OpCode ordinal. Engines that count on
+        // their own (bytecode, compiled, tree and memoized calls) keep long counters too and
+        // hand them over through add(OpCode, long) and addMemoized
+        private final long[] instructionCounts = new long[IRInstruction.OpCode.values().length];
+        // The part of instructionCounts that belongs to calls answered by the memoizer, which
+        // was counted as if the calls executed but did not actually execute
+        private final long[] memoizedCounts = new long[IRInstruction.OpCode.values().length];
+        // Executed array accesses whose bounds check compiled code left out, see IRRangeAnalysis
+        private long eliminatedBoundsChecks;
+        public List<Promotion> promotions;
+
+        public Stats() {
+            promotions = new ArrayList<>();
+        }
+
+        public void update(IRInstruction instruction) {
+            instructionCounts[instruction.opCode.ordinal()]++;
+        }
+
+        public void add(IRInstruction.OpCode opCode, long count) {
+            instructionCounts[opCode.ordinal()] += count;
+        }
+
+        public long getInstructionCount(IRInstruction.OpCode opCode) {
+            return instructionCounts[opCode.ordinal()];
+        }
+
+        // Counts the instructions of a call answered by the memoizer, counts[offset + ordinal]
+        public void addMemoized(long[] counts, int offset) {
+            for (int op = 0; op < instructionCounts.length; op++) {
+                instructionCounts[op] += counts[offset + op];
+                memoizedCounts[op] += counts[offset + op];
+            }
+        }
+
+        public void copyCounts(long[] counts) {
+            System.arraycopy(instructionCounts, 0, counts, 0, instructionCounts.length);
+        }
+
+        public long getTotalInstructionCount() {
+            long total = 0;
+            for (long count : instructionCounts)
+                total += count;
+            return total;
+        }
+
+        public void addEliminatedBoundsChecks(long count) {
+            eliminatedBoundsChecks += count;
+        }
+
+        public long getEliminatedBoundsChecks() {
+            return eliminatedBoundsChecks;
+        }
+
+        public void addPromotion(String function, String reason, long instructionCount) {
+            promotions.add(new Promotion(function, reason, instructionCount));
+        }
+
+        public long getNonLabelInstructionCount() {
+            return getTotalInstructionCount() - getInstructionCount(IRInstruction.OpCode.LABEL);
+        }
+
+        // Non-label instructions actually executed, leaving out those of memoized calls
+        public long getExecutedNonLabelInstructionCount() {
+            long memoized = 0;
+            for (long count : memoizedCounts)
+                memoized += count;
+            memoized -= memoizedCounts[IRInstruction.OpCode.LABEL.ordinal()];
+            return getNonLabelInstructionCount() - memoized;
+        }
+    }
+
+    // Compiled forms of a program, created on first use and shared by all interpreters of it
+    private static class CompiledCode {
+        IRBytecode[] bytecode;
+        IRBytecode[] tieredBytecode;
+        IRJitCompiler jit;
+    }
+
+    // Program information, not modified once initialized, so that interpreters created with
+    // IRInterpreter(IRInterpreter) can share it across threads. The per-function maps of a
+    // lazy program only grow, under a lock, as functions are materialized.
+    final IRProgram program;
+    // The program if its functions are materialized on their first call, or null
+    private final IRLazyProgram lazyProgram;
+    private final Map<String, IRFunction> functionMap;
+    private final Map<IRFunction, Map<String, Integer>> functionLabelMap;
+    // Per instruction index, the number of labels between a tail call and the caller's return,
+    // or -1 if the instruction is not a tail call
+    private final Map<IRFunction, int[]> functionTailCallMap;
+    final Map<IRFunction, IRFrameLayout> functionLayoutMap;
+    private final CompiledCode compiledCode;
+
+    private Engine engine = Engine.REFERENCE;
+
+    private static final long LARGE_STACK_SIZE = 512L << 20;
+
+    private long[] pairProfile;
+
+    private IRProfiler profiler;
+
+    private int memoizationCapacity;
+    private IRMemoizer memoizer;
+
+    // Execution state
+    CallStack stack;
+    private ProgramCounter pc;
+    // Arguments of a tail call while the frame is set up for the callee
+    private int[] tailCallInts = new int[0];
+    private float[] tailCallFloats = new float[0];
+    private Object[] tailCallArrays = new Object[0];
+    private Map<String, Integer> currentLabelMap;
+
+    private IRIO io;
+
+    // Streams of a run; null for the System streams at the time of the run
+    private InputStream in;
+    private OutputStream out;
+    private PrintStream err;
+
+    Stats stats;
+
+    // Reads the program through its binary cache (see IRBinaryCache)
+    public IRInterpreter(String filename) throws FileNotFoundException, IRException {
+        this(filename, 1);
+    }
+
+    // Same, parsing functions with parseJobs threads if the cache is missing or stale
+    public IRInterpreter(String filename, int parseJobs) throws FileNotFoundException, IRException {
+        this(IRBinaryCache.load(filename, parseJobs));
+    }
+
+    // An IRLazyProgram is materialized one function at a time, on its first call. Engines
+    // other than the reference one and memoization need the whole program and materialize
+    // all of it when they run.
+    public IRInterpreter(IRProgram program) {
+        this.program = program;
+        lazyProgram = program instanceof IRLazyProgram ? (IRLazyProgram) program : null;
+        functionMap = new HashMap<>();
+        if (lazyProgram != null) {
+            // Updated as functions are materialized, possibly by interpreters on other threads
+            functionLabelMap = new ConcurrentHashMap<>();
+            functionTailCallMap = new ConcurrentHashMap<>();
+            functionLayoutMap = new ConcurrentHashMap<>();
+        } else {
+            functionLabelMap = new HashMap<>();
+            functionTailCallMap = new HashMap<>();
+            functionLayoutMap = new HashMap<>();
+        }
+        compiledCode = new CompiledCode();
+        initProgram();
+    }
+
+    // An interpreter of the same program as other, sharing its program information and compiled
+    // code but with its own execution state. It starts with other's engine and memoization
+    // setting and the System streams.
+    public IRInterpreter(IRInterpreter other) {
+        program = other.program;
+        lazyProgram = other.lazyProgram;
+        functionMap = other.functionMap;
+        functionLabelMap = other.functionLabelMap;
+        functionTailCallMap = other.functionTailCallMap;
+        functionLayoutMap = other.functionLayoutMap;
+        compiledCode = other.compiledCode;
+        engine = other.engine;
+        memoizationCapacity = other.memoizationCapacity;
+    }
+
+    private void initProgram() {
+        for (IRFunction function : program.functions)
+            functionMap.put(function.name, function);
+        if (lazyProgram == null)
+            for (IRFunction function : program.functions)
+                initFunction(function);
+    }
+
+    private void initFunction(IRFunction function) {
+        // For better efficiency
+        if (!(function.instructions instanceof ArrayList))
+            function.instructions = new ArrayList<>(function.instructions);
+
+        Map<String, Integer> labelMap = new HashMap<>();
+        for (int i = 0; i < function.instructions.size(); i++) {
+            IRInstruction instruction = function.instructions.get(i);
+            if (instruction.opCode == IRInstruction.OpCode.LABEL)
+                labelMap.put(((IRLabelOperand) instruction.operands[0]).getName(), i);
+        }
+        functionLabelMap.put(function, labelMap);
+        functionTailCallMap.put(function, findTailCalls(function));
+        // Added last, since a layout marks a function as initialized
+        functionLayoutMap.put(function, new IRFrameLayout(function));
+    }
+
+    // Parses and initializes a function of a lazy program that has not been called yet
+    private IRFrameLayout materialize(IRFunction function) throws IRException {
+        synchronized (functionLayoutMap) {
+            IRFrameLayout layout = functionLayoutMap.get(function);
+            if (layout == null) {
+                lazyProgram.materialize(function);
+                initFunction(function);
+                layout = functionLayoutMap.get(function);
+            }
+            return layout;
+        }
+    }
+
+    // A call is a tail call if nothing but labels follows it up to the caller's return of its
+    // result, or up to the end of a void caller, and it returns the same type as the caller.
+    // Calls that pass one of the caller's local arrays are not, since the array has to outlive
+    // the caller's frame.
+    private int[] findTailCalls(IRFunction function) {
+        List<IRInstruction> instructions = function.instructions;
+        int[] tailCalls = new int[instructions.size()];
+        Arrays.fill(tailCalls, -1);
+
+        for (int i = 0; i < instructions.size(); i++) {
+            IRInstruction instruction = instructions.get(i);
+            boolean callr = instruction.opCode == IRInstruction.OpCode.CALLR;
+            if (instruction.opCode != IRInstruction.OpCode.CALL && !callr)
+                continue;
+            int argIdx = callr ? 2 : 1;
+            IRFunction callee = functionMap.get(((IRFunctionOperand) instruction.operands[argIdx - 1]).getName());
+            if (callee == null || callee.returnType != function.returnType)
+                continue;
+            boolean passesLocalArray = false;
+            for (int j = argIdx; j < instruction.operands.length; j++) {
+                IROperand arg = instruction.operands[j];
+                if (getDataType(arg) instanceof IRArrayType
+                        && !function.symbols.isParameter(((IRVariableOperand) arg).symbol))
+                    passesLocalArray = true;
+            }
+            if (passesLocalArray)
+                continue;
+
+            int next = i + 1;
+            while (next < instructions.size() && instructions.get(next).opCode == IRInstruction.OpCode.LABEL)
+                next++;
+            boolean tail;
+            if (callr) {
+                IRInstruction ret = next < instructions.size() ? instructions.get(next) : null;
+                tail = ret != null && ret.opCode == IRInstruction.OpCode.RETURN
+                        && ret.operands[0] instanceof IRVariableOperand
+                        && ((IRVariableOperand) ret.operands[0]).symbol
+                                == ((IRVariableOperand) instruction.operands[0]).symbol;
+            } else {
+                tail = function.returnType == null && next == instructions.size();
+            }
+            if (tail)
+                tailCalls[i] = next - i - 1;
+        }
+        return tailCalls;
+    }
+
+    public void setEngine(Engine engine) {
+        this.engine = engine;
+    }
+
+    // Caches the results of pure functions in tables of the given capacity, see IRMemoizer;
+    // only the reference engine supports this
+    public void setMemoization(int capacity) {
+        memoizationCapacity = capacity;
+    }
+
+    public IRMemoizer getMemoizer() {
+        return memoizer;
+    }
+
+    // Runs read from in and write program output to out and runtime errors to err
+    public void setStreams(InputStream in, OutputStream out, PrintStream err) {
+        this.in = in;
+        this.out = out;
+        this.err = err;
+    }
+
+    // Collects bytecode opcode pair counts in the bytecode engine, see IRBytecodeEngine.setPairProfile
+    public void setPairProfile(long[] pairProfile) {
+        this.pairProfile = pairProfile;
+    }
+
+    // Collects an execution profile; only the reference engine supports this
+    public void setProfiler(IRProfiler profiler) {
+        this.profiler = profiler;
+    }
+
+    public void run() throws IRException {
+        if (profiler != null && engine != Engine.REFERENCE)
+            throw new IllegalStateException("Profiling requires the reference engine");
+        if (memoizationCapacity > 0 && engine != Engine.REFERENCE)
+            throw new IllegalStateException("Memoization requires the reference engine");
+
+        if (lazyProgram != null && (engine != Engine.REFERENCE || memoizationCapacity > 0))
+            for (IRFunction function : program.functions)
+                materialize(function);
+
+        stats = new Stats();
+        stack = new CallStack();
+        memoizer = memoizationCapacity > 0 ? new IRMemoizer(program.functions, memoizationCapacity) : null;
+        io = new IRIO(in != null ? in : System.in, out != null ? out : System.out);
+
+        // Checked before any engine pushes a frame, so every engine reports it alike
+        if (!functionMap.containsKey("main"))
+            throwRuntimeException(List.of(), "Undefined reference to function 'main'");
+
+        try {
+            if (engine == Engine.BYTECODE) {
+                IRBytecodeEngine bytecodeEngine = new IRBytecodeEngine(this, getBytecode());
+                bytecodeEngine.setPairProfile(pairProfile);
+                bytecodeEngine.run();
+            }
+            else if (engine == Engine.JIT || engine == Engine.TIERED)
+                runJit();
+            else if (engine == Engine.TREE)
+                runOnLargeStack(new IRTreeEngine(this, program.functions, functionLayoutMap)::run);
+            else
+                runReference();
+        } finally {
+            io.flush();
+        }
+    }
+
+    private void runReference() throws IRException {
+        // Add an entry call to main
+        IRFunctionOperand mainFunctionOperand = new IRFunctionOperand("main", null);
+        IRInstruction entryCall = new IRInstruction(IRInstruction.OpCode.CALL, new IROperand[]{mainFunctionOperand}, -1);
+        ArrayList<IRInstruction> entryInstList = new ArrayList<>();
+        entryInstList.add(entryCall);
+        pc = new ProgramCounter();
+        pc.set(entryInstList, new int[][]{{-1}}, 0);
+
+        StackFrame entrySF = stack.push();
+
+        // Do not count the entry call
+        stats.add(IRInstruction.OpCode.CALL, -1);
+
+        while (true) {
+            IRInstruction instruction = pc.next();
+            if (profiler != null)
+                profiler.instruction(instruction, pc.getNextIdx() - 1);
+            executeInstruction(instruction, pc.currentSlots());
+
+            if (!pc.hasNext()) {
+                // Return from a procedure
+                StackFrame sf = stack.peek();
+                if (sf.function.returnType != null)
+                    throwRuntimeException(
+                            sf.function.instructions.get(sf.function.instructions.size() - 1),
+                            "Missing return for a function with return value");
+                if (profiler != null)
+                    profiler.exit();
+                countTailCalls(sf);
+                stack.pop();
+                if (stack.peek() == entrySF) // Exit main
+                    break;
+                IRFunction caller = sf.caller;
+
+                pc.set(sf.callerLayout, sf.returnInstIdx);
+                currentLabelMap = functionLabelMap.get(caller);
+            }
+        }
+    }
+
+    private void runJit() throws IRException {
+        IRBytecodeEngine bytecodeEngine;
+        if (engine == Engine.TIERED) {
+            bytecodeEngine = new IRBytecodeEngine(this, getTieredBytecode());
+            bytecodeEngine.setTiered();
+        } else {
+            bytecodeEngine = new IRBytecodeEngine(this, getBytecode());
+            bytecodeEngine.setJit(new IRJitRuntime(this, getJit()));
+        }
+        runOnLargeStack(bytecodeEngine::run);
+    }
+
+    private interface EngineRun {
+        void run() throws IRException;
+    }
+
+    // Engines that recurse on the JVM stack run on a thread with a stack as deep as the
+    // interpreters' heap-allocated one
+    private void runOnLargeStack(EngineRun engineRun) throws IRException {
+        FutureTask<Void> task = new FutureTask<>(() -> {
+            engineRun.run();
+            return null;
+        });
+        Thread thread = new Thread(null, task, "ir-" + engine.name().toLowerCase(), LARGE_STACK_SIZE);
+        thread.start();
+        try {
+            task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IRException)
+                throw (IRException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private IRJitCompiler getJit() {
+        synchronized (compiledCode) {
+            if (compiledCode.jit == null) {
+                IRJitCompiler jit = new IRJitCompiler(program.functions, functionLayoutMap);
+                jit.compile();
+                compiledCode.jit = jit;
+            }
+            return compiledCode.jit;
+        }
+    }
+
+    private IRBytecode[] getBytecode() throws IRException {
+        synchronized (compiledCode) {
+            if (compiledCode.bytecode == null)
+                compiledCode.bytecode = compileBytecode(false);
+            return compiledCode.bytecode;
+        }
+    }
+
+    private IRBytecode[] getTieredBytecode() throws IRException {
+        synchronized (compiledCode) {
+            if (compiledCode.tieredBytecode == null)
+                compiledCode.tieredBytecode = compileBytecode(true);
+            return compiledCode.tieredBytecode;
+        }
+    }
+
+    private IRBytecode[] compileBytecode(boolean loopMarkers) throws IRException {
+        IRBytecodeCompiler compiler = new IRBytecodeCompiler(program.functions, functionLayoutMap);
+        compiler.setLoopMarkers(loopMarkers);
+        IRBytecode[] compiled = compiler.compileAll(program.functions);
+        for (IRBytecode function : compiled) {
+            IRBytecodeQuickener.quicken(function);
+            IRBytecodeFuser.fuse(function);
+        }
+        return compiled;
+    }
+
+    public Stats getStats() {
+        return stats;
+    }
+
+    private int getIntConstVal(IROperand constOperand) {
+        return Integer.parseInt(((IRConstantOperand) constOperand).getValueString());
+    }
+
+    private float getFloatConstVal(IROperand constOperand) {
+        return Float.parseFloat(((IRConstantOperand) constOperand).getValueString());
+    }
+
+    private int getIntVal(IROperand operand, int slot, StackFrame sf) {
+        if (slot >= 0)
+            return sf.ints[slot];
+        return getIntConstVal(operand);
+    }
+
+    private float getFloatVal(IROperand operand, int slot, StackFrame sf) {
+        if (slot >= 0)
+            return sf.floats[slot];
+        return getFloatConstVal(operand);
+    }
+
+    private static IRType getDataType(IROperand operand) {
+        if (operand instanceof IRVariableOperand)
+            return ((IRVariableOperand) operand).type;
+        return ((IRConstantOperand) operand).type;
+    }
+
+    private int intBinaryOperation(IRInstruction.OpCode opCode, int iy, int iz) {
+        switch (opCode) {
+            case ADD:
+                return iy + iz;
+            case SUB:
+                return iy - iz;
+            case MULT:
+                return iy * iz;
+            case DIV:
+                return iy / iz;
+            case AND:
+                return iy & iz;
+            case OR:
+                return iy | iz;
+            default:
+                assert false;
+        }
+        return 0;
+    }
+
+    private float floatBinaryOperation(IRInstruction.OpCode opCode, float fy, float fz) {
+        switch (opCode) {
+            case ADD:
+                return fy + fz;
+            case SUB:
+                return fy - fz;
+            case MULT:
+                return fy * fz;
+            case DIV:
+                return fy / fz;
+            default:
+                assert false;
+        }
+        return 0;
+    }
+
+    private boolean intComparison(IRInstruction.OpCode opCode, int iy, int iz) {
+        switch (opCode) {
+            case BREQ:
+                return iy == iz;
+            case BRNEQ:
+                return iy != iz;
+            case BRLT:
+                return iy < iz;
+            case BRGT:
+                return iy > iz;
+            case BRGEQ:
+                return iy >= iz;
+            default:
+                assert false;
+        }
+        return false;
+    }
+
+    private boolean floatComparison(IRInstruction.OpCode opCode, float fy, float fz) {
+        switch (opCode) {
+            case BREQ:
+                return fy == fz;
+            case BRNEQ:
+                return fy != fz;
+            case BRLT:
+                return fy < fz;
+            case BRGT:
+                return fy > fz;
+            case BRGEQ:
+                return fy >= fz;
+            default:
+                assert false;
+        }
+        return false;
+    }
+
+    private void executeInstruction(IRInstruction instruction, int[] slots) throws IRException {
+        stats.update(instruction);
+
+        StackFrame sf = stack.peek();
+        IROperand[] operands = instruction.operands;
+        switch (instruction.opCode) {
+            case ASSIGN: {
+                if (operands.length > 2) { // Array assignment
+                    int assignSize = getIntVal(operands[1], slots[1], sf);
+                    if (assignSize < 0 || assignSize > sf.layout.arraySizes[slots[0]])
+                        throwRuntimeException(instruction, "Out-of-bounds array access");
+                    if (getDataType(operands[2]) == IRIntType.get())
+                        Arrays.fill(intArray(sf, slots[0]), 0, assignSize, getIntVal(operands[2], slots[2], sf));
+                    else
+                        Arrays.fill(floatArray(sf, slots[0]), 0, assignSize, getFloatVal(operands[2], slots[2], sf));
+                } else {
+                    IRVariableOperand dest = (IRVariableOperand) operands[0];
+                    if (dest.type == IRIntType.get())
+                        sf.ints[slots[0]] = getIntVal(operands[1], slots[1], sf);
+                    else
+                        sf.floats[slots[0]] = getFloatVal(operands[1], slots[1], sf);
+                }
+                break;
+            }
+            case ADD:
+            case SUB:
+            case MULT:
+            case DIV:
+            case AND:
+            case OR: {
+                IRVariableOperand dest = (IRVariableOperand) operands[0];
+                if (dest.type == IRIntType.get()) {
+                    int y = getIntVal(operands[1], slots[1], sf);
+                    int z = getIntVal(operands[2], slots[2], sf);
+                    sf.ints[slots[0]] = intBinaryOperation(instruction.opCode, y, z);
+                } else {
+                    float y = getFloatVal(operands[1], slots[1], sf);
+                    float z = getFloatVal(operands[2], slots[2], sf);
+                    sf.floats[slots[0]] = floatBinaryOperation(instruction.opCode, y, z);
+                }
+                break;
+            }
+            case GOTO: {
+                int targetIdx = currentLabelMap.get(((IRLabelOperand) operands[0]).getName());
+                pc.setNextIdx(targetIdx);
+                break;
+            }
+            case BREQ:
+            case BRNEQ:
+            case BRLT:
+            case BRGT:
+            case BRGEQ: {
+                int targetIdx = currentLabelMap.get(((IRLabelOperand) operands[0]).getName());
+                boolean result;
+                if (getDataType(operands[1]) == IRIntType.get()) {
+                    int a = getIntVal(operands[1], slots[1], sf);
+                    int b = getIntVal(operands[2], slots[2], sf);
+                    result = intComparison(instruction.opCode, a, b);
+                } else {
+                    float a = getFloatVal(operands[1], slots[1], sf);
+                    float b = getFloatVal(operands[2], slots[2], sf);
+                    result = floatComparison(instruction.opCode, a, b);
+                }
+                if (profiler != null)
+                    profiler.branch(result);
+                if (result)
+                    pc.setNextIdx(targetIdx);
+                break;
+            }
+            case RETURN: {
+                IRFunction caller = sf.caller;
+                assert sf.retSlot >= 0;
+                if (profiler != null)
+                    profiler.exit();
+                countTailCalls(sf);
+                int intResult = 0;
+                float floatResult = 0;
+                if (sf.function.returnType == IRIntType.get())
+                    intResult = getIntVal(operands[0], slots[0], sf);
+                else
+                    floatResult = getFloatVal(operands[0], slots[0], sf);
+                if (memoizer != null)
+                    memoizer.exit(stack.size(), intResult, floatResult, stats);
+                stack.pop();
+                StackFrame callerSF = stack.peek();
+                if (sf.function.returnType == IRIntType.get())
+                    callerSF.ints[sf.retSlot] = intResult;
+                else
+                    callerSF.floats[sf.retSlot] = floatResult;
+                pc.set(sf.callerLayout, sf.returnInstIdx);
+                currentLabelMap = functionLabelMap.get(caller);
+                break;
+            }
+            case CALL: {
+                String calleeName = ((IRFunctionOperand) operands[0]).getName();
+                IRFunction callee = functionMap.get(calleeName);
+                if (callee != null)
+                    executeCall(instruction, slots, 1, -1, callee);
+                else
+                    handleIntrinsicFunction(instruction, slots, 1, calleeName);
+                break;
+            }
+            case CALLR: {
+                String calleeName = ((IRFunctionOperand) operands[1]).getName();
+                IRFunction callee = functionMap.get(calleeName);
+                if (callee != null)
+                    executeCall(instruction, slots, 2, slots[0], callee);
+                else
+                    handleIntrinsicFunction(instruction, slots, 2, calleeName);
+                break;
+            }
+            case ARRAY_STORE: {
+                int offset = getIntVal(operands[2], slots[2], sf);
+                if (offset < 0 || offset >= sf.layout.arraySizes[slots[1]])
+                    throwRuntimeException(instruction, "Out-of-bounds array access");
+                if (getDataType(operands[0]) == IRIntType.get())
+                    intArray(sf, slots[1])[offset] = getIntVal(operands[0], slots[0], sf);
+                else
+                    floatArray(sf, slots[1])[offset] = getFloatVal(operands[0], slots[0], sf);
+                break;
+            }
+            case ARRAY_LOAD: {
+                IRVariableOperand dest = (IRVariableOperand) operands[0];
+                int offset = getIntVal(operands[2], slots[2], sf);
+                if (offset < 0 || offset >= sf.layout.arraySizes[slots[1]])
+                    throwRuntimeException(instruction, "Out-of-bounds array access");
+                if (dest.type == IRIntType.get())
+                    sf.ints[slots[0]] = intArray(sf, slots[1])[offset];
+                else
+                    sf.floats[slots[0]] = floatArray(sf, slots[1])[offset];
+                break;
+            }
+            case LABEL:
+                break;
+            default:
+                assert false;
+        }
+    }
+
+    private void executeCall(IRInstruction callInst, int[] slots, int argIdx, int retSlot, IRFunction function)
+            throws IRException {
+        StackFrame sf = stack.peek();
+        IRFrameLayout layout = functionLayoutMap.get(function);
+        if (layout == null)
+            layout = materialize(function);
+        // The entry call to main is made from a frame without a function
+        int tailCallLabels = sf.function == null ? -1 : functionTailCallMap.get(sf.function)[pc.getNextIdx() - 1];
+        if (tailCallLabels >= 0 && profiler == null
+                && (memoizer == null || !memoizer.isMemoized(sf.function) && !memoizer.isMemoized(function))) {
+            sf.addTailCallSite(sf.function, callInst.irLineNumber);
+            executeTailCall(callInst, slots, argIdx, function, layout);
+            sf.tailCallLabels += tailCallLabels;
+            if (callInst.opCode == IRInstruction.OpCode.CALLR)
+                sf.tailCallReturns++;
+            return;
+        }
+
+        StackFrame calleeSF = stack.push();
+        calleeSF.caller = sf.function;
+        calleeSF.callerLayout = sf.layout;
+        calleeSF.callLineNumber = callInst.irLineNumber;
+        calleeSF.returnInstIdx = pc.getNextIdx();
+        calleeSF.retSlot = retSlot;
+        calleeSF.function = function;
+        calleeSF.tailCallLabels = 0;
+        calleeSF.tailCallReturns = 0;
+        calleeSF.tailCallSites = 0;
+        allocateFrame(calleeSF, layout);
+
+        // Copy the arguments straight into the parameter slots
+        IROperand[] operands = callInst.operands;
+        for (int i = 0; i < layout.paramSlots.length; i++) {
+            IROperand arg = operands[argIdx + i];
+            int argSlot = slots[argIdx + i];
+            int slot = layout.paramSlots[i];
+            IRType type = getDataType(arg);
+            if (type instanceof IRArrayType)
+                calleeSF.arrays[slot] = array(sf, argSlot);
+            else if (type == IRIntType.get())
+                calleeSF.ints[slot] = getIntVal(arg, argSlot, sf);
+            else
+                calleeSF.floats[slot] = getFloatVal(arg, argSlot, sf);
+        }
+
+        if (memoizer != null && memoizer.isMemoized(function)
+                && memoizer.lookup(function, calleeSF, stack.size(), stats)) {
+            // Answered from the memoization table without executing the function
+            stack.pop();
+            if (retSlot >= 0) {
+                if (function.returnType == IRIntType.get())
+                    sf.ints[retSlot] = memoizer.getIntResult();
+                else
+                    sf.floats[retSlot] = memoizer.getFloatResult();
+            }
+            return;
+        }
+        if (profiler != null)
+            profiler.enter(function);
+
+        pc.set(layout, 0);
+        currentLabelMap = functionLabelMap.get(function);
+    }
+
+    // A tail call reuses the caller's frame, which keeps its return information. Tail calls
+    // are not made while profiling, which needs every call, or for memoized functions, whose
+    // results are stored by their own frames.
+    private void executeTailCall(IRInstruction callInst, int[] slots, int argIdx, IRFunction function,
+                                 IRFrameLayout layout) {
+        StackFrame sf = stack.peek();
+        int paramCount = layout.paramSlots.length;
+        if (tailCallInts.length < paramCount) {
+            tailCallInts = new int[paramCount];
+            tailCallFloats = new float[paramCount];
+            tailCallArrays = new Object[paramCount];
+        }
+
+        // The arguments are read before the frame is cleared for the callee
+        IROperand[] operands = callInst.operands;
+        for (int i = 0; i < paramCount; i++) {
+            IROperand arg = operands[argIdx + i];
+            int argSlot = slots[argIdx + i];
+            IRType type = getDataType(arg);
+            if (type instanceof IRArrayType)
+                tailCallArrays[i] = array(sf, argSlot);
+            else if (type == IRIntType.get())
+                tailCallInts[i] = getIntVal(arg, argSlot, sf);
+            else
+                tailCallFloats[i] = getFloatVal(arg, argSlot, sf);
+        }
+
+        sf.function = function;
+        allocateFrame(sf, layout);
+        for (int i = 0; i < paramCount; i++) {
+            int slot = layout.paramSlots[i];
+            IRType type = function.parameters.get(i).type;
+            if (type instanceof IRArrayType) {
+                sf.arrays[slot] = tailCallArrays[i];
+                tailCallArrays[i] = null;
+            } else if (type == IRIntType.get()) {
+                sf.ints[slot] = tailCallInts[i];
+            } else {
+                sf.floats[slot] = tailCallFloats[i];
+            }
+        }
+
+        pc.set(layout, 0);
+        currentLabelMap = functionLabelMap.get(function);
+    }
+
+    // Counts the instructions that the tail calls made from a returning frame skipped
+    private void countTailCalls(StackFrame sf) {
+        if (sf.tailCallLabels != 0)
+            stats.add(IRInstruction.OpCode.LABEL, sf.tailCallLabels);
+        if (sf.tailCallReturns != 0)
+            stats.add(IRInstruction.OpCode.RETURN, sf.tailCallReturns);
+    }
+
+    // Sets up a frame pushed onto the call stack for a function with the given layout. The
+    // frame's banks are reused when they are large enough, with the used part cleared.
+    void allocateFrame(StackFrame sf, IRFrameLayout layout) {
+        sf.layout = layout;
+        if (sf.ints == null || sf.ints.length < layout.intCount)
+            sf.ints = new int[layout.intCount];
+        else
+            Arrays.fill(sf.ints, 0, layout.intCount, 0);
+        if (sf.floats == null || sf.floats.length < layout.floatCount)
+            sf.floats = new float[layout.floatCount];
+        else
+            Arrays.fill(sf.floats, 0, layout.floatCount, 0);
+        if (sf.arrays == null || sf.arrays.length < layout.arrayCount) {
+            sf.arrays = new Object[layout.arrayCount];
+            sf.ownArrays = new Object[layout.arrayCount];
+        } else {
+            Arrays.fill(sf.arrays, 0, layout.arrayCount, null);
+        }
+    }
+
+    // Local arrays are only set up on first use, so functions that declare arrays they never
+    // touch do not pay for them. An array left behind by an earlier call at the same depth is
+    // reused and cleared here; it cannot still be in use since arrays only live as long as
+    // the frame that declares them.
+    static Object array(StackFrame sf, int slot) {
+        Object arr = sf.arrays[slot];
+        if (arr == null) {
+            if (sf.layout.arrayElementTypes[slot] == IRIntType.get())
+                arr = newIntArray(sf, slot);
+            else
+                arr = newFloatArray(sf, slot);
+        }
+        return arr;
+    }
+
+    static int[] intArray(StackFrame sf, int slot) {
+        int[] arr = (int[]) sf.arrays[slot];
+        if (arr == null)
+            arr = newIntArray(sf, slot);
+        return arr;
+    }
+
+    static float[] floatArray(StackFrame sf, int slot) {
+        float[] arr = (float[]) sf.arrays[slot];
+        if (arr == null)
+            arr = newFloatArray(sf, slot);
+        return arr;
+    }
+
+    private static int[] newIntArray(StackFrame sf, int slot) {
+        int size = sf.layout.arraySizes[slot];
+        int[] arr;
+        if (sf.ownArrays[slot] instanceof int[] && ((int[]) sf.ownArrays[slot]).length == size) {
+            arr = (int[]) sf.ownArrays[slot];
+            Arrays.fill(arr, 0);
+        } else {
+            sf.ownArrays[slot] = arr = new int[size];
+        }
+        sf.arrays[slot] = arr;
+        return arr;
+    }
+
+    private static float[] newFloatArray(StackFrame sf, int slot) {
+        int size = sf.layout.arraySizes[slot];
+        float[] arr;
+        if (sf.ownArrays[slot] instanceof float[] && ((float[]) sf.ownArrays[slot]).length == size) {
+            arr = (float[]) sf.ownArrays[slot];
+            Arrays.fill(arr, 0);
+        } else {
+            sf.ownArrays[slot] = arr = new float[size];
+        }
+        sf.arrays[slot] = arr;
+        return arr;
+    }
+
+    private void handleIntrinsicFunction(IRInstruction callInst, int[] slots, int argIdx,
+                                         String functionName) throws IRException {
+        StackFrame sf = stack.peek();
+        IROperand[] operands = callInst.operands;
+        switch (functionName) {
+            case "geti":
+                sf.ints[slots[0]] = geti();
+                break;
+            case "getf":
+                sf.floats[slots[0]] = getf();
+                break;
+            case "getc":
+                sf.ints[slots[0]] = getc();
+                break;
+            case "puti":
+                puti(getIntVal(operands[argIdx], slots[argIdx], sf));
+                break;
+            case "putf":
+                putf(getFloatVal(operands[argIdx], slots[argIdx], sf));
+                break;
+            case "putc":
+                putc(getIntVal(operands[argIdx], slots[argIdx], sf));
+                break;
+            default:
+                throwRuntimeException(callInst, String.format("Undefined reference to function '%s'", functionName));
+        }
+    }
+
+    // Intrinsic functions, shared by all execution engines
+
+    int geti() {
+        return io.readInt();
+    }
+
+    float getf() {
+        return io.readFloat();
+    }
+
+    int getc() {
+        return io.readChar();
+    }
+
+    void puti(int i) {
+        io.writeInt(i);
+    }
+
+    void putf(float f) {
+        io.writeFloat(f);
+    }
+
+    void putc(int c) {
+        io.writeChar(c);
+    }
+
+    private void throwRuntimeException(IRInstruction instruction, String message) throws IRException {
+        throwRuntimeException(instruction.irLineNumber, message);
+    }
+
+    void throwRuntimeException(int irLineNumber, String message) throws IRException {
+        throwRuntimeException(List.of(stack.peek().function.name + ":" + irLineNumber), message);
+    }
+
+    // innerFrames are the function:line entries above the call recorded by the top stack
+    // frame, innermost first, such as the frames of compiled code
+    void throwRuntimeException(List<String> innerFrames, String message) throws IRException {
+        // Keep the program's output ahead of the error
+        io.flush();
+        PrintStream err = this.err != null ? this.err : System.err;
+        err.println("IR interpreter runtime exception: " + message);
+        err.println("Stack trace:");
+        for (String frame : innerFrames)
+            err.println("\t" + frame);
+        for (int depth = stack.size() - 1; depth >= 0; depth--) {
+            StackFrame sf = stack.get(depth);
+            printTailCallSites(err, sf, 0, sf.tailCallSites);
+            if (sf.caller == null)
+                break;
+            err.println("\t" + sf.caller.name + ":" + sf.callLineNumber);
+        }
+        throw new IRException();
+    }
+
+    // Prints the tail call sites in the entries [from, to) of the frame, innermost first
+    private static void printTailCallSites(PrintStream err, StackFrame sf, int from, int to) {
+        int site = to - 1;
+        while (site >= from) {
+            int period = sf.tailCallPeriods[site];
+            for (long i = 0; i < sf.tailCallRepeats[site]; i++) {
+                if (period == 0)
+                    err.println("\t" + sf.tailCallFunctions[site].name + ":" + sf.tailCallLineNumbers[site]);
+                else
+                    printTailCallSites(err, sf, site - period, site);
+            }
+            site -= period + 1;
+        }
+    }
+}
@@ -0,0 +1,788 @@
+import ir.*;
+import ir.datatype.IRArrayType;
+import ir.datatype.IRIntType;
+import ir.datatype.IRType;
+import ir.operand.*;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.*;
+
+/**
+ * Compiles IRFunctions into static methods of a hidden JVM class, so that HotSpot optimizes
+ * IR programs like any other Java code.
+ *
+ * IR variables become JVM locals (arrays become int[] or float[] locals), intrinsics become
+ * calls into IRJitRuntime and calls between compiled functions become invokestatic. A
+ * function is only compiled if all of its callees are; the others keep running in the
+ * bytecode interpreter, which enters compiled functions through IRJitRuntime.invoke. Functions
+ * with loops also get an on-stack replacement entry, through which an interpreted frame
+ * continues in compiled code at a loop header (IRJitRuntime.osr).
+ *
+ * Instructions are counted per basic block: every block bumps its counter in
+ * IRJitRuntime.blockCounts when entered, and the counters are expanded into the interpreter
+ * stats afterwards. Runtime errors throw an IRJitRuntime.Trap, to which the exception handler
+ * of every call site it unwinds through adds the caller's function:line.
+ */
+public class IRJitCompiler {
+
+    private static final String CLASS_NAME = "IRJitCode";
+    private static final String RUNTIME = "IRJitRuntime";
+    private static final String TRAP = "IRJitRuntime$Trap";
+    private static final String FRAME = "IRInterpreter$StackFrame";
+
+    private static final String INVOKE_DESCRIPTOR = "(L" + RUNTIME + ";IL" + FRAME + ";)V";
+    private static final String OSR_DESCRIPTOR = "(L" + RUNTIME + ";IIL" + FRAME + ";)V";
+
+    private static final int STATIC = IRClassWriter.ACC_PUBLIC | IRClassWriter.ACC_STATIC;
+
+    private final List<IRFunction> functions;
+
+    private final Map<IRFunction, IRFrameLayout> layouts;
+
+    private final Map<String, Integer> functionIndices;
+
+    // Which functions of the program were compiled
+    public boolean[] compiled;
+
+    // IR opcodes of the instructions of every basic block, indexed like IRJitRuntime.blockCounts
+    public IRInstruction.OpCode[][] blockOpCodes;
+
+    // Number of array accesses of every basic block whose bounds check was left out, since
+    // IRRangeAnalysis proved them in bounds
+    public int[] blockEliminatedChecks;
+
+    // IRJitCode.invoke(IRJitRuntime, int function, StackFrame)
+    public MethodHandle invoker;
+
+    // IRJitCode.osr(IRJitRuntime, int function, int loop, StackFrame)
+    public MethodHandle osrInvoker;
+
+    public IRJitCompiler(List<IRFunction> functions, Map<IRFunction, IRFrameLayout> layouts) {
+        this.functions = functions;
+        this.layouts = layouts;
+        functionIndices = new HashMap<>();
+        for (int i = 0; i < functions.size(); i++)
+            functionIndices.put(functions.get(i).name, i);
+    }
+
+    // Compiles every function that can be compiled
+    public void compile() {
+        boolean[] roots = new boolean[functions.size()];
+        Arrays.fill(roots, true);
+        compile(roots);
+    }
+
+    // Compiles the given functions and the functions they call, as far as they can be compiled
+    public void compile(boolean[] roots) {
+        compiled = new boolean[functions.size()];
+        Deque<Integer> work = new ArrayDeque<>();
+        for (int i = 0; i < roots.length; i++)
+            if (roots[i])
+                work.push(i);
+        while (!work.isEmpty()) {
+            int i = work.pop();
+            if (compiled[i])
+                continue;
+            compiled[i] = true;
+            for (IRInstruction instruction : functions.get(i).instructions) {
+                if (instruction.opCode != IRInstruction.OpCode.CALL && instruction.opCode != IRInstruction.OpCode.CALLR)
+                    continue;
+                Integer callee = functionIndices.get(calleeName(instruction));
+                if (callee != null)
+                    work.push(callee);
+            }
+        }
+        for (int i = 0; i < compiled.length; i++)
+            compiled[i] = compiled[i] && isSupported(functions.get(i));
+        excludeUncompiledCallers();
+
+        // A function whose method turns out too large for the JVM is left to the interpreter,
+        // together with its callers
+        while (true) {
+            IRClassWriter writer = new IRClassWriter(CLASS_NAME);
+            List<IRInstruction.OpCode[]> blocks = new ArrayList<>();
+            List<Integer> eliminatedChecks = new ArrayList<>();
+            int failed = -1;
+            for (int i = 0; i < compiled.length && failed == -1; i++) {
+                if (!compiled[i])
+                    continue;
+                try {
+                    IRFunction function = functions.get(i);
+                    boolean[] safeAccesses = IRRangeAnalysis.findSafeArrayAccesses(function);
+                    new MethodCompiler(writer, function, blocks, eliminatedChecks, safeAccesses, null).compile();
+                    List<String> loops = IRBytecodeCompiler.findLoopHeaders(function);
+                    if (!loops.isEmpty())
+                        new MethodCompiler(writer, function, blocks, eliminatedChecks, safeAccesses, loops).compile();
+                } catch (IllegalStateException e) {
+                    failed = i;
+                }
+            }
+            if (failed != -1) {
+                compiled[failed] = false;
+                excludeUncompiledCallers();
+                continue;
+            }
+
+            writeInvoke(writer);
+            writeOsr(writer);
+            blockOpCodes = blocks.toArray(new IRInstruction.OpCode[0][]);
+            blockEliminatedChecks = new int[eliminatedChecks.size()];
+            for (int i = 0; i < blockEliminatedChecks.length; i++)
+                blockEliminatedChecks[i] = eliminatedChecks.get(i);
+            try {
+                MethodHandles.Lookup lookup = MethodHandles.lookup()
+                        .defineHiddenClass(writer.toByteArray(), true);
+                ClassLoader loader = IRJitCompiler.class.getClassLoader();
+                invoker = lookup.findStatic(lookup.lookupClass(), "invoke",
+                        MethodType.fromMethodDescriptorString(INVOKE_DESCRIPTOR, loader));
+                osrInvoker = lookup.findStatic(lookup.lookupClass(), "osr",
+                        MethodType.fromMethodDescriptorString(OSR_DESCRIPTOR, loader));
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException(e);
+            }
+            return;
+        }
+    }
+
+    private boolean isSupported(IRFunction function) {
+        for (IRInstruction instruction : function.instructions) {
+            if (instruction.opCode != IRInstruction.OpCode.CALL && instruction.opCode != IRInstruction.OpCode.CALLR)
+                continue;
+            String callee = calleeName(instruction);
+            if (!functionIndices.containsKey(callee) && !isIntrinsic(callee))
+                return false;
+        }
+        return true;
+    }
+
+    private void excludeUncompiledCallers() {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 0; i < compiled.length; i++) {
+                if (!compiled[i])
+                    continue;
+                for (IRInstruction instruction : functions.get(i).instructions) {
+                    if (instruction.opCode != IRInstruction.OpCode.CALL && instruction.opCode != IRInstruction.OpCode.CALLR)
+                        continue;
+                    Integer callee = functionIndices.get(calleeName(instruction));
+                    if (callee != null && !compiled[callee]) {
+                        compiled[i] = false;
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    private static String calleeName(IRInstruction instruction) {
+        int idx = instruction.opCode == IRInstruction.OpCode.CALL ? 0 : 1;
+        return ((IRFunctionOperand) instruction.operands[idx]).getName();
+    }
+
+    private static boolean isIntrinsic(String name) {
+        switch (name) {
+            case "geti":
+            case "getf":
+            case "getc":
+            case "puti":
+            case "putf":
+            case "putc":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static String methodName(IRFunction function) {
+        return "f_" + function.name;
+    }
+
+    private static String descriptor(IRType type) {
+        if (type == null)
+            return "V";
+        if (type instanceof IRArrayType)
+            return "[" + descriptor(((IRArrayType) type).getElementType());
+        return type == IRIntType.get() ? "I" : "F";
+    }
+
+    private static String osrMethodName(IRFunction function) {
+        return "o_" + function.name;
+    }
+
+    private static String methodDescriptor(IRFunction function) {
+        StringBuilder sb = new StringBuilder("(L" + RUNTIME + ";");
+        for (IRVariableOperand param : function.parameters)
+            sb.append(descriptor(param.type));
+        return sb.append(")").append(descriptor(function.returnType)).toString();
+    }
+
+    // invoke(rt, function, sf): calls the compiled function with the given index on the
+    // parameters stored in sf, and stores its result in rt.intResult or rt.floatResult
+    private void writeInvoke(IRClassWriter writer) {
+        IRClassWriter.MethodWriter mw = writer.method(STATIC, "invoke", INVOKE_DESCRIPTOR, 3);
+        int maxParams = 0;
+        IRClassWriter.Label done = new IRClassWriter.Label();
+        IRClassWriter.Label[] targets = new IRClassWriter.Label[functions.size()];
+        for (int i = 0; i < targets.length; i++)
+            targets[i] = compiled[i] ? new IRClassWriter.Label() : done;
+
+        mw.local(IRClassWriter.ILOAD, 1);
+        mw.tableSwitch(0, done, targets);
+        for (int i = 0; i < targets.length; i++) {
+            if (!compiled[i])
+                continue;
+            IRFunction function = functions.get(i);
+            IRFrameLayout layout = layouts.get(function);
+            maxParams = Math.max(maxParams, function.parameters.size());
+            mw.mark(targets[i]);
+            if (function.returnType != null)
+                mw.local(IRClassWriter.ALOAD, 0);
+            mw.local(IRClassWriter.ALOAD, 0);
+            for (int p = 0; p < layout.paramSlots.length; p++) {
+                IRType type = function.parameters.get(p).type;
+                mw.local(IRClassWriter.ALOAD, 2);
+                if (type instanceof IRArrayType) {
+                    mw.field(IRClassWriter.GETFIELD, FRAME, "arrays", "[Ljava/lang/Object;");
+                    mw.iconst(layout.paramSlots[p]);
+                    mw.op(IRClassWriter.AALOAD);
+                    mw.typeOp(IRClassWriter.CHECKCAST, descriptor(type));
+                } else if (type == IRIntType.get()) {
+                    mw.field(IRClassWriter.GETFIELD, FRAME, "ints", "[I");
+                    mw.iconst(layout.paramSlots[p]);
+                    mw.op(IRClassWriter.IALOAD);
+                } else {
+                    mw.field(IRClassWriter.GETFIELD, FRAME, "floats", "[F");
+                    mw.iconst(layout.paramSlots[p]);
+                    mw.op(IRClassWriter.FALOAD);
+                }
+            }
+            mw.invoke(IRClassWriter.INVOKESTATIC, CLASS_NAME, methodName(function), methodDescriptor(function));
+            if (function.returnType == IRIntType.get())
+                mw.field(IRClassWriter.PUTFIELD, RUNTIME, "intResult", "I");
+            else if (function.returnType != null)
+                mw.field(IRClassWriter.PUTFIELD, RUNTIME, "floatResult", "F");
+            mw.op(IRClassWriter.RETURN);
+        }
+        mw.mark(done);
+        mw.op(IRClassWriter.RETURN);
+        mw.setMaxStack(maxParams + 4);
+        mw.end();
+    }
+
+    // osr(rt, function, loop, sf): continues the function with the given index at the header of
+    // the given loop, with the variables stored in sf. The result is stored in rt.
+    private void writeOsr(IRClassWriter writer) {
+        IRClassWriter.MethodWriter mw = writer.method(STATIC, "osr", OSR_DESCRIPTOR, 4);
+        IRClassWriter.Label done = new IRClassWriter.Label();
+        IRClassWriter.Label[] targets = new IRClassWriter.Label[functions.size()];
+        for (int i = 0; i < targets.length; i++) {
+            boolean hasLoops = compiled[i] && !IRBytecodeCompiler.findLoopHeaders(functions.get(i)).isEmpty();
+            targets[i] = hasLoops ? new IRClassWriter.Label() : done;
+        }
+
+        mw.local(IRClassWriter.ILOAD, 1);
+        mw.tableSwitch(0, done, targets);
+        for (int i = 0; i < targets.length; i++) {
+            if (targets[i] == done)
+                continue;
+            mw.mark(targets[i]);
+            mw.local(IRClassWriter.ALOAD, 0);
+            mw.local(IRClassWriter.ILOAD, 2);
+            mw.local(IRClassWriter.ALOAD, 3);
+            mw.invoke(IRClassWriter.INVOKESTATIC, CLASS_NAME, osrMethodName(functions.get(i)), INVOKE_DESCRIPTOR);
+            mw.op(IRClassWriter.RETURN);
+        }
+        mw.mark(done);
+        mw.op(IRClassWriter.RETURN);
+        mw.setMaxStack(3);
+        mw.end();
+    }
+
+    /**
+     * Translates a single IRFunction into a static method.
+     *
+     * With osrLoops, the method is instead an on-stack replacement entry (rt, loop, sf) that
+     * loads the variables from an interpreter frame, jumps to the header of the given loop and
+     * stores its result in rt.
+     */
+    private class MethodCompiler {
+
+        private final IRClassWriter.MethodWriter mw;
+        private final IRFunction function;
+        private final List<IRInstruction.OpCode[]> blocks;
+        private final List<Integer> eliminatedChecks;
+        // By instruction index, the array accesses that need no bounds check
+        private final boolean[] safeAccesses;
+        private final List<String> osrLoops;
+
+        // Local of each variable by IRSymbol.id
+        private final int[] locals;
+        private final Map<String, IRClassWriter.Label> labels = new HashMap<>();
+        private int countsLocal;
+
+        // Call sites: {start, end, handler} labels and the site added to passing traps
+        private final List<IRClassWriter.Label[]> callSites = new ArrayList<>();
+        private final List<String> callSiteNames = new ArrayList<>();
+
+        MethodCompiler(IRClassWriter writer, IRFunction function, List<IRInstruction.OpCode[]> blocks,
+                       List<Integer> eliminatedChecks, boolean[] safeAccesses, List<String> osrLoops) {
+            this.function = function;
+            this.blocks = blocks;
+            this.eliminatedChecks = eliminatedChecks;
+            this.safeAccesses = safeAccesses;
+            this.osrLoops = osrLoops;
+
+            // Local 0 is the runtime, followed by the parameters (or the loop and the frame of an
+            // OSR entry, then the parameters), the block counters and the remaining variables
+            int next = osrLoops == null ? 1 : 3;
+            IRSymbolTable symbols = function.symbols;
+            locals = new int[symbols.size()];
+            for (IRVariableOperand param : function.parameters)
+                locals[param.symbol.id] = next++;
+            countsLocal = next++;
+            for (int id = function.parameters.size(); id < symbols.size(); id++)
+                locals[id] = next++;
+            if (next > 65535)
+                throw new IllegalStateException("Too many variables in " + function.name);
+            if (osrLoops == null)
+                mw = writer.method(STATIC, methodName(function), methodDescriptor(function), next);
+            else
+                mw = writer.method(STATIC, osrMethodName(function), INVOKE_DESCRIPTOR, next);
+        }
+
+        void compile() {
+            List<IRInstruction> instructions = function.instructions;
+            int maxArgs = 0;
+
+            mw.local(IRClassWriter.ALOAD, 0);
+            mw.field(IRClassWriter.GETFIELD, RUNTIME, "blockCounts", "[J");
+            mw.local(IRClassWriter.ASTORE, countsLocal);
+            for (IRInstruction instruction : instructions)
+                if (instruction.opCode == IRInstruction.OpCode.LABEL)
+                    labels.put(((IRLabelOperand) instruction.operands[0]).getName(), new IRClassWriter.Label());
+
+            if (osrLoops == null) {
+                for (int id = function.parameters.size(); id < function.symbols.size(); id++)
+                    initialize(function.symbols.get(id));
+            } else {
+                loadFrame();
+                IRClassWriter.Label[] targets = new IRClassWriter.Label[osrLoops.size()];
+                for (int i = 0; i < targets.length; i++)
+                    targets[i] = labels.get(osrLoops.get(i));
+                mw.local(IRClassWriter.ILOAD, 1);
+                mw.tableSwitch(0, targets[0], targets);
+            }
+
+            boolean[] leaders = findLeaders(instructions);
+            int blockStart = 0;
+            for (int i = 0; i < instructions.size(); i++) {
+                IRInstruction instruction = instructions.get(i);
+                if (leaders[i]) {
+                    if (i > 0)
+                        addBlock(instructions, blockStart, i);
+                    blockStart = i;
+                    if (instruction.opCode == IRInstruction.OpCode.LABEL)
+                        mw.mark(labels.get(((IRLabelOperand) instruction.operands[0]).getName()));
+                    countBlock(blocks.size());
+                }
+                maxArgs = Math.max(maxArgs, instruction.operands.length);
+                compileInstruction(instruction, safeAccesses[i]);
+            }
+            if (!instructions.isEmpty())
+                addBlock(instructions, blockStart, instructions.size());
+
+            // Falling off the end of the function
+            if (function.returnType != null) {
+                int line = instructions.isEmpty() ? -1 : instructions.get(instructions.size() - 1).irLineNumber;
+                mw.sconst("Missing return for a function with return value");
+                mw.sconst(site(line));
+                mw.invoke(IRClassWriter.INVOKESTATIC, RUNTIME, "trap",
+                        "(Ljava/lang/String;Ljava/lang/String;)L" + TRAP + ";");
+                mw.op(IRClassWriter.ATHROW);
+            } else {
+                mw.op(IRClassWriter.RETURN);
+            }
+
+            for (int i = 0; i < callSites.size(); i++) {
+                IRClassWriter.Label[] callSite = callSites.get(i);
+                mw.mark(callSite[2]);
+                mw.sconst(callSiteNames.get(i));
+                mw.invoke(IRClassWriter.INVOKESTATIC, RUNTIME, "frame",
+                        "(L" + TRAP + ";Ljava/lang/String;)L" + TRAP + ";");
+                mw.op(IRClassWriter.ATHROW);
+                mw.tryCatch(callSite[0], callSite[1], callSite[2], TRAP);
+            }
+
+            mw.setMaxStack(maxArgs + 6);
+            mw.end();
+        }
+
+        // A block starts at the first instruction, at every label and after every jump
+        private boolean[] findLeaders(List<IRInstruction> instructions) {
+            boolean[] leaders = new boolean[instructions.size()];
+            for (int i = 0; i < instructions.size(); i++) {
+                switch (instructions.get(i).opCode) {
+                    case LABEL:
+                        leaders[i] = true;
+                        break;
+                    case GOTO:
+                    case BREQ:
+                    case BRNEQ:
+                    case BRLT:
+                    case BRGT:
+                    case BRGEQ:
+                    case RETURN:
+                        if (i + 1 < leaders.length)
+                            leaders[i + 1] = true;
+                        break;
+                    default:
+                        break;
+                }
+            }
+            if (leaders.length > 0)
+                leaders[0] = true;
+            return leaders;
+        }
+
+        private void addBlock(List<IRInstruction> instructions, int start, int end) {
+            IRInstruction.OpCode[] opCodes = new IRInstruction.OpCode[end - start];
+            int eliminated = 0;
+            for (int i = start; i < end; i++) {
+                opCodes[i - start] = instructions.get(i).opCode;
+                if (safeAccesses[i])
+                    eliminated++;
+            }
+            blocks.add(opCodes);
+            eliminatedChecks.add(eliminated);
+        }
+
+        // counts[block]++
+        private void countBlock(int block) {
+            mw.local(IRClassWriter.ALOAD, countsLocal);
+            mw.iconst(block);
+            mw.op(IRClassWriter.DUP2);
+            mw.op(IRClassWriter.LALOAD);
+            mw.op(IRClassWriter.LCONST_1);
+            mw.op(IRClassWriter.LADD);
+            mw.op(IRClassWriter.LASTORE);
+        }
+
+        // Loads every variable from the interpreter frame in local 2
+        private void loadFrame() {
+            IRFrameLayout layout = layouts.get(function);
+            for (int id = 0; id < function.symbols.size(); id++) {
+                IRSymbol variable = function.symbols.get(id);
+                int slot = layout.slotOf(variable);
+                mw.local(IRClassWriter.ALOAD, 2);
+                if (variable.type instanceof IRArrayType) {
+                    mw.iconst(slot);
+                    mw.invoke(IRClassWriter.INVOKESTATIC, "IRInterpreter", "array",
+                            "(L" + FRAME + ";I)Ljava/lang/Object;");
+                    mw.typeOp(IRClassWriter.CHECKCAST, descriptor(variable.type));
+                    mw.local(IRClassWriter.ASTORE, locals[id]);
+                } else if (variable.type == IRIntType.get()) {
+                    mw.field(IRClassWriter.GETFIELD, FRAME, "ints", "[I");
+                    mw.iconst(slot);
+                    mw.op(IRClassWriter.IALOAD);
+                    mw.local(IRClassWriter.ISTORE, locals[id]);
+                } else {
+                    mw.field(IRClassWriter.GETFIELD, FRAME, "floats", "[F");
+                    mw.iconst(slot);
+                    mw.op(IRClassWriter.FALOAD);
+                    mw.local(IRClassWriter.FSTORE, locals[id]);
+                }
+            }
+        }
+
+        private void initialize(IRSymbol variable) {
+            int local = locals[variable.id];
+            if (variable.type instanceof IRArrayType) {
+                IRArrayType type = (IRArrayType) variable.type;
+                mw.iconst(type.getSize());
+                mw.newArray(type.getElementType() == IRIntType.get() ? IRClassWriter.T_INT : IRClassWriter.T_FLOAT);
+                mw.local(IRClassWriter.ASTORE, local);
+            } else if (variable.type == IRIntType.get()) {
+                mw.iconst(0);
+                mw.local(IRClassWriter.ISTORE, local);
+            } else {
+                mw.fconst(0);
+                mw.local(IRClassWriter.FSTORE, local);
+            }
+        }
+
+        // inBounds tells that the instruction is an array access that needs no bounds check
+        private void compileInstruction(IRInstruction instruction, boolean inBounds) {
+            IROperand[] operands = instruction.operands;
+            switch (instruction.opCode) {
+                case ASSIGN:
+                    if (operands.length > 2) {
+                        IRType elementType = ((IRArrayType) type(operands[0])).getElementType();
+                        loadArray(operands[0]);
+                        mw.iconst(0);
+                        load(operands[1]);
+                        if (!inBounds) {
+                            loadArray(operands[0]);
+                            mw.op(IRClassWriter.ARRAYLENGTH);
+                            mw.sconst(site(instruction.irLineNumber));
+                            mw.invoke(IRClassWriter.INVOKESTATIC, RUNTIME, "checkSize", "(IILjava/lang/String;)I");
+                        }
+                        load(operands[2]);
+                        String fill = elementType == IRIntType.get() ? "([IIII)V" : "([FIIF)V";
+                        mw.invoke(IRClassWriter.INVOKESTATIC, "java/util/Arrays", "fill", fill);
+                    } else {
+                        load(operands[1]);
+                        store(operands[0]);
+                    }
+                    break;
+                case ADD:
+                case SUB:
+                case MULT:
+                case DIV:
+                case AND:
+                case OR:
+                    compileArithmetic(instruction);
+                    break;
+                case GOTO:
+                    mw.jump(IRClassWriter.GOTO, label(operands[0]));
+                    break;
+                case BREQ:
+                case BRNEQ:
+                case BRLT:
+                case BRGT:
+                case BRGEQ:
+                    compileBranch(instruction);
+                    break;
+                case RETURN:
+                    if (osrLoops != null) {
+                        mw.local(IRClassWriter.ALOAD, 0);
+                        load(operands[0]);
+                        if (function.returnType == IRIntType.get())
+                            mw.field(IRClassWriter.PUTFIELD, RUNTIME, "intResult", "I");
+                        else
+                            mw.field(IRClassWriter.PUTFIELD, RUNTIME, "floatResult", "F");
+                        mw.op(IRClassWriter.RETURN);
+                    } else {
+                        load(operands[0]);
+                        mw.op(function.returnType == IRIntType.get() ? IRClassWriter.IRETURN : IRClassWriter.FRETURN);
+                    }
+                    break;
+                case CALL:
+                    compileCall(instruction, null, 1);
+                    break;
+                case CALLR:
+                    compileCall(instruction, operands[0], 2);
+                    break;
+                case ARRAY_STORE:
+                    loadArray(operands[1]);
+                    loadIndex(operands[1], operands[2], instruction, inBounds);
+                    load(operands[0]);
+                    mw.op(type(operands[0]) == IRIntType.get() ? IRClassWriter.IASTORE : IRClassWriter.FASTORE);
+                    break;
+                case ARRAY_LOAD:
+                    loadArray(operands[1]);
+                    loadIndex(operands[1], operands[2], instruction, inBounds);
+                    mw.op(type(operands[0]) == IRIntType.get() ? IRClassWriter.IALOAD : IRClassWriter.FALOAD);
+                    store(operands[0]);
+                    break;
+                case LABEL:
+                    break;
+                default:
+                    throw new IllegalStateException("Cannot compile " + instruction.opCode);
+            }
+        }
+
+        private void compileArithmetic(IRInstruction instruction) {
+            IROperand[] operands = instruction.operands;
+            boolean isInt = type(operands[0]) == IRIntType.get();
+            int opcode;
+            switch (instruction.opCode) {
+                case ADD:
+                    opcode = isInt ? IRClassWriter.IADD : IRClassWriter.FADD;
+                    break;
+                case SUB:
+                    opcode = isInt ? IRClassWriter.ISUB : IRClassWriter.FSUB;
+                    break;
+                case MULT:
+                    opcode = isInt ? IRClassWriter.IMUL : IRClassWriter.FMUL;
+                    break;
+                case DIV:
+                    opcode = isInt ? IRClassWriter.IDIV : IRClassWriter.FDIV;
+                    break;
+                case AND:
+                    opcode = IRClassWriter.IAND;
+                    break;
+                default:
+                    opcode = IRClassWriter.IOR;
+            }
+            if (!isInt && (opcode == IRClassWriter.IAND || opcode == IRClassWriter.IOR)) {
+                // Bitwise operations are not defined on floats; the interpreter yields 0
+                mw.fconst(0);
+            } else {
+                load(operands[1]);
+                load(operands[2]);
+                mw.op(opcode);
+            }
+            store(operands[0]);
+        }
+
+        private void compileBranch(IRInstruction instruction) {
+            IROperand[] operands = instruction.operands;
+            load(operands[1]);
+            load(operands[2]);
+            IRClassWriter.Label target = label(operands[0]);
+            if (type(operands[1]) == IRIntType.get()) {
+                switch (instruction.opCode) {
+                    case BREQ:
+                        mw.jump(IRClassWriter.IF_ICMPEQ, target);
+                        break;
+                    case BRNEQ:
+                        mw.jump(IRClassWriter.IF_ICMPNE, target);
+                        break;
+                    case BRLT:
+                        mw.jump(IRClassWriter.IF_ICMPLT, target);
+                        break;
+                    case BRGT:
+                        mw.jump(IRClassWriter.IF_ICMPGT, target);
+                        break;
+                    default:
+                        mw.jump(IRClassWriter.IF_ICMPGE, target);
+                }
+            } else {
+                // FCMPG yields 1 and FCMPL yields -1 for NaN, so that comparisons with NaN
+                // are false except for !=, as in Java
+                switch (instruction.opCode) {
+                    case BREQ:
+                        mw.op(IRClassWriter.FCMPL);
+                        mw.jump(IRClassWriter.IFEQ, target);
+                        break;
+                    case BRNEQ:
+                        mw.op(IRClassWriter.FCMPL);
+                        mw.jump(IRClassWriter.IFNE, target);
+                        break;
+                    case BRLT:
+                        mw.op(IRClassWriter.FCMPG);
+                        mw.jump(IRClassWriter.IFLT, target);
+                        break;
+                    case BRGT:
+                        mw.op(IRClassWriter.FCMPL);
+                        mw.jump(IRClassWriter.IFGT, target);
+                        break;
+                    default:
+                        mw.op(IRClassWriter.FCMPL);
+                        mw.jump(IRClassWriter.IFGE, target);
+                }
+            }
+        }
+
+        private void compileCall(IRInstruction instruction, IROperand dst, int argIdx) {
+            IROperand[] operands = instruction.operands;
+            String calleeName = ((IRFunctionOperand) operands[argIdx - 1]).getName();
+            Integer calleeIndex = functionIndices.get(calleeName);
+            if (calleeIndex == null) {
+                compileIntrinsic(calleeName, dst, operands, argIdx);
+                return;
+            }
+
+            IRFunction callee = functions.get(calleeIndex);
+            mw.local(IRClassWriter.ALOAD, 0);
+            for (int i = argIdx; i < operands.length; i++) {
+                if (type(operands[i]) instanceof IRArrayType)
+                    loadArray(operands[i]);
+                else
+                    load(operands[i]);
+            }
+            IRClassWriter.Label start = new IRClassWriter.Label();
+            IRClassWriter.Label end = new IRClassWriter.Label();
+            mw.mark(start);
+            mw.invoke(IRClassWriter.INVOKESTATIC, CLASS_NAME, methodName(callee), methodDescriptor(callee));
+            mw.mark(end);
+            callSites.add(new IRClassWriter.Label[]{start, end, new IRClassWriter.Label()});
+            callSiteNames.add(site(instruction.irLineNumber));
+            if (dst != null)
+                store(dst);
+        }
+
+        private void compileIntrinsic(String name, IROperand dst, IROperand[] operands, int argIdx) {
+            mw.local(IRClassWriter.ALOAD, 0);
+            switch (name) {
+                case "geti":
+                    mw.invoke(IRClassWriter.INVOKEVIRTUAL, RUNTIME, "geti", "()I");
+                    store(dst);
+                    break;
+                case "getf":
+                    mw.invoke(IRClassWriter.INVOKEVIRTUAL, RUNTIME, "getf", "()F");
+                    store(dst);
+                    break;
+                case "getc":
+                    mw.invoke(IRClassWriter.INVOKEVIRTUAL, RUNTIME, "getc", "()I");
+                    store(dst);
+                    break;
+                case "puti":
+                    load(operands[argIdx]);
+                    mw.invoke(IRClassWriter.INVOKEVIRTUAL, RUNTIME, "puti", "(I)V");
+                    break;
+                case "putf":
+                    load(operands[argIdx]);
+                    mw.invoke(IRClassWriter.INVOKEVIRTUAL, RUNTIME, "putf", "(F)V");
+                    break;
+                default:
+                    load(operands[argIdx]);
+                    mw.invoke(IRClassWriter.INVOKEVIRTUAL, RUNTIME, "putc", "(I)V");
+            }
+        }
+
+        // Pushes the index, checked against the length of array unless it is known to be in
+        // bounds; the array is already pushed
+        private void loadIndex(IROperand array, IROperand index, IRInstruction instruction, boolean inBounds) {
+            load(index);
+            if (inBounds)
+                return;
+            loadArray(array);
+            mw.op(IRClassWriter.ARRAYLENGTH);
+            mw.sconst(site(instruction.irLineNumber));
+            mw.invoke(IRClassWriter.INVOKESTATIC, RUNTIME, "checkIndex", "(IILjava/lang/String;)I");
+        }
+
+        private void load(IROperand operand) {
+            if (operand instanceof IRVariableOperand) {
+                int opcode = type(operand) == IRIntType.get() ? IRClassWriter.ILOAD : IRClassWriter.FLOAD;
+                mw.local(opcode, local(operand));
+            } else if (type(operand) == IRIntType.get()) {
+                mw.iconst(Integer.parseInt(((IRConstantOperand) operand).getValueString()));
+            } else {
+                mw.fconst(Float.parseFloat(((IRConstantOperand) operand).getValueString()));
+            }
+        }
+
+        private void loadArray(IROperand operand) {
+            mw.local(IRClassWriter.ALOAD, local(operand));
+        }
+
+        private void store(IROperand operand) {
+            int opcode = type(operand) == IRIntType.get() ? IRClassWriter.ISTORE : IRClassWriter.FSTORE;
+            mw.local(opcode, local(operand));
+        }
+
+        private int local(IROperand operand) {
+            return locals[((IRVariableOperand) operand).symbol.id];
+        }
+
+        private IRClassWriter.Label label(IROperand operand) {
+            return labels.get(((IRLabelOperand) operand).getName());
+        }
+
+        private String site(int line) {
+            return function.name + ":" + line;
+        }
+    }
+
+    private static IRType type(IROperand operand) {
+        if (operand instanceof IRVariableOperand)
+            return ((IRVariableOperand) operand).type;
+        return ((IRConstantOperand) operand).type;
+    }
+}
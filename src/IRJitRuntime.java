@@ -0,0 +1,153 @@
+import ir.*;
+
+import java.lang.invoke.MethodHandle;
+import java.util.*;
+
+/**
+ * Runtime support for code generated by IRJitCompiler.
+ *
+ * Generated methods take the runtime as their first argument. It gives them the program's
+ * intrinsics, the basic block counters the interpreter stats are computed from, and the
+ * fields through which a compiled function returns its result to the interpreter.
+ */
+public class IRJitRuntime {
+
+    /**
+     * A runtime error in compiled code. It collects a function:line entry for every compiled
+     * frame it unwinds through, innermost first.
+     */
+    static class Trap extends RuntimeException {
+        final List<String> frames = new ArrayList<>();
+
+        Trap(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    private final IRInterpreter interpreter;
+
+    private final IRJitCompiler compiler;
+
+    // Execution count of every basic block of the compiled functions
+    public final long[] blockCounts;
+
+    // Result of the last compiled function entered through invoke
+    public int intResult;
+    public float floatResult;
+
+    public IRJitRuntime(IRInterpreter interpreter, IRJitCompiler compiler) {
+        this.interpreter = interpreter;
+        this.compiler = compiler;
+        blockCounts = new long[compiler.blockOpCodes.length];
+    }
+
+    public boolean[] getCompiled() {
+        return compiler.compiled;
+    }
+
+    // Runs the compiled function with the given index on the arguments in its frame, which
+    // the caller has pushed. Errors are reported like interpreter errors.
+    public void invoke(int function, IRInterpreter.StackFrame sf) throws IRException {
+        MethodHandle invoker = compiler.invoker;
+        try {
+            invoker.invokeExact(this, function, sf);
+        } catch (Trap trap) {
+            interpreter.throwRuntimeException(trap.frames, trap.getMessage());
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    // Continues the interpreted frame sf of the compiled function with the given index at the
+    // header of its loop number loop. The frame stays pushed until the function returns.
+    public void osr(int function, int loop, IRInterpreter.StackFrame sf) throws IRException {
+        MethodHandle osrInvoker = compiler.osrInvoker;
+        try {
+            osrInvoker.invokeExact(this, function, loop, sf);
+        } catch (Trap trap) {
+            interpreter.throwRuntimeException(trap.frames, trap.getMessage());
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    // Number of non-label instructions executed by compiled code so far
+    public long getNonLabelInstructionCount() {
+        long count = 0;
+        for (int block = 0; block < blockCounts.length; block++) {
+            if (blockCounts[block] == 0)
+                continue;
+            for (IRInstruction.OpCode opCode : compiler.blockOpCodes[block])
+                if (opCode != IRInstruction.OpCode.LABEL)
+                    count += blockCounts[block];
+        }
+        return count;
+    }
+
+    // Adds the instructions executed by compiled code to the interpreter stats
+    public void addStats(IRInterpreter.Stats stats) {
+        for (int block = 0; block < blockCounts.length; block++) {
+            if (blockCounts[block] == 0)
+                continue;
+            for (IRInstruction.OpCode opCode : compiler.blockOpCodes[block])
+                stats.add(opCode, blockCounts[block]);
+            stats.addEliminatedBoundsChecks(blockCounts[block] * compiler.blockEliminatedChecks[block]);
+        }
+    }
+
+    // Intrinsics
+
+    public int geti() {
+        return interpreter.geti();
+    }
+
+    public float getf() {
+        return interpreter.getf();
+    }
+
+    public int getc() {
+        return interpreter.getc();
+    }
+
+    public void puti(int i) {
+        interpreter.puti(i);
+    }
+
+    public void putf(float f) {
+        interpreter.putf(f);
+    }
+
+    public void putc(int c) {
+        interpreter.putc(c);
+    }
+
+    // Checks, where site is the function:line of the checking instruction
+
+    public static int checkIndex(int index, int length, String site) {
+        if (index < 0 || index >= length)
+            throw trap("Out-of-bounds array access", site);
+        return index;
+    }
+
+    public static int checkSize(int size, int length, String site) {
+        if (size < 0 || size > length)
+            throw trap("Out-of-bounds array access", site);
+        return size;
+    }
+
+    public static Trap trap(String message, String site) {
+        Trap trap = new Trap(message);
+        trap.frames.add(site);
+        return trap;
+    }
+
+    // Called by a call site's exception handler as a trap unwinds through it
+    public static Trap frame(Trap trap, String site) {
+        trap.frames.add(site);
+        return trap;
+    }
+}
@@ -0,0 +1,180 @@
+import ir.*;
+import ir.datatype.IRIntType;
+
+import java.util.*;
+
+/**
+ * Caches the results of pure functions (see IRPurityAnalysis) by argument values, so that
+ * the reference interpreter can answer a repeated call without executing it.
+ *
+ * Each function has a bounded direct-mapped table: an argument tuple hashes to one entry, and
+ * storing a result evicts whatever tuple was there. Along with the result, an entry keeps the
+ * instructions the call executed, callees included, so that a call answered from the table
+ * still counts them and the interpreter stats stay those of a run without memoization. The
+ * instructions that were not actually executed are counted separately (see Stats).
+ */
+public class IRMemoizer {
+
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private static final int OPCODE_COUNT = IRInstruction.OpCode.values().length;
+
+    private static class Table {
+        final IRFunction function;
+        final boolean[] intParams;
+        final boolean intResult;
+
+        // Entries, allocated on first use: the argument values (float bits for float
+        // arguments), the result and the instruction counts of the call
+        int[] keys;
+        boolean[] used;
+        int[] results;
+        long[] counts;
+
+        long hits;
+        long misses;
+        long evictions;
+
+        Table(IRFunction function) {
+            this.function = function;
+            intParams = new boolean[function.parameters.size()];
+            for (int i = 0; i < intParams.length; i++)
+                intParams[i] = function.parameters.get(i).type == IRIntType.get();
+            intResult = function.returnType == IRIntType.get();
+        }
+    }
+
+    private final int capacity;
+
+    private final Map<IRFunction, Table> tables = new LinkedHashMap<>();
+
+    // Calls in progress that missed the table, by call stack depth: the table, the entry
+    // their result goes to, their arguments and the stats counts when they started
+    private Table[] pendingTables = new Table[16];
+    private int[] pendingEntries = new int[16];
+    private int[][] pendingKeys = new int[16][];
+    private long[][] pendingCounts = new long[16][];
+
+    // Result of the last call answered by lookup
+    private int resultBits;
+
+    private final long[] endCounts = new long[OPCODE_COUNT];
+
+    // capacity must be a power of two
+    public IRMemoizer(List<IRFunction> functions, int capacity) {
+        if (Integer.bitCount(capacity) != 1)
+            throw new IllegalArgumentException("Memoization table capacity must be a power of two");
+        this.capacity = capacity;
+        IRPurityAnalysis purity = new IRPurityAnalysis(functions);
+        for (IRFunction function : functions)
+            if (function.returnType != null && purity.isPure(function))
+                tables.put(function, new Table(function));
+    }
+
+    public boolean isMemoized(IRFunction function) {
+        return tables.containsKey(function);
+    }
+
+    // Looks up a call of a memoized function whose frame sf, at the given call stack depth,
+    // holds the arguments. On a hit the call's instructions are added to stats as memoized
+    // and the result is available through getIntResult or getFloatResult; on a miss the call
+    // has to execute and report its result through exit.
+    public boolean lookup(IRFunction function, IRInterpreter.StackFrame sf, int depth,
+                          IRInterpreter.Stats stats) {
+        Table table = tables.get(function);
+        int[] paramSlots = sf.layout.paramSlots;
+        int arity = paramSlots.length;
+        if (depth >= pendingTables.length)
+            growPending(depth);
+        int[] key = pendingKeys[depth];
+        if (key == null || key.length < arity)
+            key = pendingKeys[depth] = new int[arity];
+        int hash = 0;
+        for (int i = 0; i < arity; i++) {
+            key[i] = table.intParams[i] ? sf.ints[paramSlots[i]] : Float.floatToRawIntBits(sf.floats[paramSlots[i]]);
+            hash = hash * 31 + key[i];
+        }
+        // Mixes all bits into the low ones, which float arguments often leave zero
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        int entry = hash & (capacity - 1);
+
+        if (table.used != null && table.used[entry] && matches(table.keys, entry * arity, key, arity)) {
+            table.hits++;
+            resultBits = table.results[entry];
+            stats.addMemoized(table.counts, entry * OPCODE_COUNT);
+            return true;
+        }
+        table.misses++;
+        pendingTables[depth] = table;
+        pendingEntries[depth] = entry;
+        if (pendingCounts[depth] == null)
+            pendingCounts[depth] = new long[OPCODE_COUNT];
+        stats.copyCounts(pendingCounts[depth]);
+        return false;
+    }
+
+    private static boolean matches(int[] keys, int offset, int[] key, int arity) {
+        for (int i = 0; i < arity; i++)
+            if (keys[offset + i] != key[i])
+                return false;
+        return true;
+    }
+
+    private void growPending(int depth) {
+        int size = Math.max(depth + 1, pendingTables.length * 2);
+        pendingTables = Arrays.copyOf(pendingTables, size);
+        pendingEntries = Arrays.copyOf(pendingEntries, size);
+        pendingKeys = Arrays.copyOf(pendingKeys, size);
+        pendingCounts = Arrays.copyOf(pendingCounts, size);
+    }
+
+    public int getIntResult() {
+        return resultBits;
+    }
+
+    public float getFloatResult() {
+        return Float.intBitsToFloat(resultBits);
+    }
+
+    // The call at the given depth returns; if it missed the table, its result is stored
+    public void exit(int depth, int intResult, float floatResult, IRInterpreter.Stats stats) {
+        if (depth >= pendingTables.length || pendingTables[depth] == null)
+            return;
+        Table table = pendingTables[depth];
+        pendingTables[depth] = null;
+        int arity = table.intParams.length;
+        int entry = pendingEntries[depth];
+        if (table.used == null) {
+            table.keys = new int[capacity * arity];
+            table.used = new boolean[capacity];
+            table.results = new int[capacity];
+            table.counts = new long[capacity * OPCODE_COUNT];
+        }
+        if (table.used[entry])
+            table.evictions++;
+        table.used[entry] = true;
+        System.arraycopy(pendingKeys[depth], 0, table.keys, entry * arity, arity);
+        table.results[entry] = table.intResult ? intResult : Float.floatToRawIntBits(floatResult);
+        long[] start = pendingCounts[depth];
+        stats.copyCounts(endCounts);
+        for (int op = 0; op < OPCODE_COUNT; op++)
+            table.counts[entry * OPCODE_COUNT + op] = endCounts[op] - start[op];
+    }
+
+    // One line per memoized function that was called
+    public List<String> getReport() {
+        List<String> lines = new ArrayList<>();
+        for (Table table : tables.values()) {
+            long calls = table.hits + table.misses;
+            if (calls == 0)
+                continue;
+            lines.add(String.format(Locale.ROOT, "function '%s': %d calls, %d hits (%.1f%%), %d evictions",
+                    table.function.name, calls, table.hits, 100.0 * table.hits / calls, table.evictions));
+        }
+        return lines;
+    }
+}
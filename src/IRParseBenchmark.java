@@ -0,0 +1,127 @@
+import ir.*;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Measures IR parsing throughput in megabytes of IR text per second.
+ *
+ * Usage: java -cp build IRParseBenchmark [--functions n] [--rounds n] [--jobs n] [file.ir ...]
+ *
+ * Without files, a synthetic program of n functions (5000 by default) that uses every opcode is
+ * generated into a temporary file and parsed. Each file is parsed repeatedly in the same JVM
+ * after a warm-up, and as in IRBenchmark the rounds are split into batches and the median batch
+ * is reported. With --jobs n, the throughput of IRReader.setParallelism(n) is reported as well.
+ * The binary cache (see IRBinaryCache) is not involved.
+ */
+public class IRParseBenchmark {
+
+    private static final int WARMUP_ROUNDS = 5;
+
+    private static final int BATCHES = 5;
+
+    public static void main(String[] args) throws Exception {
+        int functions = 5000;
+        int rounds = 20;
+        int jobs = 1;
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--functions"))
+                functions = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--rounds"))
+                rounds = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--jobs"))
+                jobs = Integer.parseInt(args[++i]);
+            else
+                files.add(new File(args[i]));
+        }
+
+        boolean synthetic = files.isEmpty();
+        if (synthetic) {
+            File file = File.createTempFile("synthetic", ".ir");
+            file.deleteOnExit();
+            try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(file)))) {
+                writeSyntheticProgram(out, functions);
+            }
+            files.add(file);
+        }
+
+        System.out.println(String.format("%-24s %10s %10s %8s %10s", "file", "MB", "functions", "threads", "MB/s"));
+        for (File file : files) {
+            double megabytes = Files.size(file.toPath()) / 1e6;
+            int functionCount = parse(file, 1).functions.size();
+            List<Integer> parallelisms = jobs > 1 ? List.of(1, jobs) : List.of(1);
+            for (int parallelism : parallelisms) {
+                for (int round = 0; round < WARMUP_ROUNDS; round++)
+                    parse(file, parallelism);
+                double[] batchSeconds = new double[BATCHES];
+                int batchRounds = Math.max(1, rounds / BATCHES);
+                for (int batch = 0; batch < BATCHES; batch++) {
+                    long start = System.nanoTime();
+                    for (int round = 0; round < batchRounds; round++)
+                        parse(file, parallelism);
+                    batchSeconds[batch] = (System.nanoTime() - start) / 1e9 / batchRounds;
+                }
+                Arrays.sort(batchSeconds);
+                System.out.println(String.format("%-24s %10.2f %10d %8d %10.2f",
+                        synthetic ? "synthetic" : file.getName(), megabytes,
+                        functionCount, parallelism, megabytes / batchSeconds[BATCHES / 2]));
+            }
+        }
+    }
+
+    private static IRProgram parse(File file, int parallelism) throws Exception {
+        IRReader reader = new IRReader();
+        reader.setParallelism(parallelism);
+        return reader.parseIRFile(file.getPath());
+    }
+
+    // Functions f0 ... that each call the previous one, and a main that calls the last
+    private static void writeSyntheticProgram(PrintWriter out, int functions) {
+        for (int k = 0; k < functions; k++) {
+            out.println("#start_function");
+            out.println("int f" + k + "(int n, int[64] a):");
+            out.println("int-list: i, t, s, b[64]");
+            out.println("float-list: x, y, z[8]");
+            out.println("    assign s, 0");
+            out.println("    assign i, 0");
+            out.println("    assign x, 1.5");
+            out.println("    assign z, 8, 0.0");
+            out.println("loop:");
+            out.println("    brgeq done, i, n");
+            out.println("    array_load t, a, i");
+            out.println("    add s, s, t");
+            out.println("    mult t, t, 3");
+            out.println("    sub t, t, -7");
+            out.println("    div t, t, 2");
+            out.println("    and t, t, 255");
+            out.println("    or t, t, 16");
+            out.println("    array_store t, b, i");
+            out.println("    add x, x, 0.25");
+            out.println("    mult y, x, x");
+            out.println("    array_store y, z, 0");
+            out.println("    brlt skip, y, 100.0");
+            if (k > 0)
+                out.println("    callr t, f" + (k - 1) + ", i, a");
+            else
+                out.println("    callr t, geti");
+            out.println("    call puti, t");
+            out.println("skip:");
+            out.println("    add i, i, 1");
+            out.println("    goto loop");
+            out.println("done:");
+            out.println("    return s");
+            out.println("#end_function");
+            out.println();
+        }
+        out.println("#start_function");
+        out.println("void main():");
+        out.println("int-list: r, arr[64]");
+        out.println("float-list:");
+        out.println("    assign arr, 64, 1");
+        out.println("    callr r, f" + (functions - 1) + ", 10, arr");
+        out.println("    call puti, r");
+        out.println("#end_function");
+    }
+}
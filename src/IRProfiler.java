@@ -0,0 +1,230 @@
+import ir.*;
+
+import java.io.PrintWriter;
+import java.util.*;
+
+/**
+ * Exact execution profile of an IR program, collected by the reference engine.
+ *
+ * Counts are kept in long[] arrays indexed by function and instruction index and in a tree
+ * of call paths, so that recording an instruction is a few array increments. From these the
+ * report derives per-line hit counts, branch taken/not-taken counts, call counts, and
+ * exclusive (own) and inclusive (own and callees') non-label instruction counts per function.
+ * The report can be written as JSON or as collapsed stacks for flame graph tools.
+ */
+public class IRProfiler {
+
+    // A distinct call path: the functions from main down to this one
+    private static class CallPath {
+        final int function;
+        final CallPath parent;
+        CallPath[] children = new CallPath[0];
+        // Non-label instructions executed on this path itself
+        long self;
+
+        CallPath(int function, CallPath parent) {
+            this.function = function;
+            this.parent = parent;
+        }
+
+        CallPath child(int function) {
+            for (CallPath child : children)
+                if (child.function == function)
+                    return child;
+            CallPath child = new CallPath(function, this);
+            children = Arrays.copyOf(children, children.length + 1);
+            children[children.length - 1] = child;
+            return child;
+        }
+    }
+
+    private final List<IRFunction> functions;
+
+    private final Map<IRFunction, Integer> functionIndices = new HashMap<>();
+
+    // [function][instruction index]
+    private final long[][] hits;
+    private final long[][] taken;
+    private final long[][] notTaken;
+
+    private final long[] calls;
+
+    private final CallPath root = new CallPath(-1, null);
+    private CallPath current = root;
+    private int currentInstruction;
+
+    public IRProfiler(List<IRFunction> functions) {
+        this.functions = functions;
+        hits = new long[functions.size()][];
+        taken = new long[functions.size()][];
+        notTaken = new long[functions.size()][];
+        calls = new long[functions.size()];
+        for (int i = 0; i < functions.size(); i++) {
+            IRFunction function = functions.get(i);
+            functionIndices.put(function, i);
+            hits[i] = new long[function.instructions.size()];
+            taken[i] = new long[function.instructions.size()];
+            notTaken[i] = new long[function.instructions.size()];
+        }
+    }
+
+    // Recording, called by the interpreter
+
+    // The instruction at the given index of the current function is about to execute
+    public void instruction(IRInstruction instruction, int index) {
+        if (current == root) // The entry call to main
+            return;
+        currentInstruction = index;
+        hits[current.function][index]++;
+        if (instruction.opCode != IRInstruction.OpCode.LABEL)
+            current.self++;
+    }
+
+    // The current instruction, a conditional branch, was taken or not
+    public void branch(boolean branchTaken) {
+        if (branchTaken)
+            taken[current.function][currentInstruction]++;
+        else
+            notTaken[current.function][currentInstruction]++;
+    }
+
+    public void enter(IRFunction function) {
+        int index = functionIndices.get(function);
+        calls[index]++;
+        current = current.child(index);
+    }
+
+    public void exit() {
+        current = current.parent;
+    }
+
+    // Report
+
+    public long getCalls(IRFunction function) {
+        return calls[functionIndices.get(function)];
+    }
+
+    public long getLineHits(IRFunction function, int instructionIndex) {
+        return hits[functionIndices.get(function)][instructionIndex];
+    }
+
+    public long[] getExclusiveCounts() {
+        long[] exclusive = new long[functions.size()];
+        forEachPath((path, stack) -> exclusive[path.function] += path.self);
+        return exclusive;
+    }
+
+    // A function's inclusive count adds up every path below its outermost activations, so
+    // recursive calls are not counted twice
+    public long[] getInclusiveCounts() {
+        long[] inclusive = new long[functions.size()];
+        int[] active = new int[functions.size()];
+        Deque<CallPath> stack = new ArrayDeque<>();
+        forEachPath((path, pathStack) -> {
+            while (!stack.isEmpty() && stack.peek() != path.parent)
+                active[stack.pop().function]--;
+            stack.push(path);
+            active[path.function]++;
+            for (int f = 0; f < active.length; f++)
+                if (active[f] > 0)
+                    inclusive[f] += path.self;
+        });
+        return inclusive;
+    }
+
+    public void writeJson(PrintWriter out) {
+        long[] exclusive = getExclusiveCounts();
+        long[] inclusive = getInclusiveCounts();
+        long total = 0;
+        for (long count : exclusive)
+            total += count;
+
+        out.println("{");
+        out.println("  \"instructions\": " + total + ",");
+        out.println("  \"functions\": [");
+        for (int f = 0; f < functions.size(); f++) {
+            IRFunction function = functions.get(f);
+            out.println("    {");
+            out.println("      \"name\": \"" + function.name + "\",");
+            out.println("      \"calls\": " + calls[f] + ",");
+            out.println("      \"exclusive\": " + exclusive[f] + ",");
+            out.println("      \"inclusive\": " + inclusive[f] + ",");
+            List<String> lines = new ArrayList<>();
+            List<String> branches = new ArrayList<>();
+            for (int i = 0; i < hits[f].length; i++) {
+                int line = function.instructions.get(i).irLineNumber;
+                if (hits[f][i] > 0)
+                    lines.add(String.format("{\"line\": %d, \"hits\": %d}", line, hits[f][i]));
+                long branchCount = taken[f][i] + notTaken[f][i];
+                if (branchCount > 0)
+                    branches.add(String.format(Locale.ROOT,
+                            "{\"line\": %d, \"taken\": %d, \"notTaken\": %d, \"takenRatio\": %.4f}",
+                            line, taken[f][i], notTaken[f][i], (double) taken[f][i] / branchCount));
+            }
+            writeJsonArray(out, "lines", lines, ",");
+            writeJsonArray(out, "branches", branches, "");
+            out.println(f + 1 < functions.size() ? "    }," : "    }");
+        }
+        out.println("  ]");
+        out.println("}");
+        out.flush();
+    }
+
+    private static void writeJsonArray(PrintWriter out, String name, List<String> elements, String end) {
+        if (elements.isEmpty()) {
+            out.println("      \"" + name + "\": []" + end);
+            return;
+        }
+        out.println("      \"" + name + "\": [");
+        for (int i = 0; i < elements.size(); i++)
+            out.println("        " + elements.get(i) + (i + 1 < elements.size() ? "," : ""));
+        out.println("      ]" + end);
+    }
+
+    // One "main;f;g count" line per call path that executed instructions itself
+    public void writeCollapsedStacks(PrintWriter out) {
+        forEachPath((path, stack) -> {
+            if (path.self == 0)
+                return;
+            StringBuilder sb = new StringBuilder();
+            Iterator<CallPath> frames = stack.descendingIterator();
+            while (frames.hasNext()) {
+                if (sb.length() > 0)
+                    sb.append(';');
+                sb.append(functions.get(frames.next().function).name);
+            }
+            out.println(sb + " " + path.self);
+        });
+        out.flush();
+    }
+
+    private interface PathVisitor {
+        // stack holds the path from the visited one (first) up to main (last)
+        void visit(CallPath path, Deque<CallPath> stack);
+    }
+
+    // Visits every call path in depth-first preorder without recursing, since call paths are as
+    // deep as the program's recursion
+    private void forEachPath(PathVisitor visitor) {
+        Deque<CallPath> stack = new ArrayDeque<>();
+        Deque<Integer> nextChild = new ArrayDeque<>();
+        for (CallPath top : root.children) {
+            stack.push(top);
+            nextChild.push(0);
+            visitor.visit(top, stack);
+            while (!stack.isEmpty()) {
+                CallPath path = stack.peek();
+                int next = nextChild.pop();
+                if (next < path.children.length) {
+                    nextChild.push(next + 1);
+                    CallPath child = path.children[next];
+                    stack.push(child);
+                    nextChild.push(0);
+                    visitor.visit(child, stack);
+                } else {
+                    stack.pop();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+import ir.*;
+import ir.datatype.IRArrayType;
+import ir.operand.*;
+
+import java.util.*;
+
+/**
+ * Finds the pure functions of a program: those whose result only depends on their scalar
+ * arguments and that have no effect other than returning it.
+ *
+ * A function is pure if it has no array parameters, through which it could read or write its
+ * caller's arrays, makes no intrinsic calls, which do I/O, and only calls pure functions.
+ * Local arrays are fine since they only live as long as the call. Functions are assumed pure
+ * and the ones that break a rule are removed until nothing changes, so recursive functions
+ * can be pure.
+ */
+public class IRPurityAnalysis {
+
+    private final Set<IRFunction> pure = new HashSet<>();
+
+    public IRPurityAnalysis(List<IRFunction> functions) {
+        Map<String, IRFunction> functionMap = new HashMap<>();
+        for (IRFunction function : functions)
+            functionMap.put(function.name, function);
+
+        Map<IRFunction, List<IRFunction>> callees = new HashMap<>();
+        for (IRFunction function : functions) {
+            List<IRFunction> called = new ArrayList<>();
+            if (collectCallees(function, functionMap, called)) {
+                pure.add(function);
+                callees.put(function, called);
+            }
+        }
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (IRFunction function : functions) {
+                if (!pure.contains(function))
+                    continue;
+                for (IRFunction callee : callees.get(function)) {
+                    if (!pure.contains(callee)) {
+                        pure.remove(function);
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    // Adds the functions the given one calls to called. Returns false if the function is
+    // impure by itself, whatever its callees are.
+    private static boolean collectCallees(IRFunction function, Map<String, IRFunction> functionMap,
+                                          List<IRFunction> called) {
+        for (IRVariableOperand param : function.parameters)
+            if (param.type instanceof IRArrayType)
+                return false;
+        for (IRInstruction instruction : function.instructions) {
+            IROperand target;
+            if (instruction.opCode == IRInstruction.OpCode.CALL)
+                target = instruction.operands[0];
+            else if (instruction.opCode == IRInstruction.OpCode.CALLR)
+                target = instruction.operands[1];
+            else
+                continue;
+            IRFunction callee = functionMap.get(((IRFunctionOperand) target).getName());
+            if (callee == null) // An intrinsic
+                return false;
+            called.add(callee);
+        }
+        return true;
+    }
+
+    public boolean isPure(IRFunction function) {
+        return pure.contains(function);
+    }
+}
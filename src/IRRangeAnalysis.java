@@ -0,0 +1,385 @@
+import ir.*;
+import ir.datatype.IRArrayType;
+import ir.datatype.IRIntType;
+import ir.operand.*;
+
+import java.util.*;
+
+/**
+ * Interval analysis of the int variables of a function, used to find the array accesses
+ * whose index is always within the declared size of the array, so that compiled code can
+ * leave out their bounds checks.
+ *
+ * The analysis runs over the instructions until the interval of every variable before every
+ * instruction is stable. Conditional branches narrow the intervals of their operands on both
+ * edges, which is what bounds loop induction variables. To make loops converge, intervals
+ * that keep changing at a label are widened, but only up to the next of the function's own
+ * constants (and their neighbors), so that a bound like i < 100 survives the widening.
+ * Arithmetic that may overflow gives the full int range, since it wraps around.
+ */
+public class IRRangeAnalysis {
+
+    // Merges into a label before its intervals are widened
+    private static final int WIDENING_DELAY = 3;
+
+    private final IRFunction function;
+    private final List<IRInstruction> instructions;
+    private final Map<String, Integer> labelIndices = new HashMap<>();
+
+    // Index in the interval arrays of each variable by IRSymbol.id, or -1 if it is not an int
+    private final int[] variables;
+    private int intCount;
+
+    // Sorted widening thresholds, including the int range limits
+    private final long[] thresholds;
+
+    // Interval of every variable before every instruction: {lo[], hi[]}, or null while the
+    // instruction is not known to be reachable
+    private final long[][][] states;
+
+    private IRRangeAnalysis(IRFunction function) {
+        this.function = function;
+        instructions = function.instructions;
+        variables = new int[function.symbols.size()];
+        for (int id = 0; id < variables.length; id++)
+            variables[id] = function.symbols.get(id).type == IRIntType.get() ? intCount++ : -1;
+
+        TreeSet<Long> limits = new TreeSet<>();
+        limits.add((long) Integer.MIN_VALUE);
+        limits.add((long) Integer.MAX_VALUE);
+        for (IRVariableOperand variable : function.variables)
+            if (variable.type instanceof IRArrayType)
+                addThreshold(limits, ((IRArrayType) variable.type).getSize());
+        for (IRVariableOperand variable : function.parameters)
+            if (variable.type instanceof IRArrayType)
+                addThreshold(limits, ((IRArrayType) variable.type).getSize());
+        for (int i = 0; i < instructions.size(); i++) {
+            IRInstruction instruction = instructions.get(i);
+            if (instruction.opCode == IRInstruction.OpCode.LABEL)
+                labelIndices.put(((IRLabelOperand) instruction.operands[0]).getName(), i);
+            for (IROperand operand : instruction.operands)
+                if (operand instanceof IRConstantOperand && ((IRConstantOperand) operand).type == IRIntType.get())
+                    addThreshold(limits, Integer.parseInt(((IRConstantOperand) operand).getValueString()));
+        }
+        thresholds = new long[limits.size()];
+        int t = 0;
+        for (long limit : limits)
+            thresholds[t++] = limit;
+
+        states = new long[instructions.size()][][];
+    }
+
+    private static void addThreshold(TreeSet<Long> limits, long value) {
+        for (long v = value - 1; v <= value + 1; v++)
+            if (v >= Integer.MIN_VALUE && v <= Integer.MAX_VALUE)
+                limits.add(v);
+    }
+
+    /**
+     * Returns, by instruction index, whether the instruction is an ARRAY_LOAD or ARRAY_STORE
+     * whose index, or an array ASSIGN whose size, is within the bounds of its array whenever
+     * it executes.
+     */
+    public static boolean[] findSafeArrayAccesses(IRFunction function) {
+        IRRangeAnalysis analysis = new IRRangeAnalysis(function);
+        analysis.solve();
+        return analysis.safeAccesses();
+    }
+
+    private void solve() {
+        if (instructions.isEmpty())
+            return;
+        int n = intCount;
+        long[][] entry = {new long[n], new long[n]};
+        // Parameters can be anything, other variables start at 0
+        for (IRVariableOperand param : function.parameters) {
+            int v = variables[param.symbol.id];
+            if (v >= 0) {
+                entry[0][v] = Integer.MIN_VALUE;
+                entry[1][v] = Integer.MAX_VALUE;
+            }
+        }
+        states[0] = entry;
+
+        int[] merges = new int[instructions.size()];
+        boolean[] queued = new boolean[instructions.size()];
+        Deque<Integer> work = new ArrayDeque<>();
+        work.add(0);
+        queued[0] = true;
+        while (!work.isEmpty()) {
+            int i = work.poll();
+            queued[i] = false;
+            long[][] in = states[i];
+            IRInstruction instruction = instructions.get(i);
+            IROperand[] operands = instruction.operands;
+            switch (instruction.opCode) {
+                case GOTO:
+                    propagate(labelIndices.get(((IRLabelOperand) operands[0]).getName()), copy(in), merges, queued, work);
+                    break;
+                case BREQ:
+                case BRNEQ:
+                case BRLT:
+                case BRGT:
+                case BRGEQ: {
+                    int target = labelIndices.get(((IRLabelOperand) operands[0]).getName());
+                    if (isInt(operands[1])) {
+                        propagate(target, refine(in, instruction.opCode, operands[1], operands[2]), merges, queued, work);
+                        propagate(i + 1, refine(in, negate(instruction.opCode), operands[1], operands[2]),
+                                merges, queued, work);
+                    } else {
+                        propagate(target, copy(in), merges, queued, work);
+                        propagate(i + 1, copy(in), merges, queued, work);
+                    }
+                    break;
+                }
+                case RETURN:
+                    break;
+                default:
+                    propagate(i + 1, transfer(in, instruction), merges, queued, work);
+            }
+        }
+    }
+
+    private long[][] transfer(long[][] in, IRInstruction instruction) {
+        long[][] out = copy(in);
+        IROperand[] operands = instruction.operands;
+        Integer dst;
+        switch (instruction.opCode) {
+            case ASSIGN:
+                if (operands.length == 2 && (dst = intVariable(operands[0])) != null)
+                    set(out, dst, lo(in, operands[1]), hi(in, operands[1]));
+                break;
+            case ADD:
+            case SUB:
+            case MULT:
+            case DIV:
+            case AND:
+            case OR:
+                if ((dst = intVariable(operands[0])) != null)
+                    arithmetic(in, out, dst, instruction.opCode, operands[1], operands[2]);
+                break;
+            case CALLR:
+            case ARRAY_LOAD:
+                if ((dst = intVariable(operands[0])) != null)
+                    set(out, dst, Integer.MIN_VALUE, Integer.MAX_VALUE);
+                break;
+            default:
+                break;
+        }
+        return out;
+    }
+
+    private void arithmetic(long[][] in, long[][] out, int dst, IRInstruction.OpCode opCode,
+                            IROperand y, IROperand z) {
+        long ylo = lo(in, y), yhi = hi(in, y), zlo = lo(in, z), zhi = hi(in, z);
+        long lo = Integer.MIN_VALUE, hi = Integer.MAX_VALUE;
+        switch (opCode) {
+            case ADD:
+                lo = ylo + zlo;
+                hi = yhi + zhi;
+                break;
+            case SUB:
+                lo = ylo - zhi;
+                hi = yhi - zlo;
+                break;
+            case MULT: {
+                long a = ylo * zlo, b = ylo * zhi, c = yhi * zlo, d = yhi * zhi;
+                // Products of int bounds fit in a long
+                lo = Math.min(Math.min(a, b), Math.min(c, d));
+                hi = Math.max(Math.max(a, b), Math.max(c, d));
+                break;
+            }
+            case DIV:
+                // Division by a positive divisor truncates towards zero and is monotone in y
+                if (zlo > 0) {
+                    lo = Math.min(ylo / zlo, ylo / zhi);
+                    hi = Math.max(yhi / zlo, yhi / zhi);
+                }
+                break;
+            case AND:
+                // A non-negative operand bounds the result
+                if (zlo >= 0 && ylo >= 0) {
+                    lo = 0;
+                    hi = Math.min(yhi, zhi);
+                } else if (zlo >= 0 || ylo >= 0) {
+                    lo = 0;
+                    hi = zlo >= 0 ? zhi : yhi;
+                }
+                break;
+            default:
+                break;
+        }
+        if (lo < Integer.MIN_VALUE || hi > Integer.MAX_VALUE) {
+            lo = Integer.MIN_VALUE;
+            hi = Integer.MAX_VALUE;
+        }
+        set(out, dst, lo, hi);
+    }
+
+    // The intervals on the edge where "a op b" holds, or null if it never does
+    private long[][] refine(long[][] in, IRInstruction.OpCode op, IROperand a, IROperand b) {
+        long alo = lo(in, a), ahi = hi(in, a), blo = lo(in, b), bhi = hi(in, b);
+        long nalo = alo, nahi = ahi, nblo = blo, nbhi = bhi;
+        switch (op) {
+            case BREQ:
+                nalo = nblo = Math.max(alo, blo);
+                nahi = nbhi = Math.min(ahi, bhi);
+                break;
+            case BRNEQ:
+                if (blo == bhi) {
+                    if (alo == blo) nalo++;
+                    if (ahi == blo) nahi--;
+                }
+                if (alo == ahi) {
+                    if (blo == alo) nblo++;
+                    if (bhi == alo) nbhi--;
+                }
+                break;
+            case BRLT:
+                nahi = Math.min(ahi, bhi - 1);
+                nblo = Math.max(blo, alo + 1);
+                break;
+            case BRGT:
+                nalo = Math.max(alo, blo + 1);
+                nbhi = Math.min(bhi, ahi - 1);
+                break;
+            case BRGEQ:
+                nalo = Math.max(alo, blo);
+                nbhi = Math.min(bhi, ahi);
+                break;
+            default: // a <= b, the negation of BRGT
+                nahi = Math.min(ahi, bhi);
+                nblo = Math.max(blo, alo);
+        }
+        if (nalo > nahi || nblo > nbhi)
+            return null;
+        long[][] out = copy(in);
+        Integer va = intVariable(a), vb = intVariable(b);
+        if (va != null)
+            set(out, va, nalo, nahi);
+        if (vb != null)
+            set(out, vb, Math.max(nblo, out[0][vb]), Math.min(nbhi, out[1][vb]));
+        return out;
+    }
+
+    // The condition of the fall-through edge; LABEL stands for a <= b
+    private static IRInstruction.OpCode negate(IRInstruction.OpCode op) {
+        switch (op) {
+            case BREQ:
+                return IRInstruction.OpCode.BRNEQ;
+            case BRNEQ:
+                return IRInstruction.OpCode.BREQ;
+            case BRLT:
+                return IRInstruction.OpCode.BRGEQ;
+            case BRGEQ:
+                return IRInstruction.OpCode.BRLT;
+            default:
+                return IRInstruction.OpCode.LABEL;
+        }
+    }
+
+    private void propagate(int target, long[][] state, int[] merges, boolean[] queued, Deque<Integer> work) {
+        if (state == null || target >= instructions.size())
+            return;
+        long[][] old = states[target];
+        if (old == null) {
+            states[target] = state;
+        } else {
+            boolean widen = instructions.get(target).opCode == IRInstruction.OpCode.LABEL
+                    && ++merges[target] > WIDENING_DELAY;
+            boolean changed = false;
+            for (int v = 0; v < old[0].length; v++) {
+                if (state[0][v] < old[0][v]) {
+                    old[0][v] = widen ? thresholdBelow(state[0][v]) : state[0][v];
+                    changed = true;
+                }
+                if (state[1][v] > old[1][v]) {
+                    old[1][v] = widen ? thresholdAbove(state[1][v]) : state[1][v];
+                    changed = true;
+                }
+            }
+            if (!changed)
+                return;
+        }
+        if (!queued[target]) {
+            queued[target] = true;
+            work.add(target);
+        }
+    }
+
+    private long thresholdBelow(long value) {
+        int t = Arrays.binarySearch(thresholds, value);
+        return t >= 0 ? thresholds[t] : thresholds[-t - 2];
+    }
+
+    private long thresholdAbove(long value) {
+        int t = Arrays.binarySearch(thresholds, value);
+        return t >= 0 ? thresholds[t] : thresholds[-t - 1];
+    }
+
+    private boolean[] safeAccesses() {
+        boolean[] safe = new boolean[instructions.size()];
+        for (int i = 0; i < instructions.size(); i++) {
+            IRInstruction instruction = instructions.get(i);
+            long[][] in = states[i];
+            if (in == null)
+                continue;
+            IROperand[] operands = instruction.operands;
+            switch (instruction.opCode) {
+                case ARRAY_LOAD:
+                case ARRAY_STORE: {
+                    int size = ((IRArrayType) ((IRVariableOperand) operands[1]).type).getSize();
+                    safe[i] = lo(in, operands[2]) >= 0 && hi(in, operands[2]) < size;
+                    break;
+                }
+                case ASSIGN:
+                    if (operands.length > 2) {
+                        int size = ((IRArrayType) ((IRVariableOperand) operands[0]).type).getSize();
+                        safe[i] = lo(in, operands[1]) >= 0 && hi(in, operands[1]) <= size;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        return safe;
+    }
+
+    // Intervals
+
+    private boolean isInt(IROperand operand) {
+        if (operand instanceof IRVariableOperand)
+            return ((IRVariableOperand) operand).type == IRIntType.get();
+        return ((IRConstantOperand) operand).type == IRIntType.get();
+    }
+
+    private Integer intVariable(IROperand operand) {
+        if (!(operand instanceof IRVariableOperand))
+            return null;
+        int v = variables[((IRVariableOperand) operand).symbol.id];
+        return v < 0 ? null : v;
+    }
+
+    private long lo(long[][] state, IROperand operand) {
+        Integer v = intVariable(operand);
+        if (v != null)
+            return state[0][v];
+        return Integer.parseInt(((IRConstantOperand) operand).getValueString());
+    }
+
+    private long hi(long[][] state, IROperand operand) {
+        Integer v = intVariable(operand);
+        if (v != null)
+            return state[1][v];
+        return Integer.parseInt(((IRConstantOperand) operand).getValueString());
+    }
+
+    private static void set(long[][] state, int v, long lo, long hi) {
+        state[0][v] = lo;
+        state[1][v] = hi;
+    }
+
+    private static long[][] copy(long[][] state) {
+        return new long[][]{state[0].clone(), state[1].clone()};
+    }
+}
@@ -0,0 +1,1135 @@
+import ir.*;
+import ir.datatype.IRArrayType;
+import ir.datatype.IRIntType;
+import ir.datatype.IRType;
+import ir.operand.*;
+
+import java.util.*;
+
+/**
+ * Executes IR programs as trees of pre-bound node objects.
+ *
+ * Every IRInstruction becomes a Node that holds its resolved frame slots, parsed constants
+ * and direct references to the nodes executed after it. Straight-line nodes finish by
+ * executing their successor themselves, so each node class has its own call site for the
+ * next node rather than all of them sharing one. Labels, jumps, calls and returns hand their
+ * successor back to a small trampoline that runs the function until a node returns null,
+ * as does a Yield node inserted after every MAX_STRAIGHT_RUN straight nodes so that long
+ * blocks do not deepen the JVM stack without bound. The trampoline call site sees every
+ * control transfer and stays megamorphic. Calls recurse on the JVM stack.
+ *
+ * Stack frames, intrinsics and error reporting are shared with the IRInterpreter. Every node
+ * counts its executions; taken branches count their target label, which they skip.
+ */
+public class IRTreeEngine {
+
+    private final IRInterpreter interpreter;
+
+    private final IRInterpreter.CallStack stack;
+
+    private final Map<String, Function> functionMap = new HashMap<>();
+
+    private final List<Node> nodes = new ArrayList<>();
+
+    // Result of the last returning function
+    private int intResult;
+    private float floatResult;
+
+    public IRTreeEngine(IRInterpreter interpreter, List<IRFunction> functions,
+                        Map<IRFunction, IRFrameLayout> layouts) {
+        this.interpreter = interpreter;
+        this.stack = interpreter.stack;
+        for (IRFunction function : functions)
+            functionMap.put(function.name, new Function(function, layouts.get(function)));
+        for (Function function : functionMap.values())
+            function.entry = build(function);
+    }
+
+    public void run() throws IRException {
+        try {
+            Function main = functionMap.get("main");
+            if (main == null)
+                throw new IRException("Undefined reference to function 'main'");
+            stack.push();
+            IRInterpreter.StackFrame sf = stack.push();
+            sf.caller = null;
+            sf.function = main.function;
+            interpreter.allocateFrame(sf, main.layout);
+            execute(main, sf);
+        } finally {
+            IRInterpreter.Stats stats = interpreter.stats;
+            for (Node node : nodes)
+                if (node.opCode != null)
+                    stats.add(node.opCode, node.count);
+        }
+    }
+
+    private static void execute(Function function, IRInterpreter.StackFrame sf) throws IRException {
+        Node node = function.entry;
+        while (node != null)
+            node = node.execute(sf);
+    }
+
+    private static class Function {
+        final IRFunction function;
+        final IRFrameLayout layout;
+        Node entry;
+
+        Function(IRFunction function, IRFrameLayout layout) {
+            this.function = function;
+            this.layout = layout;
+        }
+    }
+
+    // Building
+
+    // Longest chain of straight nodes executed as nested calls
+    private static final int MAX_STRAIGHT_RUN = 64;
+
+    private Node build(Function function) {
+        List<IRInstruction> instructions = function.function.instructions;
+        Node[] body = new Node[instructions.size() + 1];
+        Map<String, Label> labels = new HashMap<>();
+        for (int i = 0; i < instructions.size(); i++) {
+            IRInstruction instruction = instructions.get(i);
+            body[i] = buildNode(function, instruction, function.layout.operandSlots[i]);
+            if (body[i] instanceof Label)
+                labels.put(((IRLabelOperand) instruction.operands[0]).getName(), (Label) body[i]);
+        }
+        int endLine = instructions.isEmpty() ? -1 : instructions.get(instructions.size() - 1).irLineNumber;
+        body[instructions.size()] = new End(function.function.returnType != null, endLine);
+
+        int run = 0;
+        for (int i = 0; i < instructions.size(); i++) {
+            body[i].next = body[i + 1];
+            if (!(body[i] instanceof Straight)) {
+                run = 0;
+            } else if (++run == MAX_STRAIGHT_RUN) {
+                Yield yield = new Yield();
+                yield.next = body[i + 1];
+                body[i].next = yield;
+                nodes.add(yield);
+                run = 0;
+            }
+        }
+        for (Node node : body)
+            if (node instanceof Jump)
+                ((Jump) node).link(labels);
+        nodes.addAll(Arrays.asList(body));
+        return body[0];
+    }
+
+    private Node buildNode(Function function, IRInstruction instruction, int[] slots) {
+        IROperand[] operands = instruction.operands;
+        int line = instruction.irLineNumber;
+        switch (instruction.opCode) {
+            case ASSIGN:
+                if (operands.length > 2) {
+                    IntValue size = intValue(operands[1], slots[1]);
+                    if (isInt(operands[2]))
+                        return new IntArrayAssign(slots[0], size, intValue(operands[2], slots[2]), line);
+                    return new FloatArrayAssign(slots[0], size, floatValue(operands[2], slots[2]), line);
+                }
+                if (isInt(operands[0]))
+                    return new IntAssign(slots[0], intValue(operands[1], slots[1]));
+                return new FloatAssign(slots[0], floatValue(operands[1], slots[1]));
+            case ADD:
+            case SUB:
+            case MULT:
+            case DIV:
+            case AND:
+            case OR:
+                return buildArithmetic(instruction, slots);
+            case GOTO:
+                return new Goto(labelName(operands[0]));
+            case BREQ:
+            case BRNEQ:
+            case BRLT:
+            case BRGT:
+            case BRGEQ:
+                return buildBranch(instruction, slots);
+            case RETURN:
+                if (function.function.returnType == IRIntType.get())
+                    return new IntReturn(intValue(operands[0], slots[0]));
+                return new FloatReturn(floatValue(operands[0], slots[0]));
+            case CALL:
+                return buildCall(instruction, slots, 1);
+            case CALLR:
+                return buildCall(instruction, slots, 2);
+            case ARRAY_STORE:
+                if (isInt(operands[0]))
+                    return new IntArrayStore(intValue(operands[0], slots[0]), slots[1],
+                            intValue(operands[2], slots[2]), line);
+                return new FloatArrayStore(floatValue(operands[0], slots[0]), slots[1],
+                        intValue(operands[2], slots[2]), line);
+            case ARRAY_LOAD:
+                if (isInt(operands[0]))
+                    return new IntArrayLoad(slots[0], slots[1], intValue(operands[2], slots[2]), line);
+                return new FloatArrayLoad(slots[0], slots[1], intValue(operands[2], slots[2]), line);
+            default:
+                return new Label();
+        }
+    }
+
+    private Node buildArithmetic(IRInstruction instruction, int[] slots) {
+        IROperand[] operands = instruction.operands;
+        int dst = slots[0];
+        if (isInt(operands[0])) {
+            IntValue y = intValue(operands[1], slots[1]);
+            IntValue z = intValue(operands[2], slots[2]);
+            switch (instruction.opCode) {
+                case ADD:
+                    return new IntAdd(dst, y, z);
+                case SUB:
+                    return new IntSub(dst, y, z);
+                case MULT:
+                    return new IntMult(dst, y, z);
+                case DIV:
+                    return new IntDiv(dst, y, z);
+                case AND:
+                    return new IntAnd(dst, y, z);
+                default:
+                    return new IntOr(dst, y, z);
+            }
+        }
+        FloatValue y = floatValue(operands[1], slots[1]);
+        FloatValue z = floatValue(operands[2], slots[2]);
+        switch (instruction.opCode) {
+            case ADD:
+                return new FloatAdd(dst, y, z);
+            case SUB:
+                return new FloatSub(dst, y, z);
+            case MULT:
+                return new FloatMult(dst, y, z);
+            case DIV:
+                return new FloatDiv(dst, y, z);
+            default:
+                // Like the reference engine, AND and OR yield 0 for floats
+                return new FloatAssign(instruction.opCode, dst, new FloatConst(0));
+        }
+    }
+
+    private Node buildBranch(IRInstruction instruction, int[] slots) {
+        IROperand[] operands = instruction.operands;
+        String label = labelName(operands[0]);
+        if (isInt(operands[1])) {
+            IntValue a = intValue(operands[1], slots[1]);
+            IntValue b = intValue(operands[2], slots[2]);
+            switch (instruction.opCode) {
+                case BREQ:
+                    return new IntBreq(label, a, b);
+                case BRNEQ:
+                    return new IntBrneq(label, a, b);
+                case BRLT:
+                    return new IntBrlt(label, a, b);
+                case BRGT:
+                    return new IntBrgt(label, a, b);
+                default:
+                    return new IntBrgeq(label, a, b);
+            }
+        }
+        FloatValue a = floatValue(operands[1], slots[1]);
+        FloatValue b = floatValue(operands[2], slots[2]);
+        switch (instruction.opCode) {
+            case BREQ:
+                return new FloatBreq(label, a, b);
+            case BRNEQ:
+                return new FloatBrneq(label, a, b);
+            case BRLT:
+                return new FloatBrlt(label, a, b);
+            case BRGT:
+                return new FloatBrgt(label, a, b);
+            default:
+                return new FloatBrgeq(label, a, b);
+        }
+    }
+
+    private Node buildCall(IRInstruction instruction, int[] slots, int argIdx) {
+        IROperand[] operands = instruction.operands;
+        String name = ((IRFunctionOperand) operands[argIdx - 1]).getName();
+        int dst = argIdx == 2 ? slots[0] : -1;
+        boolean intDst = argIdx == 2 && isInt(operands[0]);
+        int line = instruction.irLineNumber;
+        Function callee = functionMap.get(name);
+        if (callee == null) {
+            switch (name) {
+                case "geti":
+                    return new Geti(dst);
+                case "getf":
+                    return new Getf(dst);
+                case "getc":
+                    return new Getc(dst);
+                case "puti":
+                    return new Puti(intValue(operands[argIdx], slots[argIdx]));
+                case "putf":
+                    return new Putf(floatValue(operands[argIdx], slots[argIdx]));
+                case "putc":
+                    return new Putc(intValue(operands[argIdx], slots[argIdx]));
+                default:
+                    return new UndefinedCall(String.format("Undefined reference to function '%s'", name), line);
+            }
+        }
+
+        List<IntValue> intArgs = new ArrayList<>();
+        List<Integer> intParams = new ArrayList<>();
+        List<FloatValue> floatArgs = new ArrayList<>();
+        List<Integer> floatParams = new ArrayList<>();
+        List<Integer> arrayArgs = new ArrayList<>();
+        List<Integer> arrayParams = new ArrayList<>();
+        for (int i = argIdx; i < operands.length; i++) {
+            int param = callee.layout.paramSlots[i - argIdx];
+            if (typeOf(operands[i]) instanceof IRArrayType) {
+                arrayArgs.add(slots[i]);
+                arrayParams.add(param);
+            } else if (isInt(operands[i])) {
+                intArgs.add(intValue(operands[i], slots[i]));
+                intParams.add(param);
+            } else {
+                floatArgs.add(floatValue(operands[i], slots[i]));
+                floatParams.add(param);
+            }
+        }
+        return new Call(callee, dst, intDst, line,
+                intArgs.toArray(new IntValue[0]), toArray(intParams),
+                floatArgs.toArray(new FloatValue[0]), toArray(floatParams),
+                toArray(arrayArgs), toArray(arrayParams));
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++)
+            array[i] = list.get(i);
+        return array;
+    }
+
+    private static IRType typeOf(IROperand operand) {
+        if (operand instanceof IRVariableOperand)
+            return ((IRVariableOperand) operand).type;
+        return ((IRConstantOperand) operand).type;
+    }
+
+    private static boolean isInt(IROperand operand) {
+        return typeOf(operand) == IRIntType.get();
+    }
+
+    private static String labelName(IROperand operand) {
+        return ((IRLabelOperand) operand).getName();
+    }
+
+    private static IntValue intValue(IROperand operand, int slot) {
+        if (operand instanceof IRVariableOperand)
+            return new IntVar(slot);
+        return new IntConst(Integer.parseInt(((IRConstantOperand) operand).getValueString()));
+    }
+
+    private static FloatValue floatValue(IROperand operand, int slot) {
+        if (operand instanceof IRVariableOperand)
+            return new FloatVar(slot);
+        return new FloatConst(Float.parseFloat(((IRConstantOperand) operand).getValueString()));
+    }
+
+    // Operands
+
+    private interface IntValue {
+        int get(IRInterpreter.StackFrame sf);
+    }
+
+    private interface FloatValue {
+        float get(IRInterpreter.StackFrame sf);
+    }
+
+    private static final class IntVar implements IntValue {
+        final int slot;
+
+        IntVar(int slot) {
+            this.slot = slot;
+        }
+
+        public int get(IRInterpreter.StackFrame sf) {
+            return sf.ints[slot];
+        }
+    }
+
+    private static final class IntConst implements IntValue {
+        final int value;
+
+        IntConst(int value) {
+            this.value = value;
+        }
+
+        public int get(IRInterpreter.StackFrame sf) {
+            return value;
+        }
+    }
+
+    private static final class FloatVar implements FloatValue {
+        final int slot;
+
+        FloatVar(int slot) {
+            this.slot = slot;
+        }
+
+        public float get(IRInterpreter.StackFrame sf) {
+            return sf.floats[slot];
+        }
+    }
+
+    private static final class FloatConst implements FloatValue {
+        final float value;
+
+        FloatConst(float value) {
+            this.value = value;
+        }
+
+        public float get(IRInterpreter.StackFrame sf) {
+            return value;
+        }
+    }
+
+    // Nodes
+
+    private abstract static class Node {
+        // The IR instruction the node is counted as, or null
+        final IRInstruction.OpCode opCode;
+        Node next;
+        long count;
+
+        Node(IRInstruction.OpCode opCode) {
+            this.opCode = opCode;
+        }
+
+        // Executes the node and returns the node to execute next, or null to return
+        abstract Node execute(IRInterpreter.StackFrame sf) throws IRException;
+    }
+
+    // A node that always continues at next, which it executes itself
+    private abstract static class Straight extends Node {
+        Straight(IRInstruction.OpCode opCode) {
+            super(opCode);
+        }
+    }
+
+    // Hands a run of straight nodes back to the trampoline to bound the JVM stack depth
+    private static final class Yield extends Node {
+        Yield() {
+            super(null);
+        }
+
+        Node execute(IRInterpreter.StackFrame sf) {
+            return next;
+        }
+    }
+
+    private static final class Label extends Node {
+        Label() {
+            super(IRInstruction.OpCode.LABEL);
+        }
+
+        Node execute(IRInterpreter.StackFrame sf) {
+            count++;
+            return next;
+        }
+    }
+
+    private final class End extends Node {
+        final boolean missingReturn;
+        final int line;
+
+        End(boolean missingReturn, int line) {
+            super(null);
+            this.missingReturn = missingReturn;
+            this.line = line;
+        }
+
+        Node execute(IRInterpreter.StackFrame sf) throws IRException {
+            count++;
+            if (missingReturn)
+                interpreter.throwRuntimeException(line, "Missing return for a function with return value");
+            return null;
+        }
+    }
+
+    private static final class IntAssign extends Straight {
+        final int dst;
+        final IntValue src;
+
+        IntAssign(int dst, IntValue src) {
+            super(IRInstruction.OpCode.ASSIGN);
+            this.dst = dst;
+            this.src = src;
+        }
+
+        Node execute(IRInterpreter.StackFrame sf) throws IRException {
+            count++;
+            sf.ints[dst] = src.get(sf);
+            return next.execute(sf);
+        }
+    }
+
+    private static final class FloatAssign extends Straight {
+        final int dst;
+        final FloatValue src;
+
+        FloatAssign(int dst, FloatValue src) {
+            this(IRInstruction.OpCode.ASSIGN, dst, src);
+        }
+
+        FloatAssign(IRInstruction.OpCode opCode, int dst, FloatValue src) {
+            super(opCode);
+            this.dst = dst;
+            this.src = src;
+        }
+
+        Node execute(IRInterpreter.StackFrame sf) throws IRException {
+            count++;
+            sf.floats[dst] = src.get(sf);
+            return next.execute(sf);
+        }
+    }
+
+    private final class IntArrayAssign extends Straight {
+        final int array;
+        final IntValue size;
+        final IntValue value;
+        final int line;
+
+        IntArrayAssign(int array, IntValue size, IntValue value, int line) {
+            super(IRInstruction.OpCode.ASSIGN);
+            this.array = array;
+            this.size = size;
+            this.value = value;
+            this.line = line;
+        }
+
+        Node execute(IRInterpreter.StackFrame sf) throws IRException {
+            count++;
+            int n = size.get(sf);
+            if (n < 0 || n > sf.layout.arraySizes[array])
+                interpreter.throwRuntimeException(line, "Out-of-bounds array access");
+            Arrays.fill(IRInterpreter.intArray(sf, array), 0, n, value.get(sf));
+            return next.execute(sf);
+        }
+    }
+
+    private final class FloatArrayAssign extends Straight {
+        final int array;
+        final IntValue size;
+        final FloatValue value;
+        final int line;
+
+        FloatArrayAssign(int array, IntValue size, FloatValue value, int line) {
+            super(IRInstruction.OpCode.ASSIGN);
+            this.array = array;
+            this.size = size;
+            this.value = value;
+            this.line = line;
+        }
+
+        Node execute(IRInterpreter.StackFrame sf) throws IRException {
+            count++;
+            int n = size.get(sf);
+            if (n < 0 || n > sf.layout.arraySizes[array])
+                interpreter.throwRuntimeException(line, "Out-of-bounds array access");
+            Arrays.fill(IRInterpreter.floatArray(sf, array), 0, n, value.get(sf));
+            return next.execute(sf);
+        }
+    }
+
+    private abstract static class IntBinary extends Straight {
+        final int dst;
+        final IntValue y;
+        final IntValue z;
+
+        IntBinary(IRInstruction.OpCode opCode, int dst, IntValue y, IntValue z) {
+            super(opCode);
+            this.dst = dst;
+            this.y = y;
+            this.z = z;
+        }
+    }
+
+    private static final class IntAdd extends IntBinary {
+        IntAdd(int dst, IntValue y, IntValue z) {
+            super(IRInstruction.OpCode.ADD, dst, y, z);
+        }
+
+        Node execute(IRInterpreter.StackFrame sf) throws IRException {
+            count++;
+            sf.ints[dst] = y.get(sf) + z.get(sf);
+            return next.execute(sf);
+        }
+    }
+
+    private static final class IntSub extends IntBinary {
+        IntSub(int dst, IntValue y, IntValue z) {
+            super(IRInstruction.OpCode.SUB, dst, y, z);
+        }
+
+        Node execute(IRInterpreter.StackFrame sf) throws IRException {
+            count++;
+            sf.ints[dst] = y.get(sf) - z.get(sf);
+            return next.execute(sf);
+        }
+    }
+
+    private static final class IntMult extends IntBinary {
+        IntMult(int dst, IntValue y, IntValue z) {
+            super(IRInstruction.OpCode.MULT, dst, y, z);
+        }
+
+        Node execute(IRInterpreter.StackFrame sf) throws IRException {
+            count++;
+            sf.ints[dst] = y.get(sf) * z.get(sf);
+            return next.execute(sf);
+        }
+    }
+
+    private static final class IntDiv extends IntBinary {
+        IntDiv(int dst, IntValue y, IntValue z) {
+            super(IRInstruction.OpCode.DIV, dst, y, z);
+        }
+
+        Node execute(IRInterpreter.StackFrame sf) throws IRException {
+            count++;
+            sf.ints[dst] = y.get(sf) / z.get(sf);
+            return next.execute(sf);
+        }
+    }
+
+    private static final class IntAnd extends IntBinary {
+        IntAnd(int dst, IntValue y, IntValue z) {
+            super(IRInstruction.OpCode.AND, dst, y, z);
+        }
+
+        Node execute(IRInterpreter.StackFrame sf) throws IRException {
+            count++;
+            sf.ints[dst] = y.get(sf) & z.get(sf);
+            return next.execute(sf);
+        }
+    }
+
+    private static final class IntOr extends IntBinary {
+        IntOr(int dst, IntValue y, IntValue z) {
+            super(IRInstruction.OpCode.OR, dst, y, z);
+        }
+
+        Node execute(IRInterpreter.StackFrame sf) throws IRException {
+            count++;
+            sf.ints[dst] = y.get(sf) | z.get(sf);
+            return next.execute(sf);
+        }
+    }
+
+    private abstract static class FloatBinary extends Straight {
+        final int dst;
+        final FloatValue y;
+        final FloatValue z;
+
+        FloatBinary(IRInstruction.OpCode opCode, int dst, FloatValue y, FloatValue z) {
+            super(opCode);
+            this.dst = dst;
+            this.y = y;
+            this.z = z;
+        }
+    }
+
+    private static final class FloatAdd extends FloatBinary {
+        FloatAdd(int dst, FloatValue y, FloatValue z) {
+            super(IRInstruction.OpCode.ADD, dst, y, z);
+        }
+
+        Node execute(IRInterpreter.StackFrame sf) throws IRException {
+            count++;
+            sf.floats[dst] = y.get(sf) + z.get(sf);
+            return next.execute(sf);
+        }
+    }
+
+    private static final class FloatSub extends FloatBinary {
+        FloatSub(int dst, FloatValue y, FloatValue z) {
+            super(IRInstruction.OpCode.SUB, dst, y, z);
+        }
+
+        Node execute(IRInterpreter.StackFrame sf) throws IRException {
+            count++;
+            sf.floats[dst] = y.get(sf) - z.get(sf);
+            return next.execute(sf);
+        }
+    }
+
+    private static final class FloatMult extends FloatBinary {
+        FloatMult(int dst, FloatValue y, FloatValue z) {
+            super(IRInstruction.OpCode.MULT, dst, y, z);
+        }
+
+        Node execute(IRInterpreter.StackFrame sf) throws IRException {
+            count++;
+            sf.floats[dst] = y.get(sf) * z.get(sf);
+            return next.execute(sf);
+        }
+    }
+
+    private static final class FloatDiv extends FloatBinary {
+        FloatDiv(int dst, FloatValue y, FloatValue z) {
+            super(IRInstruction.OpCode.DIV, dst, y, z);
+        }
+
+        Node execute(IRInterpreter.StackFrame sf) throws IRException {
+            count++;
+            sf.floats[dst] = y.get(sf) / z.get(sf);
+            return next.execute(sf);
+        }
+    }
+
+    // A node that continues at a label. The label is skipped and counted here.
+    private abstract static class Jump extends Node {
+        final String labelName;
+        Label label;
+        Node target;
+
+        Jump(IRInstruction.OpCode opCode, String labelName) {
+            super(opCode);
+            this.labelName = labelName;
+        }
+
+        void link(Map<String, Label> labels) {
+            label = labels.get(labelName);
+            target = label.next;
+        }
+
+        Node jump() {
+            label.count++;
+            return target;
+        }
+    }
+
+    private static final class Goto extends Jump {
+        Goto(String labelName) {
+            super(IRInstruction.OpCode.GOTO, labelName);
+        }
+
+        Node execute(IRInterpreter.StackFrame sf) {
+            count++;
+            return jump();
+        }
+    }
+
+    private abstract static class IntBranch extends Jump {
+        final IntValue a;
+        final IntValue b;
+
+        IntBranch(IRInstruction.OpCode opCode, String labelName, IntValue a, IntValue b) {
+            super(opCode, labelName);
+            this.a = a;
+            this.b = b;
+        }
+    }
+
+    private static final class IntBreq extends IntBranch {
+        IntBreq(String labelName, IntValue a, IntValue b) {
+            super(IRInstruction.OpCode.BREQ, labelName, a, b);
+        }
+
+        Node execute(IRInterpreter.StackFrame sf) {
+            count++;
+            return a.get(sf) == b.get(sf) ? jump() : next;
+        }
+    }
+
+    private static final class IntBrneq extends IntBranch {
+        IntBrneq(String labelName, IntValue a, IntValue b) {
+            super(IRInstruction.OpCode.BRNEQ, labelName, a, b);
+        }
+
+        Node execute(IRInterpreter.StackFrame sf) {
+            count++;
+            return a.get(sf) != b.get(sf) ? jump() : next;
+        }
+    }
+
+    private static final class IntBrlt extends IntBranch {
+        IntBrlt(String labelName, IntValue a, IntValue b) {
+            super(IRInstruction.OpCode.BRLT, labelName, a, b);
+        }
+
+        Node execute(IRInterpreter.StackFrame sf) {
+            count++;
+            return a.get(sf) < b.get(sf) ? jump() : next;
+        }
+    }
+
+    private static final class IntBrgt extends IntBranch {
+        IntBrgt(String labelName, IntValue a, IntValue b) {
+            super(IRInstruction.OpCode.BRGT, labelName, a, b);
+        }
+
+        Node execute(IRInterpreter.StackFrame sf) {
+            count++;
+            return a.get(sf) > b.get(sf) ? jump() : next;
+        }
+    }
+
+    private static final class IntBrgeq extends IntBranch {
+        IntBrgeq(String labelName, IntValue a, IntValue b) {
+            super(IRInstruction.OpCode.BRGEQ, labelName, a, b);
+        }
+
+        Node execute(IRInterpreter.StackFrame sf) {
+            count++;
+            return a.get(sf) >= b.get(sf) ? jump() : next;
+        }
+    }
+
+    private abstract static class FloatBranch extends Jump {
+        final FloatValue a;
+        final FloatValue b;
+
+        FloatBranch(IRInstruction.OpCode opCode, String labelName, FloatValue a, FloatValue b) {
+            super(opCode, labelName);
+            this.a = a;
+            this.b = b;
+        }
+    }
+
+    private static final class FloatBreq extends FloatBranch {
+        FloatBreq(String labelName, FloatValue a, FloatValue b) {
+            super(IRInstruction.OpCode.BREQ, labelName, a, b);
+        }
+
+        Node execute(IRInterpreter.StackFrame sf) {
+            count++;
+            return a.get(sf) == b.get(sf) ? jump() : next;
+        }
+    }
+
+    private static final class FloatBrneq extends FloatBranch {
+        FloatBrneq(String labelName, FloatValue a, FloatValue b) {
+            super(IRInstruction.OpCode.BRNEQ, labelName, a, b);
+        }
+
+        Node execute(IRInterpreter.StackFrame sf) {
+            count++;
+            return a.get(sf) != b.get(sf) ? jump() : next;
+        }
+    }
+
+    private static final class FloatBrlt extends FloatBranch {
+        FloatBrlt(String labelName, FloatValue a, FloatValue b) {
+            super(IRInstruction.OpCode.BRLT, labelName, a, b);
+        }
+
+        Node execute(IRInterpreter.StackFrame sf) {
+            count++;
+            return a.get(sf) < b.get(sf) ? jump() : next;
+        }
+    }
+
+    private static final class FloatBrgt extends FloatBranch {
+        FloatBrgt(String labelName, FloatValue a, FloatValue b) {
+            super(IRInstruction.OpCode.BRGT, labelName, a, b);
+        }
+
+        Node execute(IRInterpreter.StackFrame sf) {
+            count++;
+            return a.get(sf) > b.get(sf) ? jump() : next;
+        }
+    }
+
+    private static final class FloatBrgeq extends FloatBranch {
+        FloatBrgeq(String labelName, FloatValue a, FloatValue b) {
+            super(IRInstruction.OpCode.BRGEQ, labelName, a, b);
+        }
+
+        Node execute(IRInterpreter.StackFrame sf) {
+            count++;
+            return a.get(sf) >= b.get(sf) ? jump() : next;
+        }
+    }
+
+    private final class IntReturn extends Node {
+        final IntValue value;
+
+        IntReturn(IntValue value) {
+            super(IRInstruction.OpCode.RETURN);
+            this.value = value;
+        }
+
+        Node execute(IRInterpreter.StackFrame sf) {
+            count++;
+            intResult = value.get(sf);
+            return null;
+        }
+    }
+
+    private final class FloatReturn extends Node {
+        final FloatValue value;
+
+        FloatReturn(FloatValue value) {
+            super(IRInstruction.OpCode.RETURN);
+            this.value = value;
+        }
+
+        Node execute(IRInterpreter.StackFrame sf) {
+            count++;
+            floatResult = value.get(sf);
+            return null;
+        }
+    }
+
+    private final class Call extends Node {
+        final Function callee;
+        final int dst;
+        final boolean intDst;
+        final int line;
+        final IntValue[] intArgs;
+        final int[] intParams;
+        final FloatValue[] floatArgs;
+        final int[] floatParams;
+        final int[] arrayArgs;
+        final int[] arrayParams;
+
+        Call(Function callee, int dst, boolean intDst, int line,
+             IntValue[] intArgs, int[] intParams, FloatValue[] floatArgs, int[] floatParams,
+             int[] arrayArgs, int[] arrayParams) {
+            super(dst == -1 ? IRInstruction.OpCode.CALL : IRInstruction.OpCode.CALLR);
+            this.callee = callee;
+            this.dst = dst;
+            this.intDst = intDst;
+            this.line = line;
+            this.intArgs = intArgs;
+            this.intParams = intParams;
+            this.floatArgs = floatArgs;
+            this.floatParams = floatParams;
+            this.arrayArgs = arrayArgs;
+            this.arrayParams = arrayParams;
+        }
+
+        Node execute(IRInterpreter.StackFrame sf) throws IRException {
+            count++;
+            IRInterpreter.StackFrame calleeSF = stack.push();
+            calleeSF.caller = sf.function;
+            calleeSF.callLineNumber = line;
+            calleeSF.function = callee.function;
+            interpreter.allocateFrame(calleeSF, callee.layout);
+            for (int i = 0; i < intArgs.length; i++)
+                calleeSF.ints[intParams[i]] = intArgs[i].get(sf);
+            for (int i = 0; i < floatArgs.length; i++)
+                calleeSF.floats[floatParams[i]] = floatArgs[i].get(sf);
+            for (int i = 0; i < arrayArgs.length; i++)
+                calleeSF.arrays[arrayParams[i]] = IRInterpreter.array(sf, arrayArgs[i]);
+
+            IRTreeEngine.execute(callee, calleeSF);
+            stack.pop();
+            if (dst != -1) {
+                if (intDst)
+                    sf.ints[dst] = intResult;
+                else
+                    sf.floats[dst] = floatResult;
+            }
+            return next;
+        }
+    }
+
+    private final class UndefinedCall extends Straight {
+        final String message;
+        final int line;
+
+        UndefinedCall(String message, int line) {
+            super(IRInstruction.OpCode.CALL);
+            this.message = message;
+            this.line = line;
+        }
+
+        Node execute(IRInterpreter.StackFrame sf) throws IRException {
+            count++;
+            interpreter.throwRuntimeException(line, message);
+            return next.execute(sf);
+        }
+    }
+
+    private final class Geti extends Straight {
+        final int dst;
+
+        Geti(int dst) {
+            super(IRInstruction.OpCode.CALLR);
+            this.dst = dst;
+        }
+
+        Node execute(IRInterpreter.StackFrame sf) throws IRException {
+            count++;
+            sf.ints[dst] = interpreter.geti();
+            return next.execute(sf);
+        }
+    }
+
+    private final class Getf extends Straight {
+        final int dst;
+
+        Getf(int dst) {
+            super(IRInstruction.OpCode.CALLR);
+            this.dst = dst;
+        }
+
+        Node execute(IRInterpreter.StackFrame sf) throws IRException {
+            count++;
+            sf.floats[dst] = interpreter.getf();
+            return next.execute(sf);
+        }
+    }
+
+    private final class Getc extends Straight {
+        final int dst;
+
+        Getc(int dst) {
+            super(IRInstruction.OpCode.CALLR);
+            this.dst = dst;
+        }
+
+        Node execute(IRInterpreter.StackFrame sf) throws IRException {
+            count++;
+            sf.ints[dst] = interpreter.getc();
+            return next.execute(sf);
+        }
+    }
+
+    private final class Puti extends Straight {
+        final IntValue value;
+
+        Puti(IntValue value) {
+            super(IRInstruction.OpCode.CALL);
+            this.value = value;
+        }
+
+        Node execute(IRInterpreter.StackFrame sf) throws IRException {
+            count++;
+            interpreter.puti(value.get(sf));
+            return next.execute(sf);
+        }
+    }
+
+    private final class Putf extends Straight {
+        final FloatValue value;
+
+        Putf(FloatValue value) {
+            super(IRInstruction.OpCode.CALL);
+            this.value = value;
+        }
+
+        Node execute(IRInterpreter.StackFrame sf) throws IRException {
+            count++;
+            interpreter.putf(value.get(sf));
+            return next.execute(sf);
+        }
+    }
+
+    private final class Putc extends Straight {
+        final IntValue value;
+
+        Putc(IntValue value) {
+            super(IRInstruction.OpCode.CALL);
+            this.value = value;
+        }
+
+        Node execute(IRInterpreter.StackFrame sf) throws IRException {
+            count++;
+            interpreter.putc(value.get(sf));
+            return next.execute(sf);
+        }
+    }
+
+    private final class IntArrayStore extends Straight {
+        final IntValue value;
+        final int array;
+        final IntValue index;
+        final int line;
+
+        IntArrayStore(IntValue value, int array, IntValue index, int line) {
+            super(IRInstruction.OpCode.ARRAY_STORE);
+            this.value = value;
+            this.array = array;
+            this.index = index;
+            this.line = line;
+        }
+
+        Node execute(IRInterpreter.StackFrame sf) throws IRException {
+            count++;
+            int i = index.get(sf);
+            if (i < 0 || i >= sf.layout.arraySizes[array])
+                interpreter.throwRuntimeException(line, "Out-of-bounds array access");
+            IRInterpreter.intArray(sf, array)[i] = value.get(sf);
+            return next.execute(sf);
+        }
+    }
+
+    private final class FloatArrayStore extends Straight {
+        final FloatValue value;
+        final int array;
+        final IntValue index;
+        final int line;
+
+        FloatArrayStore(FloatValue value, int array, IntValue index, int line) {
+            super(IRInstruction.OpCode.ARRAY_STORE);
+            this.value = value;
+            this.array = array;
+            this.index = index;
+            this.line = line;
+        }
+
+        Node execute(IRInterpreter.StackFrame sf) throws IRException {
+            count++;
+            int i = index.get(sf);
+            if (i < 0 || i >= sf.layout.arraySizes[array])
+                interpreter.throwRuntimeException(line, "Out-of-bounds array access");
+            IRInterpreter.floatArray(sf, array)[i] = value.get(sf);
+            return next.execute(sf);
+        }
+    }
+
+    private final class IntArrayLoad extends Straight {
+        final int dst;
+        final int array;
+        final IntValue index;
+        final int line;
+
+        IntArrayLoad(int dst, int array, IntValue index, int line) {
+            super(IRInstruction.OpCode.ARRAY_LOAD);
+            this.dst = dst;
+            this.array = array;
+            this.index = index;
+            this.line = line;
+        }
+
+        Node execute(IRInterpreter.StackFrame sf) throws IRException {
+            count++;
+            int i = index.get(sf);
+            if (i < 0 || i >= sf.layout.arraySizes[array])
+                interpreter.throwRuntimeException(line, "Out-of-bounds array access");
+            sf.ints[dst] = IRInterpreter.intArray(sf, array)[i];
+            return next.execute(sf);
+        }
+    }
+
+    private final class FloatArrayLoad extends Straight {
+        final int dst;
+        final int array;
+        final IntValue index;
+        final int line;
+
+        FloatArrayLoad(int dst, int array, IntValue index, int line) {
+            super(IRInstruction.OpCode.ARRAY_LOAD);
+            this.dst = dst;
+            this.array = array;
+            this.index = index;
+            this.line = line;
+        }
+
+        Node execute(IRInterpreter.StackFrame sf) throws IRException {
+            count++;
+            int i = index.get(sf);
+            if (i < 0 || i >= sf.layout.arraySizes[array])
+                interpreter.throwRuntimeException(line, "Out-of-bounds array access");
+            sf.floats[dst] = IRInterpreter.floatArray(sf, array)[i];
+            return next.execute(sf);
+        }
+    }
+}
@@ -0,0 +1,392 @@
+package ir;
+
+import ir.datatype.IRArrayType;
+import ir.datatype.IRFloatType;
+import ir.datatype.IRIntType;
+import ir.datatype.IRType;
+import ir.operand.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Binary cache of parsed IR programs, kept next to the IR file as file.ir.irc.
+ *
+ * A cache starts with a magic number, the format version and the SHA-256 hash of the IR text
+ * it was made from. If all of them match, load decodes the program from a memory-mapped view
+ * of the cache without running the text parser: names are in a string table, variables are
+ * typed per function, constants are typed and jump targets are instruction indices. Otherwise,
+ * or if the cache cannot be read, the IR is parsed as text and a new cache is written if the
+ * directory is writable.
+ *
+ * Layout, where int is a 4-byte big-endian int and var an unsigned varint (7 bits per byte,
+ * low bits first):
+ *   int magic, int version, byte[32] hash
+ *   var string count, then per string: var length, UTF-8 bytes
+ *   var function count, then per function:
+ *     var name, type return type
+ *     var parameter count, then per parameter: type, var name
+ *     var variable count, then per variable: var parameter index * 2 + 1, or var name * 2
+ *       followed by type
+ *     var instruction count, then per instruction:
+ *       byte opcode, var line number, byte operand count, then per operand:
+ *         VARIABLE var variable index | CONSTANT type, var value | LABEL var name |
+ *         TARGET var instruction index of the label | FUNCTION var name
+ * where names and values are string table indices and a type is a byte (VOID, INT, FLOAT,
+ * INT_ARRAY or FLOAT_ARRAY), followed by a var size for arrays.
+ */
+public class IRBinaryCache {
+
+    public static final String SUFFIX = ".irc";
+
+    private static final int MAGIC = 0x49524243; // "IRBC"
+
+    // Incremented whenever the layout changes
+    private static final int VERSION = 1;
+
+    private static final int HASH_LENGTH = 32;
+
+    private static final byte VOID = 0;
+    private static final byte INT = 1;
+    private static final byte FLOAT = 2;
+    private static final byte INT_ARRAY = 3;
+    private static final byte FLOAT_ARRAY = 4;
+
+    private static final byte VARIABLE = 0;
+    private static final byte CONSTANT = 1;
+    private static final byte LABEL = 2;
+    private static final byte TARGET = 3;
+    private static final byte FUNCTION = 4;
+
+    private static final IRInstruction.OpCode[] OPCODES = IRInstruction.OpCode.values();
+
+    public static IRProgram load(String filename) throws FileNotFoundException, IRException {
+        return load(filename, 1);
+    }
+
+    /**
+     * Reads an IR file through its cache, parsing it as text with the given number of threads
+     * (see IRReader.setParallelism) and updating the cache if the cache is missing or stale.
+     */
+    public static IRProgram load(String filename, int parallelism) throws FileNotFoundException, IRException {
+        IRReader reader = new IRReader();
+        reader.setParallelism(parallelism);
+        byte[] hash;
+        try {
+            hash = hash(Paths.get(filename));
+        } catch (IOException e) {
+            // Let the text parser report the file
+            return reader.parseIRFile(filename);
+        }
+        Path cache = Paths.get(filename + SUFFIX);
+        IRProgram program = read(cache, hash);
+        if (program != null)
+            return program;
+        program = reader.parseIRFile(filename);
+        write(program, cache, hash);
+        return program;
+    }
+
+    private static byte[] hash(Path file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > 0)
+                digest.update(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+        return digest.digest();
+    }
+
+    // Reading
+
+    // Returns null if the cache does not exist, is stale or cannot be decoded
+    private static IRProgram read(Path cache, byte[] hash) {
+        try (FileChannel channel = FileChannel.open(cache, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+                return null;
+            byte[] cacheHash = new byte[HASH_LENGTH];
+            buffer.get(cacheHash);
+            if (!Arrays.equals(cacheHash, hash))
+                return null;
+            return decode(buffer);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static IRProgram decode(ByteBuffer buffer) {
+        String[] strings = new String[readCount(buffer)];
+        for (int i = 0; i < strings.length; i++) {
+            byte[] bytes = new byte[readCount(buffer)];
+            buffer.get(bytes);
+            strings[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        int functionCount = readCount(buffer);
+        List<IRFunction> functions = new ArrayList<>(functionCount);
+        for (int f = 0; f < functionCount; f++) {
+            String name = strings[readVar(buffer)];
+            IRType returnType = readType(buffer);
+
+            List<IRVariableOperand> params = new ArrayList<>();
+            int paramCount = readCount(buffer);
+            for (int i = 0; i < paramCount; i++) {
+                IRType type = readType(buffer);
+                params.add(new IRVariableOperand(type, strings[readVar(buffer)], null));
+            }
+            List<IRVariableOperand> variables = new ArrayList<>();
+            int variableCount = readCount(buffer);
+            for (int i = 0; i < variableCount; i++) {
+                int ref = readVar(buffer);
+                if ((ref & 1) != 0) {
+                    variables.add(params.get(ref >>> 1));
+                } else {
+                    IRType type = readType(buffer);
+                    variables.add(new IRVariableOperand(type, strings[ref >>> 1], null));
+                }
+            }
+
+            IRSymbolTable symbols = new IRSymbolTable(params, variables);
+
+            int instructionCount = readCount(buffer);
+            List<IRInstruction> instructions = new ArrayList<>(instructionCount);
+            // Jump targets are resolved once all labels have been read
+            List<int[]> targets = new ArrayList<>();
+            for (int i = 0; i < instructionCount; i++) {
+                IRInstruction instruction = new IRInstruction();
+                instruction.opCode = OPCODES[buffer.get()];
+                instruction.irLineNumber = readVar(buffer);
+                instruction.operands = new IROperand[buffer.get()];
+                for (int j = 0; j < instruction.operands.length; j++) {
+                    IROperand operand;
+                    switch (buffer.get()) {
+                        case VARIABLE: {
+                            operand = symbols.operand(variables.get(readVar(buffer)).symbol);
+                            break;
+                        }
+                        case CONSTANT: {
+                            IRType type = readType(buffer);
+                            operand = new IRConstantOperand(type, strings[readVar(buffer)], instruction);
+                            break;
+                        }
+                        case LABEL:
+                            operand = new IRLabelOperand(strings[readVar(buffer)], instruction);
+                            break;
+                        case TARGET:
+                            targets.add(new int[]{i, j, readVar(buffer)});
+                            operand = null;
+                            break;
+                        case FUNCTION:
+                            operand = new IRFunctionOperand(strings[readVar(buffer)], instruction);
+                            break;
+                        default:
+                            throw new IllegalStateException("Invalid operand kind");
+                    }
+                    instruction.operands[j] = operand;
+                }
+                instructions.add(instruction);
+            }
+            for (int[] target : targets) {
+                IRInstruction instruction = instructions.get(target[0]);
+                String label = ((IRLabelOperand) instructions.get(target[2]).operands[0]).getName();
+                instruction.operands[target[1]] = new IRLabelOperand(label, instruction);
+            }
+
+            IRFunction function = new IRFunction(name, returnType, params, variables, instructions);
+            function.symbols = symbols;
+            functions.add(function);
+        }
+        if (buffer.hasRemaining())
+            throw new IllegalStateException("Trailing data");
+        return new IRProgram(functions);
+    }
+
+    private static int readVar(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7f) << shift;
+            if (b >= 0)
+                return value;
+        }
+        throw new IllegalStateException("Invalid varint");
+    }
+
+    // A count of items that each take at least a byte, so that a corrupt cache fails instead
+    // of allocating arrays larger than the file
+    private static int readCount(ByteBuffer buffer) {
+        int count = readVar(buffer);
+        if (count > buffer.remaining())
+            throw new IllegalStateException("Invalid count");
+        return count;
+    }
+
+    private static IRType readType(ByteBuffer buffer) {
+        switch (buffer.get()) {
+            case VOID:
+                return null;
+            case INT:
+                return IRIntType.get();
+            case FLOAT:
+                return IRFloatType.get();
+            case INT_ARRAY:
+                return IRArrayType.get(IRIntType.get(), readVar(buffer));
+            case FLOAT_ARRAY:
+                return IRArrayType.get(IRFloatType.get(), readVar(buffer));
+            default:
+                throw new IllegalStateException("Invalid type");
+        }
+    }
+
+    // Writing
+
+    // Writes the cache through a temporary file, so that concurrent readers never see a
+    // partial one. A cache that cannot be written is skipped.
+    private static void write(IRProgram program, Path cache, byte[] hash) {
+        Path temp = null;
+        try {
+            byte[] bytes = encode(program, hash);
+            Path dir = cache.toAbsolutePath().getParent();
+            temp = dir.resolve(cache.getFileName() + "." + ProcessHandle.current().pid() + "."
+                    + Thread.currentThread().getId() + ".tmp");
+            Files.write(temp, bytes, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            try {
+                Files.move(temp, cache, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, cache, StandardCopyOption.REPLACE_EXISTING);
+            }
+            temp = null;
+        } catch (IOException | RuntimeException e) {
+            // Only start-up time is lost
+        } finally {
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException e) {
+                    // Nothing left to do
+                }
+            }
+        }
+    }
+
+    private static byte[] encode(IRProgram program, byte[] hash) throws IOException {
+        Map<String, Integer> strings = new LinkedHashMap<>();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(body);
+
+        writeVar(out, program.functions.size());
+        for (IRFunction function : program.functions) {
+            writeVar(out, intern(strings, function.name));
+            writeType(out, function.returnType);
+
+            writeVar(out, function.parameters.size());
+            for (IRVariableOperand param : function.parameters) {
+                writeType(out, param.type);
+                writeVar(out, intern(strings, param.getName()));
+            }
+            // Index in function.variables by symbol id
+            int[] variableIndices = new int[function.symbols.size()];
+            writeVar(out, function.variables.size());
+            for (int i = 0; i < function.variables.size(); i++) {
+                IRVariableOperand variable = function.variables.get(i);
+                variableIndices[variable.symbol.id] = i;
+                int param = function.parameters.indexOf(variable);
+                if (param >= 0) {
+                    writeVar(out, param << 1 | 1);
+                } else {
+                    writeVar(out, intern(strings, variable.getName()) << 1);
+                    writeType(out, variable.type);
+                }
+            }
+
+            Map<String, Integer> labelIndices = new HashMap<>();
+            for (int i = 0; i < function.instructions.size(); i++) {
+                IRInstruction instruction = function.instructions.get(i);
+                if (instruction.opCode == IRInstruction.OpCode.LABEL)
+                    labelIndices.put(((IRLabelOperand) instruction.operands[0]).getName(), i);
+            }
+            writeVar(out, function.instructions.size());
+            for (IRInstruction instruction : function.instructions) {
+                out.writeByte(instruction.opCode.ordinal());
+                writeVar(out, instruction.irLineNumber);
+                out.writeByte(instruction.operands.length);
+                for (IROperand operand : instruction.operands) {
+                    if (operand instanceof IRVariableOperand) {
+                        out.writeByte(VARIABLE);
+                        writeVar(out, variableIndices[((IRVariableOperand) operand).symbol.id]);
+                    } else if (operand instanceof IRConstantOperand) {
+                        out.writeByte(CONSTANT);
+                        writeType(out, ((IRConstantOperand) operand).type);
+                        writeVar(out, intern(strings, ((IRConstantOperand) operand).getValueString()));
+                    } else if (operand instanceof IRLabelOperand) {
+                        String name = ((IRLabelOperand) operand).getName();
+                        if (instruction.opCode == IRInstruction.OpCode.LABEL) {
+                            out.writeByte(LABEL);
+                            writeVar(out, intern(strings, name));
+                        } else {
+                            out.writeByte(TARGET);
+                            writeVar(out, labelIndices.get(name));
+                        }
+                    } else {
+                        out.writeByte(FUNCTION);
+                        writeVar(out, intern(strings, ((IRFunctionOperand) operand).getName()));
+                    }
+                }
+            }
+        }
+        out.flush();
+
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(file);
+        header.writeInt(MAGIC);
+        header.writeInt(VERSION);
+        header.write(hash);
+        writeVar(header, strings.size());
+        for (String s : strings.keySet()) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVar(header, bytes.length);
+            header.write(bytes);
+        }
+        header.flush();
+        body.writeTo(file);
+        return file.toByteArray();
+    }
+
+    private static int intern(Map<String, Integer> strings, String s) {
+        return strings.computeIfAbsent(s, k -> strings.size());
+    }
+
+    private static void writeVar(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.writeByte(value & 0x7f | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static void writeType(DataOutputStream out, IRType type) throws IOException {
+        if (type == null) {
+            out.writeByte(VOID);
+        } else if (type == IRIntType.get()) {
+            out.writeByte(INT);
+        } else if (type == IRFloatType.get()) {
+            out.writeByte(FLOAT);
+        } else {
+            IRArrayType arrayType = (IRArrayType) type;
+            out.writeByte(arrayType.getElementType() == IRIntType.get() ? INT_ARRAY : FLOAT_ARRAY);
+            writeVar(out, arrayType.getSize());
+        }
+    }
+}
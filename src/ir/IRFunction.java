@@ -17,6 +17,9 @@ public class IRFunction {
 
     public List<IRInstruction> instructions;
 
+    // Symbols of the parameters and variables; null until the body is parsed
+    public IRSymbolTable symbols;
+
     public IRFunction(String name, IRType returnType,
                       List<IRVariableOperand> parameters, List<IRVariableOperand> variables,
                       List<IRInstruction> instructions) {
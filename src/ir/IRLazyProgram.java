@@ -0,0 +1,53 @@
+package ir;
+
+import java.util.*;
+
+/**
+ * An IRProgram whose function bodies are parsed on demand, created by IRReader.indexIRFile.
+ *
+ * Every function starts with its name, return type and parameters, and null variables and
+ * instructions. materialize parses the body of a function from the lines kept for it and
+ * checks its calls, after which the function is the same as one read by parseIRFile.
+ */
+public class IRLazyProgram extends IRProgram {
+
+    private final IRReader reader;
+
+    // Lines of the functions that are not materialized yet
+    private final Map<IRFunction, List<IRReader.IRLine>> bodies = new HashMap<>();
+
+    // Functions and intrinsics by name, for checking calls
+    private final Map<String, IRFunction> functionMap = new HashMap<>();
+
+    IRLazyProgram(IRReader reader, List<IRFunction> functions, List<List<IRReader.IRLine>> functionLines,
+                  Collection<IRFunction> intrinsics) {
+        super(functions);
+        this.reader = reader;
+        for (int i = 0; i < functions.size(); i++) {
+            IRFunction function = functions.get(i);
+            bodies.put(function, functionLines.get(i));
+            functionMap.put(function.name, function);
+        }
+        for (IRFunction intrinsic : intrinsics)
+            functionMap.put(intrinsic.name, intrinsic);
+    }
+
+    public synchronized boolean isMaterialized(IRFunction function) {
+        return !bodies.containsKey(function);
+    }
+
+    // Parses the body of a function of this program if it is not parsed yet
+    public synchronized void materialize(IRFunction function) throws IRException {
+        List<IRReader.IRLine> irLines = bodies.get(function);
+        if (irLines == null)
+            return;
+        reader.parseBody(function, irLines);
+        reader.checkCalls(function, functionMap);
+        bodies.remove(function);
+    }
+
+    public void materializeAll() throws IRException {
+        for (IRFunction function : functions)
+            materialize(function);
+    }
+}
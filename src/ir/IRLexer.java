@@ -0,0 +1,128 @@
+package ir;
+
+/**
+ * Character-level scanning of IR text for IRReader, in place of regular expressions.
+ *
+ * Each method gives the same result as the regular expression it replaces, noted on it, in
+ * a single pass over the characters and without allocating anything but its result.
+ */
+final class IRLexer {
+
+    private IRLexer() {}
+
+    // \s of java.util.regex
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    private static boolean isSeparator(char c, boolean signature) {
+        if (isWhitespace(c) || c == ',')
+            return true;
+        return signature && (c == '(' || c == ')' || c == ':');
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * Splits an instruction or variable list into tokens, like text.split("[,\\s]+"), or a
+     * signature, like text.replaceAll("[\\s(),:]+", " ").split(" "). As with String.split,
+     * text that starts with a separator gives a leading empty token and trailing empty tokens
+     * are dropped.
+     */
+    static String[] split(String text, boolean signature) {
+        int length = text.length();
+        int count = 0;
+        boolean separated = false;
+        for (int i = 0; i < length; ) {
+            if (isSeparator(text.charAt(i), signature)) {
+                if (i == 0)
+                    count++;
+                separated = true;
+                while (i < length && isSeparator(text.charAt(i), signature))
+                    i++;
+            } else {
+                count++;
+                while (i < length && !isSeparator(text.charAt(i), signature))
+                    i++;
+            }
+        }
+        if (!separated)
+            return new String[]{text};
+        boolean leadingEmpty = isSeparator(text.charAt(0), signature);
+        if (count == 1 && leadingEmpty)
+            return new String[0];
+
+        String[] tokens = new String[count];
+        int t = 0;
+        if (leadingEmpty)
+            tokens[t++] = "";
+        for (int i = 0; i < length; ) {
+            if (isSeparator(text.charAt(i), signature)) {
+                i++;
+            } else {
+                int start = i;
+                while (i < length && !isSeparator(text.charAt(i), signature))
+                    i++;
+                tokens[t++] = text.substring(start, i);
+            }
+        }
+        return tokens;
+    }
+
+    // ^[A-Za-z_][A-Za-z0-9_]*$
+    static boolean isName(String s) {
+        if (s.isEmpty())
+            return false;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (!(c >= 'A' && c <= 'Z' || c >= 'a' && c <= 'z' || c == '_' || i > 0 && isDigit(c)))
+                return false;
+        }
+        return true;
+    }
+
+    // ^-?\d+(\.\d*)?$
+    static boolean isConstant(String s) {
+        int i = 0;
+        int length = s.length();
+        if (i < length && s.charAt(i) == '-')
+            i++;
+        int digitsStart = i;
+        while (i < length && isDigit(s.charAt(i)))
+            i++;
+        if (i == digitsStart)
+            return false;
+        if (i < length && s.charAt(i) == '.') {
+            i++;
+            while (i < length && isDigit(s.charAt(i)))
+                i++;
+        }
+        return i == length;
+    }
+
+    // ^\d+$ for s.substring(start, end)
+    static boolean isNumber(String s, int start, int end) {
+        if (start >= end)
+            return false;
+        for (int i = start; i < end; i++)
+            if (!isDigit(s.charAt(i)))
+                return false;
+        return true;
+    }
+
+    /**
+     * For an array declaration matching ^(.+)\[(\d+)\]$, the index of the '[' that separates
+     * the name from the size; -1 for anything else.
+     */
+    static int arraySizeStart(String s) {
+        int length = s.length();
+        if (length == 0 || s.charAt(length - 1) != ']')
+            return -1;
+        int bracket = s.lastIndexOf('[');
+        if (bracket < 1 || !isNumber(s, bracket + 1, length - 1))
+            return -1;
+        return bracket;
+    }
+}
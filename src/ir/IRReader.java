@@ -7,14 +7,18 @@ import ir.datatype.IRType;
 import ir.operand.*;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 public class IRReader {
 
-    private class IRLine {
+    static class IRLine {
         public int lineNumber;
         public String line;
 
@@ -26,14 +30,26 @@ public class IRReader {
 
     /**
      * A text scanner that returns a non-empty line with its line number in each iteration
+     *
+     * The file is decoded at once and split on the same line terminators as Scanner.nextLine.
+     * A file that is not valid in the default charset is read through a Scanner, which stops
+     * at the first malformed input.
      */
     private class IRScanner implements Iterator<IRLine> {
+        private String text;
+        private int position;
         private Scanner scanner;
         private IRLine nextLine;
         private int lineNumber;
 
         public IRScanner(File file) throws FileNotFoundException {
-            scanner = new Scanner(file);
+            try (FileInputStream in = new FileInputStream(file)) {
+                text = Charset.defaultCharset().newDecoder().decode(ByteBuffer.wrap(in.readAllBytes())).toString();
+            } catch (FileNotFoundException e) {
+                throw e;
+            } catch (IOException e) {
+                scanner = new Scanner(file);
+            }
             lineNumber = 0;
         }
 
@@ -41,9 +57,9 @@ public class IRReader {
         public boolean hasNext() {
             if (nextLine != null)
                 return true;
-            while (scanner.hasNextLine()) {
+            String line;
+            while ((line = readTrimmedLine()) != null) {
                 lineNumber++;
-                String line = scanner.nextLine().trim();
                 // Ignore empty lines
                 if (!line.isEmpty()) {
                     nextLine = new IRLine(lineNumber, line);
@@ -53,6 +69,32 @@ public class IRReader {
             return false;
         }
 
+        // The next line with surrounding whitespace removed as by String.trim, or null at the end
+        private String readTrimmedLine() {
+            if (scanner != null)
+                return scanner.hasNextLine() ? scanner.nextLine().trim() : null;
+            int length = text.length();
+            if (position >= length)
+                return null;
+            int end = position;
+            while (end < length && !isLineTerminator(text.charAt(end)))
+                end++;
+            int start = position;
+            position = end;
+            if (position < length && text.charAt(position++) == '\r' && position < length
+                    && text.charAt(position) == '\n')
+                position++;
+            while (start < end && text.charAt(start) <= ' ')
+                start++;
+            while (end > start && text.charAt(end - 1) <= ' ')
+                end--;
+            return text.substring(start, end);
+        }
+
+        private boolean isLineTerminator(char c) {
+            return c == '\n' || c == '\r' || c == '\u2028' || c == '\u2029' || c == '\u0085';
+        }
+
         @Override
         public IRLine next() throws NoSuchElementException {
             if (hasNext()) {
@@ -64,8 +106,24 @@ public class IRReader {
         }
     }
 
+    /**
+     * The result of parsing one function on a worker thread: the function or the error
+     */
+    private static class ParsedFunction {
+        public IRFunction function;
+        public IRException irException;
+        public RuntimeException runtimeException;
+    }
+
     private Map<String, IRFunction> intrinsics;
 
+    // Opcodes by their lower case name, for the names that IRInstruction.OpCode.valueOf
+    // accepts after toUpperCase in the default locale
+    private Map<String, IRInstruction.OpCode> opCodes;
+
+    // Number of threads parsing functions; 1 parses them one after another
+    private int parallelism = 1;
+
     public IRReader() {
         intrinsics = new HashMap<>();
         intrinsics.put("geti", new IRFunction("geti", IRIntType.get(), new ArrayList<>(), null, null));
@@ -74,13 +132,46 @@ public class IRReader {
         intrinsics.put("puti", new IRFunction("puti", null, Arrays.asList(new IRVariableOperand(IRIntType.get(), "i", null)), null, null));
         intrinsics.put("putf", new IRFunction("putf", null, Arrays.asList(new IRVariableOperand(IRFloatType.get(), "f", null)), null, null));
         intrinsics.put("putc", new IRFunction("putc", null, Arrays.asList(new IRVariableOperand(IRIntType.get(), "c", null)), null, null));
+
+        opCodes = new HashMap<>();
+        for (IRInstruction.OpCode opCode : IRInstruction.OpCode.values())
+            if (opCode.toString().toUpperCase().equals(opCode.name()))
+                opCodes.put(opCode.toString(), opCode);
+    }
+
+    /**
+     * Sets the number of threads that parse functions. With more than one, the file is split
+     * on #start_function/#end_function and the functions are parsed concurrently on a
+     * ForkJoinPool; the program, or the first error in file order, is the same as with one.
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("Parallelism must be positive");
+        this.parallelism = parallelism;
     }
 
     public IRProgram parseIRFile(String filename) throws FileNotFoundException, IRException {
+        return readIRFile(filename, false);
+    }
+
+    /**
+     * Reads only the signatures of the functions of an IR file, leaving their bodies to be
+     * parsed on demand (see IRLazyProgram). Errors in a body, including invalid calls, are
+     * only reported when the function is materialized.
+     */
+    public IRLazyProgram indexIRFile(String filename) throws FileNotFoundException, IRException {
+        return (IRLazyProgram) readIRFile(filename, true);
+    }
+
+    private IRProgram readIRFile(String filename, boolean index) throws FileNotFoundException, IRException {
         Set<String> functionNames = new HashSet<>();
         List<IRFunction> functions = new ArrayList<>();
 
         IRScanner irScanner = new IRScanner(new File(filename));
+        // Lines of the functions left to parse in parallel or index, and the error that ended
+        // the split
+        List<List<IRLine>> functionLines = new ArrayList<>();
+        IRException splitException = null;
         List<IRLine> irLines = new ArrayList<>();
         while (irScanner.hasNext()) {
             IRLine irLine = irScanner.next();
@@ -88,32 +179,56 @@ public class IRReader {
             int lineNumber = irLine.lineNumber;
 
             if (line.startsWith("#start_function")) {
-                if (!irLines.isEmpty())
-                    throw new IRException("Unexpected #start_function", lineNumber);
+                if (!irLines.isEmpty()) {
+                    splitException = new IRException("Unexpected #start_function", lineNumber);
+                    break;
+                }
                 irLines.add(irLine);
             } else if (line.startsWith("#end_function")) {
-                if (irLines.isEmpty())
-                    throw new IRException("Unexpected #end_function", lineNumber);
+                if (irLines.isEmpty()) {
+                    splitException = new IRException("Unexpected #end_function", lineNumber);
+                    break;
+                }
                 irLines.add(irLine);
 
-                IRFunction f = parseFunction(irLines);
-                if (functionNames.contains(f.name))
-                    throw new IRException(
-                            String.format("Redefinition of function '%s'", f.name),
-                            irLines.get(0).lineNumber);
-                if (intrinsics.containsKey(f.name))
-                    throw new IRException(
-                            String.format("Redefinition of intrinsic function '%s'", f.name),
-                            irLines.get(0).lineNumber);
-
-                functions.add(f);
-                functionNames.add(f.name);
-                irLines.clear();
+                if (parallelism > 1 || index) {
+                    functionLines.add(irLines);
+                    irLines = new ArrayList<>();
+                } else {
+                    addFunction(parseFunction(irLines), irLines, functions, functionNames);
+                    irLines.clear();
+                }
             } else {
                 irLines.add(irLine);
             }
         }
 
+        if (index) {
+            for (List<IRLine> lines : functionLines) {
+                IRFunction f = parseSignature(lines);
+                checkMain(f, lines);
+                addFunction(f, lines, functions, functionNames);
+            }
+            if (splitException != null)
+                throw splitException;
+            return new IRLazyProgram(this, functions, functionLines, intrinsics.values());
+        }
+
+        // Functions before the error are checked first, as when parsing one after another
+        if (!functionLines.isEmpty()) {
+            List<ParsedFunction> parsed = parseFunctions(functionLines);
+            for (int i = 0; i < parsed.size(); i++) {
+                ParsedFunction p = parsed.get(i);
+                if (p.irException != null)
+                    throw p.irException;
+                if (p.runtimeException != null)
+                    throw p.runtimeException;
+                addFunction(p.function, functionLines.get(i), functions, functionNames);
+            }
+        }
+        if (splitException != null)
+            throw splitException;
+
         // Check calls
         Map<String, IRFunction> functionMap = new HashMap<>();
         for (IRFunction f : functions)
@@ -121,60 +236,105 @@ public class IRReader {
         for (IRFunction f : intrinsics.values())
             functionMap.put(f.name, f);
         for (IRFunction f : functions)
-            for (IRInstruction inst : f.instructions) {
-                IRFunction callee;
-                int argIdx;
-                if (inst.opCode == IRInstruction.OpCode.CALL) {
-                    callee = functionMap.get(((IRFunctionOperand) inst.operands[0]).getName());
-                    if (callee == null || callee.parameters.size() != inst.operands.length - 1 || callee.returnType != null)
-                        throw new IRException("Invalid function call", inst.irLineNumber);
-                    argIdx = 1;
-                } else if (inst.opCode == IRInstruction.OpCode.CALLR) {
-                    callee = functionMap.get(((IRFunctionOperand) inst.operands[1]).getName());
-                    IRVariableOperand retVar = (IRVariableOperand) inst.operands[0];
-                    if (callee == null || callee.parameters.size() != inst.operands.length - 2 || retVar.type != callee.returnType)
-                        throw new IRException("Invalid function call", inst.irLineNumber);
-                    argIdx = 2;
-                } else
-                    continue;
-                for (IRVariableOperand param : callee.parameters) {
-                    IROperand arg = inst.operands[argIdx];
-                    IRType argType;
-                    if (arg instanceof IRVariableOperand)
-                        argType = ((IRVariableOperand) arg).type;
-                    else
-                        argType = ((IRConstantOperand) arg).type;
-                    if (param.type != argType)
-                        throw new IRException("Invalid function call", inst.irLineNumber);
-                    argIdx++;
-                }
-            }
+            checkCalls(f, functionMap);
 
         return new IRProgram(functions);
     }
 
-    private Pattern typePattern = Pattern.compile("^(?:(void)|(?:(int|float)(?:\\[(\\d+)\\])?))$");
+    void checkCalls(IRFunction f, Map<String, IRFunction> functionMap) throws IRException {
+        for (IRInstruction inst : f.instructions) {
+            IRFunction callee;
+            int argIdx;
+            if (inst.opCode == IRInstruction.OpCode.CALL) {
+                callee = functionMap.get(((IRFunctionOperand) inst.operands[0]).getName());
+                if (callee == null || callee.parameters.size() != inst.operands.length - 1 || callee.returnType != null)
+                    throw new IRException("Invalid function call", inst.irLineNumber);
+                argIdx = 1;
+            } else if (inst.opCode == IRInstruction.OpCode.CALLR) {
+                callee = functionMap.get(((IRFunctionOperand) inst.operands[1]).getName());
+                IRVariableOperand retVar = (IRVariableOperand) inst.operands[0];
+                if (callee == null || callee.parameters.size() != inst.operands.length - 2 || retVar.type != callee.returnType)
+                    throw new IRException("Invalid function call", inst.irLineNumber);
+                argIdx = 2;
+            } else
+                continue;
+            for (IRVariableOperand param : callee.parameters) {
+                IROperand arg = inst.operands[argIdx];
+                IRType argType;
+                if (arg instanceof IRVariableOperand)
+                    argType = ((IRVariableOperand) arg).type;
+                else
+                    argType = ((IRConstantOperand) arg).type;
+                if (param.type != argType)
+                    throw new IRException("Invalid function call", inst.irLineNumber);
+                argIdx++;
+            }
+        }
+    }
+
+    private void addFunction(IRFunction f, List<IRLine> irLines, List<IRFunction> functions,
+                             Set<String> functionNames) throws IRException {
+        if (functionNames.contains(f.name))
+            throw new IRException(
+                    String.format("Redefinition of function '%s'", f.name),
+                    irLines.get(0).lineNumber);
+        if (intrinsics.containsKey(f.name))
+            throw new IRException(
+                    String.format("Redefinition of intrinsic function '%s'", f.name),
+                    irLines.get(0).lineNumber);
+
+        functions.add(f);
+        functionNames.add(f.name);
+    }
+
+    // Parses each function on the pool. Functions only refer to each other by name, so they
+    // can be parsed independently; calls are checked once all of them are parsed.
+    private List<ParsedFunction> parseFunctions(List<List<IRLine>> functionLines) {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            List<ForkJoinTask<ParsedFunction>> tasks = new ArrayList<>();
+            for (List<IRLine> irLines : functionLines)
+                tasks.add(pool.submit(() -> {
+                    ParsedFunction p = new ParsedFunction();
+                    try {
+                        p.function = parseFunction(irLines);
+                    } catch (IRException e) {
+                        p.irException = e;
+                    } catch (RuntimeException e) {
+                        p.runtimeException = e;
+                    }
+                    return p;
+                }));
+            List<ParsedFunction> parsed = new ArrayList<>();
+            for (ForkJoinTask<ParsedFunction> task : tasks)
+                parsed.add(task.join());
+            return parsed;
+        } finally {
+            pool.shutdown();
+        }
+    }
 
+    // void, int, float, int[n] or float[n]
     private IRType parseType(String typeStr, int lineNumber) throws IRException {
-        Matcher m = typePattern.matcher(typeStr);
-        if (!m.matches())
-            throw new IRException(String.format("Invalid type '%s'", typeStr), lineNumber);
-        if (m.group(1) != null)
+        if (typeStr.equals("void"))
             return null;
         IRType elementType;
-        switch (m.group(2)) {
-            case "int":
-                elementType = IRIntType.get();
-                break;
-            case "float":
-                elementType = IRFloatType.get();
-                break;
-            default:
-                throw new IRException(String.format("Invalid type '%s'", typeStr), lineNumber);
+        int sizeStart;
+        if (typeStr.startsWith("int")) {
+            elementType = IRIntType.get();
+            sizeStart = 3;
+        } else if (typeStr.startsWith("float")) {
+            elementType = IRFloatType.get();
+            sizeStart = 5;
+        } else {
+            throw new IRException(String.format("Invalid type '%s'", typeStr), lineNumber);
         }
-        if (m.group(3) == null)
+        if (sizeStart == typeStr.length())
             return elementType;
-        int size = Integer.parseInt(m.group(3));
+        if (typeStr.charAt(sizeStart) != '[' || !typeStr.endsWith("]")
+                || !IRLexer.isNumber(typeStr, sizeStart + 1, typeStr.length() - 1))
+            throw new IRException(String.format("Invalid type '%s'", typeStr), lineNumber);
+        int size = Integer.parseInt(typeStr.substring(sizeStart + 1, typeStr.length() - 1));
         if (size <= 0)
             throw new IRException(String.format("Invalid array size '%d'", size), lineNumber);
         return IRArrayType.get(elementType, size);
@@ -182,15 +342,22 @@ public class IRReader {
 
     private IRFunction parseFunction(List<IRLine> irLines)
             throws IRException {
-        // variable name -> IRVariableOperand
-        Map<String, IRVariableOperand> variableMap = new HashMap<>();
+        IRFunction function = parseSignature(irLines);
+        parseBody(function, irLines);
+        checkMain(function, irLines);
+        return function;
+    }
+
+    // Parses the signature line; the function has no variables or instructions yet
+    private IRFunction parseSignature(List<IRLine> irLines) throws IRException {
+        Set<String> paramNames = new HashSet<>();
 
         Iterator<IRLine> it = irLines.iterator();
         it.next(); // Skip #start_function
 
         // Start parsing signature
         IRLine signatureLine = it.next();
-        String[] signatureTokens = signatureLine.line.replaceAll("[\\s(),:]+", " ").split(" ");
+        String[] signatureTokens = IRLexer.split(signatureLine.line, true);
         if (signatureTokens.length < 2 || signatureTokens.length % 2 != 0)
             throw new IRException("Invalid function signature", signatureLine.lineNumber);
 
@@ -209,22 +376,38 @@ public class IRReader {
             if (paramType == null)
                 throw new IRException(String.format("Invalid type '%s'", signatureTokens[i]), signatureLine.lineNumber);
             String paramName = signatureTokens[i + 1];
-            if (!paramName.matches("^[A-Za-z_][A-Za-z0-9_]*$"))
+            if (!IRLexer.isName(paramName))
                 throw new IRException(String.format("Invalid parameter name '%s'", paramName), signatureLine.lineNumber);
-            if (variableMap.containsKey(paramName))
+            if (!paramNames.add(paramName))
                 throw new IRException(
                         String.format("Redefinition of variable '%s'", paramName),
                         signatureLine.lineNumber);
-            IRVariableOperand param = new IRVariableOperand(paramType, paramName, null);
-            variableMap.put(paramName, param);
-            params.add(param);
+            params.add(new IRVariableOperand(paramType, paramName, null));
         }
 
+        return new IRFunction(functionName, retType, params, null, null);
+    }
+
+    // Parses the variable lists and instructions of a function whose signature is parsed
+    void parseBody(IRFunction function, List<IRLine> irLines) throws IRException {
+        IRType retType = function.returnType;
+
+        // variable name -> IRVariableOperand
+        Map<String, IRVariableOperand> variableMap = new HashMap<>();
+        for (IRVariableOperand param : function.parameters)
+            variableMap.put(param.getName(), param);
+
+        Iterator<IRLine> it = irLines.iterator();
+        it.next(); // Skip #start_function
+        it.next(); // Skip the signature
+
         // Parse variable lists
         IRLine intListLine = it.next();
         IRLine floatListLine = it.next();
         parseVariableList(intListLine, IRIntType.get(), variableMap);
         parseVariableList(floatListLine, IRFloatType.get(), variableMap);
+        List<IRVariableOperand> variables = new ArrayList<>(variableMap.values());
+        IRSymbolTable symbols = new IRSymbolTable(function.parameters, variables);
 
         // Parse instructions
         List<IRInstruction> instructions = new ArrayList<>();
@@ -232,7 +415,7 @@ public class IRReader {
             IRLine irLine = it.next();
             if (irLine.line.startsWith("#")) // Ignore #end_function
                 break;
-            instructions.add(parseInstruction(irLine, variableMap));
+            instructions.add(parseInstruction(irLine, symbols));
         }
 
         // Check Labels
@@ -244,7 +427,7 @@ public class IRReader {
                     throw new IRException(String.format("Redefinition of label '%s'", label), inst.irLineNumber);
             }
         for (IRInstruction inst : instructions)
-            if (inst.opCode == IRInstruction.OpCode.GOTO || inst.opCode.toString().startsWith("br")) {
+            if (inst.opCode == IRInstruction.OpCode.GOTO || isBranch(inst.opCode)) {
                 String label = ((IRLabelOperand) inst.operands[0]).getName();
                 if (!labels.contains(label))
                     throw new IRException(String.format("Undefined reference to label '%s'", label), inst.irLineNumber);
@@ -260,18 +443,30 @@ public class IRReader {
                     throw new IRException("Invalid return value type", inst.irLineNumber);
             }
 
-        // Check the main function
-        if (functionName.equals("main")) {
-            if (retType != null || params.size() != 0)
-                throw new IRException("Invalid main function", signatureLine.lineNumber);
-        }
-
-        return new IRFunction(functionName, retType, params, new ArrayList<>(variableMap.values()), instructions);
+        function.variables = variables;
+        function.instructions = instructions;
+        function.symbols = symbols;
     }
 
-    private Pattern arrayPattern = Pattern.compile("^(.+)\\[(\\d+)\\]$");
+    private void checkMain(IRFunction function, List<IRLine> irLines) throws IRException {
+        if (function.name.equals("main")) {
+            if (function.returnType != null || function.parameters.size() != 0)
+                throw new IRException("Invalid main function", irLines.get(1).lineNumber);
+        }
+    }
 
-    private Pattern varNamePattern = Pattern.compile("^[A-Za-z_][A-Za-z0-9_]*$");
+    private static boolean isBranch(IRInstruction.OpCode opCode) {
+        switch (opCode) {
+            case BREQ:
+            case BRNEQ:
+            case BRLT:
+            case BRGT:
+            case BRGEQ:
+                return true;
+            default:
+                return false;
+        }
+    }
 
     private void parseVariableList(IRLine varListLine, IRType elementType,
                                    Map<String, IRVariableOperand> variableMap) throws IRException {
@@ -279,21 +474,21 @@ public class IRReader {
         varListStr = varListStr.substring(varListStr.indexOf(':') + 1).trim();
         if (varListStr.isEmpty())
             return;
-        String[] varNames = varListStr.split("[\\s,]+");
+        String[] varNames = IRLexer.split(varListStr, false);
         for (String varName : varNames) {
             IRVariableOperand irVar;
-            Matcher m = arrayPattern.matcher(varName);
-            if (m.matches()) { // Array
-                int size = Integer.parseInt(m.group(2));
+            int sizeStart = IRLexer.arraySizeStart(varName);
+            if (sizeStart >= 0) { // Array
+                int size = Integer.parseInt(varName.substring(sizeStart + 1, varName.length() - 1));
                 if (size <= 0)
                     throw new IRException(String.format("Invalid array size '%d'", size), varListLine.lineNumber);
                 IRType arrayType = IRArrayType.get(elementType, size);
-                String arrayName = m.group(1);
-                if (!varNamePattern.matcher(arrayName).matches())
+                String arrayName = varName.substring(0, sizeStart);
+                if (!IRLexer.isName(arrayName))
                     throw new IRException(String.format("Invalid variable name '%s'", arrayName), varListLine.lineNumber);
                 irVar = new IRVariableOperand(arrayType, arrayName, null);
             } else {
-                if (!varNamePattern.matcher(varName).matches())
+                if (!IRLexer.isName(varName))
                     throw new IRException(String.format("Invalid variable name '%s'", varName), varListLine.lineNumber);
                 irVar = new IRVariableOperand(elementType, varName, null);
             }
@@ -306,7 +501,7 @@ public class IRReader {
     }
 
     private IRInstruction parseInstruction(IRLine irLine,
-                                           Map<String, IRVariableOperand> variableMap) throws IRException {
+                                           IRSymbolTable symbols) throws IRException {
         String line = irLine.line;
         int lineNumber = irLine.lineNumber;
 
@@ -323,12 +518,14 @@ public class IRReader {
         }
 
         // Parse opcode
-        String[] tokens = line.split("[,\\s]+");
-        IRInstruction.OpCode opCode;
-        try {
-            opCode = IRInstruction.OpCode.valueOf(tokens[0].toUpperCase());
-        } catch (IllegalArgumentException e) {
-            throw new IRException(String.format("Invalid OpCode '%s'", tokens[0]), lineNumber);
+        String[] tokens = IRLexer.split(line, false);
+        IRInstruction.OpCode opCode = opCodes.get(tokens[0]);
+        if (opCode == null) {
+            try {
+                opCode = IRInstruction.OpCode.valueOf(tokens[0].toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IRException(String.format("Invalid OpCode '%s'", tokens[0]), lineNumber);
+            }
         }
         instruction.opCode = opCode;
 
@@ -337,7 +534,7 @@ public class IRReader {
         switch (opCode) {
             case ASSIGN: {
                 if (tokens.length > 3) {
-                    getConstantOrVariableOperands(instruction, operands, tokens, 1, 3, variableMap, lineNumber);
+                    getConstantOrVariableOperands(instruction, operands, tokens, 1, 3, symbols, lineNumber);
                     IRType t0 = getDataType(operands.get(0));
                     IRType t1 = getDataType(operands.get(1));
                     IRType t2 = getDataType(operands.get(2));
@@ -346,7 +543,7 @@ public class IRReader {
                             && ((IRArrayType) t0).getElementType() == t2))
                         throw new IRException("Invalid operand", instruction.irLineNumber);
                 } else {
-                    getConstantOrVariableOperands(instruction, operands, tokens, 1, 2, variableMap, lineNumber);
+                    getConstantOrVariableOperands(instruction, operands, tokens, 1, 2, symbols, lineNumber);
                     IRType t0 = getDataType(operands.get(0));
                     IRType t1 = getDataType(operands.get(1));
                     if (t0 instanceof IRArrayType || t0 != t1)
@@ -360,7 +557,7 @@ public class IRReader {
             case DIV:
             case AND:
             case OR: {
-                getConstantOrVariableOperands(instruction, operands, tokens, 1, 3, variableMap, lineNumber);
+                getConstantOrVariableOperands(instruction, operands, tokens, 1, 3, symbols, lineNumber);
                 IRType t0 = getDataType(operands.get(0));
                 IRType t1 = getDataType(operands.get(1));
                 IRType t2 = getDataType(operands.get(2));
@@ -379,7 +576,7 @@ public class IRReader {
             case BRGT:
             case BRGEQ: {
                 operands.add(new IRLabelOperand(tokens[1], instruction));
-                getConstantOrVariableOperands(instruction, operands, tokens, 2, 3, variableMap, lineNumber);
+                getConstantOrVariableOperands(instruction, operands, tokens, 2, 3, symbols, lineNumber);
                 IRType t1 = getDataType(operands.get(1));
                 IRType t2 = getDataType(operands.get(2));
                 if (t1 instanceof IRArrayType || t1 != t2)
@@ -387,7 +584,7 @@ public class IRReader {
                 break;
             }
             case RETURN: {
-                getConstantOrVariableOperands(instruction, operands, tokens, 1, 1, variableMap, lineNumber);
+                getConstantOrVariableOperands(instruction, operands, tokens, 1, 1, symbols, lineNumber);
                 IRType t0 = getDataType(operands.get(0));
                 if (t0 instanceof IRArrayType)
                     throw new IRException("Invalid operand", instruction.irLineNumber);
@@ -395,20 +592,20 @@ public class IRReader {
             }
             case CALL: {
                 operands.add(new IRFunctionOperand(tokens[1], instruction));
-                getConstantOrVariableOperands(instruction, operands, tokens, 2, tokens.length - 1, variableMap, lineNumber);
+                getConstantOrVariableOperands(instruction, operands, tokens, 2, tokens.length - 1, symbols, lineNumber);
                 break;
             }
             case CALLR: {
-                getConstantOrVariableOperands(instruction, operands, tokens, 1, 1, variableMap, lineNumber);
+                getConstantOrVariableOperands(instruction, operands, tokens, 1, 1, symbols, lineNumber);
                 operands.add(new IRFunctionOperand(tokens[2], instruction));
-                getConstantOrVariableOperands(instruction, operands, tokens, 3, tokens.length - 1, variableMap, lineNumber);
+                getConstantOrVariableOperands(instruction, operands, tokens, 3, tokens.length - 1, symbols, lineNumber);
                 IRType t0 = getDataType(operands.get(0));
                 if (!(operands.get(0) instanceof IRVariableOperand) || t0 instanceof IRArrayType)
                     throw new IRException("Invalid operand", instruction.irLineNumber);
                 break;
             }
             case ARRAY_STORE: {
-                getConstantOrVariableOperands(instruction, operands, tokens, 1, 3, variableMap, lineNumber);
+                getConstantOrVariableOperands(instruction, operands, tokens, 1, 3, symbols, lineNumber);
                 IRType t0 = getDataType(operands.get(0));
                 IRType t1 = getDataType(operands.get(1));
                 IRType t2 = getDataType(operands.get(2));
@@ -419,7 +616,7 @@ public class IRReader {
                 break;
             }
             case ARRAY_LOAD: {
-                getConstantOrVariableOperands(instruction, operands, tokens, 1, 3, variableMap, lineNumber);
+                getConstantOrVariableOperands(instruction, operands, tokens, 1, 3, symbols, lineNumber);
                 IRType t0 = getDataType(operands.get(0));
                 IRType t1 = getDataType(operands.get(1));
                 IRType t2 = getDataType(operands.get(2));
@@ -440,28 +637,24 @@ public class IRReader {
     private void getConstantOrVariableOperands(IRInstruction instruction,
                                                List<IROperand> operands,
                                                String[] tokens, int startIdx, int endIdx,
-                                               Map<String, IRVariableOperand> variableMap,
+                                               IRSymbolTable symbols,
                                                int lineNumber) throws IRException {
         for (int i = startIdx; i <= endIdx; i++) {
             String token = tokens[i];
-            if (isConstant(token)) {
+            if (IRLexer.isConstant(token)) {
                 if (token.indexOf('.') >= 0)
                     operands.add(new IRConstantOperand(IRFloatType.get(), token, instruction));
                 else
                     operands.add(new IRConstantOperand(IRIntType.get(), token, instruction));
             } else {
-                if (!variableMap.containsKey(token))
+                IRSymbol symbol = symbols.get(token);
+                if (symbol == null)
                     throw new IRException(String.format("Variable '%s' used without definition", token), lineNumber);
-                IRVariableOperand variable = variableMap.get(token);
-                operands.add(new IRVariableOperand(variable.type, variable.getName(), instruction));
+                operands.add(symbols.operand(symbol));
             }
         }
     }
 
-    private boolean isConstant(String s) {
-        return s.matches("^-?\\d+(\\.\\d*)?$");
-    }
-
     private IRType getDataType(IROperand x) {
         if (x instanceof IRConstantOperand)
             return ((IRConstantOperand) x).type;
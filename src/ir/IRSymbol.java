@@ -0,0 +1,29 @@
+package ir;
+
+import ir.datatype.IRType;
+
+/**
+ * A variable of an IRFunction, shared by its declaration and by every operand that refers to it.
+ *
+ * Symbols are interned per function, so two operands name the same variable exactly when they
+ * hold the same symbol. The id is the index of the symbol in the function's IRSymbolTable.
+ */
+public final class IRSymbol {
+
+    public final String name;
+
+    public final IRType type;
+
+    public final int id;
+
+    IRSymbol(String name, IRType type, int id) {
+        this.name = name;
+        this.type = type;
+        this.id = id;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,70 @@
+package ir;
+
+import ir.operand.IRVariableOperand;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The symbols of the variables of an IRFunction, with dense ids starting at 0: first the
+ * parameters in declaration order, then the other variables in the order of IRFunction.variables.
+ *
+ * Analyses can keep per-variable state in an array of size() indexed by IRSymbol.id.
+ */
+public class IRSymbolTable {
+
+    private final List<IRSymbol> symbols = new ArrayList<>();
+
+    private final Map<String, IRSymbol> symbolMap = new HashMap<>();
+
+    // The operand of each symbol, by id
+    private final List<IRVariableOperand> operands = new ArrayList<>();
+
+    private final int parameterCount;
+
+    // Creates a symbol for every parameter and variable and binds the declarations to it
+    public IRSymbolTable(List<IRVariableOperand> parameters, List<IRVariableOperand> variables) {
+        for (IRVariableOperand param : parameters)
+            bind(param);
+        parameterCount = symbols.size();
+        // IRFunction.variables includes the parameters, which keep their symbols
+        for (IRVariableOperand variable : variables)
+            bind(variable);
+    }
+
+    private void bind(IRVariableOperand variable) {
+        IRSymbol symbol = symbolMap.get(variable.getName());
+        if (symbol == null) {
+            symbol = new IRSymbol(variable.getName(), variable.type, symbols.size());
+            symbols.add(symbol);
+            symbolMap.put(symbol.name, symbol);
+            operands.add(variable);
+        }
+        variable.symbol = symbol;
+    }
+
+    public int size() {
+        return symbols.size();
+    }
+
+    public IRSymbol get(int id) {
+        return symbols.get(id);
+    }
+
+    // The symbol of a variable name, or null if the function has no such variable
+    public IRSymbol get(String name) {
+        return symbolMap.get(name);
+    }
+
+    // The operand that every instruction referring to the variable holds: its first declaration.
+    // Sharing it keeps an operand occurrence down to one array element.
+    public IRVariableOperand operand(IRSymbol symbol) {
+        return operands.get(symbol.id);
+    }
+
+    public boolean isParameter(IRSymbol symbol) {
+        return symbol.id < parameterCount;
+    }
+}
@@ -2,14 +2,11 @@ package ir.datatype;
 
 public class IRFloatType extends IRType {
 
-    private static IRFloatType instance;
+    private static final IRFloatType instance = new IRFloatType();
 
     private IRFloatType() {}
 
     public static IRFloatType get() {
-        if (instance == null) {
-            instance = new IRFloatType();
-        }
         return instance;
     }
 
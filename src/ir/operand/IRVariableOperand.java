@@ -1,12 +1,18 @@
 package ir.operand;
 
 import ir.IRInstruction;
+import ir.IRSymbol;
 import ir.datatype.IRType;
 
 public class IRVariableOperand extends IROperand {
 
     public IRType type;
 
+    // The variable this operand refers to, set once the function's IRSymbolTable is built.
+    // Instructions share the operand of the variable's declaration (see IRSymbolTable.operand),
+    // so the parent of a variable operand is always null.
+    public IRSymbol symbol;
+
     public IRVariableOperand(IRType type, String name, IRInstruction parent) {
         super(name, parent);
         this.type = type;